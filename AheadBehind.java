@@ -0,0 +1,247 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ * Ahead/behind counts for many (tip, base) pairs in one history walk,
+ * the way `git for-each-ref --format=%(ahead-behind:...)` does it.
+ *
+ * Every tip gets a bit. Bits flow from each commit to its parents, newest
+ * generation first, so a commit ends up with the set of tips that reach
+ * it; tip is ahead of base by the commits carrying tip's bit but not
+ * base's. The walk stops once every commit still queued carries the same
+ * bits for both sides of every pair, since nothing below it can differ.
+ *
+ * Commits in the commit-graph are ordered by topological level and never
+ * opened. Anything newer than the graph, or everything when there is no
+ * graph, is read through the object database and ordered by commit time;
+ * a commit whose bits grow after it was walked (clock skew) is walked
+ * again. Results are cached per pair of tip ids, which never go stale.
+ */
+class AheadBehind implements Closeable {
+
+    private static final int CACHED_PAIRS = 4096;
+
+    private final GitObjectDatabase db;
+    private final File objectDir;
+    private CommitGraph graph;
+    private long graphStamp;
+    private final LinkedHashMap<String, int[]> cache = new LinkedHashMap<String, int[]>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, int[]> eldest) {
+            return size() > CACHED_PAIRS;
+        }
+    };
+
+    // One commit in the walk
+    private static final class Node {
+        final int pos;          // in the commit-graph, or -1
+        final String id;        // hex id when not in the graph
+        final long level;       // topological level; MAX_VALUE outside the graph
+        final long time;
+        long[] bits;
+        boolean queued;
+        boolean walked;
+
+        Node(int pos, String id, long level, long time, int words) {
+            this.pos = pos;
+            this.id = id;
+            this.level = level;
+            this.time = time;
+            this.bits = new long[words];
+        }
+    }
+
+    AheadBehind(GitObjectDatabase db) {
+        this.db = db;
+        this.objectDir = new File(db.getCommonDir(), "objects");
+    }
+
+    /**
+     * {ahead, behind} of pairs[i][0] relative to pairs[i][1], both hex
+     * commit ids. A pair with a null side gets null.
+     */
+    synchronized int[][] counts(String[][] pairs) throws IOException {
+        int[][] result = new int[pairs.length][];
+        List<Integer> todo = new ArrayList<>();
+        for (int i = 0; i < pairs.length; i++) {
+            String[] p = pairs[i];
+            if (p[0] == null || p[1] == null) continue;
+            if (p[0].equals(p[1])) {
+                result[i] = new int[2];
+                continue;
+            }
+            result[i] = cache.get(p[0] + " " + p[1]);
+            if (result[i] == null) todo.add(i);
+        }
+        if (todo.isEmpty()) return result;
+
+        // Give each distinct tip a bit
+        Map<String, Integer> bitOf = new LinkedHashMap<>();
+        int[][] pairBits = new int[todo.size()][2];
+        for (int t = 0; t < todo.size(); t++) {
+            String[] p = pairs[todo.get(t)];
+            for (int side = 0; side < 2; side++) {
+                Integer bit = bitOf.get(p[side]);
+                if (bit == null) {
+                    bit = bitOf.size();
+                    bitOf.put(p[side], bit);
+                }
+                pairBits[t][side] = bit;
+            }
+        }
+        int[][] found = walk(new ArrayList<>(bitOf.keySet()), pairBits);
+        for (int t = 0; t < todo.size(); t++) {
+            int i = todo.get(t);
+            result[i] = found[t];
+            cache.put(pairs[i][0] + " " + pairs[i][1], found[t]);
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (graph != null) graph.close();
+        graph = null;
+    }
+
+    // ==================== WALK ====================
+
+    private int[][] walk(List<String> tips, int[][] pairBits) throws IOException {
+        CommitGraph g = graph();
+        int words = (tips.size() + 63) / 64;
+        Map<Object, Node> nodes = new HashMap<>();
+        PriorityQueue<Node> queue = new PriorityQueue<>((a, b) -> {
+            if (a.level != b.level) return Long.compare(b.level, a.level);
+            return Long.compare(b.time, a.time);
+        });
+        // Stop as soon as every queued node is settled, unless the order can't be trusted
+        boolean canStop = g == null || g.hasLevels();
+        int[] interestingQueued = new int[1];
+
+        for (int bit = 0; bit < tips.size(); bit++) {
+            Node n = node(nodes, g, tips.get(bit), words);
+            setBits(n, bit(words, bit), queue, pairBits, interestingQueued);
+        }
+
+        int[] parents = new int[8];
+        List<Node> walked = new ArrayList<>();
+        while (!queue.isEmpty()) {
+            if (canStop && interestingQueued[0] == 0) break;
+            Node n = queue.poll();
+            n.queued = false;
+            if (interesting(n.bits, pairBits)) interestingQueued[0]--;
+            if (!n.walked) {
+                n.walked = true;
+                walked.add(n);
+            }
+
+            if (n.pos >= 0) {
+                parents = g.parents(n.pos, parents);
+                for (int i = 1; i <= parents[0]; i++) {
+                    Node p = nodes.get(parents[i]);
+                    if (p == null) {
+                        p = graphNode(g, parents[i], words);
+                        nodes.put(parents[i], p);
+                    }
+                    setBits(p, n.bits, queue, pairBits, interestingQueued);
+                }
+            } else {
+                for (String parentId : db.readCommit(n.id).parents) {
+                    setBits(node(nodes, g, parentId, words), n.bits, queue, pairBits, interestingQueued);
+                }
+            }
+        }
+
+        int[][] counts = new int[pairBits.length][2];
+        for (Node n : walked) {
+            for (int t = 0; t < pairBits.length; t++) {
+                boolean tip = has(n.bits, pairBits[t][0]);
+                boolean base = has(n.bits, pairBits[t][1]);
+                if (tip && !base) counts[t][0]++;
+                else if (base && !tip) counts[t][1]++;
+            }
+        }
+        return counts;
+    }
+
+    // ORs bits into n, queueing it (again) if that added anything
+    private static void setBits(Node n, long[] bits, PriorityQueue<Node> queue,
+            int[][] pairBits, int[] interestingQueued) {
+        boolean wasInteresting = n.queued && interesting(n.bits, pairBits);
+        boolean changed = false;
+        for (int w = 0; w < bits.length; w++) {
+            long merged = n.bits[w] | bits[w];
+            if (merged != n.bits[w]) {
+                n.bits[w] = merged;
+                changed = true;
+            }
+        }
+        if (!changed) return;
+        if (n.queued) {
+            boolean nowInteresting = interesting(n.bits, pairBits);
+            if (nowInteresting != wasInteresting) interestingQueued[0] += nowInteresting ? 1 : -1;
+            return;
+        }
+        n.queued = true;
+        queue.add(n);
+        if (interesting(n.bits, pairBits)) interestingQueued[0]++;
+    }
+
+    // Still separates some tip from its base
+    private static boolean interesting(long[] bits, int[][] pairBits) {
+        for (int[] pair : pairBits) {
+            if (has(bits, pair[0]) != has(bits, pair[1])) return true;
+        }
+        return false;
+    }
+
+    private Node node(Map<Object, Node> nodes, CommitGraph g, String id, int words) throws IOException {
+        if (g != null) {
+            int pos = g.find(GitObjectDatabase.fromHex(id));
+            if (pos >= 0) {
+                Node n = nodes.get(pos);
+                if (n == null) {
+                    n = graphNode(g, pos, words);
+                    nodes.put(pos, n);
+                }
+                return n;
+            }
+        }
+        Node n = nodes.get(id);
+        if (n == null) {
+            // Newer than the graph, so above everything in it
+            n = new Node(-1, id, Long.MAX_VALUE, db.readCommit(id).commitTime, words);
+            nodes.put(id, n);
+        }
+        return n;
+    }
+
+    private static Node graphNode(CommitGraph g, int pos, int words) {
+        return new Node(pos, null, g.level(pos), g.commitTime(pos), words);
+    }
+
+    // The graph, reopened when git has rewritten it
+    private CommitGraph graph() {
+        long stamp = CommitGraph.stamp(objectDir);
+        if (graph != null && stamp == graphStamp) return graph;
+        if (graph != null) graph.close();
+        graph = null;
+        graphStamp = stamp;
+        try {
+            graph = CommitGraph.open(objectDir);
+        } catch (IOException e) {
+            // Unreadable or a newer format: walk the commits instead
+        }
+        return graph;
+    }
+
+    private static long[] bit(int words, int bit) {
+        long[] bits = new long[words];
+        bits[bit >>> 6] |= 1L << bit;
+        return bits;
+    }
+
+    private static boolean has(long[] bits, int bit) {
+        return (bits[bit >>> 6] & (1L << bit)) != 0;
+    }
+}
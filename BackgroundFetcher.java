@@ -0,0 +1,263 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Fetches the open repository's remotes in the background, so Pull only
+ * has to merge or rebase what is already here.
+ *
+ * A fetch is `git fetch --prune` run next to the repository's queue rather
+ * than in it, never prompting for credentials, and skipped for now while
+ * something else is queued or running there. The interval starts at the
+ * base and doubles with each failure in a row and with each idle period
+ * since the user last touched the window, up to the maximum; coming back
+ * from idle brings the next fetch forward again. Each repository's last
+ * fetch time is kept, starting from FETCH_HEAD's mtime, so it survives a
+ * restart.
+ *
+ * Off by default; -Dsimplegit.fetch.interval (seconds) turns it on.
+ */
+class BackgroundFetcher implements Closeable {
+
+    /** Base interval in seconds, 0 when background fetching is off. */
+    static final long INTERVAL_SECONDS = Long.getLong("simplegit.fetch.interval", 0);
+
+    static final long MAX_INTERVAL_MILLIS = 60 * 60_000;
+    /** No input for this long counts as one idle period. */
+    static final long IDLE_MILLIS = 10 * 60_000;
+
+    private static final long BUSY_RETRY_MILLIS = 15_000;
+    private static final int MAX_DOUBLINGS = 6;
+
+    interface Listener {
+        /** Off the EDT after each background fetch; {@code changed} when it brought anything in. */
+        void fetched(File repo, Status status, boolean changed);
+    }
+
+    /** Where a repository stands; times are epoch millis, 0 for never. */
+    static final class Status {
+        final long lastFetch;
+        final long nextFetch;
+        final int failures;
+        final String error;    // the last attempt's, or null if it worked
+
+        Status(long lastFetch, long nextFetch, int failures, String error) {
+            this.lastFetch = lastFetch;
+            this.nextFetch = nextFetch;
+            this.failures = failures;
+            this.error = error;
+        }
+    }
+
+    private static final class RepoState {
+        File fetchHead;         // null when the git directory can't be found
+        long lastFetch;
+        long lastAttempt;
+        long nextFetch;
+        int failures;
+        String error;
+        ScheduledFuture<?> pending;
+    }
+
+    private final GitProcessPool pool;
+    private final TaskScheduler tasks;
+    private final Listener listener;
+    private final long baseMillis;
+    private final long maxMillis;
+    private final long idleMillis;
+    private final ScheduledExecutorService timer;
+    // Guarded by this
+    private final Map<File, RepoState> states = new HashMap<>();
+    private File current;
+    private boolean closed;
+    private volatile long lastActivity = System.currentTimeMillis();
+
+    BackgroundFetcher(GitProcessPool pool, TaskScheduler tasks, long baseMillis, long maxMillis, long idleMillis,
+            Listener listener) {
+        this.pool = pool;
+        this.tasks = tasks;
+        this.baseMillis = baseMillis;
+        this.maxMillis = maxMillis;
+        this.idleMillis = idleMillis;
+        this.listener = listener;
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "background-fetch");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /** Fetches {@code repo} from now on instead of the previous one; null stops fetching. */
+    synchronized void setRepository(File repo) {
+        File next = repo == null ? null : repo.getAbsoluteFile();
+        if (Objects.equals(next, current)) return;
+        if (current != null) cancelPending(states.get(current));
+        current = next;
+        if (next == null || closed) return;
+        RepoState state = state(next);
+        long now = System.currentTimeMillis();
+        schedule(next, state, Math.max(0, state.lastFetch + baseMillis - now));
+    }
+
+    /** The user did something: no idle backoff, and an idle-delayed fetch comes forward. */
+    void touch() {
+        long now = System.currentTimeMillis();
+        long before = lastActivity;
+        lastActivity = now;
+        if (now - before < idleMillis) return;
+        synchronized (this) {
+            if (current == null || closed) return;
+            RepoState state = state(current);
+            long due = Math.max(state.lastAttempt + interval(state.failures, 0), now);
+            if (state.pending != null && state.nextFetch > due) {
+                schedule(current, state, due - now);
+            }
+        }
+    }
+
+    synchronized Status status(File repo) {
+        RepoState state = state(repo.getAbsoluteFile());
+        return new Status(state.lastFetch, state.nextFetch, state.failures, state.error);
+    }
+
+    /** True when the last successful fetch is recent enough for Pull to skip its own. */
+    boolean isFresh(File repo) {
+        Status s = status(repo);
+        return s.error == null && s.lastFetch > 0 && System.currentTimeMillis() - s.lastFetch <= 2 * baseMillis;
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            for (RepoState state : states.values()) cancelPending(state);
+        }
+        timer.shutdownNow();
+    }
+
+    /**
+     * What `git pull` would run after its fetch: a rebase or a merge of the
+     * upstream, following branch.<name>.rebase, pull.rebase and pull.ff.
+     * Null when the branch has no upstream.
+     */
+    static String[] integrateCommand(GitProcessPool pool, File repo) {
+        String branch = output(pool, repo, "symbolic-ref", "--short", "-q", "HEAD");
+        if (branch == null || output(pool, repo, "rev-parse", "--verify", "-q", "@{upstream}") == null) return null;
+        String rebase = output(pool, repo, "config", "--get", "branch." + branch + ".rebase");
+        if (rebase == null) rebase = output(pool, repo, "config", "--get", "pull.rebase");
+        if (rebase != null && !rebase.equals("false")) {
+            return rebase.equals("merges") ? new String[] { "rebase", "--rebase-merges" } : new String[] { "rebase" };
+        }
+        String ff = output(pool, repo, "config", "--get", "pull.ff");
+        if ("only".equals(ff)) return new String[] { "merge", "--ff-only", "@{upstream}" };
+        if ("false".equals(ff)) return new String[] { "merge", "--no-ff", "@{upstream}" };
+        return new String[] { "merge", "@{upstream}" };
+    }
+
+    // ==================== INTERNALS ====================
+
+    // Base, doubled per failure in a row and per idle period, capped
+    private long interval(int failures, long idleFor) {
+        long doublings = failures + (idleMillis > 0 ? idleFor / idleMillis : 0);
+        return Math.min(maxMillis, baseMillis << Math.min(doublings, MAX_DOUBLINGS));
+    }
+
+    private RepoState state(File repo) {
+        return states.computeIfAbsent(repo, r -> {
+            RepoState state = new RepoState();
+            try {
+                state.fetchHead = new File(GitObjectDatabase.findWorkTreeGitDir(r), "FETCH_HEAD");
+                state.lastFetch = state.fetchHead.lastModified();
+            } catch (IOException e) {
+                // Not a repository (any more): the fetch itself will say so
+            }
+            return state;
+        });
+    }
+
+    private void schedule(File repo, RepoState state, long delayMillis) {
+        cancelPending(state);
+        state.nextFetch = System.currentTimeMillis() + delayMillis;
+        try {
+            state.pending = timer.schedule(() -> due(repo), delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            state.pending = null;    // closing
+        }
+    }
+
+    private static void cancelPending(RepoState state) {
+        if (state != null && state.pending != null) {
+            state.pending.cancel(false);
+            state.pending = null;
+        }
+    }
+
+    private void due(File repo) {
+        RepoState state;
+        synchronized (this) {
+            if (closed || !repo.equals(current)) return;
+            state = state(repo);
+            state.pending = null;
+            // The user's own work goes first; try again shortly
+            if (tasks.isBusy(repo)) {
+                schedule(repo, state, Math.min(BUSY_RETRY_MILLIS, baseMillis));
+                return;
+            }
+            state.lastAttempt = System.currentTimeMillis();
+        }
+        File fetchHead = state.fetchHead;
+        boolean[] changed = new boolean[1];
+        // Off the repository's queue: a slow remote must not hold up the user's own work
+        TaskScheduler.Task task = tasks.submitRead("Background fetch", () -> {
+            if (output(pool, repo, "remote") == null) throw new IOException("no remote to fetch from");
+            byte[] before = readIfExists(fetchHead);
+            pool.runUnattended(repo, in -> {}, "fetch", "--prune", "--quiet", "--no-recurse-submodules");
+            changed[0] = !Arrays.equals(before, readIfExists(fetchHead));
+        });
+        task.completion().whenComplete((ok, error) -> finished(repo, error, changed[0]));
+    }
+
+    private void finished(File repo, Throwable error, boolean changed) {
+        Status status;
+        synchronized (this) {
+            if (closed) return;
+            RepoState state = state(repo);
+            if (error instanceof CancellationException) {
+                // Cancelled with everything else: not the remote's fault
+            } else if (error != null) {
+                state.failures++;
+                state.error = error.getMessage();
+            } else {
+                state.failures = 0;
+                state.error = null;
+                state.lastFetch = System.currentTimeMillis();
+            }
+            if (repo.equals(current)) {
+                schedule(repo, state, interval(state.failures, System.currentTimeMillis() - lastActivity));
+            }
+            status = new Status(state.lastFetch, state.nextFetch, state.failures, state.error);
+        }
+        listener.fetched(repo, status, changed);
+    }
+
+    // Trimmed stdout, or null when git failed or printed nothing
+    private static String output(GitProcessPool pool, File repo, String... args) {
+        try {
+            String out = new String(pool.runRaw(repo, args), StandardCharsets.UTF_8).trim();
+            return out.isEmpty() ? null : out;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static byte[] readIfExists(File file) throws IOException {
+        if (file == null) return null;
+        try {
+            return Files.readAllBytes(file.toPath());
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+}
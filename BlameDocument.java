@@ -0,0 +1,192 @@
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * One file's blame at one commit: the file as it is in that commit, read
+ * up front, and for every line the commit it came from, filled in range
+ * by range as `git blame --incremental` reports them. Lines not reached
+ * yet have no commit.
+ *
+ * Text is kept as the blob's bytes plus a start offset per line, and
+ * commits as small ints into a table, so a blame costs little more than
+ * the file. The loading thread writes while the EDT reads, so every access
+ * is synchronized.
+ */
+class BlameDocument {
+
+    static final int MAX_LINE_CHARS = DiffDocument.MAX_LINE_CHARS;
+    private static final int TAB_WIDTH = 4;
+
+    /** A commit lines were blamed on; time is epoch seconds. */
+    static final class Origin {
+        final String id;
+        final String author;
+        final long time;
+        final String summary;
+
+        Origin(String id, String author, long time, String summary) {
+            this.id = id;
+            this.author = author;
+            this.time = time;
+            this.summary = summary;
+        }
+    }
+
+    final String path;
+    final String commit;
+    private final byte[] data;
+    private final int[] lineStart;
+    private final int lines;
+    private final int[] origin;
+    private final List<Origin> origins = new ArrayList<>();
+    private final Map<String, Integer> originIndex = new HashMap<>();
+    private final int widest;
+    private int blamed;
+    private int reused;
+    private String reusedFrom;
+    private boolean complete;
+    private String error;
+
+    BlameDocument(String path, String commit, byte[] content) {
+        this.path = path;
+        this.commit = commit;
+        this.data = content;
+        int count = 0;
+        for (byte b : content) {
+            if (b == '\n') count++;
+        }
+        if (content.length > 0 && content[content.length - 1] != '\n') count++;
+        lines = count;
+        lineStart = new int[count + 1];
+        int line = 0;
+        int w = 0;
+        for (int i = 0; i < content.length; i++) {
+            if (content[i] != '\n') continue;
+            w = Math.max(w, i - lineStart[line]);
+            lineStart[++line] = i + 1;
+        }
+        if (line < count) {
+            w = Math.max(w, content.length - lineStart[line]);
+            lineStart[count] = content.length + 1;
+        }
+        widest = Math.min(w, MAX_LINE_CHARS);
+        origin = new int[count];
+        Arrays.fill(origin, -1);
+    }
+
+    // ==================== WRITING ====================
+
+    /** Lines [from, from + count) came from {@code o}; from is 0-based. */
+    synchronized void assign(Origin o, int from, int count) {
+        Integer index = originIndex.get(o.id);
+        if (index == null) {
+            index = origins.size();
+            origins.add(o);
+            originIndex.put(o.id, index);
+        }
+        int end = Math.min(from + count, lines);
+        for (int i = Math.max(0, from); i < end; i++) {
+            if (origin[i] < 0) blamed++;
+            origin[i] = index;
+        }
+    }
+
+    /**
+     * Lines [from, from + count) are lines [sourceFrom, ...) of {@code older},
+     * the same file at an earlier commit, unchanged since: they keep its blame.
+     */
+    void copy(BlameDocument older, int sourceFrom, int from, int count) {
+        for (int k = 0; k < count; k++) {
+            Origin o = older.originAt(sourceFrom + k);
+            if (o != null) assign(o, from + k, 1);
+        }
+        synchronized (this) {
+            reused += count;
+            reusedFrom = older.commit;
+        }
+    }
+
+    synchronized void finish(String error) {
+        this.error = error;
+        complete = true;
+    }
+
+    // ==================== READING ====================
+
+    synchronized int lineCount() {
+        return lines;
+    }
+
+    synchronized int blamedLines() {
+        return blamed;
+    }
+
+    /** Lines taken over from an earlier blame, and that blame's commit. */
+    synchronized int reusedLines() {
+        return reused;
+    }
+
+    synchronized String reusedFrom() {
+        return reusedFrom;
+    }
+
+    synchronized int originCount() {
+        return origins.size();
+    }
+
+    /** The commit line i came from, or null if not known yet. */
+    synchronized Origin originAt(int i) {
+        return i < 0 || i >= lines || origin[i] < 0 ? null : origins.get(origin[i]);
+    }
+
+    /** Oldest and newest commit time, for shading by age. */
+    synchronized long[] timeRange() {
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (Origin o : origins) {
+            min = Math.min(min, o.time);
+            max = Math.max(max, o.time);
+        }
+        return new long[] { min, max };
+    }
+
+    synchronized int widest() {
+        return widest;
+    }
+
+    synchronized boolean isComplete() {
+        return complete;
+    }
+
+    synchronized String error() {
+        return error;
+    }
+
+    synchronized String text(int i) {
+        int start = lineStart[i];
+        int end = Math.max(start, Math.min(lineStart[i + 1] - 1, data.length));
+        if (end > start && data[end - 1] == '\r') end--;
+        int len = Math.min(end - start, MAX_LINE_CHARS * 4);
+        String s = new String(data, start, len, StandardCharsets.UTF_8);
+        if (s.indexOf('\t') >= 0) s = expandTabs(s);
+        return s.length() > MAX_LINE_CHARS ? s.substring(0, MAX_LINE_CHARS) + " …" : s;
+    }
+
+    private static String expandTabs(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 16);
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\t') {
+                do sb.append(' '); while (sb.length() % TAB_WIDTH != 0);
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /** Roughly what this document holds on to. */
+    synchronized long heapBytes() {
+        return data.length + 8L * lines + 128L * origins.size();
+    }
+}
@@ -0,0 +1,525 @@
+import javax.swing.*;
+import javax.swing.event.*;
+import java.awt.*;
+import java.awt.event.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.*;
+
+/**
+ * The Blame tab's content: who last changed each line of a file, at a
+ * revision. The file is shown at once and `git blame --incremental` is
+ * read as it runs, so the commits of recent lines appear long before git
+ * has walked back to the oldest ones.
+ *
+ * Finished blames are cached by commit and path. Blaming a commit that
+ * has a cached blame among its recent ancestors only asks git about the
+ * commits in between: lines git traces back to the older commit take
+ * their blame from the cached one.
+ */
+class BlameView extends JComponent implements Scrollable {
+
+    private static final long CACHE_BYTES = 64L << 20;
+    // How far back to look for a cached blame to build on
+    private static final int NEARBY_COMMITS = 1000;
+    private static final int POLL_MILLIS = 100;
+    private static final int PAD = 8;
+    private static final int AUTHOR_CHARS = 14;
+
+    private static final Color GUTTER_BG = new Color(36, 36, 36);
+    private static final Color GUTTER_FG = new Color(150, 150, 150);
+    private static final Color NUMBER_FG = new Color(110, 110, 110);
+    private static final Color RUN_LINE = new Color(52, 52, 52);
+    private static final Color SELECTED_BG = new Color(38, 44, 62);
+    private static final Color OLD_COMMIT = new Color(60, 70, 110);
+    private static final Color NEW_COMMIT = new Color(230, 160, 60);
+    private static final Color NOTE_FG = new Color(150, 150, 150);
+
+    /** A file at a revision, as typed: "HEAD", a branch, an id, "HEAD~3". */
+    private static final class Request {
+        final File repo;
+        final GitObjectDatabase db;
+        final String path;
+        final String revision;
+
+        Request(File repo, GitObjectDatabase db, String path, String revision) {
+            this.repo = repo;
+            this.db = db;
+            this.path = path;
+            this.revision = revision;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Request)) return false;
+            Request r = (Request) o;
+            return repo.equals(r.repo) && path.equals(r.path) && revision.equals(r.revision);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(repo, path, revision);
+        }
+    }
+
+    /** One range of `git blame --incremental` output; lines are 1-based, as git prints them. */
+    private static final class Entry {
+        BlameDocument.Origin origin;
+        int sourceLine;
+        int resultLine;
+        int count;
+        String filename;
+        boolean boundary;      // the range's edge, not where the lines came from
+    }
+
+    private interface EntrySink {
+        void accept(Entry e);
+    }
+
+    private final GitProcessPool pool;
+    private final TaskScheduler tasks;
+    // Most recently used last; guarded by itself since loads add from their own threads
+    private final LinkedHashMap<String, BlameDocument> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private final javax.swing.Timer poll = new javax.swing.Timer(POLL_MILLIS, e -> poll());
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+
+    // EDT only
+    private Request current;
+    private TaskScheduler.Task loading;
+    private Request loadingRequest;
+    private BlameDocument shown;
+    private String loadError;
+    private int shownBlamed = -1;
+    private int selectedLine = -1;
+
+    BlameView(GitProcessPool pool, TaskScheduler tasks) {
+        this.pool = pool;
+        this.tasks = tasks;
+        setOpaque(true);
+        setFocusable(true);
+        ToolTipManager.sharedInstance().registerComponent(this);
+        addMouseListener(new MouseAdapter() {
+            @Override
+            public void mousePressed(MouseEvent e) {
+                selectedLine = e.getY() / lineHeight();
+                requestFocusInWindow();
+                repaint();
+                fireStateChanged();
+            }
+        });
+    }
+
+    // ==================== LOADING ====================
+
+    /**
+     * Blames {@code path} as of {@code revision}, from the cache if it was
+     * blamed at that commit before. The revision is resolved again each
+     * time, so "HEAD" follows new commits.
+     */
+    void show(File repo, GitObjectDatabase db, String path, String revision) {
+        Request r = new Request(repo, db, path, revision);
+        current = r;
+        // Clicking the file being loaded again shouldn't start it over
+        if (r.equals(loadingRequest) && !loading.completion().isDone()) return;
+        cancelLoad();
+        loadingRequest = r;
+        loading = tasks.submitRead("Blame " + path, () -> load(r));
+    }
+
+    void clear() {
+        cancelLoad();
+        current = null;
+        display(null, null, null);
+    }
+
+    private void cancelLoad() {
+        if (loading != null) loading.cancel();
+        loading = null;
+        loadingRequest = null;
+    }
+
+    private void load(Request r) throws IOException {
+        String commit;
+        String key;
+        BlameDocument doc;
+        byte[] content;
+        try {
+            commit = resolveCommit(r);
+            key = r.repo.getAbsolutePath() + "\0" + commit + "\0" + r.path;
+            synchronized (cache) {
+                doc = cache.get(key);
+            }
+            if (doc != null) {
+                BlameDocument cached = doc;
+                SwingUtilities.invokeLater(() -> display(r, cached, null));
+                return;
+            }
+            GitObjectDatabase.TreeEntry entry = r.db.lookupPath(r.db.readCommit(commit).tree, r.path);
+            if (entry == null || entry.isTree()) throw new IOException(r.path + " is not in " + r.revision);
+            GitObjectDatabase.GitObject blob = r.db.read(entry.id);
+            if (blob == null || blob.type != GitObjectDatabase.OBJ_BLOB) throw new IOException(r.path + " is not a file");
+            content = blob.data;
+        } catch (IOException e) {
+            SwingUtilities.invokeLater(() -> display(r, null, e.getMessage()));
+            return;
+        }
+
+        BlameDocument older = nearestCached(r, commit);
+        doc = new BlameDocument(r.path, commit, content);
+        synchronized (cache) {
+            cache.put(key, doc);
+        }
+        BlameDocument fresh = doc;
+        SwingUtilities.invokeLater(() -> display(r, fresh, null));
+        stream(r, doc, key, older);
+    }
+
+    private void stream(Request r, BlameDocument doc, String key, BlameDocument older) throws IOException {
+        try {
+            boolean[] fallBack = new boolean[1];
+            if (older != null) {
+                // Only the commits since the cached one; what git pins on that one is looked up.
+                // Through a merge the range also ends at fork points the cached blame knows
+                // nothing about, and a rename leaves it under another path: blame those fully.
+                pool.runStreamed(r.repo, in -> parse(in, e -> {
+                    if (!e.boundary) {
+                        doc.assign(e.origin, e.resultLine - 1, e.count);
+                    } else if (e.origin.id.equals(older.commit) && e.filename.equals(older.path)) {
+                        doc.copy(older, e.sourceLine - 1, e.resultLine - 1, e.count);
+                    } else {
+                        fallBack[0] = true;
+                    }
+                }), blameArgs(older.commit + ".." + doc.commit, r.path));
+            }
+            if (older == null || fallBack[0]) {
+                pool.runStreamed(r.repo, in -> parse(in, e -> doc.assign(e.origin, e.resultLine - 1, e.count)),
+                    blameArgs(doc.commit, r.path));
+            }
+            doc.finish(null);
+        } catch (IOException e) {
+            TaskScheduler.Task task = TaskScheduler.current();
+            boolean cancelled = task != null && task.isCancelled();
+            doc.finish(cancelled ? "cancelled" : e.getMessage());
+            // Half a blame must not be served from the cache later
+            synchronized (cache) {
+                cache.remove(key, doc);
+            }
+            if (cancelled) throw e;
+        }
+        trimCache();
+    }
+
+    private static String[] blameArgs(String range, String path) {
+        return new String[] { "--literal-pathspecs", "-c", "core.quotepath=false",
+            "blame", "--incremental", range, "--", path };
+    }
+
+    private String resolveCommit(Request r) throws IOException {
+        String id = r.db.resolve(r.revision);
+        if (id == null) {
+            // HEAD~3, short ids and the like are git's to parse
+            try {
+                id = new String(pool.runRaw(r.repo, "rev-parse", "--verify", "-q", r.revision + "^{commit}"),
+                    StandardCharsets.US_ASCII).trim();
+            } catch (IOException e) {
+                throw new IOException("Unknown revision " + r.revision);
+            }
+        }
+        // Tags are peeled to the commit they point at
+        return r.db.readCommit(id).id;
+    }
+
+    /**
+     * A cached, finished blame of the same file at one of the last
+     * NEARBY_COMMITS commits before {@code commit}, the most recent first.
+     */
+    private BlameDocument nearestCached(Request r, String commit) {
+        String prefix = r.repo.getAbsolutePath() + "\0";
+        String suffix = "\0" + r.path;
+        Map<String, BlameDocument> candidates = new HashMap<>();
+        synchronized (cache) {
+            for (Map.Entry<String, BlameDocument> e : cache.entrySet()) {
+                BlameDocument d = e.getValue();
+                if (e.getKey().startsWith(prefix) && e.getKey().endsWith(suffix) && d.isComplete() && d.error() == null) {
+                    candidates.put(d.commit, d);
+                }
+            }
+        }
+        if (candidates.isEmpty()) return null;
+        try {
+            for (GitObjectDatabase.Commit c : r.db.log(commit, NEARBY_COMMITS)) {
+                BlameDocument d = candidates.get(c.id);
+                if (d != null && !c.id.equals(commit)) return d;
+            }
+        } catch (IOException e) {
+            // Missing history (shallow clone): blame from scratch
+        }
+        return null;
+    }
+
+    // Least recently shown first, but never the newest
+    private void trimCache() {
+        synchronized (cache) {
+            long total = 0;
+            for (BlameDocument d : cache.values()) {
+                total += d.heapBytes();
+            }
+            Iterator<BlameDocument> it = cache.values().iterator();
+            while (total > CACHE_BYTES && cache.size() > 1 && it.hasNext()) {
+                total -= it.next().heapBytes();
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Reads `git blame --incremental`: a "commit source result count" line,
+     * then "key value" lines (commit details only the first time a commit
+     * is seen, "boundary" for a commit at the edge of the range) up to
+     * "filename", which ends the entry.
+     */
+    private static void parse(InputStream in, EntrySink sink) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        Map<String, String[]> details = new HashMap<>();
+        Map<String, BlameDocument.Origin> seen = new HashMap<>();
+        Set<String> boundaries = new HashSet<>();
+        Entry entry = null;
+        String[] fields = null;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (entry == null) {
+                String[] header = line.split(" ");
+                if (header.length != 4) continue;
+                entry = new Entry();
+                entry.sourceLine = Integer.parseInt(header[1]);
+                entry.resultLine = Integer.parseInt(header[2]);
+                entry.count = Integer.parseInt(header[3]);
+                fields = details.computeIfAbsent(header[0], k -> new String[] { k, "", "0", "" });
+                continue;
+            }
+            int space = line.indexOf(' ');
+            String k = space < 0 ? line : line.substring(0, space);
+            String v = space < 0 ? "" : line.substring(space + 1);
+            switch (k) {
+                case "author": fields[1] = v; break;
+                case "author-time": fields[2] = v; break;
+                case "summary": fields[3] = v; break;
+                case "boundary": boundaries.add(fields[0]); break;
+                case "filename":
+                    String[] f = fields;
+                    entry.origin = seen.computeIfAbsent(f[0],
+                        id -> new BlameDocument.Origin(id, f[1], Long.parseLong(f[2]), f[3]));
+                    entry.filename = v;
+                    entry.boundary = boundaries.contains(f[0]);
+                    sink.accept(entry);
+                    entry = null;
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    // ==================== VIEW ====================
+
+    private void display(Request r, BlameDocument doc, String error) {
+        if (!Objects.equals(r, current)) return;   // another file was selected meanwhile
+        boolean changed = doc != shown;
+        shown = doc;
+        loadError = error;
+        shownBlamed = -1;
+        if (changed) {
+            selectedLine = -1;
+            revalidate();
+            if (getParent() instanceof JViewport) ((JViewport) getParent()).setViewPosition(new Point(0, 0));
+        }
+        poll();
+        if (doc != null && !doc.isComplete()) poll.start();
+    }
+
+    // While a blame loads: repaint as ranges come in
+    private void poll() {
+        BlameDocument doc = shown;
+        if (doc == null || doc.isComplete()) poll.stop();
+        int blamed = doc == null ? 0 : doc.blamedLines();
+        if (blamed != shownBlamed) {
+            shownBlamed = blamed;
+            repaint();
+        }
+        fireStateChanged();
+    }
+
+    /** The blame shown, or null; it may still be loading. */
+    BlameDocument document() {
+        return shown;
+    }
+
+    /** "path @ 1a2b3c4 · 1,234 lines · 56 commits", with what is still going on. */
+    String summary() {
+        BlameDocument doc = shown;
+        if (current == null) return "Select a file to see who changed each line";
+        if (loadError != null) return current.path + " · " + loadError;
+        if (doc == null) return "Loading " + current.path + "...";
+        StringBuilder s = new StringBuilder(doc.path).append(" @ ").append(doc.commit, 0, 7)
+            .append(String.format(" · %,d lines · %d commits", doc.lineCount(), doc.originCount()));
+        if (!doc.isComplete()) {
+            s.append(String.format(" · blaming... %d%%", doc.blamedLines() * 100L / Math.max(1, doc.lineCount())));
+        }
+        if (doc.reusedLines() > 0) {
+            s.append(String.format(" · %,d lines from the blame at %s", doc.reusedLines(), doc.reusedFrom().substring(0, 7)));
+        }
+        if (doc.error() != null) s.append(" · failed: ").append(doc.error());
+        BlameDocument.Origin o = doc.originAt(selectedLine);
+        if (o != null) s.append(" · ").append(o.id, 0, 7).append(' ').append(o.summary);
+        return s.toString();
+    }
+
+    /** The revision before the selected line's commit, to blame next; null without one. */
+    String parentOfSelected() {
+        BlameDocument doc = shown;
+        BlameDocument.Origin o = doc == null ? null : doc.originAt(selectedLine);
+        return o == null ? null : o.id + "^";
+    }
+
+    void addChangeListener(ChangeListener l) {
+        listenerList.add(ChangeListener.class, l);
+    }
+
+    private void fireStateChanged() {
+        ChangeEvent e = new ChangeEvent(this);
+        for (ChangeListener l : listenerList.getListeners(ChangeListener.class)) {
+            l.stateChanged(e);
+        }
+    }
+
+    private int lineHeight() {
+        return getFontMetrics(getFont()).getHeight();
+    }
+
+    // Age strip, "1a2b3c4 author      2024-05-01", line number
+    private int gutterWidth(BlameDocument doc) {
+        FontMetrics fm = getFontMetrics(getFont());
+        int digits = Math.max(4, String.valueOf(doc.lineCount()).length());
+        return PAD + (8 + AUTHOR_CHARS + 1 + 10 + 2 + digits) * fm.charWidth('0') + 2 * PAD;
+    }
+
+    @Override
+    public String getToolTipText(MouseEvent e) {
+        BlameDocument doc = shown;
+        if (doc == null || e.getX() >= gutterWidth(doc)) return null;
+        BlameDocument.Origin o = doc.originAt(e.getY() / lineHeight());
+        if (o == null) return null;
+        return String.format("%s  %s  %s  %s", o.id, o.author, dateFormat.format(new Date(o.time * 1000)), o.summary);
+    }
+
+    @Override
+    public Dimension getPreferredSize() {
+        BlameDocument doc = shown;
+        if (doc == null) return new Dimension(0, 0);
+        FontMetrics fm = getFontMetrics(getFont());
+        return new Dimension(gutterWidth(doc) + 2 * PAD + (doc.widest() + 2) * fm.charWidth('m'),
+            doc.lineCount() * fm.getHeight());
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        Rectangle clip = g.getClipBounds();
+        g.setColor(getBackground());
+        g.fillRect(clip.x, clip.y, clip.width, clip.height);
+        BlameDocument doc = shown;
+        g.setFont(getFont());
+        FontMetrics fm = g.getFontMetrics();
+        if (doc == null || doc.lineCount() == 0) {
+            String message = doc == null ? summary() : "Empty file";
+            g.setColor(NOTE_FG);
+            g.drawString(message, PAD, PAD + fm.getAscent());
+            return;
+        }
+
+        int lh = fm.getHeight();
+        int cw = fm.charWidth('0');
+        int gutter = gutterWidth(doc);
+        int first = Math.max(0, clip.y / lh);
+        int last = Math.min(doc.lineCount() - 1, (clip.y + clip.height) / lh);
+        long[] times = doc.timeRange();
+        int right = Math.max(getWidth(), clip.x + clip.width);
+        g.setColor(GUTTER_BG);
+        g.fillRect(0, clip.y, gutter, clip.height);
+
+        for (int i = first; i <= last; i++) {
+            int y = i * lh;
+            int baseline = y + fm.getAscent();
+            BlameDocument.Origin o = doc.originAt(i);
+            BlameDocument.Origin above = doc.originAt(i - 1);
+            if (i == selectedLine) {
+                g.setColor(SELECTED_BG);
+                g.fillRect(gutter, y, right - gutter, lh);
+            }
+            if (o != null) {
+                g.setColor(age(o.time, times));
+                g.fillRect(0, y, PAD / 2, lh);
+            }
+            // A commit's details once per run of its lines
+            boolean runStart = o != above || i == first;
+            if (runStart && i > 0) {
+                g.setColor(RUN_LINE);
+                g.drawLine(0, y, right, y);
+            }
+            g.setColor(GUTTER_FG);
+            if (o == null) {
+                g.drawString("…", PAD, baseline);
+            } else if (runStart) {
+                String author = o.author.length() > AUTHOR_CHARS ? o.author.substring(0, AUTHOR_CHARS - 1) + "…" : o.author;
+                g.drawString(o.id.substring(0, 7), PAD, baseline);
+                g.drawString(author, PAD + 8 * cw, baseline);
+                g.drawString(dateFormat.format(new Date(o.time * 1000)), PAD + (9 + AUTHOR_CHARS) * cw, baseline);
+            }
+            g.setColor(NUMBER_FG);
+            String number = String.valueOf(i + 1);
+            g.drawString(number, gutter - PAD - fm.stringWidth(number), baseline);
+
+            g.setColor(getForeground());
+            g.drawString(doc.text(i), gutter + PAD, baseline);
+        }
+    }
+
+    // Oldest commit in the file dark blue, newest amber
+    private static Color age(long time, long[] range) {
+        double t = range[1] <= range[0] ? 1 : (double) (time - range[0]) / (range[1] - range[0]);
+        return new Color(
+            (int) (OLD_COMMIT.getRed() + t * (NEW_COMMIT.getRed() - OLD_COMMIT.getRed())),
+            (int) (OLD_COMMIT.getGreen() + t * (NEW_COMMIT.getGreen() - OLD_COMMIT.getGreen())),
+            (int) (OLD_COMMIT.getBlue() + t * (NEW_COMMIT.getBlue() - OLD_COMMIT.getBlue())));
+    }
+
+    // ==================== SCROLLABLE ====================
+
+    @Override
+    public Dimension getPreferredScrollableViewportSize() {
+        return getPreferredSize();
+    }
+
+    @Override
+    public int getScrollableUnitIncrement(Rectangle visible, int orientation, int direction) {
+        FontMetrics fm = getFontMetrics(getFont());
+        return orientation == SwingConstants.VERTICAL ? fm.getHeight() : 4 * fm.charWidth('m');
+    }
+
+    @Override
+    public int getScrollableBlockIncrement(Rectangle visible, int orientation, int direction) {
+        int lh = lineHeight();
+        return orientation == SwingConstants.VERTICAL ? Math.max(lh, visible.height - lh) : visible.width / 2;
+    }
+
+    // Fill the viewport when shorter or narrower than it, so the background is ours
+    @Override
+    public boolean getScrollableTracksViewportWidth() {
+        return getParent() instanceof JViewport && getParent().getWidth() > getPreferredSize().width;
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportHeight() {
+        return getParent() instanceof JViewport && getParent().getHeight() > getPreferredSize().height;
+    }
+}
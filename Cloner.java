@@ -0,0 +1,244 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.regex.*;
+
+/**
+ * Runs `git clone --progress` and turns git's carriage-return progress
+ * lines into a percentage per phase: enumerating, counting and compressing
+ * on the remote, receiving objects, resolving deltas, checking out files.
+ *
+ * Shallow (--depth), blobless (--filter=blob:none), single-branch and
+ * no-checkout clones are options. Instead of a fixed timeout, a clone
+ * is killed when git has printed nothing for a while, because a monorepo
+ * clone can legitimately take an hour. When the clone fails or its task
+ * is cancelled, whatever it wrote to the destination is removed again.
+ * That includes git's own leftovers after a SIGKILL.
+ */
+class Cloner {
+
+    interface Progress {
+        /** Called on the cloning thread; percent is -1 for phases that only count. */
+        void update(Phase phase, int percent, String line);
+    }
+
+    enum Phase {
+        ENUMERATING("Enumerating objects"),
+        COUNTING("Counting objects"),
+        COMPRESSING("Compressing objects"),
+        RECEIVING("Receiving objects"),
+        RESOLVING("Resolving deltas"),
+        CHECKOUT("Updating files");
+
+        final String label;
+
+        Phase(String label) {
+            this.label = label;
+        }
+
+        static Phase of(String label) {
+            for (Phase p : values()) {
+                if (p.label.equals(label)) return p;
+            }
+            return null;
+        }
+    }
+
+    static final class Options {
+        int depth;               // 0 for the full history
+        boolean blobless;        // --filter=blob:none
+        boolean singleBranch;
+        boolean noCheckout;
+        String branch;           // null for the remote's HEAD
+    }
+
+    // No output at all for this long means the transfer is stuck
+    static final long STALL_MILLIS = Long.getLong("simplegit.clone.stall", 2 * 60_000);
+
+    // "Receiving objects:  45% (450/1000), 1.20 MiB | 2.00 MiB/s"
+    private static final Pattern PROGRESS = Pattern.compile(
+        "^(?:remote: )?([A-Za-z ]+):\\s+(\\d+)% \\((\\d+)/(\\d+)\\).*");
+    // "remote: Enumerating objects: 1234, done."
+    private static final Pattern COUNT = Pattern.compile("^(?:remote: )?([A-Za-z ]+): (\\d+)(, done\\.)?$");
+
+    private static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "clone-watchdog");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final String url;
+    private final File dest;
+    private final Options options;
+    private volatile long lastOutputNanos;
+    private volatile boolean stalled;
+
+    Cloner(String url, File dest, Options options) {
+        this.url = url;
+        this.dest = dest;
+        this.options = options;
+    }
+
+    /** The git command line this clone runs. */
+    List<String> command() {
+        List<String> command = new ArrayList<>(Arrays.asList("git", "clone", "--progress"));
+        if (options.depth > 0) command.add("--depth=" + options.depth);
+        if (options.blobless) command.add("--filter=blob:none");
+        if (options.singleBranch) command.add("--single-branch");
+        if (options.noCheckout) command.add("--no-checkout");
+        if (options.branch != null && !options.branch.isEmpty()) {
+            command.add("--branch");
+            command.add(options.branch);
+        }
+        command.add("--");
+        command.add(url);
+        command.add(dest.getAbsolutePath());
+        return command;
+    }
+
+    /**
+     * Clones, reporting progress and passing every other line of git's
+     * output to {@code log}. Throws CancellationException if the current
+     * task was cancelled, IOException if git failed; either way the
+     * destination is left as it was found.
+     */
+    void run(Progress progress, Consumer<String> log) throws IOException {
+        boolean created = !dest.exists();
+        if (!created && !isEmptyDirectory(dest)) {
+            throw new IOException("Destination already exists and is not empty: " + dest);
+        }
+
+        ProcessBuilder pb = new ProcessBuilder(command());
+        pb.redirectErrorStream(true);
+        // Progress labels are parsed, so keep them untranslated; never wait on a password prompt
+        pb.environment().put("LC_ALL", "C");
+        pb.environment().put("GIT_TERMINAL_PROMPT", "0");
+
+        boolean ok = false;
+        long started = System.nanoTime();
+        int code = -1;
+        long outputBytes = 0;
+        Process p = pb.start();
+        lastOutputNanos = System.nanoTime();
+        ScheduledFuture<?> watchdog = WATCHDOG.scheduleWithFixedDelay(() -> {
+            if (System.nanoTime() - lastOutputNanos > TimeUnit.MILLISECONDS.toNanos(STALL_MILLIS)) {
+                stalled = true;
+                TaskScheduler.killTree(p);
+            }
+        }, 1, 1, TimeUnit.SECONDS);
+        String firstError = null;
+        Closeable tracked = TaskScheduler.track(p);
+        try {
+            try (InputStream in = p.getInputStream()) {
+                ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+                byte[] buf = new byte[8192];
+                int n;
+                while ((n = in.read(buf)) > 0) {
+                    lastOutputNanos = System.nanoTime();
+                    outputBytes += n;
+                    for (int i = 0; i < n; i++) {
+                        byte b = buf[i];
+                        if (b != '\r' && b != '\n') {
+                            line.write(b);
+                            continue;
+                        }
+                        String text = line.toString(StandardCharsets.UTF_8).trim();
+                        line.reset();
+                        if (text.isEmpty()) continue;
+                        // A phase's last line (", done.") goes to the log as well
+                        if (!parse(text, progress) || text.endsWith("done.")) log.accept(text);
+                        // The first complaint names the cause; later ones are consequences
+                        if (firstError == null && (text.startsWith("fatal:") || text.startsWith("error:"))) {
+                            firstError = text;
+                        }
+                    }
+                }
+                if (line.size() > 0) log.accept(line.toString(StandardCharsets.UTF_8).trim());
+            } catch (IOException e) {
+                // Pipe closed by a kill; the exit code says what happened
+            }
+            code = waitFor(p);
+            TaskScheduler.Task task = TaskScheduler.current();
+            if (task != null && task.isCancelled()) throw new CancellationException("Clone");
+            if (stalled) throw new IOException("git clone stalled: no progress for " + STALL_MILLIS / 1000 + " s");
+            if (code != 0) throw new IOException(firstError != null ? firstError : "git clone exited with code " + code);
+            ok = true;
+        } finally {
+            watchdog.cancel(false);
+            if (!ok) {
+                TaskScheduler.killTree(p);
+                waitFor(p);
+            }
+            tracked.close();
+            Metrics.global().record("clone", System.nanoTime() - started, code, stalled, outputBytes);
+            if (!ok) removePartial(created);
+        }
+    }
+
+    // True for a progress line, which is reported rather than logged
+    private static boolean parse(String text, Progress progress) {
+        Matcher m = PROGRESS.matcher(text);
+        if (m.matches()) {
+            Phase phase = Phase.of(m.group(1));
+            if (phase == null) return false;
+            progress.update(phase, Integer.parseInt(m.group(2)), text);
+            return true;
+        }
+        m = COUNT.matcher(text);
+        if (m.matches()) {
+            Phase phase = Phase.of(m.group(1));
+            if (phase == null) return false;
+            progress.update(phase, m.group(3) != null ? 100 : -1, text);
+            return true;
+        }
+        return false;
+    }
+
+    // Git is killed with a grace period, so this waits for it even if interrupted
+    private static int waitFor(Process p) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return p.waitFor();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+    }
+
+    private void removePartial(boolean created) throws IOException {
+        if (!dest.exists()) return;
+        Path root = dest.toPath();
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                // Pack files are read-only, which only matters on Windows
+                file.toFile().setWritable(true);
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                if (e != null) throw e;
+                if (created || !dir.equals(root)) Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static boolean isEmptyDirectory(File dir) throws IOException {
+        if (!dir.isDirectory()) return false;
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir.toPath())) {
+            return !entries.iterator().hasNext();
+        }
+    }
+}
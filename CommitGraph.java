@@ -0,0 +1,250 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Reader for git's commit-graph: objects/info/commit-graph, or a split
+ * chain under objects/info/commit-graphs. Gives parents, commit times and
+ * topological levels by integer position without opening any commit, so
+ * reachability walks are array lookups.
+ *
+ * Positions are global across a chain: layer 0 (the base) comes first.
+ * Commits newer than the graph are simply absent; callers read those from
+ * the object database. Only SHA-1 graphs are supported.
+ */
+class CommitGraph implements Closeable {
+
+    static final int NO_PARENT = -1;
+
+    private static final int SIGNATURE = 0x43475048;    // "CGPH"
+    private static final int CHUNK_OIDF = 0x4f494446;
+    private static final int CHUNK_OIDL = 0x4f49444c;
+    private static final int CHUNK_CDAT = 0x43444154;
+    private static final int CHUNK_EDGE = 0x45444745;
+    private static final int PARENT_NONE = 0x70000000;
+    private static final int EXTRA_EDGES = 0x80000000;
+    private static final int ID_BYTES = 20;
+    private static final int CDAT_WIDTH = ID_BYTES + 16;
+
+    private static class Layer {
+        final FileChannel channel;
+        final ByteBuffer map;
+        final int base;        // global position of this layer's first commit
+        final int count;
+        int fanout = -1;
+        int oids = -1;
+        int cdat = -1;
+        int edges = -1;
+
+        Layer(File file, int base) throws IOException {
+            this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            try {
+                map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.BIG_ENDIAN);
+                if (map.getInt(0) != SIGNATURE || map.get(4) != 1) {
+                    throw new IOException("Not a version 1 commit-graph: " + file);
+                }
+                if (map.get(5) != 1) {
+                    throw new IOException("Only SHA-1 commit-graphs are supported: " + file);
+                }
+                int chunks = map.get(6) & 0xff;
+                for (int i = 0; i < chunks; i++) {
+                    int entry = 8 + i * 12;
+                    int id = map.getInt(entry);
+                    int offset = (int) map.getLong(entry + 4);
+                    switch (id) {
+                        case CHUNK_OIDF: fanout = offset; break;
+                        case CHUNK_OIDL: oids = offset; break;
+                        case CHUNK_CDAT: cdat = offset; break;
+                        case CHUNK_EDGE: edges = offset; break;
+                        default: break;   // generation data, bloom filters, base list
+                    }
+                }
+                if (fanout < 0 || oids < 0 || cdat < 0) {
+                    throw new IOException("Commit-graph is missing a required chunk: " + file);
+                }
+                this.base = base;
+                this.count = map.getInt(fanout + 255 * 4);
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        // Local index of id, or -1
+        int find(byte[] id) {
+            int first = id[0] & 0xff;
+            int lo = first == 0 ? 0 : map.getInt(fanout + (first - 1) * 4);
+            int hi = map.getInt(fanout + first * 4);
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                int cmp = compareId(mid, id);
+                if (cmp < 0) lo = mid + 1;
+                else if (cmp > 0) hi = mid;
+                else return mid;
+            }
+            return -1;
+        }
+
+        private int compareId(int index, byte[] id) {
+            int at = oids + index * ID_BYTES;
+            for (int i = 0; i < ID_BYTES; i++) {
+                int a = map.get(at + i) & 0xff;
+                int b = id[i] & 0xff;
+                if (a != b) return a - b;
+            }
+            return 0;
+        }
+    }
+
+    private final List<Layer> layers;
+    private final int size;
+    private final boolean hasLevels;
+
+    private CommitGraph(List<Layer> layers) {
+        this.layers = layers;
+        int n = 0;
+        for (Layer l : layers) n += l.count;
+        this.size = n;
+        // Very old writers left every level at zero; a walk can't prune on those
+        Layer top = layers.get(layers.size() - 1);
+        this.hasLevels = top.count == 0 || levelAt(top, top.count - 1) != 0;
+    }
+
+    /**
+     * Opens the commit-graph in {@code objectDir}, or returns null when
+     * there is none. A single commit-graph file wins over a chain, as in git.
+     */
+    static CommitGraph open(File objectDir) throws IOException {
+        File info = new File(objectDir, "info");
+        File single = new File(info, "commit-graph");
+        if (single.isFile()) {
+            return new CommitGraph(Collections.singletonList(new Layer(single, 0)));
+        }
+        File chain = new File(info, "commit-graphs/commit-graph-chain");
+        if (!chain.isFile()) {
+            return null;
+        }
+        List<Layer> layers = new ArrayList<>();
+        try {
+            int base = 0;
+            for (String line : Files.readAllLines(chain.toPath(), StandardCharsets.US_ASCII)) {
+                line = line.trim();
+                if (line.isEmpty()) continue;
+                Layer layer = new Layer(new File(chain.getParentFile(), "graph-" + line + ".graph"), base);
+                layers.add(layer);
+                base += layer.count;
+            }
+        } catch (IOException | RuntimeException e) {
+            for (Layer l : layers) l.channel.close();
+            throw e;
+        }
+        return layers.isEmpty() ? null : new CommitGraph(layers);
+    }
+
+    /** The file(s) the graph was read from, for noticing a rewrite. */
+    static long stamp(File objectDir) {
+        File info = new File(objectDir, "info");
+        File single = new File(info, "commit-graph");
+        if (single.isFile()) return single.lastModified() ^ single.length();
+        File chain = new File(info, "commit-graphs/commit-graph-chain");
+        return chain.isFile() ? ~(chain.lastModified() ^ chain.length()) : 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /** False for graphs written without topological levels. */
+    boolean hasLevels() {
+        return hasLevels;
+    }
+
+    /** Position of commit {@code id}, or -1 if the graph doesn't have it. */
+    int find(byte[] id) {
+        // Newer layers first: recent commits are the ones usually asked for
+        for (int i = layers.size() - 1; i >= 0; i--) {
+            Layer l = layers.get(i);
+            int local = l.find(id);
+            if (local >= 0) return l.base + local;
+        }
+        return -1;
+    }
+
+    byte[] id(int pos) {
+        Layer l = layerOf(pos);
+        byte[] id = new byte[ID_BYTES];
+        l.map.get(l.oids + (pos - l.base) * ID_BYTES, id);
+        return id;
+    }
+
+    /** Topological level: greater than that of every parent. */
+    int level(int pos) {
+        Layer l = layerOf(pos);
+        return levelAt(l, pos - l.base);
+    }
+
+    long commitTime(int pos) {
+        Layer l = layerOf(pos);
+        int at = l.cdat + (pos - l.base) * CDAT_WIDTH + ID_BYTES + 8;
+        return ((long) (l.map.getInt(at) & 3) << 32) | (l.map.getInt(at + 4) & 0xffffffffL);
+    }
+
+    /**
+     * Writes the parent positions of {@code pos} into {@code out} (grown if
+     * needed) and returns it; out[0] is the count.
+     */
+    int[] parents(int pos, int[] out) {
+        Layer l = layerOf(pos);
+        int at = l.cdat + (pos - l.base) * CDAT_WIDTH + ID_BYTES;
+        int p1 = l.map.getInt(at);
+        int p2 = l.map.getInt(at + 4);
+        int n = 0;
+        if (p1 != PARENT_NONE) out = put(out, ++n, p1);
+        if (p2 != PARENT_NONE) {
+            if ((p2 & EXTRA_EDGES) == 0) {
+                out = put(out, ++n, p2);
+            } else {
+                // Octopus merge: the rest are listed in EDGE, the last one flagged
+                int edge = l.edges + (p2 & ~EXTRA_EDGES) * 4;
+                int v;
+                do {
+                    v = l.map.getInt(edge);
+                    out = put(out, ++n, v & ~EXTRA_EDGES);
+                    edge += 4;
+                } while ((v & EXTRA_EDGES) == 0);
+            }
+        }
+        out[0] = n;
+        return out;
+    }
+
+    @Override
+    public void close() {
+        for (Layer l : layers) {
+            try {
+                l.channel.close();
+            } catch (IOException e) {}
+        }
+    }
+
+    private Layer layerOf(int pos) {
+        for (int i = layers.size() - 1; i > 0; i--) {
+            Layer l = layers.get(i);
+            if (pos >= l.base) return l;
+        }
+        return layers.get(0);
+    }
+
+    private static int levelAt(Layer l, int local) {
+        return l.map.getInt(l.cdat + local * CDAT_WIDTH + ID_BYTES + 8) >>> 2;
+    }
+
+    private static int[] put(int[] out, int i, int value) {
+        if (i >= out.length) out = Arrays.copyOf(out, out.length * 2);
+        out[i] = value;
+        return out;
+    }
+}
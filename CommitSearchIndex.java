@@ -0,0 +1,789 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.function.IntFunction;
+
+/**
+ * On-disk inverted index over the history of HEAD, for the History tab's
+ * search: the words of each commit's message, its author's name and email,
+ * and the paths it touched, each mapped to the commits that have them.
+ *
+ * Commits are numbered in the order they were indexed, oldest first, and
+ * their ids kept in `commits` (20 bytes each), so a posting is just a
+ * number. An update reads `git log --reverse` for what is new since the
+ * tips indexed last and writes it as segments: a sorted term dictionary
+ * and varint-delta postings in one file, memory-mapped for queries.
+ * Segments cover consecutive ranges of numbers, so the two adjacent ones
+ * smallest together are merged, postings simply concatenated, whenever
+ * there are more than MAX_SEGMENTS. `meta` names the live segments and is
+ * replaced last, so an interrupted update leaves the previous index intact.
+ *
+ * After a branch switch or a rewrite, some indexed commits are no longer
+ * in HEAD's history. Each update lists them (reachable from an indexed tip
+ * but not from HEAD) and searches skip them; when they are most of the
+ * index, or a tip is gone altogether, the index is rebuilt instead.
+ *
+ * Lives in .git/simplegit-search; deleting it only means a rebuild.
+ */
+class CommitSearchIndex implements Closeable {
+
+    static final String DIR = "simplegit-search";
+    /** Commits per segment while indexing; bounds the memory an update takes. */
+    static final int SEGMENT_COMMITS = Integer.getInteger("simplegit.search.segmentCommits", 100_000);
+    static final int MAX_SEGMENTS = 8;
+
+    private static final int MAGIC = 0x53475358;    // "SGSX"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 20;
+    private static final int ID_BYTES = 20;
+    private static final int MAX_TIPS = 32;
+    private static final int MAX_TERM_CHARS = 64;
+    private static final String FORMAT = "--format=%H%x1f%an%x1f%ae%x1f%B";
+
+    interface Progress {
+        /** Commits indexed so far by this update. */
+        void update(int indexed);
+    }
+
+    /** Matching commits, newest first, up to the limit asked for. */
+    static final class Result {
+        final List<String> commits;
+        final int matches;
+        final long nanos;
+
+        Result(List<String> commits, int matches, long nanos) {
+            this.commits = commits;
+            this.matches = matches;
+            this.nanos = nanos;
+        }
+    }
+
+    // What meta says, and which commits HEAD has left behind: read by searches without the update lock
+    private static final class State {
+        final int commits;
+        final List<Segment> segments;
+        final List<String> tips;
+        final BitSet unreachable;    // by commit number, as of the last update
+
+        State(int commits, List<Segment> segments, List<String> tips, BitSet unreachable) {
+            this.commits = commits;
+            this.segments = segments;
+            this.tips = tips;
+            this.unreachable = unreachable;
+        }
+    }
+
+    private static final State EMPTY = new State(0, List.of(), List.of(), new BitSet());
+
+    private final GitProcessPool pool;
+    private final File repo;
+    private final Path dir;
+    private final FileChannel ids;
+    private volatile State state;
+    private int nextSegment;
+
+    private CommitSearchIndex(GitProcessPool pool, File repo, Path dir) throws IOException {
+        this.pool = pool;
+        this.repo = repo;
+        this.dir = dir;
+        Files.createDirectories(dir);
+        ids = FileChannel.open(dir.resolve("commits"),
+            StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            state = load();
+        } catch (IOException | RuntimeException e) {
+            // Unreadable or from another version: start over
+            state = EMPTY;
+        }
+        ids.truncate((long) state.commits * ID_BYTES);
+        removeStrays();
+    }
+
+    /** Opens (or starts) the index kept in {@code gitDir}; call update() before searching. */
+    static CommitSearchIndex open(GitProcessPool pool, File repo, File gitDir) throws IOException {
+        return new CommitSearchIndex(pool, repo, new File(gitDir, DIR).toPath());
+    }
+
+    /** Commits in the index. */
+    int size() {
+        return state.commits;
+    }
+
+    int segmentCount() {
+        return state.segments.size();
+    }
+
+    /** Index file sizes in bytes: postings and the id table. */
+    long diskBytes() {
+        long bytes = (long) state.commits * ID_BYTES;
+        for (Segment s : state.segments) bytes += s.map.capacity();
+        return bytes;
+    }
+
+    @Override
+    public void close() throws IOException {
+        ids.close();
+    }
+
+    // ==================== UPDATING ====================
+
+    /**
+     * Indexes the commits reachable from HEAD that aren't indexed yet and
+     * returns how many there were. Cheap when there are none.
+     */
+    synchronized int update(Progress progress) throws IOException {
+        State before = state;
+        List<String> tips = liveTips(before.tips);
+        Set<String> left = tips.size() < before.tips.size() ? null : unreachable(tips);
+        // A tip gc'd away hides what it brought in; mostly unreachable isn't worth filtering
+        if (before.commits > 0 && (left == null || left.size() * 2 > before.commits)) {
+            clear();
+            before = state;
+            tips = List.of();
+            left = Set.of();
+        }
+        BitSet unreachable = left.isEmpty() ? new BitSet() : numbers(left, before.commits);
+
+        StringBuilder revs = new StringBuilder("HEAD\n");
+        for (String tip : tips) revs.append('^').append(tip).append('\n');
+
+        Batch[] batch = { new Batch(before.commits) };
+        List<Segment> written = new ArrayList<>();
+        String[] newest = new String[1];
+        int[] indexed = new int[1];
+        try {
+            pool.runStreamed(repo, revs.toString().getBytes(StandardCharsets.US_ASCII), in -> {
+                RecordReader records = new RecordReader(in);
+                byte[] record;
+                while ((record = records.next()) != null) {
+                    if (isHeader(record, records.length)) {
+                        if (batch[0].count >= SEGMENT_COMMITS) {
+                            written.add(flush(batch[0]));
+                            batch[0] = new Batch(batch[0].firstDoc + batch[0].count);
+                        }
+                        newest[0] = batch[0].commit(record, records.length);
+                        if (++indexed[0] % 4096 == 0) {
+                            TaskScheduler.Task task = TaskScheduler.current();
+                            if (task != null && task.isCancelled()) throw new CancellationException("indexing");
+                            if (progress != null) progress.update(indexed[0]);
+                        }
+                    } else {
+                        batch[0].path(record, records.length);
+                    }
+                }
+            }, "log", "--stdin", "--reverse", "-z", "--no-renames", "--name-only", FORMAT);
+            if (batch[0].count > 0) written.add(flush(batch[0]));
+        } catch (IOException | RuntimeException e) {
+            // Nothing was committed to meta; drop what this update wrote
+            ids.truncate((long) before.commits * ID_BYTES);
+            for (Segment s : written) Files.deleteIfExists(dir.resolve(s.name));
+            throw e;
+        }
+        if (indexed[0] == 0) {
+            state = new State(before.commits, before.segments, before.tips, unreachable);
+            return 0;
+        }
+
+        List<String> nextTips = new ArrayList<>(tips);
+        nextTips.remove(newest[0]);
+        nextTips.add(newest[0]);
+        // Oldest tips go first; their commits would only be indexed twice
+        while (nextTips.size() > MAX_TIPS) nextTips.remove(0);
+        List<Segment> segments = new ArrayList<>(before.segments);
+        segments.addAll(written);
+        List<Segment> merged = new ArrayList<>();
+        while (segments.size() > MAX_SEGMENTS) merged.addAll(mergeSmallestPair(segments));
+
+        ids.force(false);
+        commit(new State(before.commits + indexed[0], List.copyOf(segments), List.copyOf(nextTips), unreachable));
+        for (Segment s : merged) {
+            // Still mapped by searches in flight; those that can't go now are swept on the next open
+            try {
+                Files.deleteIfExists(dir.resolve(s.name));
+            } catch (IOException e) {
+                // Kept open elsewhere
+            }
+        }
+        if (progress != null) progress.update(indexed[0]);
+        return indexed[0];
+    }
+
+    // Tips gone since (history rewritten, then gc'd) would make git log fail
+    private List<String> liveTips(List<String> tips) throws IOException {
+        if (tips.isEmpty()) return tips;
+        StringBuilder in = new StringBuilder();
+        for (String tip : tips) in.append(tip).append('\n');
+        List<String> live = new ArrayList<>();
+        pool.runStreamed(repo, in.toString().getBytes(StandardCharsets.US_ASCII), out -> {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(out, StandardCharsets.US_ASCII));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.endsWith(" commit")) live.add(line.substring(0, line.indexOf(' ')));
+            }
+        }, "cat-file", "--batch-check=%(objectname) %(objecttype)");
+        return live;
+    }
+
+    // Indexed commits HEAD can't reach: those of the tips but not of HEAD
+    private Set<String> unreachable(List<String> tips) throws IOException {
+        if (tips.isEmpty()) return Set.of();
+        StringBuilder in = new StringBuilder("^HEAD\n");
+        for (String tip : tips) in.append(tip).append('\n');
+        Set<String> left = new HashSet<>();
+        pool.runStreamed(repo, in.toString().getBytes(StandardCharsets.US_ASCII), out -> {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(out, StandardCharsets.US_ASCII));
+            String line;
+            while ((line = reader.readLine()) != null) left.add(line);
+        }, "rev-list", "--stdin");
+        return left;
+    }
+
+    // Numbers of the given commits among the first `commits`, one pass over the id table
+    private BitSet numbers(Set<String> wanted, int commits) throws IOException {
+        BitSet found = new BitSet(commits);
+        ByteBuffer buf = ByteBuffer.allocate(ID_BYTES * 4096);
+        for (int first = 0; first < commits; first += 4096) {
+            int n = Math.min(4096, commits - first);
+            buf.clear().limit(n * ID_BYTES);
+            long at = (long) first * ID_BYTES;
+            while (buf.hasRemaining()) {
+                if (ids.read(buf, at + buf.position()) < 0) throw new IOException("search index ids cut short");
+            }
+            for (int i = 0; i < n; i++) {
+                if (wanted.contains(GitObjectDatabase.toHex(buf.array(), i * ID_BYTES))) found.set(first + i);
+            }
+        }
+        return found;
+    }
+
+    // Drops everything, so the update that follows indexes all of HEAD's history again
+    private void clear() throws IOException {
+        List<Segment> old = state.segments;
+        commit(EMPTY);
+        ids.truncate(0);
+        for (Segment s : old) {
+            try {
+                Files.deleteIfExists(dir.resolve(s.name));
+            } catch (IOException e) {
+                // Still mapped by a search; swept on the next open
+            }
+        }
+    }
+
+    private Segment flush(Batch batch) throws IOException {
+        ids.write(ByteBuffer.wrap(batch.ids.toByteArray()), (long) batch.firstDoc * ID_BYTES);
+        int n = batch.postings.size();
+        byte[][] terms = new byte[n][];
+        IntList[] docs = new IntList[n];
+        Integer[] order = new Integer[n];
+        int t = 0;
+        for (Map.Entry<String, IntList> e : batch.postings.entrySet()) {
+            terms[t] = e.getKey().getBytes(StandardCharsets.UTF_8);
+            docs[t] = e.getValue();
+            order[t] = t++;
+        }
+        Arrays.sort(order, (x, y) -> Arrays.compareUnsigned(terms[x], terms[y]));
+        return write(batch.firstDoc, batch.count, n, i -> terms[order[i]], i -> docs[order[i]].toArray());
+    }
+
+    // Replaces the adjacent pair with the fewest commits by one segment; returns the two
+    private List<Segment> mergeSmallestPair(List<Segment> segments) throws IOException {
+        int best = 0;
+        for (int i = 1; i + 1 < segments.size(); i++) {
+            if (segments.get(i).docCount + segments.get(i + 1).docCount
+                    < segments.get(best).docCount + segments.get(best + 1).docCount) {
+                best = i;
+            }
+        }
+        Segment a = segments.get(best);
+        Segment b = segments.get(best + 1);
+        // Union of the two dictionaries, in order; each term's index in a and b, or -1
+        List<byte[]> terms = new ArrayList<>(Math.max(a.terms, b.terms));
+        List<int[]> where = new ArrayList<>(Math.max(a.terms, b.terms));
+        int i = 0;
+        int j = 0;
+        while (i < a.terms || j < b.terms) {
+            int cmp = i == a.terms ? 1 : j == b.terms ? -1 : Arrays.compareUnsigned(a.term(i), b.term(j));
+            terms.add(cmp <= 0 ? a.term(i) : b.term(j));
+            where.add(new int[] { cmp <= 0 ? i++ : -1, cmp >= 0 ? j++ : -1 });
+        }
+        Segment merged = write(a.firstDoc, a.docCount + b.docCount, terms.size(), terms::get, k -> {
+            int[] w = where.get(k);
+            int[] left = w[0] < 0 ? new int[0] : a.postings(w[0]);
+            int[] right = w[1] < 0 ? new int[0] : b.postings(w[1]);
+            int[] both = Arrays.copyOf(left, left.length + right.length);
+            System.arraycopy(right, 0, both, left.length, right.length);
+            return both;
+        });
+        segments.set(best, merged);
+        segments.remove(best + 1);
+        return List.of(a, b);
+    }
+
+    // One segment file, written in two passes so no postings are held beyond one term's
+    private Segment write(int firstDoc, int docCount, int termCount, IntFunction<byte[]> term,
+            IntFunction<int[]> docs) throws IOException {
+        int[] termOffset = new int[termCount + 1];
+        int[] postingOffset = new int[termCount + 1];
+        long postingBytes = 0;
+        for (int i = 0; i < termCount; i++) {
+            termOffset[i + 1] = termOffset[i] + term.apply(i).length;
+            postingOffset[i] = (int) postingBytes;
+            postingBytes += encodedSize(docs.apply(i), firstDoc);
+            if (postingBytes > Integer.MAX_VALUE / 2) throw new IOException("search index segment too large");
+        }
+        postingOffset[termCount] = (int) postingBytes;
+
+        String name = "seg-" + nextSegment++;
+        Path file = dir.resolve(name);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(file), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(firstDoc);
+            out.writeInt(docCount);
+            out.writeInt(termCount);
+            for (int offset : termOffset) out.writeInt(offset);
+            for (int offset : postingOffset) out.writeInt(offset);
+            for (int i = 0; i < termCount; i++) out.write(term.apply(i));
+            for (int i = 0; i < termCount; i++) {
+                int previous = firstDoc - 1;
+                for (int doc : docs.apply(i)) {
+                    writeVarint(out, doc - previous);
+                    previous = doc;
+                }
+            }
+        }
+        return new Segment(name, file);
+    }
+
+    private void commit(State next) throws IOException {
+        StringBuilder meta = new StringBuilder("simplegit-search " + VERSION + "\n");
+        meta.append("commits ").append(next.commits).append('\n');
+        for (Segment s : next.segments) meta.append("segment ").append(s.name).append('\n');
+        for (String tip : next.tips) meta.append("tip ").append(tip).append('\n');
+        Path tmp = dir.resolve("meta.tmp");
+        Files.write(tmp, meta.toString().getBytes(StandardCharsets.US_ASCII));
+        Files.move(tmp, dir.resolve("meta"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        state = next;
+    }
+
+    private State load() throws IOException {
+        Path metaFile = dir.resolve("meta");
+        if (!Files.exists(metaFile)) return EMPTY;
+        List<String> lines = Files.readAllLines(metaFile, StandardCharsets.US_ASCII);
+        if (lines.isEmpty() || !lines.get(0).equals("simplegit-search " + VERSION)) {
+            throw new IOException("unknown search index version");
+        }
+        int commits = 0;
+        List<Segment> segments = new ArrayList<>();
+        List<String> tips = new ArrayList<>();
+        for (String line : lines.subList(1, lines.size())) {
+            int sp = line.indexOf(' ');
+            String value = line.substring(sp + 1);
+            switch (line.substring(0, sp)) {
+                case "commits": commits = Integer.parseInt(value); break;
+                case "segment":
+                    segments.add(new Segment(value, dir.resolve(value)));
+                    nextSegment = Math.max(nextSegment, Integer.parseInt(value.substring(4)) + 1);
+                    break;
+                case "tip": tips.add(value); break;
+                default: break;
+            }
+        }
+        if (ids.size() < (long) commits * ID_BYTES) throw new IOException("search index ids cut short");
+        return new State(commits, List.copyOf(segments), List.copyOf(tips), new BitSet());
+    }
+
+    // Segments of updates that never finished, or merged away while still mapped
+    private void removeStrays() throws IOException {
+        Set<String> live = new HashSet<>();
+        for (Segment s : state.segments) live.add(s.name);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "seg-*")) {
+            for (Path f : files) {
+                if (!live.contains(f.getFileName().toString())) {
+                    try {
+                        Files.deleteIfExists(f);
+                    } catch (IOException e) {
+                        // Open elsewhere; next time
+                    }
+                }
+            }
+        }
+    }
+
+    // ==================== SEARCHING ====================
+
+    /**
+     * Commits matching every word of {@code query}, newest first. A plain
+     * word is looked for in messages, {@code author:} in author names and
+     * emails, and {@code path:} among touched files and their directories.
+     * A trailing * matches any word (or path) starting with what comes before it.
+     */
+    Result search(String query, int limit) throws IOException {
+        long t0 = System.nanoTime();
+        State s = state;
+        List<Clause> clauses = parse(query);
+        List<String> found = new ArrayList<>();
+        int matches = 0;
+        if (!clauses.isEmpty()) {
+            ByteBuffer id = ByteBuffer.allocate(ID_BYTES);
+            for (int k = s.segments.size() - 1; k >= 0; k--) {
+                int[] docs = reachable(matching(s.segments.get(k), clauses), s.unreachable);
+                matches += docs.length;
+                for (int i = docs.length - 1; i >= 0 && found.size() < limit; i--) {
+                    id.clear();
+                    ids.read(id, (long) docs[i] * ID_BYTES);
+                    found.add(GitObjectDatabase.toHex(id.array()));
+                }
+            }
+        }
+        return new Result(found, matches, System.nanoTime() - t0);
+    }
+
+    private static int[] reachable(int[] docs, BitSet unreachable) {
+        if (unreachable.isEmpty()) return docs;
+        int n = 0;
+        for (int doc : docs) {
+            if (!unreachable.get(doc)) docs[n++] = doc;
+        }
+        return n == docs.length ? docs : Arrays.copyOf(docs, n);
+    }
+
+    // Rarest clause first, then intersected down
+    private static int[] matching(Segment segment, List<Clause> clauses) {
+        List<int[]> lists = new ArrayList<>(clauses.size());
+        for (Clause c : clauses) {
+            int[] docs = segment.docs(c);
+            if (docs.length == 0) return docs;
+            lists.add(docs);
+        }
+        lists.sort(Comparator.comparingInt(a -> a.length));
+        int[] result = lists.get(0);
+        for (int k = 1; k < lists.size() && result.length > 0; k++) {
+            result = intersect(result, lists.get(k));
+        }
+        return result;
+    }
+
+    private static int[] intersect(int[] a, int[] b) {
+        int[] out = new int[Math.min(a.length, b.length)];
+        int n = 0;
+        int j = 0;
+        for (int i = 0; i < a.length && j < b.length; i++) {
+            // Galloping through the longer list: a is the shorter one
+            int x = a[i];
+            if (b[j] < x) {
+                int step = 1;
+                while (j + step < b.length && b[j + step] < x) step <<= 1;
+                int lo = j + (step >> 1);
+                int hi = Math.min(j + step, b.length - 1);
+                while (lo < hi) {
+                    int mid = (lo + hi) >>> 1;
+                    if (b[mid] < x) lo = mid + 1;
+                    else hi = mid;
+                }
+                j = lo;
+                if (b[j] < x) break;
+            }
+            if (b[j] == x) out[n++] = x;
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    // A term to look up; prefix when the query word ended in *
+    private static final class Clause {
+        final byte[] term;
+        final boolean prefix;
+
+        Clause(String term, boolean prefix) {
+            this.term = term.getBytes(StandardCharsets.UTF_8);
+            this.prefix = prefix;
+        }
+    }
+
+    private static List<Clause> parse(String query) {
+        List<Clause> clauses = new ArrayList<>();
+        for (String word : query.trim().split("\\s+")) {
+            boolean prefix = word.endsWith("*");
+            if (prefix) word = word.substring(0, word.length() - 1);
+            List<String> terms = new ArrayList<>();
+            if (word.startsWith("path:")) {
+                String path = word.substring(5);
+                while (path.endsWith("/")) path = path.substring(0, path.length() - 1);
+                if (!path.isEmpty()) terms.add("p:" + path);
+            } else if (word.startsWith("author:")) {
+                String author = word.substring(7).toLowerCase(Locale.ROOT);
+                if (author.indexOf('@') > 0 && !prefix) terms.add("a:" + author);
+                else words(author, w -> terms.add("a:" + w));
+            } else {
+                words(word, w -> terms.add("m:" + w));
+            }
+            for (int i = 0; i < terms.size(); i++) {
+                clauses.add(new Clause(terms.get(i), prefix && i == terms.size() - 1));
+            }
+        }
+        return clauses;
+    }
+
+    // ==================== TERMS ====================
+
+    // Lower-cased runs of letters and digits, two characters or more
+    static void words(String text, java.util.function.Consumer<String> out) {
+        int n = text.length();
+        int i = 0;
+        while (i < n) {
+            while (i < n && !Character.isLetterOrDigit(text.charAt(i))) i++;
+            int start = i;
+            while (i < n && Character.isLetterOrDigit(text.charAt(i))) i++;
+            if (i - start >= 2) {
+                out.accept(text.substring(start, Math.min(i, start + MAX_TERM_CHARS)).toLowerCase(Locale.ROOT));
+            }
+        }
+    }
+
+    // Commits of one segment being indexed, with their postings in memory
+    private static final class Batch {
+        final int firstDoc;
+        final Map<String, IntList> postings = new HashMap<>();
+        final ByteArrayOutputStream ids = new ByteArrayOutputStream();
+        int count;
+
+        Batch(int firstDoc) {
+            this.firstDoc = firstDoc;
+        }
+
+        // id \x1f author \x1f email \x1f message; returns the id
+        String commit(byte[] record, int length) throws IOException {
+            int a = indexOf(record, 0, length);
+            int b = indexOf(record, a + 1, length);
+            int c = indexOf(record, b + 1, length);
+            String id = new String(record, 0, a, StandardCharsets.US_ASCII);
+            ids.write(GitObjectDatabase.fromHex(id), 0, ID_BYTES);
+            count++;
+            String email = new String(record, b + 1, c - b - 1, StandardCharsets.UTF_8).toLowerCase(Locale.ROOT);
+            words(new String(record, a + 1, b - a - 1, StandardCharsets.UTF_8), w -> add("a:" + w));
+            words(email, w -> add("a:" + w));
+            if (!email.isEmpty()) add("a:" + email);
+            if (c < length) words(new String(record, c + 1, length - c - 1, StandardCharsets.UTF_8), w -> add("m:" + w));
+            return id;
+        }
+
+        // A touched file: it, its name alone and each directory above it
+        void path(byte[] record, int length) {
+            int from = length > 0 && record[0] == '\n' ? 1 : 0;
+            if (from == length) return;
+            String path = new String(record, from, length - from, StandardCharsets.UTF_8);
+            add("p:" + path);
+            int slash = path.lastIndexOf('/');
+            if (slash < 0) return;
+            add("p:" + path.substring(slash + 1));
+            for (int i = path.indexOf('/'); i >= 0; i = path.indexOf('/', i + 1)) {
+                add("p:" + path.substring(0, i));
+            }
+        }
+
+        private void add(String term) {
+            int doc = firstDoc + count - 1;
+            IntList docs = postings.computeIfAbsent(term, t -> new IntList());
+            if (docs.size == 0 || docs.last() != doc) docs.add(doc);
+        }
+    }
+
+    // The header starts with a full commit id and a field separator; paths don't
+    private static boolean isHeader(byte[] record, int length) {
+        return length > 40 && record[40] == 0x1f;
+    }
+
+    private static int indexOf(byte[] record, int from, int end) {
+        for (int i = from; i < end; i++) {
+            if (record[i] == 0x1f) return i;
+        }
+        return end;
+    }
+
+    // NUL-terminated records of `git log -z`, copied into one reused buffer
+    private static final class RecordReader {
+        final InputStream in;
+        final byte[] chunk = new byte[1 << 16];
+        int at;
+        int filled;
+        byte[] buffer = new byte[4096];
+        int length;
+
+        RecordReader(InputStream in) {
+            this.in = in;
+        }
+
+        byte[] next() throws IOException {
+            length = 0;
+            while (true) {
+                if (at == filled) {
+                    filled = in.read(chunk);
+                    at = 0;
+                    if (filled <= 0) {
+                        filled = 0;
+                        return length == 0 ? null : buffer;
+                    }
+                }
+                int end = at;
+                while (end < filled && chunk[end] != 0) end++;
+                if (length + end - at > buffer.length) {
+                    buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + end - at));
+                }
+                System.arraycopy(chunk, at, buffer, length, end - at);
+                length += end - at;
+                if (end < filled) {
+                    at = end + 1;
+                    return buffer;
+                }
+                at = end;
+            }
+        }
+    }
+
+    private static final class IntList {
+        int[] values = new int[4];
+        int size;
+
+        void add(int v) {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = v;
+        }
+
+        int last() {
+            return values[size - 1];
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+
+    // ==================== SEGMENTS ====================
+
+    private static final class Segment {
+        final String name;
+        final ByteBuffer map;
+        final int firstDoc;
+        final int docCount;
+        final int terms;
+        final int termOffsets;
+        final int postingOffsets;
+        final int termBase;
+        final int postingBase;
+
+        Segment(String name, Path file) throws IOException {
+            this.name = name;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.BIG_ENDIAN);
+            }
+            if (map.capacity() < HEADER_BYTES || map.getInt(0) != MAGIC || map.getInt(4) != VERSION) {
+                throw new IOException("Not a search index segment: " + file);
+            }
+            firstDoc = map.getInt(8);
+            docCount = map.getInt(12);
+            terms = map.getInt(16);
+            termOffsets = HEADER_BYTES;
+            postingOffsets = termOffsets + 4 * (terms + 1);
+            termBase = postingOffsets + 4 * (terms + 1);
+            postingBase = termBase + map.getInt(termOffsets + 4 * terms);
+        }
+
+        byte[] term(int i) {
+            int from = map.getInt(termOffsets + 4 * i);
+            byte[] t = new byte[map.getInt(termOffsets + 4 * (i + 1)) - from];
+            map.get(termBase + from, t);
+            return t;
+        }
+
+        // Compares term i with key, or with key's length of it for a prefix match
+        private int compare(int i, byte[] key, boolean prefix) {
+            int from = termBase + map.getInt(termOffsets + 4 * i);
+            int len = termBase + map.getInt(termOffsets + 4 * (i + 1)) - from;
+            int n = Math.min(len, key.length);
+            for (int k = 0; k < n; k++) {
+                int cmp = (map.get(from + k) & 0xff) - (key[k] & 0xff);
+                if (cmp != 0) return cmp;
+            }
+            return prefix && len >= key.length ? 0 : len - key.length;
+        }
+
+        // First term not below key
+        private int lowerBound(byte[] key) {
+            int lo = 0;
+            int hi = terms;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (compare(mid, key, false) < 0) lo = mid + 1;
+                else hi = mid;
+            }
+            return lo;
+        }
+
+        int[] docs(Clause c) {
+            int first = lowerBound(c.term);
+            if (!c.prefix) {
+                return first < terms && compare(first, c.term, false) == 0 ? postings(first) : new int[0];
+            }
+            int end = first;
+            while (end < terms && compare(end, c.term, true) == 0) end++;
+            if (end - first == 1) return postings(first);
+            // Several words: their postings together, in order, once each
+            IntList all = new IntList();
+            for (int i = first; i < end; i++) {
+                for (int doc : postings(i)) all.add(doc);
+            }
+            int[] docs = all.toArray();
+            Arrays.sort(docs);
+            int n = 0;
+            for (int i = 0; i < docs.length; i++) {
+                if (n == 0 || docs[n - 1] != docs[i]) docs[n++] = docs[i];
+            }
+            return Arrays.copyOf(docs, n);
+        }
+
+        int[] postings(int i) {
+            int p = postingBase + map.getInt(postingOffsets + 4 * i);
+            int end = postingBase + map.getInt(postingOffsets + 4 * (i + 1));
+            IntList docs = new IntList();
+            int doc = firstDoc - 1;
+            while (p < end) {
+                int v = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = map.get(p++);
+                    v |= (b & 0x7f) << shift;
+                    shift += 7;
+                } while (b < 0);
+                doc += v;
+                docs.add(doc);
+            }
+            return docs.toArray();
+        }
+    }
+
+    private static int encodedSize(int[] docs, int firstDoc) {
+        int bytes = 0;
+        int previous = firstDoc - 1;
+        for (int doc : docs) {
+            int gap = doc - previous;
+            bytes += gap < 1 << 7 ? 1 : gap < 1 << 14 ? 2 : gap < 1 << 21 ? 3 : gap < 1 << 28 ? 4 : 5;
+            previous = doc;
+        }
+        return bytes;
+    }
+
+    private static void writeVarint(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+}
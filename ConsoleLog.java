@@ -0,0 +1,239 @@
+import javax.swing.*;
+import javax.swing.text.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.*;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The console panel's log. Any thread can append; lines wait in a lock-free
+ * queue and are moved into the text area in one batch per frame, so a clone
+ * printing thousands of lines costs a few EDT events instead of one each.
+ *
+ * The text area keeps only the newest lines (a ring over the document).
+ * Everything is also written to a rotating log file when a directory is
+ * given. The text area may come later (see attach); until then lines wait
+ * in the queue.
+ */
+class ConsoleLog implements Closeable {
+
+    static final int DEFAULT_MAX_LINES = 5000;
+
+    // About one frame; lines arriving within it share an EDT update
+    private static final int FRAME_MILLIS = 16;
+    private static final long MAX_FILE_BYTES = 1024 * 1024;
+    private static final int KEPT_FILES = 5;
+    private static final int WRITE_CHUNK = 64 * 1024;
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("HH:mm:ss");
+
+    private static class Line {
+        final long millis;
+        final String text;
+
+        Line(long millis, String text) {
+            this.millis = millis;
+            this.text = text;
+        }
+    }
+
+    private JTextArea area;    // EDT; null until attached
+    private final int maxLines;
+    private final ConcurrentLinkedQueue<Line> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+    private final Timer frameTimer;
+
+    // Timestamp cache, guarded by takePending()
+    private long stampSecond = Long.MIN_VALUE;
+    private String stamp;
+
+    private final File logFile;
+    private final ExecutorService fileWriter;
+    private OutputStream out;
+    private long fileBytes;
+
+    ConsoleLog(JTextArea area, int maxLines, File logDir) {
+        this.area = area;
+        this.maxLines = maxLines;
+        this.frameTimer = new Timer(FRAME_MILLIS, e -> drain());
+        frameTimer.setRepeats(false);
+
+        if (logDir != null) {
+            this.logFile = new File(logDir, "simplegit.log");
+            this.fileWriter = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "console-log-writer");
+                t.setDaemon(true);
+                return t;
+            });
+        } else {
+            this.logFile = null;
+            this.fileWriter = null;
+        }
+    }
+
+    /** Shows the log in {@code area}, starting with whatever is queued. Call on the EDT. */
+    void attach(JTextArea area) {
+        this.area = area;
+        drain();
+    }
+
+    /** Line cap from -Dsimplegit.console.lines, or the default. */
+    static int configuredMaxLines() {
+        return Integer.getInteger("simplegit.console.lines", DEFAULT_MAX_LINES);
+    }
+
+    /** Queues one message; safe from any thread. */
+    void append(String message) {
+        pending.add(new Line(System.currentTimeMillis(), message));
+        if (drainScheduled.compareAndSet(false, true)) {
+            frameTimer.restart();
+        }
+    }
+
+    /** Moves everything queued into the text area now rather than next frame. Call on the EDT. */
+    void flush() {
+        drain();
+    }
+
+    /** Empties the text area; the log file is untouched. Call on the EDT. */
+    void clear() {
+        if (area != null) area.setText("");
+    }
+
+    // Runs on the EDT once per frame while lines are arriving
+    private void drain() {
+        drainScheduled.set(false);
+        if (area == null) return;
+        String batch = takePending();
+        if (batch.isEmpty()) return;
+
+        Document doc = area.getDocument();
+        try {
+            doc.insertString(doc.getLength(), tail(batch, maxLines), null);
+            trim(doc);
+        } catch (BadLocationException e) {
+            // Offsets come from the document itself
+        }
+        area.setCaretPosition(doc.getLength());
+        spill(batch);
+    }
+
+    private synchronized String takePending() {
+        StringBuilder batch = new StringBuilder();
+        Line line;
+        while ((line = pending.poll()) != null) {
+            batch.append(stamp(line.millis)).append(line.text).append('\n');
+        }
+        return batch.toString();
+    }
+
+    // The last `lines` lines of text; a burst bigger than the cap never
+    // needs to enter the document at all
+    private static String tail(String text, int lines) {
+        int from = text.length() - 1;
+        for (int n = 0; n < lines; n++) {
+            from = text.lastIndexOf('\n', from - 1);
+            if (from < 0) return text;
+        }
+        return text.substring(from + 1);
+    }
+
+    // Drops the oldest lines past the cap. Trims a little extra so the
+    // remove (which shifts the whole document) doesn't run on every batch.
+    private void trim(Document doc) throws BadLocationException {
+        Element root = doc.getDefaultRootElement();
+        int lines = root.getElementCount() - 1;
+        if (lines <= maxLines + maxLines / 10) return;
+        int end = root.getElement(lines - maxLines).getStartOffset();
+        doc.remove(0, end);
+    }
+
+    private String stamp(long millis) {
+        long second = millis / 1000;
+        if (second != stampSecond) {
+            stampSecond = second;
+            stamp = "[" + TIME.format(LocalTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault())) + "] ";
+        }
+        return stamp;
+    }
+
+    // ==================== LOG FILE ====================
+
+    private void spill(String batch) {
+        if (fileWriter == null) return;
+        try {
+            fileWriter.execute(() -> write(batch));
+        } catch (RejectedExecutionException e) {
+            // Closed; the last lines went out in close()
+        }
+    }
+
+    // Runs on the writer thread only. Big batches go out in line-aligned
+    // chunks so a single burst still rotates at roughly the size limit.
+    private void write(String batch) {
+        try {
+            for (int from = 0; from < batch.length(); ) {
+                int to = Math.min(batch.length(), from + WRITE_CHUNK);
+                if (to < batch.length()) {
+                    int newline = batch.lastIndexOf('\n', to - 1);
+                    if (newline >= from) to = newline + 1;
+                }
+                byte[] bytes = batch.substring(from, to).getBytes(StandardCharsets.UTF_8);
+                if (out == null || fileBytes + bytes.length > MAX_FILE_BYTES) {
+                    openFile(bytes.length);
+                }
+                out.write(bytes);
+                fileBytes += bytes.length;
+                from = to;
+            }
+            out.flush();
+        } catch (IOException e) {
+            // Losing the disk copy must never take the console down with it
+        }
+    }
+
+    private void openFile(int incoming) throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+        logFile.getParentFile().mkdirs();
+        fileBytes = logFile.length();
+        if (fileBytes > 0 && fileBytes + incoming > MAX_FILE_BYTES) {
+            rotate();
+            fileBytes = 0;
+        }
+        out = new BufferedOutputStream(new FileOutputStream(logFile, true));
+    }
+
+    // simplegit.log -> .1 -> .2 ... the oldest falls off the end
+    private void rotate() {
+        String base = logFile.getPath();
+        new File(base + "." + KEPT_FILES).delete();
+        for (int i = KEPT_FILES - 1; i >= 1; i--) {
+            new File(base + "." + i).renameTo(new File(base + "." + (i + 1)));
+        }
+        logFile.renameTo(new File(base + ".1"));
+    }
+
+    /** Writes anything still queued to the log file and closes it. */
+    @Override
+    public void close() {
+        frameTimer.stop();
+        if (fileWriter == null) return;
+        String rest = takePending();
+        fileWriter.execute(() -> {
+            if (!rest.isEmpty()) write(rest);
+            try {
+                if (out != null) out.close();
+            } catch (IOException e) {}
+        });
+        fileWriter.shutdown();
+        try {
+            fileWriter.awaitTermination(2, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
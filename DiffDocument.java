@@ -0,0 +1,283 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * One file's diff as git printed it, kept as the UTF-8 bytes plus an int
+ * per line saying where it starts, so a 100 MB diff costs about its own
+ * size instead of a String per line. Lines are classified and numbered as
+ * they arrive and the @@ hunks indexed, so the view can jump between hunks
+ * and paint any screenful without scanning what is above it.
+ *
+ * Syntax colors come later from SyntaxHighlighter, as spans per line, on
+ * the loading thread. One thread writes while the EDT reads, so every
+ * access is synchronized; a paint only reads the fifty or so lines shown.
+ */
+class DiffDocument {
+
+    static final byte HEADER = 0;
+    static final byte HUNK = 1;
+    static final byte ADDED = 2;
+    static final byte REMOVED = 3;
+    static final byte CONTEXT = 4;
+    static final byte NOTE = 5;     // "\ No newline at end of file", "Binary files ... differ"
+
+    // Longer lines are cut when shown; minified files would otherwise be painted a megabyte at a time
+    static final int MAX_LINE_CHARS = 4000;
+    private static final int TAB_WIDTH = 4;
+
+    final String path;
+    private byte[] data = new byte[64 * 1024];
+    private int size;
+    private int pending;            // start of the line still waiting for its newline
+    private int[] lineStart = new int[1024];
+    private byte[] kind = new byte[1024];
+    private int[] oldNumber = new int[1024];
+    private int[] newNumber = new int[1024];
+    private int lines;
+    private int[] hunks = new int[64];
+    private int hunkCount;
+    private int added;
+    private int removed;
+    private int widest;
+    private boolean inHunk;
+    private int nextOld;
+    private int nextNew;
+    private int tabsInLine;
+
+    // Spans of line i are spanData[spanIndex[i] .. spanIndex[i + 1]), for i < colored
+    private int[] spanIndex = new int[1025];
+    private int[] spanData = new int[4096];
+    private int colored;
+
+    private boolean complete;
+    private boolean truncated;
+    private String error;
+
+    DiffDocument(String path) {
+        this.path = path;
+    }
+
+    // ==================== WRITING ====================
+
+    /** Appends output as read; lines are indexed once their newline arrives. */
+    synchronized void append(byte[] buf, int off, int len) {
+        if (size + len > data.length) {
+            data = Arrays.copyOf(data, Math.max(data.length * 2, size + len));
+        }
+        System.arraycopy(buf, off, data, size, len);
+        int from = size;
+        size += len;
+        int start = pending;
+        for (int i = from; i < size; i++) {
+            byte b = data[i];
+            if (b == '\t') {
+                tabsInLine++;
+            } else if (b == '\n') {
+                addLine(start, i);
+                start = i + 1;
+            }
+        }
+        pending = start;
+    }
+
+    /** Git is done: a last line without a newline still counts. */
+    synchronized void finish(String error, boolean truncated) {
+        if (pending < size) addLine(pending, size);
+        pending = size;
+        this.error = error;
+        this.truncated = truncated;
+        complete = true;
+    }
+
+    private void addLine(int start, int end) {
+        if (lines + 1 >= lineStart.length) {
+            int n = lineStart.length * 2;
+            lineStart = Arrays.copyOf(lineStart, n);
+            kind = Arrays.copyOf(kind, n);
+            oldNumber = Arrays.copyOf(oldNumber, n);
+            newNumber = Arrays.copyOf(newNumber, n);
+        }
+        byte k = classify(start, end);
+        lineStart[lines] = start;
+        kind[lines] = k;
+        oldNumber[lines] = k == CONTEXT || k == REMOVED ? nextOld++ : 0;
+        newNumber[lines] = k == CONTEXT || k == ADDED ? nextNew++ : 0;
+        if (k == HUNK) {
+            if (hunkCount == hunks.length) hunks = Arrays.copyOf(hunks, hunkCount * 2);
+            hunks[hunkCount++] = lines;
+        }
+        widest = Math.max(widest, Math.min(end - start + tabsInLine * (TAB_WIDTH - 1), MAX_LINE_CHARS));
+        tabsInLine = 0;
+        lines++;
+        lineStart[lines] = end + 1;
+    }
+
+    // Before the first @@ (and after a "diff" line) everything is header; inside a hunk the first byte says
+    private byte classify(int start, int end) {
+        if (startsWith(start, end, "@@")) {
+            inHunk = true;
+            parseHunkHeader(start, end);
+            return HUNK;
+        }
+        if (startsWith(start, end, "diff ")) inHunk = false;
+        if (!inHunk) {
+            return startsWith(start, end, "Binary files ") ? NOTE : HEADER;
+        }
+        switch (start < end ? data[start] : ' ') {
+            case '+':
+                added++;
+                return ADDED;
+            case '-':
+                removed++;
+                return REMOVED;
+            case '\\':
+                return NOTE;
+            default:
+                return CONTEXT;
+        }
+    }
+
+    // "@@ -12,7 +12,9 @@ context" -> the first old and new line numbers
+    private void parseHunkHeader(int start, int end) {
+        int[] pos = { start + 2 };
+        nextOld = numberAfter('-', pos, end);
+        nextNew = numberAfter('+', pos, end);
+    }
+
+    private int numberAfter(char sign, int[] pos, int end) {
+        int i = pos[0];
+        while (i < end && data[i] != sign) i++;
+        int n = 0;
+        for (i++; i < end && data[i] >= '0' && data[i] <= '9'; i++) {
+            n = n * 10 + data[i] - '0';
+        }
+        pos[0] = i;
+        return Math.max(n, 1);
+    }
+
+    private boolean startsWith(int start, int end, String prefix) {
+        if (end - start < prefix.length()) return false;
+        for (int i = 0; i < prefix.length(); i++) {
+            if (data[start + i] != prefix.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    /** Spans for the next uncolored line, packed by SyntaxHighlighter.span(). */
+    synchronized void addSpans(int[] spans, int count) {
+        if (colored + 2 > spanIndex.length) spanIndex = Arrays.copyOf(spanIndex, spanIndex.length * 2);
+        int at = spanIndex[colored];
+        if (at + count > spanData.length) spanData = Arrays.copyOf(spanData, Math.max(spanData.length * 2, at + count));
+        System.arraycopy(spans, 0, spanData, at, count);
+        spanIndex[++colored] = at + count;
+    }
+
+    // ==================== READING ====================
+
+    /** Complete lines so far. */
+    synchronized int lineCount() {
+        return lines;
+    }
+
+    /** Line {@code i} without its newline, tabs expanded, cut at MAX_LINE_CHARS. */
+    synchronized String text(int i) {
+        int start = lineStart[i];
+        int end = Math.max(start, lineStart[i + 1] - 1);
+        if (end > start && data[end - 1] == '\r') end--;
+        // Tabs and overlong lines are rare; most lines are one decode
+        int len = Math.min(end - start, MAX_LINE_CHARS * 4);
+        String s = new String(data, start, len, StandardCharsets.UTF_8);
+        if (s.indexOf('\t') >= 0) s = expandTabs(s);
+        return s.length() > MAX_LINE_CHARS ? s.substring(0, MAX_LINE_CHARS) + " …" : s;
+    }
+
+    private static String expandTabs(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 16);
+        // Column 0 is the +/-/space prefix, so stops are counted after it, as in the file
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\t' && sb.length() > 0) {
+                do sb.append(' '); while ((sb.length() - 1) % TAB_WIDTH != 0);
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    synchronized byte kind(int i) {
+        return kind[i];
+    }
+
+    /** Line number in the old file, or 0 for lines not in it. */
+    synchronized int oldNumber(int i) {
+        return oldNumber[i];
+    }
+
+    synchronized int newNumber(int i) {
+        return newNumber[i];
+    }
+
+    synchronized int hunkCount() {
+        return hunkCount;
+    }
+
+    /** Line index of hunk {@code h}'s @@ header. */
+    synchronized int hunkLine(int h) {
+        return hunks[h];
+    }
+
+    /** The hunk containing {@code line}, or -1 above the first one. */
+    synchronized int hunkAt(int line) {
+        int i = Arrays.binarySearch(hunks, 0, hunkCount, line);
+        return i >= 0 ? i : -i - 2;
+    }
+
+    synchronized int added() {
+        return added;
+    }
+
+    synchronized int removed() {
+        return removed;
+    }
+
+    /** Largest old or new line number so far, for the gutter's width. */
+    synchronized int maxLineNumber() {
+        return Math.max(nextOld, nextNew) - 1;
+    }
+
+    /** Longest line in characters, as shown. */
+    synchronized int widest() {
+        return widest;
+    }
+
+    synchronized int coloredLines() {
+        return colored;
+    }
+
+    /** Packed spans of line {@code i}, or null until the highlighter gets there. */
+    synchronized int[] spans(int i) {
+        return i < colored ? Arrays.copyOfRange(spanData, spanIndex[i], spanIndex[i + 1]) : null;
+    }
+
+    synchronized boolean isComplete() {
+        return complete;
+    }
+
+    synchronized boolean isTruncated() {
+        return truncated;
+    }
+
+    synchronized String error() {
+        return error;
+    }
+
+    synchronized long sizeBytes() {
+        return size;
+    }
+
+    /** Heap held, for the cache's budget. */
+    synchronized long heapBytes() {
+        return data.length + lineStart.length * 13L + spanIndex.length * 4L + spanData.length * 4L;
+    }
+}
@@ -0,0 +1,573 @@
+import javax.swing.*;
+import javax.swing.event.*;
+import java.awt.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.List;
+
+/**
+ * The Diff tab's content: `git diff` of the file selected in the Staged or
+ * Changed list, streamed into a DiffDocument and painted a screenful at a
+ * time, so a diff of a 50 MB generated file scrolls like a ten-line one
+ * and shows its first hunks while git is still writing the rest.
+ *
+ * Documents are cached by path and what the diff was made from (HEAD and
+ * index blob ids for staged changes, the index blob id and the file's
+ * size and mtime for unstaged ones), so going back to a file is instant
+ * until it changes. Selecting another file cancels the load in flight.
+ */
+class DiffView extends JComponent implements Scrollable {
+
+    private static final long CACHE_BYTES = 64L << 20;
+    private static final int MAX_DIFF_BYTES = 256 << 20;
+    private static final int POLL_MILLIS = 100;
+    private static final int READ_CHUNK = 64 * 1024;
+    private static final int PAD = 8;
+
+    private static final Color GUTTER_BG = new Color(36, 36, 36);
+    private static final Color GUTTER_FG = new Color(110, 110, 110);
+    private static final Color ADDED_BG = new Color(32, 56, 34);
+    private static final Color REMOVED_BG = new Color(66, 34, 36);
+    private static final Color HUNK_BG = new Color(38, 44, 62);
+    private static final Color ADDED_FG = new Color(150, 220, 140);
+    private static final Color REMOVED_FG = new Color(240, 150, 150);
+    private static final Color HUNK_FG = new Color(120, 165, 245);
+    private static final Color HEADER_FG = new Color(200, 200, 120);
+    private static final Color NOTE_FG = new Color(150, 150, 150);
+    // Indexed by SyntaxHighlighter style
+    private static final Color[] STYLE_FG = {
+        null,
+        new Color(197, 134, 192),   // keyword
+        new Color(206, 145, 120),   // string
+        new Color(106, 153, 85),    // comment
+        new Color(181, 206, 168),   // number
+    };
+
+    /** One file's diff as asked for; equal requests show the same thing. */
+    private static final class Request {
+        final File repo;
+        final GitObjectDatabase db;
+        final String path;
+        final String origPath;      // staged renames only
+        final boolean staged;
+        final boolean untracked;
+
+        Request(File repo, GitObjectDatabase db, String path, String origPath, boolean staged, char status) {
+            this.repo = repo;
+            this.db = db;
+            this.path = path;
+            this.origPath = origPath;
+            this.staged = staged;
+            this.untracked = !staged && status == '?';
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Request)) return false;
+            Request r = (Request) o;
+            return repo.equals(r.repo) && path.equals(r.path) && Objects.equals(origPath, r.origPath)
+                && staged == r.staged && untracked == r.untracked;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(repo, path, staged);
+        }
+    }
+
+    private final GitProcessPool pool;
+    private final TaskScheduler tasks;
+    // Most recently used last; guarded by itself since loads add from their own threads
+    private final LinkedHashMap<String, DiffDocument> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private volatile GitIndex index;
+    private final javax.swing.Timer poll = new javax.swing.Timer(POLL_MILLIS, e -> poll());
+
+    // EDT only
+    private Request current;
+    private TaskScheduler.Task loading;
+    private Request loadingRequest;
+    private DiffDocument shown;
+    private int shownLines = -1;
+    private int shownWidest = -1;
+
+    DiffView(GitProcessPool pool, TaskScheduler tasks) {
+        this.pool = pool;
+        this.tasks = tasks;
+        setOpaque(true);
+        setFocusable(true);
+    }
+
+    // ==================== LOADING ====================
+
+    /**
+     * Shows the diff of a row of the Staged ({@code staged}) or Changed list,
+     * from the cache when nothing it was made from has changed since.
+     * {@code db} may be null; nothing is cached then.
+     */
+    void show(File repo, GitObjectDatabase db, String path, String origPath, boolean staged, char status) {
+        current = new Request(repo, db, path, origPath, staged, status);
+        load(current);
+    }
+
+    /** Shows the current file again, reloading it if it changed; after a status refresh. */
+    void reload() {
+        if (current != null) load(current);
+    }
+
+    void clear() {
+        cancelLoad();
+        current = null;
+        display(null, null);
+    }
+
+    private void cancelLoad() {
+        if (loading != null) loading.cancel();
+        loading = null;
+        loadingRequest = null;
+    }
+
+    private void load(Request r) {
+        // Clicking the file being loaded again shouldn't start it over
+        if (r.equals(loadingRequest) && !loading.completion().isDone()) return;
+        cancelLoad();
+        loadingRequest = r;
+        loading = tasks.submitRead("Diff " + r.path, () -> {
+            String key = cacheKey(r);
+            DiffDocument doc;
+            synchronized (cache) {
+                doc = key == null ? null : cache.get(key);
+            }
+            if (doc != null) {
+                DiffDocument cached = doc;
+                SwingUtilities.invokeLater(() -> display(r, cached));
+                return;
+            }
+            doc = new DiffDocument(r.path);
+            if (key != null) {
+                synchronized (cache) {
+                    cache.put(key, doc);
+                }
+            }
+            DiffDocument fresh = doc;
+            SwingUtilities.invokeLater(() -> display(r, fresh));
+            stream(r, doc, key);
+        });
+    }
+
+    private void stream(Request r, DiffDocument doc, String key) throws IOException {
+        Colorer colorer = new Colorer(doc);
+        try {
+            if (r.untracked) {
+                readUntracked(r, doc, colorer);
+            } else {
+                pool.runStreamed(r.repo, in -> read(in, doc, colorer), diffArgs(r));
+            }
+            doc.finish(null, false);
+        } catch (TruncatedException e) {
+            doc.finish(null, true);
+        } catch (IOException e) {
+            TaskScheduler.Task task = TaskScheduler.current();
+            boolean cancelled = task != null && task.isCancelled();
+            doc.finish(cancelled ? "cancelled" : e.getMessage(), false);
+            // Half a diff must not be served from the cache later
+            forget(key, doc);
+            if (cancelled) throw e;
+        }
+        colorer.catchUp();
+        trimCache();
+    }
+
+    private static String[] diffArgs(Request r) {
+        List<String> args = new ArrayList<>(Arrays.asList(
+            "--literal-pathspecs", "-c", "core.quotepath=false",
+            "diff", "--no-color", "--no-ext-diff"));
+        if (r.staged) args.add("--cached");
+        if (r.origPath != null) args.add("-M");
+        args.add("--");
+        if (r.origPath != null) args.add(r.origPath);
+        args.add(r.path);
+        return args.toArray(new String[0]);
+    }
+
+    private static void read(InputStream in, DiffDocument doc, Colorer colorer) throws IOException {
+        byte[] buf = new byte[READ_CHUNK];
+        int n;
+        while ((n = in.read(buf)) > 0) {
+            doc.append(buf, 0, n);
+            colorer.catchUp();
+            if (doc.sizeBytes() > MAX_DIFF_BYTES) throw new TruncatedException();
+        }
+    }
+
+    // `git diff` ignores untracked files, so their "diff" is made here: every line added
+    private static void readUntracked(Request r, DiffDocument doc, Colorer colorer) throws IOException {
+        File file = new File(r.repo, r.path);
+        byte[] content;
+        try (InputStream in = new FileInputStream(file)) {
+            content = in.readNBytes(MAX_DIFF_BYTES);
+        }
+        int count = 0;
+        boolean binary = false;
+        for (int i = 0; i < content.length; i++) {
+            if (content[i] == '\n') count++;
+            if (content[i] == 0 && i < 8000) binary = true;
+        }
+        boolean partialLast = content.length > 0 && content[content.length - 1] != '\n';
+        if (partialLast) count++;
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(READ_CHUNK + 1024);
+        out.write(("diff --git a/" + r.path + " b/" + r.path + "\nuntracked file\n").getBytes(StandardCharsets.UTF_8));
+        if (binary) {
+            out.write(("Binary file " + r.path + " (" + content.length + " bytes)\n").getBytes(StandardCharsets.UTF_8));
+            doc.append(out.toByteArray(), 0, out.size());
+            return;
+        }
+        if (count > 0) {
+            out.write(("--- /dev/null\n+++ b/" + r.path + "\n@@ -0,0 +1," + count + " @@\n").getBytes(StandardCharsets.UTF_8));
+        }
+        int start = 0;
+        for (int i = 0; i <= content.length; i++) {
+            if (i < content.length && content[i] != '\n') continue;
+            if (i == content.length && !partialLast) break;
+            out.write('+');
+            out.write(content, start, i - start);
+            out.write('\n');
+            start = i + 1;
+            if (out.size() >= READ_CHUNK) {
+                doc.append(out.toByteArray(), 0, out.size());
+                out.reset();
+                colorer.catchUp();
+                if (Thread.currentThread().isInterrupted()) throw new InterruptedIOException("cancelled");
+            }
+        }
+        if (partialLast) out.write("\\ No newline at end of file\n".getBytes(StandardCharsets.UTF_8));
+        doc.append(out.toByteArray(), 0, out.size());
+        if (content.length == MAX_DIFF_BYTES) throw new TruncatedException();
+    }
+
+    /** Thrown by the reader to stop git once a diff passes MAX_DIFF_BYTES. */
+    private static final class TruncatedException extends IOException {
+        TruncatedException() {
+            super("diff too large");
+        }
+    }
+
+    /**
+     * Colors lines as they arrive, on the loading thread. Removed lines
+     * continue the old file and added ones the new, so each side has its
+     * own block comment state; context lines are in both.
+     */
+    private static final class Colorer {
+        private final DiffDocument doc;
+        private final SyntaxHighlighter highlighter;
+        private final SyntaxHighlighter.SpanBuffer spans = new SyntaxHighlighter.SpanBuffer();
+        private boolean oldInComment;
+        private boolean newInComment;
+
+        Colorer(DiffDocument doc) {
+            this.doc = doc;
+            this.highlighter = SyntaxHighlighter.forPath(doc.path);
+        }
+
+        void catchUp() {
+            if (highlighter == null) return;
+            int lines = doc.lineCount();
+            for (int i = doc.coloredLines(); i < lines; i++) {
+                spans.clear();
+                byte kind = doc.kind(i);
+                if (kind == DiffDocument.HUNK) {
+                    // A hunk starts somewhere in the middle of the file; assume outside a comment
+                    oldInComment = false;
+                    newInComment = false;
+                } else if (kind == DiffDocument.ADDED) {
+                    newInComment = highlighter.highlight(doc.text(i), 1, newInComment, spans);
+                } else if (kind == DiffDocument.REMOVED) {
+                    oldInComment = highlighter.highlight(doc.text(i), 1, oldInComment, spans);
+                } else if (kind == DiffDocument.CONTEXT) {
+                    newInComment = highlighter.highlight(doc.text(i), 1, newInComment, spans);
+                    oldInComment = newInComment;
+                }
+                doc.addSpans(spans.spans, spans.count);
+            }
+        }
+    }
+
+    private String cacheKey(Request r) {
+        if (r.db == null) return null;
+        try {
+            String stamp;
+            if (r.untracked) {
+                stamp = "untracked " + fileStamp(r);
+            } else {
+                GitIndex idx = index;
+                if (idx == null || idx.isStale()) {
+                    idx = GitIndex.read(r.db.getGitDir());
+                    index = idx;
+                }
+                if (idx == null) return null;
+                int i = idx.find(r.path);
+                String blob = i >= 0 ? idx.objectId(i) : "-";
+                stamp = r.staged
+                    ? "staged " + r.db.resolve("HEAD") + " " + blob
+                    : "changed " + blob + " " + fileStamp(r);
+            }
+            return r.repo.getAbsolutePath() + "\0" + r.origPath + "\0" + r.path + "\0" + stamp;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    // Size and mtime, like git's own stat check; "gone" for a deleted file
+    private static String fileStamp(Request r) {
+        try {
+            BasicFileAttributes a = Files.readAttributes(new File(r.repo, r.path).toPath(), BasicFileAttributes.class);
+            return a.size() + " " + a.lastModifiedTime().toMillis();
+        } catch (IOException e) {
+            return "gone";
+        }
+    }
+
+    private void forget(String key, DiffDocument doc) {
+        if (key == null) return;
+        synchronized (cache) {
+            cache.remove(key, doc);
+        }
+    }
+
+    // Least recently shown first, but never the newest
+    private void trimCache() {
+        synchronized (cache) {
+            long total = 0;
+            for (DiffDocument d : cache.values()) {
+                total += d.heapBytes();
+            }
+            Iterator<DiffDocument> it = cache.values().iterator();
+            while (total > CACHE_BYTES && cache.size() > 1 && it.hasNext()) {
+                total -= it.next().heapBytes();
+                it.remove();
+            }
+        }
+    }
+
+    // ==================== VIEW ====================
+
+    private void display(Request r, DiffDocument doc) {
+        if (!Objects.equals(r, current)) return;   // another file was selected meanwhile
+        boolean changed = doc != shown;
+        shown = doc;
+        shownLines = -1;
+        shownWidest = -1;
+        if (changed && getParent() instanceof JViewport) {
+            ((JViewport) getParent()).setViewPosition(new Point(0, 0));
+        }
+        poll();
+        if (doc != null && !doc.isComplete()) poll.start();
+    }
+
+    // While a document loads: grow to what has arrived, repaint what is visible
+    private void poll() {
+        DiffDocument doc = shown;
+        if (doc == null || doc.isComplete()) poll.stop();
+        int lines = doc == null ? 0 : doc.lineCount();
+        int widest = doc == null ? 0 : doc.widest();
+        if (lines != shownLines || widest != shownWidest) {
+            shownLines = lines;
+            shownWidest = widest;
+            revalidate();
+        }
+        repaint();
+        fireStateChanged();
+    }
+
+    /** The document shown, or null; it may still be loading. */
+    DiffDocument document() {
+        return shown;
+    }
+
+    /** "+12 −3 · hunk 2 / 7 · 1,234 lines", with what is still going on. */
+    String summary() {
+        DiffDocument doc = shown;
+        if (doc == null) return current == null ? "Select a file to see its changes" : "Loading " + current.path + "...";
+        StringBuilder s = new StringBuilder(doc.path).append("   +").append(doc.added())
+            .append(" −").append(doc.removed());
+        int hunks = doc.hunkCount();
+        if (hunks > 0) {
+            int at = Math.max(0, doc.hunkAt(firstVisibleLine()));
+            s.append(" · hunk ").append(at + 1).append(" / ").append(hunks);
+        }
+        s.append(String.format(" · %,d lines", doc.lineCount()));
+        if (!doc.isComplete()) s.append(" · loading...");
+        if (doc.isTruncated()) s.append(" · cut at ").append(MAX_DIFF_BYTES >> 20).append(" MB");
+        if (doc.error() != null) s.append(" · failed: ").append(doc.error());
+        return s.toString();
+    }
+
+    void nextHunk() {
+        DiffDocument doc = shown;
+        if (doc == null) return;
+        int top = firstVisibleLine();
+        int h = doc.hunkAt(top) + 1;
+        if (h < doc.hunkCount()) scrollToLine(doc.hunkLine(h));
+    }
+
+    void previousHunk() {
+        DiffDocument doc = shown;
+        if (doc == null) return;
+        int top = firstVisibleLine();
+        int h = doc.hunkAt(top);
+        if (h >= 0 && doc.hunkLine(h) == top) h--;
+        if (h >= 0) scrollToLine(doc.hunkLine(h));
+    }
+
+    private int firstVisibleLine() {
+        return getVisibleRect().y / lineHeight();
+    }
+
+    private void scrollToLine(int line) {
+        if (!(getParent() instanceof JViewport)) return;
+        JViewport viewport = (JViewport) getParent();
+        int maxY = Math.max(0, getHeight() - viewport.getExtentSize().height);
+        viewport.setViewPosition(new Point(viewport.getViewPosition().x, Math.min(line * lineHeight(), maxY)));
+    }
+
+    void addChangeListener(ChangeListener l) {
+        listenerList.add(ChangeListener.class, l);
+    }
+
+    private void fireStateChanged() {
+        ChangeEvent e = new ChangeEvent(this);
+        for (ChangeListener l : listenerList.getListeners(ChangeListener.class)) {
+            l.stateChanged(e);
+        }
+    }
+
+    private int lineHeight() {
+        return getFontMetrics(getFont()).getHeight();
+    }
+
+    private int gutterWidth(DiffDocument doc) {
+        FontMetrics fm = getFontMetrics(getFont());
+        int digits = Math.max(4, String.valueOf(doc.maxLineNumber()).length());
+        return 2 * (digits * fm.charWidth('0') + PAD);
+    }
+
+    @Override
+    public Dimension getPreferredSize() {
+        DiffDocument doc = shown;
+        if (doc == null) return new Dimension(0, 0);
+        FontMetrics fm = getFontMetrics(getFont());
+        return new Dimension(gutterWidth(doc) + 2 * PAD + (doc.widest() + 2) * fm.charWidth('m'),
+            doc.lineCount() * fm.getHeight());
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        Rectangle clip = g.getClipBounds();
+        g.setColor(getBackground());
+        g.fillRect(clip.x, clip.y, clip.width, clip.height);
+        DiffDocument doc = shown;
+        g.setFont(getFont());
+        FontMetrics fm = g.getFontMetrics();
+        if (doc == null || doc.lineCount() == 0) {
+            String message = doc == null ? summary() : !doc.isComplete() ? "Loading..."
+                : doc.error() != null ? "git diff failed: " + doc.error() : "No changes";
+            g.setColor(NOTE_FG);
+            g.drawString(message, PAD, PAD + fm.getAscent());
+            return;
+        }
+
+        int lh = fm.getHeight();
+        int gutter = gutterWidth(doc);
+        int column = gutter / 2;
+        int first = Math.max(0, clip.y / lh);
+        int last = Math.min(doc.lineCount() - 1, (clip.y + clip.height) / lh);
+        g.setColor(GUTTER_BG);
+        g.fillRect(0, clip.y, gutter, clip.height);
+
+        for (int i = first; i <= last; i++) {
+            int y = i * lh;
+            int baseline = y + fm.getAscent();
+            byte kind = doc.kind(i);
+            Color bg = kind == DiffDocument.ADDED ? ADDED_BG : kind == DiffDocument.REMOVED ? REMOVED_BG
+                : kind == DiffDocument.HUNK ? HUNK_BG : null;
+            if (bg != null) {
+                g.setColor(bg);
+                g.fillRect(gutter, y, Math.max(getWidth(), clip.x + clip.width) - gutter, lh);
+            }
+
+            g.setColor(GUTTER_FG);
+            int oldNo = doc.oldNumber(i);
+            int newNo = doc.newNumber(i);
+            if (oldNo > 0) drawRight(g, fm, String.valueOf(oldNo), column - PAD, baseline);
+            if (newNo > 0) drawRight(g, fm, String.valueOf(newNo), gutter - PAD, baseline);
+
+            Color fg = kind == DiffDocument.ADDED ? ADDED_FG : kind == DiffDocument.REMOVED ? REMOVED_FG
+                : kind == DiffDocument.HUNK ? HUNK_FG : kind == DiffDocument.HEADER ? HEADER_FG
+                : kind == DiffDocument.NOTE ? NOTE_FG : getForeground();
+            drawLine(g, fm, doc.text(i), doc.spans(i), fg, gutter + PAD, baseline);
+        }
+    }
+
+    // Uncolored stretches in the line's own color, spans in their style's
+    private static void drawLine(Graphics g, FontMetrics fm, String text, int[] spans, Color fg, int x, int baseline) {
+        if (spans == null || spans.length == 0) {
+            g.setColor(fg);
+            g.drawString(text, x, baseline);
+            return;
+        }
+        int pos = 0;
+        for (int span : spans) {
+            int start = Math.min(SyntaxHighlighter.spanStart(span), text.length());
+            int end = Math.min(start + SyntaxHighlighter.spanLength(span), text.length());
+            x = drawPart(g, fm, text, pos, start, fg, x, baseline);
+            x = drawPart(g, fm, text, start, end, STYLE_FG[SyntaxHighlighter.spanStyle(span)], x, baseline);
+            pos = end;
+        }
+        drawPart(g, fm, text, pos, text.length(), fg, x, baseline);
+    }
+
+    private static int drawPart(Graphics g, FontMetrics fm, String text, int from, int to, Color color, int x, int baseline) {
+        if (from >= to) return x;
+        String part = text.substring(from, to);
+        g.setColor(color);
+        g.drawString(part, x, baseline);
+        return x + fm.stringWidth(part);
+    }
+
+    private static void drawRight(Graphics g, FontMetrics fm, String s, int right, int baseline) {
+        g.drawString(s, right - fm.stringWidth(s), baseline);
+    }
+
+    // ==================== SCROLLABLE ====================
+
+    @Override
+    public Dimension getPreferredScrollableViewportSize() {
+        return getPreferredSize();
+    }
+
+    @Override
+    public int getScrollableUnitIncrement(Rectangle visible, int orientation, int direction) {
+        FontMetrics fm = getFontMetrics(getFont());
+        return orientation == SwingConstants.VERTICAL ? fm.getHeight() : 4 * fm.charWidth('m');
+    }
+
+    @Override
+    public int getScrollableBlockIncrement(Rectangle visible, int orientation, int direction) {
+        int lh = lineHeight();
+        return orientation == SwingConstants.VERTICAL ? Math.max(lh, visible.height - lh) : visible.width / 2;
+    }
+
+    // Fill the viewport when shorter or narrower than it, so the background is ours
+    @Override
+    public boolean getScrollableTracksViewportWidth() {
+        return getParent() instanceof JViewport && getParent().getWidth() > getPreferredSize().width;
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportHeight() {
+        return getParent() instanceof JViewport && getParent().getHeight() > getPreferredSize().height;
+    }
+}
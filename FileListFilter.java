@@ -0,0 +1,64 @@
+import javax.swing.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs one file list's filter box off the EDT. Each keystroke's query is
+ * matched through a PathFilter over the list's current rows and handed
+ * back to the model on the EDT; a query overtaken by a later keystroke
+ * stops where it is and is never shown. The index is built by the first
+ * query after the rows change, or ahead of it by prepare(), and reused
+ * until they change again.
+ */
+class FileListFilter {
+
+    // One thread for both lists: a query is a few milliseconds, an index build a few hundred
+    private static final ExecutorService WORKER = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "file-filter");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final FileListModel model;
+    private final ListSelectionModel selection;
+    private final AtomicInteger generation = new AtomicInteger();
+    private volatile PathFilter index;    // written by the worker only
+
+    FileListFilter(FileListModel model, ListSelectionModel selection) {
+        this.model = model;
+        this.selection = selection;
+    }
+
+    /** Filters the list to {@code query}; an empty one shows everything right away. Call on the EDT. */
+    void setQuery(String query) {
+        int current = generation.incrementAndGet();
+        FileListModel.Rows rows = model.rows();
+        if (query.trim().isEmpty()) {
+            model.setFilter(rows, "", null, selection);
+            return;
+        }
+        WORKER.execute(() -> {
+            if (generation.get() != current) return;
+            int[] shown = indexFor(rows).matches(query, () -> generation.get() != current);
+            if (shown == null) return;
+            SwingUtilities.invokeLater(() -> {
+                if (generation.get() == current) model.setFilter(rows, query, shown, selection);
+            });
+        });
+    }
+
+    /** Builds the index for the rows shown now, so the first keystroke doesn't wait for it. */
+    void prepare() {
+        FileListModel.Rows rows = model.rows();
+        WORKER.execute(() -> indexFor(rows));
+    }
+
+    private PathFilter indexFor(FileListModel.Rows rows) {
+        PathFilter f = index;
+        if (f == null || f.rows() != rows) {
+            f = PathFilter.build(rows);
+            index = f;
+        }
+        return f;
+    }
+}
@@ -0,0 +1,449 @@
+import javax.swing.*;
+import javax.swing.event.ListDataEvent;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.IntPredicate;
+
+/**
+ * List model for the staged/changed panels, kept in path order.
+ *
+ * Rows live in primitive arrays: one status byte and one PathStore id per
+ * row, so a 500k-file change set doesn't cost 500k Strings. A staged rename
+ * also has its old path's id in a second column, allocated with the first
+ * rename; rows sort and match by the new path. The "S path" String JList
+ * asks for is only built for rows that are actually painted, and a few
+ * hundred of those are cached while scrolling.
+ *
+ * update() replaces the contents with a merge-style diff against the
+ * previous rows and reports it as a few interval events, so JList only
+ * relayouts and repaints what moved.
+ *
+ * Rows can also carry +/- line counts from LineStats. They arrive after
+ * the rows, in batches, and a row whose path and status survive a
+ * refresh keeps its counts until new ones come in.
+ *
+ * A filter narrows what the list shows to some of the rows without
+ * touching them: indexes given to and taken from the model are positions
+ * among the rows shown, mapped through one int array. FileListFilter
+ * works out which rows those are; update() keeps the filter, checking only
+ * the rows that weren't there before.
+ */
+class FileListModel extends AbstractListModel<String> {
+
+    private static final int NONE = -1;
+    // Past this many separate runs, one reset is cheaper than the events
+    private static final int MAX_INTERVALS = 512;
+    // Comfortably more than the rows on screen at once
+    private static final int CACHED_ROWS = 256;
+
+    /**
+     * A batch of rows built off the EDT and handed to update(). Batches that
+     * share a PathStore share the bytes of paths they have in common.
+     */
+    static class Rows {
+        final PathStore paths;
+        private byte[] status = new byte[64];
+        private int[] ids = new int[64];
+        // Rename sources, NONE for other rows; null until the first rename
+        private int[] origIds;
+        private int size;
+        // Added/removed pairs, allocated with the first counts; EDT only once handed to update()
+        private int[] stats;
+
+        Rows(PathStore paths) {
+            this.paths = paths;
+        }
+
+        void add(char status, String path) {
+            add(status, path, null);
+        }
+
+        /** A row for {@code path}; {@code origPath} is a rename's source, otherwise null. */
+        void add(char status, String path, String origPath) {
+            if (size == ids.length) {
+                this.status = Arrays.copyOf(this.status, size * 2);
+                ids = Arrays.copyOf(ids, size * 2);
+                if (origIds != null) origIds = Arrays.copyOf(origIds, size * 2);
+            }
+            if (origPath != null && origIds == null) {
+                origIds = new int[ids.length];
+                Arrays.fill(origIds, NONE);
+            }
+            this.status[size] = (byte) status;
+            if (origIds != null) origIds[size] = origPath == null ? NONE : paths.add(origPath);
+            ids[size++] = paths.add(path);
+        }
+
+        int size() {
+            return size;
+        }
+
+        /** Readable from any thread once handed to update(), which sorts them. */
+        char statusAt(int i) {
+            return (char) (status[i] & 0xff);
+        }
+
+        String pathAt(int i) {
+            return paths.get(ids[i]);
+        }
+
+        int idAt(int i) {
+            return ids[i];
+        }
+
+        /** The rename source of row i, or null. */
+        String origPathAt(int i) {
+            return origIds == null || origIds[i] == NONE ? null : paths.get(origIds[i]);
+        }
+
+        boolean hasOrigPaths() {
+            return origIds != null;
+        }
+
+        private void setStats(int i, int added, int removed) {
+            if (stats == null) {
+                stats = new int[size * 2];
+                Arrays.fill(stats, LineStats.UNKNOWN);
+            }
+            stats[2 * i] = added;
+            stats[2 * i + 1] = removed;
+        }
+
+        // Done filling: drop spare capacity and the store's lookup table
+        private void trim() {
+            status = Arrays.copyOf(status, size);
+            ids = Arrays.copyOf(ids, size);
+            if (origIds != null) origIds = Arrays.copyOf(origIds, size);
+            paths.trim();
+        }
+
+        // Status output is nearly always in path order already, so check first
+        private void sortByPath() {
+            boolean sorted = true;
+            for (int i = 1; i < size && sorted; i++) {
+                sorted = PathStore.compare(paths, ids[i - 1], paths, ids[i]) <= 0;
+            }
+            if (sorted) return;
+            Integer[] order = new Integer[size];
+            for (int i = 0; i < size; i++) order[i] = i;
+            Arrays.sort(order, (a, b) -> PathStore.compare(paths, ids[a], paths, ids[b]));
+            byte[] s = new byte[size];
+            int[] d = new int[size];
+            int[] o = origIds == null ? null : new int[size];
+            for (int i = 0; i < size; i++) {
+                s[i] = status[order[i]];
+                d[i] = ids[order[i]];
+                if (o != null) o[i] = origIds[order[i]];
+            }
+            status = s;
+            ids = d;
+            origIds = o;
+        }
+    }
+
+    private Rows rows = new Rows(new PathStore());
+    private int maxRowLength;
+    // Shown position -> row, ascending; null when every row is shown
+    private int[] visible;
+    private String filter = "";
+
+    private final String[] cached = new String[CACHED_ROWS];
+    private final int[] cachedIndex = new int[CACHED_ROWS];
+
+    FileListModel() {
+        Arrays.fill(cachedIndex, -1);
+    }
+
+    @Override
+    public int getSize() {
+        return visible == null ? rows.size : visible.length;
+    }
+
+    /** Rows in the model, shown or not. */
+    int totalSize() {
+        return rows.size;
+    }
+
+    private int row(int index) {
+        return visible == null ? index : visible[index];
+    }
+
+    @Override
+    public String getElementAt(int index) {
+        int slot = index & (CACHED_ROWS - 1);
+        if (cachedIndex[slot] == index) {
+            return cached[slot];
+        }
+        String row = statusAt(index) + " " + pathAt(index);
+        cached[slot] = row;
+        cachedIndex[slot] = index;
+        return row;
+    }
+
+    boolean isEmpty() {
+        return rows.size == 0;
+    }
+
+    char statusAt(int index) {
+        return rows.statusAt(row(index));
+    }
+
+    String pathAt(int index) {
+        return rows.pathAt(row(index));
+    }
+
+    /** A staged rename's old path, otherwise null. */
+    String origPathAt(int index) {
+        return rows.origPathAt(row(index));
+    }
+
+    /** All rows, shown or not, for LineStats to count and FileListFilter to index. */
+    Rows rows() {
+        return rows;
+    }
+
+    /** Lines added, LineStats.BINARY, or LineStats.UNKNOWN until counted. */
+    int addedAt(int index) {
+        return rows.stats == null ? LineStats.UNKNOWN : rows.stats[2 * row(index)];
+    }
+
+    int removedAt(int index) {
+        return rows.stats == null ? LineStats.UNKNOWN : rows.stats[2 * row(index) + 1];
+    }
+
+    /**
+     * Stores (row, added, removed) triples counted for {@code forRows} and
+     * repaints those rows; dropped if another update() came in between.
+     */
+    void setStats(Rows forRows, int[] results, int count) {
+        if (forRows != rows || count == 0) return;
+        int first = Integer.MAX_VALUE;
+        int last = -1;
+        for (int i = 0; i < count; i += 3) {
+            int row = results[i];
+            rows.setStats(row, results[i + 1], results[i + 2]);
+            first = Math.min(first, row);
+            last = Math.max(last, row);
+        }
+        if (visible != null) {
+            // The shown positions those rows fall between
+            first = firstShownFrom(first);
+            last = firstShownFrom(last + 1) - 1;
+            if (first > last) return;
+        }
+        fireContentsChanged(this, first, last);
+    }
+
+    // Shown position of the first shown row at or after `row`
+    private int firstShownFrom(int row) {
+        int index = Arrays.binarySearch(visible, row);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    /** Length of the longest row in UTF-8 bytes (an upper bound on its chars). */
+    int maxRowLength() {
+        return maxRowLength;
+    }
+
+    /** Approximate heap held by the rows. */
+    long heapBytes() {
+        return rows.paths.heapBytes() + rows.status.length + 4L * rows.ids.length
+            + (rows.origIds == null ? 0 : 4L * rows.origIds.length)
+            + (rows.stats == null ? 0 : 4L * rows.stats.length);
+    }
+
+    /** The path part of a row: everything after the status letter. */
+    static String pathOf(String row) {
+        return row.length() > 2 ? row.substring(2) : "";
+    }
+
+    /** Shown position of {@code path}, or -1 if it isn't shown. */
+    int indexOfPath(String path) {
+        int row = rowOfPath(path);
+        if (row < 0 || visible == null) return row;
+        int index = Arrays.binarySearch(visible, row);
+        return index < 0 ? -1 : index;
+    }
+
+    private int rowOfPath(String path) {
+        byte[] key = path.getBytes(StandardCharsets.UTF_8);
+        int lo = 0;
+        int hi = rows.size - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = rows.paths.compare(rows.ids[mid], key, 0, key.length);
+            if (cmp < 0) lo = mid + 1;
+            else if (cmp > 0) hi = mid - 1;
+            else return mid;
+        }
+        return -1;
+    }
+
+    /**
+     * Like update(next), keeping the same paths selected in {@code selection}.
+     * The selection, lead and anchor are lifted off first: JList shifts them
+     * on every interval event and relayouts the whole list each time, which is
+     * slow on long lists.
+     */
+    void update(Rows next, ListSelectionModel selection) {
+        List<String> selected = liftSelection(selection);
+        update(next);
+        restoreSelection(selection, selected);
+    }
+
+    /** The filter in effect, "" for none. */
+    String filter() {
+        return filter;
+    }
+
+    /**
+     * Shows only rows {@code shown} (ascending, from PathFilter) of
+     * {@code forRows}, keeping the selected paths that stay in view; dropped
+     * if another update() came in between. A null {@code shown} shows all.
+     */
+    void setFilter(Rows forRows, String query, int[] shown, ListSelectionModel selection) {
+        if (forRows != rows) return;
+        List<String> selected = liftSelection(selection);
+        int old = getSize();
+        filter = query.trim();
+        visible = filter.isEmpty() ? null : shown;
+        Arrays.fill(cachedIndex, -1);
+        Arrays.fill(cached, null);
+        if (old > 0) fireIntervalRemoved(this, 0, old - 1);
+        if (getSize() > 0) fireIntervalAdded(this, 0, getSize() - 1);
+        restoreSelection(selection, selected);
+    }
+
+    private List<String> liftSelection(ListSelectionModel selection) {
+        List<String> selected = new ArrayList<>();
+        int lead = selection.getLeadSelectionIndex();
+        for (int i = Math.max(0, selection.getMinSelectionIndex());
+                i <= Math.min(selection.getMaxSelectionIndex(), getSize() - 1); i++) {
+            // The lead goes last so it is still the lead afterwards
+            if (i != lead && selection.isSelectedIndex(i)) selected.add(pathAt(i));
+        }
+        if (lead >= 0 && lead < getSize() && selection.isSelectedIndex(lead)) {
+            selected.add(pathAt(lead));
+        }
+        selection.clearSelection();
+        selection.setAnchorSelectionIndex(-1);
+        selection.setLeadSelectionIndex(-1);
+        return selected;
+    }
+
+    private void restoreSelection(ListSelectionModel selection, List<String> selected) {
+        for (String path : selected) {
+            int index = indexOfPath(path);
+            if (index >= 0) selection.addSelectionInterval(index, index);
+        }
+    }
+
+    /** Replaces the rows with {@code next} (sorted here by path). Call on the EDT. */
+    void update(Rows next) {
+        next.trim();
+        next.sortByPath();
+        Rows old = rows;
+
+        // Each interval is {type, first, last} against the list as it stands
+        // once the earlier intervals have been applied
+        List<int[]> intervals = new ArrayList<>();
+        int longest = 0;
+        int i = 0;
+        int j = 0;
+        // Under a filter: rows that stay keep whether they were shown, new ones are checked
+        IntPredicate matches = filter.isEmpty() ? null : PathFilter.matcher(next, filter);
+        int[] shown = matches == null ? null : new int[Math.max(16, Math.min(next.size, visible.length))];
+        int count = 0;
+        int v = 0;
+        while (i < old.size || j < next.size) {
+            int cmp;
+            if (i == old.size) cmp = 1;
+            else if (j == next.size) cmp = -1;
+            else cmp = PathStore.compare(old.paths, old.ids[i], next.paths, next.ids[j]);
+
+            if (cmp == 0) {
+                boolean same = old.status[i] == next.status[j] && sameOrigin(old, i, next, j);
+                if (!same && intervals.size() <= MAX_INTERVALS) {
+                    addInterval(intervals, ListDataEvent.CONTENTS_CHANGED, j);
+                }
+                if (old.stats != null && same && old.stats[2 * i] != LineStats.UNKNOWN) {
+                    next.setStats(j, old.stats[2 * i], old.stats[2 * i + 1]);
+                }
+                if (matches != null) {
+                    while (v < visible.length && visible[v] < i) v++;
+                    if (v < visible.length && visible[v] == i) shown = show(shown, count++, j);
+                }
+                i++;
+            } else if (cmp < 0) {
+                // Gone: removed at the position the new list has reached
+                if (intervals.size() <= MAX_INTERVALS) {
+                    addInterval(intervals, ListDataEvent.INTERVAL_REMOVED, j);
+                }
+                i++;
+                continue;
+            } else {
+                if (intervals.size() <= MAX_INTERVALS) addInterval(intervals, ListDataEvent.INTERVAL_ADDED, j);
+                if (matches != null && matches.test(j)) shown = show(shown, count++, j);
+            }
+            int length = next.paths.length(next.ids[j]) + 2;
+            if (next.origIds != null && next.origIds[j] != NONE) length += next.paths.length(next.origIds[j]) + 4;
+            longest = Math.max(longest, length);
+            j++;
+        }
+
+        int oldSize = getSize();
+        rows = next;
+        maxRowLength = longest;
+        Arrays.fill(cachedIndex, -1);
+        Arrays.fill(cached, null);
+        if (matches != null) {
+            // The intervals are in rows, not shown positions; a refresh is rare next to keystrokes
+            visible = Arrays.copyOf(shown, count);
+            if (oldSize > 0) fireIntervalRemoved(this, 0, oldSize - 1);
+            if (visible.length > 0) fireIntervalAdded(this, 0, visible.length - 1);
+            return;
+        }
+        if (intervals.size() > MAX_INTERVALS) {
+            if (old.size > 0) fireIntervalRemoved(this, 0, old.size - 1);
+            if (next.size > 0) fireIntervalAdded(this, 0, next.size - 1);
+            return;
+        }
+        for (int[] iv : intervals) {
+            switch (iv[0]) {
+                case ListDataEvent.INTERVAL_REMOVED: fireIntervalRemoved(this, iv[1], iv[2]); break;
+                case ListDataEvent.INTERVAL_ADDED: fireIntervalAdded(this, iv[1], iv[2]); break;
+                default: fireContentsChanged(this, iv[1], iv[2]); break;
+            }
+        }
+    }
+
+    // Both rows renamed from the same path, or neither renamed
+    private static boolean sameOrigin(Rows a, int i, Rows b, int j) {
+        int x = a.origIds == null ? NONE : a.origIds[i];
+        int y = b.origIds == null ? NONE : b.origIds[j];
+        if (x == NONE || y == NONE) return x == y;
+        return PathStore.compare(a.paths, x, b.paths, y) == 0;
+    }
+
+    private static int[] show(int[] shown, int at, int row) {
+        if (at == shown.length) shown = Arrays.copyOf(shown, at * 2);
+        shown[at] = row;
+        return shown;
+    }
+
+    // Extends the last run when this step continues it, otherwise starts a new one
+    private static void addInterval(List<int[]> intervals, int type, int at) {
+        int[] last = intervals.isEmpty() ? null : intervals.get(intervals.size() - 1);
+        if (last != null && last[0] == type) {
+            if (type == ListDataEvent.INTERVAL_REMOVED && last[1] == at) {
+                last[2]++;
+                return;
+            }
+            if (type != ListDataEvent.INTERVAL_REMOVED && last[2] == at - 1) {
+                last[2] = at;
+                return;
+            }
+        }
+        intervals.add(new int[] { type, at, at });
+    }
+}
@@ -0,0 +1,380 @@
+import javax.swing.event.*;
+import javax.swing.tree.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Tree model for the staged/changed panels: the rows of a FileListModel
+ * as a directory tree.
+ *
+ * Rows are in path order, so every directory is a contiguous run of them
+ * and a node is only a name and a row range; the rows themselves are never
+ * copied. A directory's children are worked out the first time JTree asks
+ * for them, one binary search per subdirectory, so a collapsed directory
+ * costs nothing however much it holds. A directory that holds nothing but
+ * one other directory is shown merged with it ("src/main/java"). Each
+ * directory node counts its rows by status.
+ *
+ * A staged rename sorts by its new path like any other row and sits under
+ * it, remembering the old one.
+ *
+ * update() re-resolves only the nodes JTree has loaded against the new
+ * rows, keeping the ones that are still there, and reports the difference
+ * as inserted/removed/changed events, so expansion and selection survive
+ * a refresh.
+ */
+class FileTreeModel implements TreeModel {
+
+    /** Statuses counted separately; anything else counts as the last one. */
+    static final String STATUSES = "MAD?R";
+    // Rows between running totals, so a directory's counts are a subtraction and two short scans
+    private static final int BLOCK = 64;
+
+    static final class Node {
+        final Node parent;
+        final String name;
+        final String path;      // "" for the root; a directory's has no trailing '/'
+        final boolean directory;
+        int from;               // rows covered, from inclusive, to exclusive
+        int to;
+        char status;            // a file's
+        String origPath;        // a renamed file's old path, otherwise null
+        int[] counts;           // a directory's, per STATUSES and one more for the rest
+        List<Node> children;    // null until first asked for
+
+        Node(Node parent, String name, String path, boolean directory) {
+            this.parent = parent;
+            this.name = name;
+            this.path = path;
+            this.directory = directory;
+        }
+
+        // What rows under this directory start with
+        String prefix() {
+            return path.isEmpty() ? "" : path + "/";
+        }
+
+        private String key() {
+            return directory ? name + "/" : name;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private final Node root = new Node(null, "", "", true);
+    private final EventListenerList listeners = new EventListenerList();
+    private FileListModel.Rows rows = new FileListModel.Rows(new PathStore());
+    // Rows of the renames, ascending
+    private int[] renamedAt = new int[0];
+    // Rows of each status before row k * BLOCK, at k * (STATUSES.length() + 1)
+    private int[] totals = new int[STATUSES.length() + 1];
+
+    FileTreeModel() {
+        root.counts = new int[STATUSES.length() + 1];
+    }
+
+    /**
+     * Shows {@code next}, as sorted by FileListModel.update(). Only loaded
+     * nodes are looked at again. Call on the EDT.
+     */
+    void update(FileListModel.Rows next) {
+        rows = next;
+        renamedAt = renames(next);
+        int kinds = STATUSES.length() + 1;
+        totals = new int[(next.size() / BLOCK + 1) * kinds];
+        for (int i = 0; i + BLOCK <= next.size(); i += BLOCK) {
+            int at = i / BLOCK * kinds;
+            System.arraycopy(totals, at, totals, at + kinds, kinds);
+            for (int r = i; r < i + BLOCK; r++) totals[at + kinds + kind(next.statusAt(r))]++;
+        }
+        root.from = 0;
+        root.to = next.size();
+        root.counts = count(0, next.size());
+        if (root.children != null) refresh(root);
+    }
+
+    /** Directory nodes JTree has asked the children of, the root included. */
+    int loadedDirectories() {
+        return loaded(root);
+    }
+
+    private int loaded(Node node) {
+        if (node.children == null) return 0;
+        int n = 1;
+        for (Node child : node.children) n += loaded(child);
+        return n;
+    }
+
+    /**
+     * Paths to stage or unstage for the selected nodes: a directory once, as
+     * a pathspec for everything under it, and nothing else inside it. A
+     * rename brings its old path along, wherever that is.
+     */
+    List<String> pathsOf(TreePath[] selection) {
+        Set<String> paths = new TreeSet<>();
+        if (selection == null) return new ArrayList<>(paths);
+        Set<Node> chosen = new HashSet<>();
+        for (TreePath p : selection) chosen.add((Node) p.getLastPathComponent());
+        for (Node node : chosen) {
+            boolean covered = node.parent == null;
+            for (Node up = node.parent; up != null && !covered; up = up.parent) covered = chosen.contains(up);
+            if (covered) continue;
+            if (!node.directory) {
+                if (node.origPath != null) paths.add(node.origPath);
+                paths.add(node.path);
+                continue;
+            }
+            paths.add(node.path);
+            // Renamed into this directory from outside it
+            String prefix = node.prefix();
+            int k = Arrays.binarySearch(renamedAt, node.from);
+            for (k = k < 0 ? -k - 1 : k; k < renamedAt.length && renamedAt[k] < node.to; k++) {
+                String old = rows.origPathAt(renamedAt[k]);
+                if (!old.startsWith(prefix)) paths.add(old);
+            }
+        }
+        return new ArrayList<>(paths);
+    }
+
+    /** "12 M  3 A" for a directory's counts. */
+    static String summary(int[] counts) {
+        StringBuilder s = new StringBuilder();
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] == 0) continue;
+            if (s.length() > 0) s.append("  ");
+            s.append(counts[i]).append(' ').append(i < STATUSES.length() ? STATUSES.charAt(i) : '·');
+        }
+        return s.toString();
+    }
+
+    // ==================== TREE MODEL ====================
+
+    @Override
+    public Object getRoot() {
+        return root;
+    }
+
+    @Override
+    public Object getChild(Object parent, int index) {
+        return children((Node) parent).get(index);
+    }
+
+    @Override
+    public int getChildCount(Object parent) {
+        Node node = (Node) parent;
+        return node.directory ? children(node).size() : 0;
+    }
+
+    @Override
+    public boolean isLeaf(Object node) {
+        return !((Node) node).directory;
+    }
+
+    @Override
+    public int getIndexOfChild(Object parent, Object child) {
+        return parent == null || child == null ? -1 : children((Node) parent).indexOf(child);
+    }
+
+    @Override
+    public void valueForPathChanged(TreePath path, Object newValue) {
+    }
+
+    @Override
+    public void addTreeModelListener(TreeModelListener l) {
+        listeners.add(TreeModelListener.class, l);
+    }
+
+    @Override
+    public void removeTreeModelListener(TreeModelListener l) {
+        listeners.remove(TreeModelListener.class, l);
+    }
+
+    private List<Node> children(Node node) {
+        if (node.children == null) node.children = scan(node);
+        return node.children;
+    }
+
+    // ==================== ROWS ====================
+
+    // The children of a directory in the current rows: subdirectories, then files
+    private List<Node> scan(Node dir) {
+        List<Node> dirs = new ArrayList<>();
+        List<Node> files = new ArrayList<>();
+        String prefix = dir.prefix();
+        int base = prefix.length();
+        int i = dir.from;
+        while (i < dir.to) {
+            String path = rows.pathAt(i);
+            int slash = path.indexOf('/', base);
+            if (slash < 0) {
+                Node file = new Node(dir, path.substring(base), path, false);
+                file.from = i;
+                file.to = i + 1;
+                file.status = rows.statusAt(i);
+                file.origPath = rows.origPathAt(i);
+                files.add(file);
+                i++;
+                continue;
+            }
+            // Everything under this subdirectory, then the deepest directory all of it shares
+            int end = lowerBound(i + 1, dir.to, after(path.substring(0, slash + 1)));
+            String last = end - 1 == i ? path : rows.pathAt(end - 1);
+            int common = commonPrefix(path, last);
+            int deepest = path.lastIndexOf('/', common - 1);
+            Node sub = new Node(dir, path.substring(base, deepest), path.substring(0, deepest), true);
+            sub.from = i;
+            sub.to = end;
+            sub.counts = count(i, end);
+            dirs.add(sub);
+            i = end;
+        }
+        dirs.addAll(files);
+        return dirs;
+    }
+
+    // Matches the new children of a loaded directory with the old ones by name
+    private void refresh(Node dir) {
+        List<Node> old = dir.children;
+        List<Node> fresh = scan(dir);
+        Map<String, Node> byKey = new HashMap<>(old.size() * 2);
+        for (Node child : old) byKey.put(child.key(), child);
+
+        List<Node> next = new ArrayList<>(fresh.size());
+        List<Integer> inserted = new ArrayList<>();
+        List<Integer> changed = new ArrayList<>();
+        for (Node f : fresh) {
+            Node o = byKey.remove(f.key());
+            if (o == null) {
+                inserted.add(next.size());
+                next.add(f);
+                continue;
+            }
+            if (o.status != f.status || !Objects.equals(o.origPath, f.origPath) || !Arrays.equals(o.counts, f.counts)) {
+                changed.add(next.size());
+            }
+            o.from = f.from;
+            o.to = f.to;
+            o.status = f.status;
+            o.origPath = f.origPath;
+            o.counts = f.counts;
+            next.add(o);
+        }
+
+        TreePath path = pathTo(dir);
+        if (!byKey.isEmpty()) {
+            // Gone, at their old positions; the rest keep their order
+            int[] at = new int[byKey.size()];
+            Object[] gone = new Object[byKey.size()];
+            List<Node> kept = new ArrayList<>(old.size() - byKey.size());
+            int n = 0;
+            for (int k = 0; k < old.size(); k++) {
+                Node child = old.get(k);
+                if (byKey.get(child.key()) == child) {
+                    at[n] = k;
+                    gone[n++] = child;
+                } else {
+                    kept.add(child);
+                }
+            }
+            dir.children = kept;
+            fire(new TreeModelEvent(this, path, at, gone), Kind.REMOVED);
+        }
+        dir.children = next;
+        if (!inserted.isEmpty()) fire(event(path, next, inserted), Kind.INSERTED);
+        if (!changed.isEmpty()) fire(event(path, next, changed), Kind.CHANGED);
+
+        for (Node child : next) {
+            if (child.children != null) refresh(child);
+        }
+    }
+
+    private int[] count(int from, int to) {
+        int kinds = STATUSES.length() + 1;
+        int[] counts = new int[kinds];
+        int first = (from + BLOCK - 1) / BLOCK;
+        int last = to / BLOCK;
+        if (first >= last) {
+            for (int i = from; i < to; i++) counts[kind(rows.statusAt(i))]++;
+            return counts;
+        }
+        for (int k = 0; k < kinds; k++) counts[k] = totals[last * kinds + k] - totals[first * kinds + k];
+        for (int i = from; i < first * BLOCK; i++) counts[kind(rows.statusAt(i))]++;
+        for (int i = last * BLOCK; i < to; i++) counts[kind(rows.statusAt(i))]++;
+        return counts;
+    }
+
+    private static int kind(char status) {
+        int s = STATUSES.indexOf(status);
+        return s < 0 ? STATUSES.length() : s;
+    }
+
+    // First row in [from, to) at or after key
+    private int lowerBound(int from, int to, byte[] key) {
+        int lo = from;
+        int hi = to;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (rows.paths.compare(rows.idAt(mid), key, 0, key.length) < 0) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    // Rows with a rename source, ascending
+    private static int[] renames(FileListModel.Rows rows) {
+        if (!rows.hasOrigPaths()) return new int[0];
+        int[] at = new int[16];
+        int n = 0;
+        for (int r = 0; r < rows.size(); r++) {
+            if (rows.origPathAt(r) == null) continue;
+            if (n == at.length) at = Arrays.copyOf(at, n * 2);
+            at[n++] = r;
+        }
+        return Arrays.copyOf(at, n);
+    }
+
+    // The smallest key past every path under directory prefix `dir/`
+    private static byte[] after(String dir) {
+        byte[] key = dir.getBytes(StandardCharsets.UTF_8);
+        key[key.length - 1] = '/' + 1;
+        return key;
+    }
+
+    private static int commonPrefix(String a, String b) {
+        int n = Math.min(a.length(), b.length());
+        int i = 0;
+        while (i < n && a.charAt(i) == b.charAt(i)) i++;
+        return i;
+    }
+
+    // ==================== EVENTS ====================
+
+    private enum Kind { INSERTED, REMOVED, CHANGED }
+
+    private TreePath pathTo(Node node) {
+        return node.parent == null ? new TreePath(node) : pathTo(node.parent).pathByAddingChild(node);
+    }
+
+    private TreeModelEvent event(TreePath path, List<Node> children, List<Integer> indices) {
+        int[] at = new int[indices.size()];
+        Object[] nodes = new Object[indices.size()];
+        for (int k = 0; k < at.length; k++) {
+            at[k] = indices.get(k);
+            nodes[k] = children.get(at[k]);
+        }
+        return new TreeModelEvent(this, path, at, nodes);
+    }
+
+    private void fire(TreeModelEvent e, Kind kind) {
+        for (TreeModelListener l : listeners.getListeners(TreeModelListener.class)) {
+            switch (kind) {
+                case INSERTED: l.treeNodesInserted(e); break;
+                case REMOVED: l.treeNodesRemoved(e); break;
+                default: l.treeNodesChanged(e); break;
+            }
+        }
+    }
+}
@@ -0,0 +1,781 @@
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+
+/**
+ * Read-only view of .git/index (versions 2, 3 and 4).
+ *
+ * The file is memory-mapped and entries stay in the mapping: the entry table
+ * only records where each entry starts, so stat data and object ids are read
+ * straight from the buffer on demand. Paths are referenced in place too,
+ * except for version 4 where prefix compression forces us to expand them
+ * into one shared byte store.
+ */
+class GitIndex {
+
+    static final int STAGE_MASK = 0x3000;
+    private static final int EXTENDED_FLAG = 0x4000;
+    private static final int ASSUME_VALID_FLAG = 0x8000;
+    private static final int SKIP_WORKTREE_FLAG = 0x4000;
+    private static final int INTENT_TO_ADD_FLAG = 0x2000;
+
+    private static final int MODE_SPARSE_DIR = 0040000;
+
+    private final File file;
+    private final long fileMtime;
+    private final long fileSize;
+    private final Object fileKey;
+    private final ByteBuffer buf;
+    private final int version;
+    private final int count;
+
+    // Entry table: where each entry starts in the mapping, and where its path lives
+    private final int[] entryOffsets;
+    private final int[] pathOffsets;
+    private final int[] pathLengths;
+    private final short[] extendedFlags;
+    private final byte[] pathStore;   // only for version 4, otherwise null
+
+    private CacheTree cacheTree;
+    private UntrackedCache untrackedCache;
+    private boolean sparse;
+
+    private GitIndex(File file, BasicFileAttributes attrs, ByteBuffer buf) throws IOException {
+        this.file = file;
+        this.fileMtime = attrs.lastModifiedTime().toMillis();
+        this.fileSize = attrs.size();
+        this.fileKey = attrs.fileKey();
+        this.buf = buf;
+
+        if (buf.getInt(0) != 0x44495243) { // "DIRC"
+            throw new IOException("Not an index file: " + file);
+        }
+        version = buf.getInt(4);
+        if (version < 2 || version > 4) {
+            throw new IOException("Unsupported index version " + version);
+        }
+        count = buf.getInt(8);
+        entryOffsets = new int[count];
+        pathOffsets = new int[count];
+        pathLengths = new int[count];
+        extendedFlags = version >= 3 ? new short[count] : null;
+
+        int end = buf.limit() - 20;
+        int pos = 12;
+        ByteArrayOutputStream store = version == 4 ? new ByteArrayOutputStream(count * 32) : null;
+        byte[] previous = new byte[0];
+        int previousLength = 0;
+
+        for (int i = 0; i < count; i++) {
+            entryOffsets[i] = pos;
+            int flags = buf.getShort(pos + 60) & 0xffff;
+            int p = pos + 62;
+            if ((flags & EXTENDED_FLAG) != 0) {
+                if (version < 3) {
+                    throw new IOException("Extended flags in a version 2 index");
+                }
+                extendedFlags[i] = buf.getShort(p);
+                p += 2;
+            }
+            if (version == 4) {
+                // Strip N bytes from the previous path, then append the NUL-terminated suffix
+                int[] cursor = { p };
+                int strip = (int) readVarint(buf, cursor);
+                p = cursor[0];
+                int suffixEnd = indexOfNul(buf, p, end);
+                int keep = previousLength - strip;
+                if (keep < 0) {
+                    throw new IOException("Corrupt path compression at entry " + i);
+                }
+                int length = keep + (suffixEnd - p);
+                if (previous.length < length) {
+                    previous = Arrays.copyOf(previous, Math.max(length, previous.length * 2));
+                }
+                for (int k = p; k < suffixEnd; k++) {
+                    previous[keep + k - p] = buf.get(k);
+                }
+                previousLength = length;
+                pathOffsets[i] = store.size();
+                pathLengths[i] = length;
+                store.write(previous, 0, length);
+                pos = suffixEnd + 1;
+            } else {
+                int nameEnd = indexOfNul(buf, p, end);
+                pathOffsets[i] = p;
+                pathLengths[i] = nameEnd - p;
+                // Entries are padded with 1-8 NULs to a multiple of 8 bytes
+                int entryLength = nameEnd - pos;
+                pos += (entryLength + 8) & ~7;
+            }
+            if (mode(i) == MODE_SPARSE_DIR) {
+                sparse = true;
+            }
+        }
+        pathStore = store == null ? null : store.toByteArray();
+        readExtensions(pos, end);
+    }
+
+    /**
+     * Maps and parses the index of the given git directory. Returns null when
+     * there is no index yet (fresh repository).
+     */
+    static GitIndex read(File gitDir) throws IOException {
+        File file = new File(gitDir, "index");
+        if (!file.isFile()) {
+            return null;
+        }
+        BasicFileAttributes attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < 32 || size > Integer.MAX_VALUE) {
+                throw new IOException("Unexpected index size " + size);
+            }
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            map.order(ByteOrder.BIG_ENDIAN);
+            try {
+                return new GitIndex(file, attrs, map);
+            } catch (IndexOutOfBoundsException | BufferUnderflowException | NegativeArraySizeException e) {
+                // Truncated or garbled: callers fall back to git, which only expects IOException
+                throw new IOException("Corrupt index " + file, e);
+            }
+        }
+    }
+
+    /**
+     * True once git has rewritten the index since this view was read. Git
+     * replaces the file by rename, so the old mapping stays valid meanwhile.
+     */
+    boolean isStale() {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            return attrs.lastModifiedTime().toMillis() != fileMtime
+                || attrs.size() != fileSize
+                || !Objects.equals(attrs.fileKey(), fileKey);
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    /** Modification time of the index file itself, for racy-clean checks. */
+    long fileMtimeMillis() {
+        return fileMtime;
+    }
+
+    int version() {
+        return version;
+    }
+
+    int size() {
+        return count;
+    }
+
+    boolean isSparse() {
+        return sparse;
+    }
+
+    // ==================== ENTRY ACCESS ====================
+
+    String path(int i) {
+        return new String(pathBytes(i), StandardCharsets.UTF_8);
+    }
+
+    byte[] pathBytes(int i) {
+        byte[] out = new byte[pathLengths[i]];
+        if (pathStore != null) {
+            System.arraycopy(pathStore, pathOffsets[i], out, 0, out.length);
+        } else {
+            ByteBuffer b = buf.duplicate();
+            b.position(pathOffsets[i]);
+            b.get(out);
+        }
+        return out;
+    }
+
+    int pathLength(int i) {
+        return pathLengths[i];
+    }
+
+    /** Byte-wise comparison of entry i's path against {@code other}, git's path order. */
+    int comparePath(int i, byte[] other) {
+        int len = pathLengths[i];
+        int n = Math.min(len, other.length);
+        int off = pathOffsets[i];
+        for (int k = 0; k < n; k++) {
+            int a = (pathStore != null ? pathStore[off + k] : buf.get(off + k)) & 0xff;
+            int b = other[k] & 0xff;
+            if (a != b) return a - b;
+        }
+        return len - other.length;
+    }
+
+    /** True if entry i's path starts with {@code prefix}. */
+    boolean pathStartsWith(int i, byte[] prefix) {
+        if (pathLengths[i] < prefix.length) return false;
+        int off = pathOffsets[i];
+        for (int k = 0; k < prefix.length; k++) {
+            byte a = pathStore != null ? pathStore[off + k] : buf.get(off + k);
+            if (a != prefix[k]) return false;
+        }
+        return true;
+    }
+
+    int ctimeSeconds(int i) { return buf.getInt(entryOffsets[i]); }
+    int ctimeNanos(int i)   { return buf.getInt(entryOffsets[i] + 4); }
+    int mtimeSeconds(int i) { return buf.getInt(entryOffsets[i] + 8); }
+    int mtimeNanos(int i)   { return buf.getInt(entryOffsets[i] + 12); }
+    int dev(int i)          { return buf.getInt(entryOffsets[i] + 16); }
+    int ino(int i)          { return buf.getInt(entryOffsets[i] + 20); }
+    int mode(int i)         { return buf.getInt(entryOffsets[i] + 24); }
+    int uid(int i)          { return buf.getInt(entryOffsets[i] + 28); }
+    int gid(int i)          { return buf.getInt(entryOffsets[i] + 32); }
+
+    /** On-disk size, truncated to 32 bits exactly as git stores it. */
+    int fileSize(int i)     { return buf.getInt(entryOffsets[i] + 36); }
+
+    String objectId(int i) {
+        return GitObjectDatabase.toHex(objectIdBytes(i));
+    }
+
+    byte[] objectIdBytes(int i) {
+        byte[] id = new byte[20];
+        ByteBuffer b = buf.duplicate();
+        b.position(entryOffsets[i] + 40);
+        b.get(id);
+        return id;
+    }
+
+    boolean objectIdEquals(int i, byte[] id) {
+        int off = entryOffsets[i] + 40;
+        for (int k = 0; k < 20; k++) {
+            if (buf.get(off + k) != id[k]) return false;
+        }
+        return true;
+    }
+
+    int stage(int i) {
+        return (buf.getShort(entryOffsets[i] + 60) & STAGE_MASK) >> 12;
+    }
+
+    boolean isAssumeValid(int i) {
+        return (buf.getShort(entryOffsets[i] + 60) & ASSUME_VALID_FLAG) != 0;
+    }
+
+    boolean isSkipWorktree(int i) {
+        return extendedFlags != null && (extendedFlags[i] & SKIP_WORKTREE_FLAG) != 0;
+    }
+
+    boolean isIntentToAdd(int i) {
+        return extendedFlags != null && (extendedFlags[i] & INTENT_TO_ADD_FLAG) != 0;
+    }
+
+    boolean isSparseDirectory(int i) {
+        return mode(i) == MODE_SPARSE_DIR;
+    }
+
+    /** Index of the stage-0 entry for {@code path}, or -(insertion point) - 1. */
+    int find(String path) {
+        byte[] key = path.getBytes(StandardCharsets.UTF_8);
+        int lo = 0;
+        int hi = count - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = comparePath(mid, key);
+            if (cmp == 0) cmp = stage(mid);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(lo + 1);
+    }
+
+    /** True if any entry lives below {@code dir} (given without trailing slash). */
+    boolean hasEntriesUnder(String dir) {
+        byte[] prefix = (dir + "/").getBytes(StandardCharsets.UTF_8);
+        int lo = 0;
+        int hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (comparePath(mid, prefix) < 0) lo = mid + 1; else hi = mid;
+        }
+        return lo < count && pathStartsWith(lo, prefix);
+    }
+
+    /**
+     * Paths whose entry differs between two index versions: added, removed,
+     * or changed in id, mode, stage or intent-to-add. Stat-only refreshes
+     * don't count. Either side may be null (no index).
+     */
+    static Set<String> changedPaths(GitIndex before, GitIndex after) {
+        Set<String> changed = new LinkedHashSet<>();
+        int n = before == null ? 0 : before.count;
+        int m = after == null ? 0 : after.count;
+        int i = 0;
+        int j = 0;
+        while (i < n || j < m) {
+            if (i == n) {
+                changed.add(after.path(j++));
+                continue;
+            }
+            if (j == m) {
+                changed.add(before.path(i++));
+                continue;
+            }
+            byte[] p = before.pathBytes(i);
+            int cmp = -after.comparePath(j, p);
+            if (cmp == 0) cmp = before.stage(i) - after.stage(j);
+            if (cmp < 0) {
+                changed.add(before.path(i++));
+            } else if (cmp > 0) {
+                changed.add(after.path(j++));
+            } else {
+                if (before.mode(i) != after.mode(j)
+                        || !after.objectIdEquals(j, before.objectIdBytes(i))
+                        || before.isIntentToAdd(i) != after.isIntentToAdd(j)) {
+                    changed.add(after.path(j));
+                }
+                i++;
+                j++;
+            }
+        }
+        return changed;
+    }
+
+    CacheTree cacheTree() {
+        return cacheTree;
+    }
+
+    UntrackedCache untrackedCache() {
+        return untrackedCache;
+    }
+
+    // ==================== INDEX VS HEAD ====================
+
+    /** One staged change: the X column of `git status --porcelain`. */
+    static class StagedChange {
+        final char status;
+        final String path;
+        final String origPath;   // for renames, otherwise null
+        final String id;         // blob on the side that still exists, used for rename pairing
+
+        StagedChange(char status, String path, String origPath, String id) {
+            this.status = status;
+            this.path = path;
+            this.origPath = origPath;
+            this.id = id;
+        }
+    }
+
+    /**
+     * Compares the index against a tree (normally HEAD's) without forking git.
+     * Directories whose cache-tree entry still matches the tree are skipped
+     * wholesale, so a mostly-clean index costs little more than reading it.
+     * Pass a null treeId for an unborn branch.
+     */
+    List<StagedChange> diffAgainstTree(GitObjectDatabase db, String treeId) throws IOException {
+        List<StagedChange> changes = new ArrayList<>();
+        int[] cursor = { 0 };
+        if (treeId != null) {
+            compareTree(db, GitObjectDatabase.fromHex(treeId), new byte[0], cacheTree, cursor, changes);
+        }
+        emitAdded(cursor, count, changes);
+        detectExactRenames(changes);
+        return changes;
+    }
+
+    private void compareTree(GitObjectDatabase db, byte[] treeId, byte[] prefix, CacheTree node,
+                             int[] cursor, List<StagedChange> changes) throws IOException {
+        for (GitObjectDatabase.TreeEntry e : db.readTree(treeId)) {
+            byte[] name = e.name.getBytes(StandardCharsets.UTF_8);
+            byte[] full = concat(prefix, name, null);
+
+            if (e.isTree()) {
+                byte[] dirPrefix = concat(prefix, name, (byte) '/');
+                // Index entries sorting before "dir/" are additions
+                emitAddedBefore(cursor, dirPrefix, changes);
+
+                if (cursor[0] < count && isSparseDirectory(cursor[0]) && comparePath(cursor[0], dirPrefix) == 0) {
+                    if (!objectIdEquals(cursor[0], e.id)) {
+                        changes.add(new StagedChange('M', path(cursor[0]), null, null));
+                    }
+                    cursor[0]++;
+                    continue;
+                }
+
+                CacheTree child = node == null ? null : node.child(e.name);
+                if (child != null && child.isValid() && Arrays.equals(child.id, e.id)
+                        && cursor[0] + child.entryCount <= count) {
+                    cursor[0] += child.entryCount;
+                } else if (cursor[0] < count && pathStartsWith(cursor[0], dirPrefix)) {
+                    compareTree(db, e.id, dirPrefix, child, cursor, changes);
+                } else {
+                    emitDeletedTree(db, e.id, dirPrefix, changes);
+                }
+            } else {
+                emitAddedBefore(cursor, full, changes);
+                if (cursor[0] < count && comparePath(cursor[0], full) == 0) {
+                    int i = cursor[0];
+                    if (stage(i) != 0) {
+                        changes.add(new StagedChange('U', path(i), null, null));
+                        while (cursor[0] < count && comparePath(cursor[0], full) == 0) cursor[0]++;
+                        continue;
+                    }
+                    if (isIntentToAdd(i)) {
+                        // Shown as " A" by git status, so nothing is staged
+                    } else if (!objectIdEquals(i, e.id) || mode(i) != e.mode) {
+                        boolean typeChanged = (mode(i) & 0170000) != (e.mode & 0170000);
+                        changes.add(new StagedChange(typeChanged ? 'T' : 'M', path(i), null, null));
+                    }
+                    cursor[0]++;
+                } else {
+                    changes.add(new StagedChange('D', new String(full, StandardCharsets.UTF_8), null,
+                        GitObjectDatabase.toHex(e.id)));
+                }
+            }
+        }
+        // Anything left under this directory was added
+        emitAddedWhile(cursor, prefix, changes);
+    }
+
+    private void emitDeletedTree(GitObjectDatabase db, byte[] treeId, byte[] prefix,
+                                 List<StagedChange> changes) throws IOException {
+        for (GitObjectDatabase.TreeEntry e : db.readTree(treeId)) {
+            byte[] name = e.name.getBytes(StandardCharsets.UTF_8);
+            if (e.isTree()) {
+                emitDeletedTree(db, e.id, concat(prefix, name, (byte) '/'), changes);
+            } else {
+                changes.add(new StagedChange('D', new String(concat(prefix, name, null), StandardCharsets.UTF_8),
+                    null, GitObjectDatabase.toHex(e.id)));
+            }
+        }
+    }
+
+    private void emitAddedBefore(int[] cursor, byte[] bound, List<StagedChange> changes) {
+        while (cursor[0] < count && comparePath(cursor[0], bound) < 0) {
+            emitAddedAt(cursor, changes);
+        }
+    }
+
+    private void emitAddedWhile(int[] cursor, byte[] prefix, List<StagedChange> changes) {
+        while (cursor[0] < count && pathStartsWith(cursor[0], prefix)) {
+            emitAddedAt(cursor, changes);
+        }
+    }
+
+    private void emitAdded(int[] cursor, int end, List<StagedChange> changes) {
+        while (cursor[0] < end) {
+            emitAddedAt(cursor, changes);
+        }
+    }
+
+    private void emitAddedAt(int[] cursor, List<StagedChange> changes) {
+        int i = cursor[0];
+        if (stage(i) != 0) {
+            changes.add(new StagedChange('U', path(i), null, null));
+            byte[] p = pathBytes(i);
+            while (cursor[0] < count && comparePath(cursor[0], p) == 0) cursor[0]++;
+            return;
+        }
+        if (!isIntentToAdd(i)) {
+            changes.add(new StagedChange('A', path(i), null, objectId(i)));
+        }
+        cursor[0]++;
+    }
+
+    // git status pairs a deleted and an added path holding the same blob as a
+    // rename; similarity-based renames are left as D + A.
+    private static void detectExactRenames(List<StagedChange> changes) {
+        Map<String, Deque<StagedChange>> deletedById = new HashMap<>();
+        for (StagedChange c : changes) {
+            if (c.status == 'D') {
+                deletedById.computeIfAbsent(c.id, k -> new ArrayDeque<>()).add(c);
+            }
+        }
+        if (deletedById.isEmpty()) return;
+
+        Set<StagedChange> paired = new HashSet<>();
+        List<StagedChange> result = new ArrayList<>(changes.size());
+        for (StagedChange c : changes) {
+            Deque<StagedChange> candidates = c.status == 'A' ? deletedById.get(c.id) : null;
+            if (candidates != null && !candidates.isEmpty()) {
+                StagedChange deleted = candidates.poll();
+                paired.add(deleted);
+                result.add(new StagedChange('R', c.path, deleted.path, c.id));
+            } else {
+                result.add(c);
+            }
+        }
+        // Renames stay at their new path's position, which is where git lists them
+        result.removeAll(paired);
+        changes.clear();
+        changes.addAll(result);
+    }
+
+    private static byte[] concat(byte[] prefix, byte[] name, Byte suffix) {
+        byte[] out = new byte[prefix.length + name.length + (suffix == null ? 0 : 1)];
+        System.arraycopy(prefix, 0, out, 0, prefix.length);
+        System.arraycopy(name, 0, out, prefix.length, name.length);
+        if (suffix != null) out[out.length - 1] = suffix;
+        return out;
+    }
+
+    // ==================== EXTENSIONS ====================
+
+    private void readExtensions(int pos, int end) throws IOException {
+        while (pos + 8 <= end) {
+            int signature = buf.getInt(pos);
+            int size = buf.getInt(pos + 4);
+            int data = pos + 8;
+            if (size < 0 || data + size > end) {
+                throw new IOException("Corrupt index extension");
+            }
+            String name = new String(new byte[] {
+                (byte) (signature >>> 24), (byte) (signature >>> 16), (byte) (signature >>> 8), (byte) signature
+            }, StandardCharsets.US_ASCII);
+            switch (name) {
+                case "TREE":
+                    cacheTree = CacheTree.parse(buf, data, data + size);
+                    break;
+                case "UNTR":
+                    untrackedCache = UntrackedCache.parse(buf, data, data + size);
+                    break;
+                case "link":
+                    // Split index: entries live in a shared index we don't read
+                    throw new IOException("Split index is not supported");
+                default:
+                    // Optional extensions start with an uppercase letter and can be ignored
+                    if (signature >>> 24 < 'A' || signature >>> 24 > 'Z') {
+                        throw new IOException("Unsupported required index extension " + name);
+                    }
+            }
+            pos = data + size;
+        }
+    }
+
+    /**
+     * The TREE extension: tree ids git has already computed for directories
+     * whose index entries have not changed since.
+     */
+    static class CacheTree {
+        final String name;
+        final int entryCount;   // -1 when invalidated
+        final byte[] id;
+        final List<CacheTree> children = new ArrayList<>();
+
+        CacheTree(String name, int entryCount, byte[] id) {
+            this.name = name;
+            this.entryCount = entryCount;
+            this.id = id;
+        }
+
+        boolean isValid() {
+            return entryCount >= 0 && id != null;
+        }
+
+        CacheTree child(String childName) {
+            for (CacheTree c : children) {
+                if (c.name.equals(childName)) return c;
+            }
+            return null;
+        }
+
+        static CacheTree parse(ByteBuffer buf, int pos, int end) throws IOException {
+            int[] cursor = { pos };
+            return parseNode(buf, cursor, end);
+        }
+
+        private static CacheTree parseNode(ByteBuffer buf, int[] cursor, int end) throws IOException {
+            int p = cursor[0];
+            int nul = indexOfNul(buf, p, end);
+            String name = decode(buf, p, nul);
+            p = nul + 1;
+            int space = indexOf(buf, p, end, (byte) ' ');
+            int entryCount = Integer.parseInt(decode(buf, p, space));
+            p = space + 1;
+            int newline = indexOf(buf, p, end, (byte) '\n');
+            int subtrees = Integer.parseInt(decode(buf, p, newline));
+            p = newline + 1;
+            byte[] id = null;
+            if (entryCount >= 0) {
+                id = new byte[20];
+                for (int k = 0; k < 20; k++) id[k] = buf.get(p + k);
+                p += 20;
+            }
+            cursor[0] = p;
+            CacheTree node = new CacheTree(name, entryCount, id);
+            for (int k = 0; k < subtrees; k++) {
+                node.children.add(parseNode(buf, cursor, end));
+            }
+            return node;
+        }
+    }
+
+    /**
+     * The UNTR extension: untracked files git remembered per directory, with
+     * the directory stat data that says whether each list is still usable.
+     */
+    static class UntrackedCache {
+        String ident;
+        int dirFlags;
+        String excludePerDir;
+        final List<Dir> dirs = new ArrayList<>();
+
+        static class Dir {
+            final String path;
+            final List<String> untracked = new ArrayList<>();
+            boolean valid;
+            boolean checkOnly;
+            int mtimeSeconds;
+            int mtimeNanos;
+            byte[] excludeId;
+
+            Dir(String path) {
+                this.path = path;
+            }
+        }
+
+        static UntrackedCache parse(ByteBuffer buf, int pos, int end) throws IOException {
+            UntrackedCache uc = new UntrackedCache();
+            int[] cursor = { pos };
+            int identLength = (int) readVarint(buf, cursor);
+            uc.ident = decode(buf, cursor[0], cursor[0] + identLength);
+            cursor[0] += identLength;
+
+            // Two stat_data blocks (36 bytes each), dir_flags, two exclude-file ids
+            int p = cursor[0] + 36 * 2;
+            uc.dirFlags = buf.getInt(p);
+            p += 4 + 20 * 2;
+            int nul = indexOfNul(buf, p, end);
+            uc.excludePerDir = decode(buf, p, nul);
+            cursor[0] = nul + 1;
+
+            int dirCount = (int) readVarint(buf, cursor);
+            if (dirCount == 0) {
+                return uc;
+            }
+            readDir(buf, cursor, end, "", uc.dirs);
+            if (uc.dirs.size() != dirCount) {
+                throw new IOException("Corrupt untracked cache");
+            }
+
+            long[] valid = readEwah(buf, cursor);
+            long[] checkOnly = readEwah(buf, cursor);
+            long[] hashValid = readEwah(buf, cursor);
+            for (int k = 0; k < dirCount; k++) {
+                Dir d = uc.dirs.get(k);
+                d.checkOnly = testBit(checkOnly, k);
+            }
+            p = cursor[0];
+            for (int k = 0; k < dirCount; k++) {
+                if (!testBit(valid, k)) continue;
+                Dir d = uc.dirs.get(k);
+                d.valid = true;
+                d.mtimeSeconds = buf.getInt(p + 8);
+                d.mtimeNanos = buf.getInt(p + 12);
+                p += 36;
+            }
+            for (int k = 0; k < dirCount; k++) {
+                if (!testBit(hashValid, k)) continue;
+                Dir d = uc.dirs.get(k);
+                d.excludeId = new byte[20];
+                for (int b = 0; b < 20; b++) d.excludeId[b] = buf.get(p + b);
+                p += 20;
+            }
+            return uc;
+        }
+
+        private static void readDir(ByteBuffer buf, int[] cursor, int end, String parent, List<Dir> out)
+                throws IOException {
+            int untracked = (int) readVarint(buf, cursor);
+            int subdirs = (int) readVarint(buf, cursor);
+            int nul = indexOfNul(buf, cursor[0], end);
+            String name = decode(buf, cursor[0], nul);
+            cursor[0] = nul + 1;
+            Dir dir = new Dir(parent + name);
+            out.add(dir);
+            for (int k = 0; k < untracked; k++) {
+                nul = indexOfNul(buf, cursor[0], end);
+                dir.untracked.add(decode(buf, cursor[0], nul));
+                cursor[0] = nul + 1;
+            }
+            String childParent = name.isEmpty() ? parent : parent + name + "/";
+            for (int k = 0; k < subdirs; k++) {
+                readDir(buf, cursor, end, childParent, out);
+            }
+        }
+
+        // Expands an EWAH-compressed bitmap into plain 64-bit words
+        private static long[] readEwah(ByteBuffer buf, int[] cursor) {
+            int p = cursor[0];
+            int bitSize = buf.getInt(p);
+            int wordCount = buf.getInt(p + 4);
+            p += 8;
+            long[] bits = new long[(bitSize + 63) / 64];
+            int out = 0;
+            int w = 0;
+            while (w < wordCount) {
+                long rlw = buf.getLong(p + w * 8);
+                w++;
+                boolean runningBit = (rlw & 1) != 0;
+                long runLength = (rlw >>> 1) & 0xffffffffL;
+                int literals = (int) (rlw >>> 33);
+                for (long r = 0; r < runLength && out < bits.length; r++) {
+                    bits[out++] = runningBit ? -1L : 0L;
+                }
+                for (int l = 0; l < literals && w < wordCount; l++, w++) {
+                    if (out < bits.length) bits[out++] = buf.getLong(p + w * 8);
+                }
+            }
+            // Trailing 32-bit position of the last run-length word
+            cursor[0] = p + wordCount * 8 + 4;
+            return bits;
+        }
+
+        private static boolean testBit(long[] bits, int n) {
+            int word = n >>> 6;
+            return word < bits.length && (bits[word] & (1L << (n & 63))) != 0;
+        }
+    }
+
+    // ==================== HELPERS ====================
+
+    // Offset-style varint shared by index v4 and the UNTR extension
+    private static long readVarint(ByteBuffer buf, int[] cursor) {
+        int p = cursor[0];
+        int c = buf.get(p++) & 0xff;
+        long value = c & 0x7f;
+        while ((c & 0x80) != 0) {
+            c = buf.get(p++) & 0xff;
+            value = ((value + 1) << 7) | (c & 0x7f);
+        }
+        cursor[0] = p;
+        return value;
+    }
+
+    private static int indexOfNul(ByteBuffer buf, int from, int end) throws IOException {
+        return indexOf(buf, from, end, (byte) 0);
+    }
+
+    private static int indexOf(ByteBuffer buf, int from, int end, byte b) throws IOException {
+        for (int p = from; p < end; p++) {
+            if (buf.get(p) == b) return p;
+        }
+        throw new IOException("Unterminated field in index");
+    }
+
+    private static String decode(ByteBuffer buf, int from, int to) {
+        byte[] bytes = new byte[to - from];
+        for (int k = 0; k < bytes.length; k++) bytes[k] = buf.get(from + k);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,876 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Read-only, in-process view of a repository's object store.
+ *
+ * Loose objects are inflated straight from .git/objects, packed objects are
+ * located through the .idx fanout tables and read from memory-mapped .pack
+ * files, with OFS_DELTA/REF_DELTA chains resolved here as well. Only SHA-1
+ * repositories are supported; callers fall back to git for anything else.
+ */
+class GitObjectDatabase implements Closeable {
+
+    static final int OBJ_COMMIT = 1;
+    static final int OBJ_TREE = 2;
+    static final int OBJ_BLOB = 3;
+    static final int OBJ_TAG = 4;
+    private static final int OBJ_OFS_DELTA = 6;
+    private static final int OBJ_REF_DELTA = 7;
+
+    private static final String[] TYPE_NAMES = { null, "commit", "tree", "blob", "tag" };
+
+    // Upper bound for decoded delta bases kept around between reads
+    private static final long DELTA_CACHE_BYTES = 32L * 1024 * 1024;
+
+    private final File gitDir;
+    private final File commonDir;
+    private final List<File> objectDirs = new ArrayList<>();
+    private volatile List<Pack> packs = Collections.emptyList();
+    private final DeltaBaseCache deltaCache = new DeltaBaseCache(DELTA_CACHE_BYTES);
+    private final RefDatabase refs;
+
+    /**
+     * {@code gitDir} is the work tree's own git directory (HEAD, index);
+     * objects, shared refs and config come from {@code commonDir}, which
+     * differs only for linked worktrees.
+     */
+    GitObjectDatabase(File gitDir, File commonDir) throws IOException {
+        this.gitDir = gitDir;
+        this.commonDir = commonDir;
+        this.refs = new RefDatabase(gitDir, commonDir);
+        String format = objectFormat(commonDir);
+        if (!format.equals("sha1")) {
+            throw new IOException("Unsupported object format " + format);
+        }
+        File objects = new File(commonDir, "objects");
+        if (!objects.isDirectory()) {
+            throw new IOException("No object directory in " + commonDir);
+        }
+        objectDirs.add(objects);
+        addAlternates(objects, 0);
+        rescanPacks();
+    }
+
+    /**
+     * Opens the object database of a work tree, following a ".git" file
+     * (worktrees, submodules) when there is one.
+     */
+    static GitObjectDatabase open(File workTree) throws IOException {
+        File dir = findWorkTreeGitDir(workTree);
+        return new GitObjectDatabase(dir, commonDir(dir));
+    }
+
+    static File findGitDir(File workTree) throws IOException {
+        return commonDir(findWorkTreeGitDir(workTree));
+    }
+
+    // Linked worktrees keep objects, refs and config in the common dir
+    private static File commonDir(File dir) throws IOException {
+        File common = new File(dir, "commondir");
+        if (common.isFile()) {
+            String rel = new String(Files.readAllBytes(common.toPath()), StandardCharsets.UTF_8).trim();
+            File commonDir = new File(rel);
+            return commonDir.isAbsolute() ? commonDir : new File(dir, rel).getCanonicalFile();
+        }
+        return dir;
+    }
+
+    /**
+     * The git directory of this work tree itself: for a linked worktree the
+     * one holding its HEAD, index and FETCH_HEAD, not the common dir.
+     */
+    static File findWorkTreeGitDir(File workTree) throws IOException {
+        File dotGit = new File(workTree, ".git");
+        if (dotGit.isDirectory()) {
+            return dotGit;
+        }
+        if (dotGit.isFile()) {
+            String content = new String(Files.readAllBytes(dotGit.toPath()), StandardCharsets.UTF_8).trim();
+            if (content.startsWith("gitdir:")) {
+                File dir = new File(content.substring(7).trim());
+                return dir.isAbsolute() ? dir : new File(workTree, dir.getPath());
+            }
+        }
+        throw new IOException("Not a Git repository: " + workTree);
+    }
+
+    /** The work tree's own git directory: HEAD, index, per-worktree state. */
+    File getGitDir() {
+        return gitDir;
+    }
+
+    /** Where objects, refs/, packed-refs and config live; getGitDir() unless a linked worktree. */
+    File getCommonDir() {
+        return commonDir;
+    }
+
+    // extensions.objectFormat; ids here are 20-byte SHA-1s, so anything else is git's job
+    private static String objectFormat(File gitDir) throws IOException {
+        File config = new File(gitDir, "config");
+        if (!config.isFile()) return "sha1";
+        String section = "";
+        String format = "sha1";
+        for (String raw : Files.readAllLines(config.toPath(), StandardCharsets.UTF_8)) {
+            String line = raw.trim();
+            if (line.startsWith("[")) {
+                int close = line.indexOf(']');
+                section = close < 0 ? "" : line.substring(1, close).trim().toLowerCase(Locale.ROOT);
+                continue;
+            }
+            int eq = line.indexOf('=');
+            if (!section.equals("extensions") || eq < 0) continue;
+            if (line.substring(0, eq).trim().equalsIgnoreCase("objectformat")) {
+                format = line.substring(eq + 1).trim().replace("\"", "").toLowerCase(Locale.ROOT);
+            }
+        }
+        return format;
+    }
+
+    // ==================== OBJECT ACCESS ====================
+
+    static class GitObject {
+        final int type;
+        final byte[] data;
+
+        GitObject(int type, byte[] data) {
+            this.type = type;
+            this.data = data;
+        }
+
+        String typeName() {
+            return TYPE_NAMES[type];
+        }
+    }
+
+    /**
+     * Returns the object with the given id, or null if it is not present.
+     */
+    GitObject read(String hexId) throws IOException {
+        return read(fromHex(hexId));
+    }
+
+    GitObject read(byte[] id) throws IOException {
+        GitObject obj = readPacked(id, packs);
+        if (obj != null) {
+            return obj;
+        }
+        obj = readLoose(id);
+        if (obj != null) {
+            return obj;
+        }
+        // A repack may have happened since we last looked
+        List<Pack> before = packs;
+        rescanPacks();
+        return packs == before ? null : readPacked(id, packs);
+    }
+
+    boolean has(String hexId) throws IOException {
+        byte[] id = fromHex(hexId);
+        for (Pack pack : packs) {
+            if (pack.find(id) >= 0) return true;
+        }
+        for (File dir : objectDirs) {
+            if (looseFile(dir, hexId).isFile()) return true;
+        }
+        return false;
+    }
+
+    private GitObject readPacked(byte[] id, List<Pack> candidates) throws IOException {
+        for (Pack pack : candidates) {
+            long offset = pack.find(id);
+            if (offset >= 0) {
+                return readAt(pack, offset);
+            }
+        }
+        return null;
+    }
+
+    private GitObject readLoose(byte[] id) throws IOException {
+        String hex = toHex(id);
+        for (File dir : objectDirs) {
+            File f = looseFile(dir, hex);
+            if (!f.isFile()) continue;
+
+            byte[] raw = inflateAll(Files.readAllBytes(f.toPath()));
+            int nul = 0;
+            while (nul < raw.length && raw[nul] != 0) nul++;
+            String header = new String(raw, 0, nul, StandardCharsets.US_ASCII);
+            int space = header.indexOf(' ');
+            if (nul == raw.length || space < 0) {
+                throw new IOException("Corrupt loose object " + hex);
+            }
+            int type = typeCode(header.substring(0, space));
+            int size = Integer.parseInt(header.substring(space + 1));
+            if (raw.length - nul - 1 != size) {
+                throw new IOException("Size mismatch in loose object " + hex);
+            }
+            return new GitObject(type, Arrays.copyOfRange(raw, nul + 1, raw.length));
+        }
+        return null;
+    }
+
+    private static File looseFile(File objectDir, String hex) {
+        return new File(new File(objectDir, hex.substring(0, 2)), hex.substring(2));
+    }
+
+    // Walks the delta chain down to a full object (or a cached base), then
+    // applies the deltas back up.
+    private GitObject readAt(Pack pack, long offset) throws IOException {
+        Deque<byte[]> deltas = new ArrayDeque<>();
+        Deque<Long> deltaOffsets = new ArrayDeque<>();
+        long pos = offset;
+        GitObject base;
+
+        while (true) {
+            GitObject cached = deltaCache.get(pack, pos);
+            if (cached != null) {
+                base = cached;
+                break;
+            }
+            EntryHeader h = pack.header(pos);
+            if (h.type == OBJ_OFS_DELTA || h.type == OBJ_REF_DELTA) {
+                deltas.push(pack.inflate(h.dataOffset, h.size));
+                deltaOffsets.push(pos);
+                if (h.type == OBJ_OFS_DELTA) {
+                    pos = pos - h.baseDistance;
+                } else {
+                    long baseOffset = pack.find(h.baseId);
+                    if (baseOffset < 0) {
+                        // Thin packs can point outside themselves
+                        GitObject external = read(h.baseId);
+                        if (external == null) {
+                            throw new IOException("Missing delta base " + toHex(h.baseId));
+                        }
+                        base = external;
+                        break;
+                    }
+                    pos = baseOffset;
+                }
+            } else if (h.type >= OBJ_COMMIT && h.type <= OBJ_TAG) {
+                base = new GitObject(h.type, pack.inflate(h.dataOffset, h.size));
+                if (!deltas.isEmpty()) {
+                    deltaCache.put(pack, pos, base);
+                }
+                break;
+            } else {
+                throw new IOException("Unknown pack object type " + h.type + " in " + pack.packFile);
+            }
+        }
+
+        GitObject result = base;
+        while (!deltas.isEmpty()) {
+            byte[] delta = deltas.pop();
+            long at = deltaOffsets.pop();
+            result = new GitObject(result.type, applyDelta(result.data, delta));
+            if (!deltas.isEmpty()) {
+                deltaCache.put(pack, at, result);
+            }
+        }
+        return result;
+    }
+
+    static byte[] applyDelta(byte[] base, byte[] delta) throws IOException {
+        int[] pos = { 0 };
+        long baseSize = readDeltaSize(delta, pos);
+        long resultSize = readDeltaSize(delta, pos);
+        if (baseSize != base.length) {
+            throw new IOException("Delta base size mismatch");
+        }
+        byte[] out = new byte[(int) resultSize];
+        int o = 0;
+        int p = pos[0];
+        while (p < delta.length) {
+            int cmd = delta[p++] & 0xff;
+            if ((cmd & 0x80) != 0) {
+                long copyOffset = 0;
+                int copySize = 0;
+                if ((cmd & 0x01) != 0) copyOffset |= (delta[p++] & 0xffL);
+                if ((cmd & 0x02) != 0) copyOffset |= (delta[p++] & 0xffL) << 8;
+                if ((cmd & 0x04) != 0) copyOffset |= (delta[p++] & 0xffL) << 16;
+                if ((cmd & 0x08) != 0) copyOffset |= (delta[p++] & 0xffL) << 24;
+                if ((cmd & 0x10) != 0) copySize |= (delta[p++] & 0xff);
+                if ((cmd & 0x20) != 0) copySize |= (delta[p++] & 0xff) << 8;
+                if ((cmd & 0x40) != 0) copySize |= (delta[p++] & 0xff) << 16;
+                if (copySize == 0) copySize = 0x10000;
+                if (copyOffset + copySize > base.length || o + copySize > out.length) {
+                    throw new IOException("Delta copy out of range");
+                }
+                System.arraycopy(base, (int) copyOffset, out, o, copySize);
+                o += copySize;
+            } else if (cmd != 0) {
+                if (p + cmd > delta.length || o + cmd > out.length) {
+                    throw new IOException("Delta insert out of range");
+                }
+                System.arraycopy(delta, p, out, o, cmd);
+                p += cmd;
+                o += cmd;
+            } else {
+                throw new IOException("Reserved delta opcode");
+            }
+        }
+        if (o != out.length) {
+            throw new IOException("Delta result size mismatch");
+        }
+        return out;
+    }
+
+    private static long readDeltaSize(byte[] delta, int[] pos) {
+        long size = 0;
+        int shift = 0;
+        int c;
+        do {
+            c = delta[pos[0]++] & 0xff;
+            size |= (long) (c & 0x7f) << shift;
+            shift += 7;
+        } while ((c & 0x80) != 0);
+        return size;
+    }
+
+    // ==================== COMMITS & TREES ====================
+
+    static class Commit {
+        String id;
+        String tree;
+        final List<String> parents = new ArrayList<>();
+        String author;
+        long commitTime;
+        String message;
+
+        String subject() {
+            int nl = message.indexOf('\n');
+            return nl < 0 ? message : message.substring(0, nl);
+        }
+    }
+
+    Commit readCommit(String hexId) throws IOException {
+        GitObject obj = read(hexId);
+        if (obj == null) {
+            throw new IOException("Missing commit " + hexId);
+        }
+        // Annotated tags are peeled so callers can pass any committish id
+        while (obj.type == OBJ_TAG) {
+            String target = headerValue(obj.data, "object");
+            hexId = target;
+            obj = read(target);
+            if (obj == null) {
+                throw new IOException("Missing tag target " + target);
+            }
+        }
+        if (obj.type != OBJ_COMMIT) {
+            throw new IOException(hexId + " is a " + obj.typeName() + ", not a commit");
+        }
+        return parseCommit(hexId, obj.data);
+    }
+
+    static Commit parseCommit(String id, byte[] data) {
+        Commit c = new Commit();
+        c.id = id;
+        int p = 0;
+        while (p < data.length && data[p] != '\n') {
+            int eol = p;
+            while (eol < data.length && data[eol] != '\n') eol++;
+            String line = new String(data, p, eol - p, StandardCharsets.UTF_8);
+            if (line.startsWith("tree ")) {
+                c.tree = line.substring(5);
+            } else if (line.startsWith("parent ")) {
+                c.parents.add(line.substring(7));
+            } else if (line.startsWith("author ")) {
+                c.author = line.substring(7);
+            } else if (line.startsWith("committer ")) {
+                c.commitTime = parseSignatureTime(line.substring(10));
+            }
+            // Continuation lines (gpgsig, mergetag) start with a space and are skipped
+            p = eol + 1;
+        }
+        c.message = p < data.length ? new String(data, p + 1, data.length - p - 1, StandardCharsets.UTF_8) : "";
+        return c;
+    }
+
+    static long parseSignatureTime(String signature) {
+        int gt = signature.lastIndexOf('>');
+        if (gt < 0) return 0;
+        String[] parts = signature.substring(gt + 1).trim().split(" ");
+        try {
+            return Long.parseLong(parts[0]);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static String headerValue(byte[] data, String key) {
+        String text = new String(data, StandardCharsets.UTF_8);
+        for (String line : text.split("\n")) {
+            if (line.isEmpty()) break;
+            if (line.startsWith(key + " ")) return line.substring(key.length() + 1);
+        }
+        return null;
+    }
+
+    static class TreeEntry {
+        final int mode;
+        final String name;
+        final byte[] id;
+
+        TreeEntry(int mode, String name, byte[] id) {
+            this.mode = mode;
+            this.name = name;
+            this.id = id;
+        }
+
+        boolean isTree() {
+            return (mode & 0170000) == 0040000;
+        }
+    }
+
+    List<TreeEntry> readTree(byte[] treeId) throws IOException {
+        GitObject obj = read(treeId);
+        if (obj == null || obj.type != OBJ_TREE) {
+            throw new IOException("Missing tree " + toHex(treeId));
+        }
+        return parseTree(obj.data);
+    }
+
+    static List<TreeEntry> parseTree(byte[] data) {
+        List<TreeEntry> entries = new ArrayList<>();
+        int p = 0;
+        while (p < data.length) {
+            int mode = 0;
+            while (data[p] != ' ') {
+                mode = (mode << 3) + (data[p++] - '0');
+            }
+            p++;
+            int nameStart = p;
+            while (data[p] != 0) p++;
+            String name = new String(data, nameStart, p - nameStart, StandardCharsets.UTF_8);
+            p++;
+            entries.add(new TreeEntry(mode, name, Arrays.copyOfRange(data, p, p + 20)));
+            p += 20;
+        }
+        return entries;
+    }
+
+    /**
+     * Looks up a slash-separated path below a tree, returning null if absent.
+     */
+    TreeEntry lookupPath(String treeId, String path) throws IOException {
+        byte[] current = fromHex(treeId);
+        String[] parts = path.split("/");
+        TreeEntry found = null;
+        for (int i = 0; i < parts.length; i++) {
+            found = null;
+            for (TreeEntry e : readTree(current)) {
+                if (e.name.equals(parts[i])) {
+                    found = e;
+                    break;
+                }
+            }
+            if (found == null || (i < parts.length - 1 && !found.isTree())) {
+                return null;
+            }
+            current = found.id;
+        }
+        return found;
+    }
+
+    /**
+     * Commits reachable from {@code start}, newest committer date first, the
+     * same order plain {@code git log} uses.
+     */
+    List<Commit> log(String start, int limit) throws IOException {
+        List<Commit> result = new ArrayList<>();
+        PriorityQueue<Commit> queue = new PriorityQueue<>(
+            (a, b) -> Long.compare(b.commitTime, a.commitTime));
+        Set<String> seen = new HashSet<>();
+        queue.add(readCommit(start));
+        seen.add(start);
+        while (!queue.isEmpty() && result.size() < limit) {
+            Commit c = queue.poll();
+            result.add(c);
+            for (String parent : c.parents) {
+                if (seen.add(parent)) {
+                    queue.add(readCommit(parent));
+                }
+            }
+        }
+        return result;
+    }
+
+    // ==================== REFS ====================
+
+    /** The repository's refs, cached until they change on disk. */
+    RefDatabase refs() {
+        return refs;
+    }
+
+    /**
+     * Resolves HEAD, a full ref name, a branch/tag name or a full hex id to
+     * an object id. Returns null when the name does not resolve (for example
+     * an unborn HEAD).
+     */
+    String resolve(String rev) throws IOException {
+        if (rev.length() == 40 && rev.chars().allMatch(ch -> Character.digit(ch, 16) >= 0)) {
+            return rev.toLowerCase(Locale.ROOT);
+        }
+        return refs.read().resolve(rev);
+    }
+
+    // ==================== PACKS ====================
+
+    private synchronized void rescanPacks() throws IOException {
+        Map<String, Pack> existing = new HashMap<>();
+        for (Pack p : packs) {
+            existing.put(p.packFile.getPath(), p);
+        }
+        List<Pack> found = new ArrayList<>();
+        boolean changed = false;
+        for (File dir : objectDirs) {
+            File[] idxFiles = new File(dir, "pack").listFiles((d, n) -> n.endsWith(".idx"));
+            if (idxFiles == null) continue;
+            // Newest packs first: they are the most likely to hold recent objects
+            Arrays.sort(idxFiles, (a, b) -> Long.compare(b.lastModified(), a.lastModified()));
+            for (File idx : idxFiles) {
+                File pack = new File(idx.getPath().replaceAll("\\.idx$", ".pack"));
+                if (!pack.isFile()) continue;
+                Pack p = existing.remove(pack.getPath());
+                if (p == null) {
+                    p = new Pack(idx, pack);
+                    changed = true;
+                }
+                found.add(p);
+            }
+        }
+        if (changed || !existing.isEmpty()) {
+            packs = Collections.unmodifiableList(found);
+            for (Pack gone : existing.values()) {
+                deltaCache.evictPack(gone);
+                gone.close();
+            }
+        }
+    }
+
+    private void addAlternates(File objectDir, int depth) throws IOException {
+        File alternates = new File(objectDir, "info/alternates");
+        if (depth > 5 || !alternates.isFile()) return;
+        for (String line : Files.readAllLines(alternates.toPath(), StandardCharsets.UTF_8)) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            File alt = new File(line);
+            if (!alt.isAbsolute()) alt = new File(objectDir, line).getCanonicalFile();
+            if (alt.isDirectory() && !objectDirs.contains(alt)) {
+                objectDirs.add(alt);
+                addAlternates(alt, depth + 1);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        for (Pack p : packs) {
+            p.close();
+        }
+        packs = Collections.emptyList();
+        deltaCache.clear();
+    }
+
+    private static class EntryHeader {
+        int type;
+        long size;
+        long dataOffset;
+        long baseDistance;
+        byte[] baseId;
+    }
+
+    private static class Pack {
+        final File packFile;
+        final int objectCount;
+        private final ByteBuffer idx;
+        private final int idxVersion;
+        private final FileChannel channel;
+        private final long packLength;
+        // Whole-file mapping for packs that fit in one buffer, otherwise null
+        private final MappedByteBuffer packMap;
+        private long[] sortedOffsets;
+
+        Pack(File idxFile, File packFile) throws IOException {
+            this.packFile = packFile;
+            try (FileChannel idxChannel = FileChannel.open(idxFile.toPath(), StandardOpenOption.READ)) {
+                this.idx = idxChannel.map(FileChannel.MapMode.READ_ONLY, 0, idxChannel.size())
+                    .order(ByteOrder.BIG_ENDIAN);
+            }
+            if (idx.getInt(0) == 0xff744f63) {
+                idxVersion = idx.getInt(4);
+                if (idxVersion != 2) {
+                    throw new IOException("Unsupported pack index version " + idxVersion + ": " + idxFile);
+                }
+            } else {
+                idxVersion = 1;
+            }
+            objectCount = idx.getInt(fanoutBase() + 255 * 4);
+
+            channel = FileChannel.open(packFile.toPath(), StandardOpenOption.READ);
+            packLength = channel.size();
+            packMap = packLength <= Integer.MAX_VALUE
+                ? channel.map(FileChannel.MapMode.READ_ONLY, 0, packLength)
+                : null;
+            ByteBuffer head = region(0, 12);
+            if (head.getInt(head.position()) != 0x5041434b) {
+                throw new IOException("Not a pack file: " + packFile);
+            }
+        }
+
+        private int fanoutBase() {
+            return idxVersion == 2 ? 8 : 0;
+        }
+
+        /** Binary search of the sorted id table within the fanout bucket. */
+        long find(byte[] id) {
+            int first = id[0] & 0xff;
+            int lo = first == 0 ? 0 : idx.getInt(fanoutBase() + (first - 1) * 4);
+            int hi = idx.getInt(fanoutBase() + first * 4);
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                int cmp = compareId(mid, id);
+                if (cmp < 0) {
+                    lo = mid + 1;
+                } else if (cmp > 0) {
+                    hi = mid;
+                } else {
+                    return offsetAt(mid);
+                }
+            }
+            return -1;
+        }
+
+        private int compareId(int index, byte[] id) {
+            int base = idxVersion == 2
+                ? 8 + 256 * 4 + index * 20
+                : 256 * 4 + index * 24 + 4;
+            for (int i = 0; i < 20; i++) {
+                int a = idx.get(base + i) & 0xff;
+                int b = id[i] & 0xff;
+                if (a != b) return a - b;
+            }
+            return 0;
+        }
+
+        private long offsetAt(int index) {
+            if (idxVersion == 1) {
+                return idx.getInt(256 * 4 + index * 24) & 0xffffffffL;
+            }
+            int offsetTable = 8 + 256 * 4 + objectCount * 20 + objectCount * 4;
+            int small = idx.getInt(offsetTable + index * 4);
+            if ((small & 0x80000000) == 0) {
+                return small;
+            }
+            int largeTable = offsetTable + objectCount * 4;
+            return idx.getLong(largeTable + (small & 0x7fffffff) * 8);
+        }
+
+        EntryHeader header(long pos) throws IOException {
+            ByteBuffer b = region(pos, (int) Math.min(32, packLength - pos));
+            int start = b.position();
+            EntryHeader h = new EntryHeader();
+            int c = b.get() & 0xff;
+            h.type = (c >> 4) & 7;
+            long size = c & 0x0f;
+            int shift = 4;
+            while ((c & 0x80) != 0) {
+                c = b.get() & 0xff;
+                size |= (long) (c & 0x7f) << shift;
+                shift += 7;
+            }
+            h.size = size;
+            if (h.type == OBJ_OFS_DELTA) {
+                c = b.get() & 0xff;
+                long dist = c & 0x7f;
+                while ((c & 0x80) != 0) {
+                    c = b.get() & 0xff;
+                    dist = ((dist + 1) << 7) | (c & 0x7f);
+                }
+                h.baseDistance = dist;
+            } else if (h.type == OBJ_REF_DELTA) {
+                h.baseId = new byte[20];
+                b.get(h.baseId);
+            }
+            h.dataOffset = pos + (b.position() - start);
+            return h;
+        }
+
+        byte[] inflate(long pos, long size) throws IOException {
+            if (size > Integer.MAX_VALUE - 8) {
+                throw new IOException("Object too large to inflate in memory");
+            }
+            long end = packMap != null ? packLength - 20 : nextOffset(pos);
+            ByteBuffer input = region(pos, (int) Math.min(Integer.MAX_VALUE, end - pos));
+            byte[] out = new byte[(int) size];
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(input);
+                int n = 0;
+                while (n < out.length) {
+                    int r = inflater.inflate(out, n, out.length - n);
+                    if (r == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    n += r;
+                }
+                if (n != out.length) {
+                    throw new IOException("Truncated object at " + pos + " in " + packFile);
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupt object at " + pos + " in " + packFile, e);
+            } finally {
+                inflater.end();
+            }
+            return out;
+        }
+
+        // For packs too large for a single mapping we map just the object's own
+        // byte range; the next object's offset bounds the compressed data.
+        private synchronized long nextOffset(long pos) {
+            if (sortedOffsets == null) {
+                long[] offs = new long[objectCount];
+                for (int i = 0; i < objectCount; i++) offs[i] = offsetAt(i);
+                Arrays.sort(offs);
+                sortedOffsets = offs;
+            }
+            int i = Arrays.binarySearch(sortedOffsets, pos);
+            if (i < 0) i = -i - 1; else i++;
+            return i < sortedOffsets.length ? sortedOffsets[i] : packLength - 20;
+        }
+
+        private ByteBuffer region(long pos, int length) throws IOException {
+            if (packMap != null) {
+                ByteBuffer b = packMap.duplicate();
+                b.position((int) pos);
+                b.limit((int) Math.min(packLength, pos + length));
+                return b;
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(length, packLength - pos));
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {}
+        }
+    }
+
+    /** Small LRU of decoded delta bases, bounded by total bytes. */
+    private static class DeltaBaseCache {
+        private final long capacity;
+        private long used;
+        private final LinkedHashMap<String, GitObject> entries = new LinkedHashMap<>(64, 0.75f, true);
+
+        DeltaBaseCache(long capacity) {
+            this.capacity = capacity;
+        }
+
+        synchronized GitObject get(Pack pack, long offset) {
+            return entries.get(key(pack, offset));
+        }
+
+        synchronized void put(Pack pack, long offset, GitObject obj) {
+            if (obj.data.length > capacity / 4) return;
+            GitObject old = entries.put(key(pack, offset), obj);
+            if (old != null) used -= old.data.length;
+            used += obj.data.length;
+            Iterator<GitObject> it = entries.values().iterator();
+            while (used > capacity && it.hasNext()) {
+                used -= it.next().data.length;
+                it.remove();
+            }
+        }
+
+        synchronized void evictPack(Pack pack) {
+            String prefix = pack.packFile.getPath() + "@";
+            entries.entrySet().removeIf(e -> {
+                if (e.getKey().startsWith(prefix)) {
+                    used -= e.getValue().data.length;
+                    return true;
+                }
+                return false;
+            });
+        }
+
+        synchronized void clear() {
+            entries.clear();
+            used = 0;
+        }
+
+        private static String key(Pack pack, long offset) {
+            return pack.packFile.getPath() + "@" + offset;
+        }
+    }
+
+    // ==================== HELPERS ====================
+
+    private static byte[] inflateAll(byte[] compressed) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(compressed.length * 3);
+            byte[] buf = new byte[8192];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buf);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Truncated loose object");
+                }
+                out.write(buf, 0, n);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt loose object", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static int typeCode(String name) throws IOException {
+        for (int i = 1; i < TYPE_NAMES.length; i++) {
+            if (TYPE_NAMES[i].equals(name)) return i;
+        }
+        throw new IOException("Unknown object type " + name);
+    }
+
+    static byte[] fromHex(String hex) throws IOException {
+        if (hex.length() != 40) {
+            throw new IOException("Not a full object id: " + hex);
+        }
+        byte[] id = new byte[20];
+        for (int i = 0; i < 20; i++) {
+            int hi = Character.digit(hex.charAt(i * 2), 16);
+            int lo = Character.digit(hex.charAt(i * 2 + 1), 16);
+            if (hi < 0 || lo < 0) {
+                throw new IOException("Not a full object id: " + hex);
+            }
+            id[i] = (byte) (hi << 4 | lo);
+        }
+        return id;
+    }
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    static String toHex(byte[] id) {
+        return toHex(id, 0);
+    }
+
+    static String toHex(byte[] buf, int offset) {
+        char[] out = new char[40];
+        for (int i = 0; i < 20; i++) {
+            int b = buf[offset + i] & 0xff;
+            out[i * 2] = HEX[b >> 4];
+            out[i * 2 + 1] = HEX[b & 0xf];
+        }
+        return new String(out);
+    }
+}
@@ -0,0 +1,634 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Runs git commands for SimpleGit and keeps long-lived git processes around
+ * so repeated object lookups don't pay the fork/exec and repository-open cost
+ * on every call.
+ *
+ * Git has no general "server" mode, so only requests that a persistent
+ * {@code git cat-file --batch} / {@code --batch-check} process can answer are
+ * served from the pool; everything else is forked exactly like before.
+ */
+class GitProcessPool {
+
+    enum Kind {
+        BATCH("--batch"),
+        BATCH_CHECK("--batch-check");
+
+        final String flag;
+        final String metric;
+
+        Kind(String flag) {
+            this.flag = flag;
+            this.metric = "cat-file " + flag + " (pooled)";
+        }
+    }
+
+    // Small enough to keep the number of git processes per repo modest
+    private static final int MAX_IDLE_PER_KEY = 2;
+
+    private final long idleTimeoutMillis;
+    private final Map<String, Deque<Worker>> idle = new HashMap<>();
+    private final ScheduledExecutorService reaper;
+    private volatile boolean closed;
+
+    GitProcessPool(long idleTimeoutMillis) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        // Two threads, so a kill can fire while evictIdle() waits on a wedged worker
+        this.reaper = Executors.newScheduledThreadPool(2, r -> {
+            Thread t = new Thread(r, "git-pool-reaper");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1000, idleTimeoutMillis / 2);
+        reaper.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Same contract as the old runGitCommand: combined stdout/stderr, trimmed,
+     * or "Error: ..." if git could not be run at all.
+     */
+    String run(File repo, String... args) {
+        String pooled = tryPooled(repo, args);
+        if (pooled != null) {
+            return pooled;
+        }
+        return runForked(repo, args);
+    }
+
+    String runForked(File repo, String... args) {
+        try {
+            List<String> command = new ArrayList<>();
+            command.add("git");
+            command.addAll(Arrays.asList(args));
+
+            ProcessBuilder pb = new ProcessBuilder(command);
+            if (repo != null) {
+                pb.directory(repo);
+            }
+            pb.redirectErrorStream(true);
+
+            try (Running running = start(pb, args)) {
+                BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(running.output()));
+
+                StringBuilder output = new StringBuilder();
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    output.append(line).append("\n");
+                }
+
+                running.exitCode = running.process.waitFor();
+                if (running.timedOut) {
+                    return "Error: " + running.timeoutMessage();
+                }
+                return output.toString().trim();
+            }
+
+        } catch (Exception e) {
+            return "Error: " + e.getMessage();
+        }
+    }
+
+    interface OutputHandler {
+        void handle(InputStream out) throws IOException;
+    }
+
+    /**
+     * Runs git and hands its stdout to {@code handler} as it is produced, so
+     * large outputs can be parsed without holding them in memory. A non-zero
+     * exit code becomes an IOException carrying git's first complaint.
+     */
+    void runStreamed(File repo, OutputHandler handler, String... args) throws IOException {
+        runStreamed(repo, null, handler, args);
+    }
+
+    /**
+     * Like runStreamed(), writing {@code input} to git's stdin first. Only
+     * for commands that read all of stdin before producing much output
+     * (--pathspec-from-file=- and the like), or the pipes can deadlock.
+     */
+    void runStreamed(File repo, byte[] input, OutputHandler handler, String... args) throws IOException {
+        stream(repo, false, input, handler, args);
+    }
+
+    /**
+     * Like runStreamed(), for work nobody is watching (background fetches):
+     * git fails instead of waiting on a credential prompt.
+     */
+    void runUnattended(File repo, OutputHandler handler, String... args) throws IOException {
+        stream(repo, true, null, handler, args);
+    }
+
+    private void stream(File repo, boolean unattended, byte[] input, OutputHandler handler, String... args)
+            throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add("git");
+        command.addAll(Arrays.asList(args));
+
+        ProcessBuilder pb = new ProcessBuilder(command);
+        if (repo != null) {
+            pb.directory(repo);
+        }
+        if (unattended) {
+            pb.environment().put("GIT_TERMINAL_PROMPT", "0");
+        }
+
+        try (Running running = start(pb, args)) {
+            Process p = running.process;
+            ErrorOutput errors = new ErrorOutput(p.getErrorStream());
+            try (InputStream in = running.output()) {
+                try (OutputStream stdin = p.getOutputStream()) {
+                    if (input != null) stdin.write(input);
+                }
+                handler.handle(in);
+                // Drain whatever the handler left so git doesn't block on a full pipe
+                in.transferTo(OutputStream.nullOutputStream());
+            } catch (IOException | RuntimeException e) {
+                p.destroy();
+                if (running.timedOut) throw new IOException(running.timeoutMessage(), e);
+                throw e;
+            }
+            try {
+                int code = p.waitFor();
+                running.exitCode = code;
+                if (running.timedOut) {
+                    throw new IOException(running.timeoutMessage());
+                }
+                if (code != 0) {
+                    String firstError = errors.firstError();
+                    throw new IOException(firstError != null ? firstError
+                        : "git " + running.subcommand + " exited with code " + code);
+                }
+            } catch (InterruptedException e) {
+                p.destroy();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("git " + running.subcommand + " interrupted");
+            }
+        }
+    }
+
+    /**
+     * Runs git and returns its raw stdout. Unlike run(), nothing is trimmed or
+     * split into lines, so NUL-delimited and space-significant formats survive.
+     */
+    byte[] runRaw(File repo, String... args) throws IOException {
+        byte[][] output = new byte[1][];
+        runStreamed(repo, in -> output[0] = in.readAllBytes(), args);
+        return output[0];
+    }
+
+    /**
+     * Returns the raw object contents for {@code rev}, or null if the object
+     * does not exist.
+     */
+    byte[] readObject(File repo, String rev) throws IOException {
+        Response r = request(repo, Kind.BATCH, rev);
+        return r == null ? null : r.body;
+    }
+
+    /**
+     * Returns {objectname, type, size} for {@code rev}, or null if the object
+     * does not exist.
+     */
+    String[] checkObject(File repo, String rev) throws IOException {
+        Response r = request(repo, Kind.BATCH_CHECK, rev);
+        return r == null ? null : new String[] { r.id, r.type, String.valueOf(r.size) };
+    }
+
+    int idleWorkerCount() {
+        synchronized (idle) {
+            int n = 0;
+            for (Deque<Worker> d : idle.values()) {
+                n += d.size();
+            }
+            return n;
+        }
+    }
+
+    void shutdown() {
+        closed = true;
+        reaper.shutdownNow();
+        synchronized (idle) {
+            for (Deque<Worker> d : idle.values()) {
+                for (Worker w : d) {
+                    w.close();
+                }
+            }
+            idle.clear();
+        }
+    }
+
+    // ==================== TIMEOUTS ====================
+
+    // Network commands can legitimately run for minutes; nothing should hang forever
+    private static final long NETWORK_TIMEOUT_MILLIS = 10 * 60_000;
+    private static final long MAINTENANCE_TIMEOUT_MILLIS = 30 * 60_000;
+    // Everything else; -Dsimplegit.git.timeout (millis) overrides it
+    private static final long DEFAULT_TIMEOUT_MILLIS = Long.getLong("simplegit.git.timeout", 5 * 60_000);
+    // One cat-file answer; a worker that takes longer is killed and replaced
+    private static final long WORKER_TIMEOUT_MILLIS = Long.getLong("simplegit.catfile.timeout", 60_000);
+
+    /** How long a git invocation may run before it is killed. */
+    static long timeoutMillis(String... args) {
+        switch (subcommand(args)) {
+            case "clone":
+            case "fetch":
+            case "pull":
+            case "push":
+            case "ls-remote":
+                return NETWORK_TIMEOUT_MILLIS;
+            case "gc":
+            case "repack":
+            case "fsck":
+                return MAINTENANCE_TIMEOUT_MILLIS;
+            default:
+                return DEFAULT_TIMEOUT_MILLIS;
+        }
+    }
+
+    // First non-option argument, skipping the values of -c and -C
+    private static String subcommand(String... args) {
+        for (int i = 0; i < args.length; i++) {
+            String a = args[i];
+            if (a.equals("-c") || a.equals("-C")) {
+                i++;
+            } else if (!a.startsWith("-")) {
+                return a;
+            }
+        }
+        return "";
+    }
+
+    // A forked git tied to the current task, killed if it overruns and
+    // recorded in Metrics when closed
+    private class Running implements Closeable {
+        final Process process;
+        final String subcommand;
+        final long timeout;
+        final Closeable untrack;
+        final ScheduledFuture<?> killer;
+        final long started = System.nanoTime();
+        volatile boolean timedOut;
+        int exitCode = -1;    // until waited for
+        long outputBytes;
+
+        Running(Process process, String[] args) {
+            this.process = process;
+            this.subcommand = subcommand(args);
+            this.timeout = timeoutMillis(args);
+            this.untrack = TaskScheduler.track(process);
+            ScheduledFuture<?> k = null;
+            try {
+                k = reaper.schedule(() -> {
+                    timedOut = true;
+                    TaskScheduler.killTree(process);
+                }, timeout, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // Shutting down; the process dies with us
+            }
+            this.killer = k;
+        }
+
+        String timeoutMessage() {
+            return "git " + subcommand + " timed out after " + timeout / 1000 + " s";
+        }
+
+        // Git's stdout, counting what is read from it
+        InputStream output() {
+            return new FilterInputStream(process.getInputStream()) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b >= 0) outputBytes++;
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int n = super.read(b, off, len);
+                    if (n > 0) outputBytes += n;
+                    return n;
+                }
+            };
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (killer != null) killer.cancel(false);
+            untrack.close();
+            Metrics.global().record(subcommand, System.nanoTime() - started, exitCode, timedOut, outputBytes);
+        }
+    }
+
+    private Running start(ProcessBuilder pb, String[] args) throws IOException {
+        return new Running(pb.start(), args);
+    }
+
+    // ==================== ROUTING ====================
+
+    // Maps the handful of commands a cat-file worker can answer onto it.
+    // Returns null when the command has to be forked.
+    private String tryPooled(File repo, String... args) {
+        if (repo == null || closed || args.length == 0) {
+            return null;
+        }
+        try {
+            if (args[0].equals("cat-file") && args.length == 3 && !args[2].startsWith("-")) {
+                String flag = args[1];
+                String rev = args[2];
+                switch (flag) {
+                    case "-p": {
+                        // Only blobs print verbatim; trees need ls-tree formatting
+                        String[] info = checkObject(repo, rev);
+                        if (info == null || !info[1].equals("blob")) return null;
+                        byte[] body = readObject(repo, rev);
+                        return body == null ? null : new String(body, StandardCharsets.UTF_8).trim();
+                    }
+                    case "-t": {
+                        String[] info = checkObject(repo, rev);
+                        return info == null ? null : info[1];
+                    }
+                    case "-s": {
+                        String[] info = checkObject(repo, rev);
+                        return info == null ? null : info[2];
+                    }
+                    default:
+                        return null;
+                }
+            }
+            if (args[0].equals("rev-parse") && args.length == 3 && args[1].equals("--verify")
+                    && !args[2].startsWith("-")) {
+                String[] info = checkObject(repo, args[2]);
+                return info == null ? null : info[0];
+            }
+        } catch (IOException e) {
+            // Fall through to a plain fork, which reports the error itself
+        }
+        return null;
+    }
+
+    // Drains git's stderr on its own thread so it can't fill the pipe,
+    // keeping only the start of it
+    private static final class ErrorOutput {
+        private static final int LIMIT = 16 * 1024;
+        private final ByteArrayOutputStream head = new ByteArrayOutputStream(256);
+        private final Thread reader;
+
+        ErrorOutput(InputStream err) {
+            reader = new Thread(() -> {
+                byte[] buf = new byte[4096];
+                try (InputStream in = err) {
+                    int n;
+                    while ((n = in.read(buf)) > 0) {
+                        synchronized (head) {
+                            head.write(buf, 0, Math.min(n, LIMIT - head.size()));
+                        }
+                    }
+                } catch (IOException e) {
+                    // Process gone; keep what was read
+                }
+            }, "git-stderr");
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        // The first "fatal:" or "error:" line: the rest are usually consequences
+        String firstError() {
+            try {
+                reader.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            String text;
+            synchronized (head) {
+                text = head.toString(StandardCharsets.UTF_8);
+            }
+            for (String line : text.split("\r?\n")) {
+                line = line.trim();
+                if (line.startsWith("fatal:") || line.startsWith("error:")) return line;
+            }
+            return null;
+        }
+    }
+
+    // ==================== WORKERS ====================
+
+    private Response request(File repo, Kind kind, String rev) throws IOException {
+        if (rev.indexOf('\n') >= 0) {
+            throw new IOException("Invalid object name: " + rev);
+        }
+        IOException last = null;
+        long started = System.nanoTime();
+        // One retry with a fresh process if a pooled worker turned out to be dead
+        for (int attempt = 0; attempt < 2; attempt++) {
+            Worker w = borrow(repo, kind);
+            try {
+                Response r = ask(w, rev);
+                release(w);
+                Metrics.global().record(kind.metric, System.nanoTime() - started, 0, false,
+                    r == null || r.body == null ? 0 : r.body.length);
+                return r;
+            } catch (IOException e) {
+                w.close();
+                last = e;
+            }
+        }
+        Metrics.global().record(kind.metric, System.nanoTime() - started, -1, false, 0);
+        throw last;
+    }
+
+    // One request under a deadline; a worker that misses it is killed, which ends the read
+    private Response ask(Worker w, String rev) throws IOException {
+        ScheduledFuture<?> killer;
+        try {
+            killer = reaper.schedule(() -> {
+                w.timedOut = true;
+                w.process.destroyForcibly();
+            }, WORKER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            throw new IOException("Process pool closed");
+        }
+        try {
+            return w.request(rev);
+        } catch (IOException e) {
+            if (w.timedOut) {
+                throw new IOException("git cat-file timed out after " + WORKER_TIMEOUT_MILLIS / 1000 + " s", e);
+            }
+            throw e;
+        } finally {
+            killer.cancel(false);
+        }
+    }
+
+    // Any well-formed answer (including "missing") proves the process is responsive
+    private boolean ping(Worker w) {
+        try {
+            ask(w, "HEAD");
+            w.lastPinged = System.currentTimeMillis();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private Worker borrow(File repo, Kind kind) throws IOException {
+        String key = key(repo, kind);
+        synchronized (idle) {
+            Deque<Worker> d = idle.get(key);
+            while (d != null && !d.isEmpty()) {
+                Worker w = d.pollFirst();
+                if (w.isAlive()) {
+                    return w;
+                }
+                w.close();
+            }
+        }
+        return new Worker(repo, kind);
+    }
+
+    private void release(Worker w) {
+        w.lastUsed = System.currentTimeMillis();
+        synchronized (idle) {
+            Deque<Worker> d = idle.computeIfAbsent(w.key, k -> new ArrayDeque<>());
+            if (closed || d.size() >= MAX_IDLE_PER_KEY) {
+                w.close();
+            } else {
+                d.addFirst(w);
+            }
+        }
+    }
+
+    private void evictIdle() {
+        long now = System.currentTimeMillis();
+        List<Worker> suspects = new ArrayList<>();
+        synchronized (idle) {
+            for (Iterator<Deque<Worker>> it = idle.values().iterator(); it.hasNext(); ) {
+                Deque<Worker> d = it.next();
+                for (Iterator<Worker> wi = d.iterator(); wi.hasNext(); ) {
+                    Worker w = wi.next();
+                    if (!w.isAlive() || now - w.lastUsed > idleTimeoutMillis) {
+                        wi.remove();
+                        w.close();
+                    } else if (now - w.lastPinged > idleTimeoutMillis / 2) {
+                        wi.remove();
+                        suspects.add(w);
+                    }
+                }
+                if (d.isEmpty()) {
+                    it.remove();
+                }
+            }
+        }
+        // Health check outside the lock: a stuck worker must not block borrowers
+        for (Worker w : suspects) {
+            if (ping(w)) {
+                long used = w.lastUsed;
+                release(w);
+                w.lastUsed = used;
+            } else {
+                w.close();
+            }
+        }
+    }
+
+    private static String key(File repo, Kind kind) {
+        return repo.getAbsolutePath() + "\0" + kind;
+    }
+
+    private static class Response {
+        String id;
+        String type;
+        long size;
+        byte[] body;
+    }
+
+    private static class Worker {
+        final String key;
+        final Kind kind;
+        final Process process;
+        final InputStream in;
+        final OutputStream out;
+        volatile long lastUsed = System.currentTimeMillis();
+        volatile long lastPinged = System.currentTimeMillis();
+        volatile boolean timedOut;
+
+        Worker(File repo, Kind kind) throws IOException {
+            this.key = key(repo, kind);
+            this.kind = kind;
+            ProcessBuilder pb = new ProcessBuilder("git", "cat-file", kind.flag);
+            pb.directory(repo);
+            pb.redirectError(ProcessBuilder.Redirect.DISCARD);
+            this.process = pb.start();
+            this.in = new BufferedInputStream(process.getInputStream(), 64 * 1024);
+            this.out = new BufferedOutputStream(process.getOutputStream());
+        }
+
+        boolean isAlive() {
+            return process.isAlive();
+        }
+
+        Response request(String rev) throws IOException {
+            out.write((rev + "\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+
+            String header = readLine();
+            if (header.endsWith(" missing") || header.endsWith(" ambiguous")) {
+                return null;
+            }
+            String[] parts = header.split(" ");
+            if (parts.length != 3) {
+                throw new IOException("Unexpected cat-file header: " + header);
+            }
+            Response r = new Response();
+            r.id = parts[0];
+            r.type = parts[1];
+            r.size = Long.parseLong(parts[2]);
+            if (kind == Kind.BATCH) {
+                if (r.size > Integer.MAX_VALUE - 8) {
+                    throw new IOException("Object too large: " + r.id);
+                }
+                r.body = readFully((int) r.size);
+                if (in.read() != '\n') {
+                    throw new IOException("Missing object terminator for " + r.id);
+                }
+            }
+            return r;
+        }
+
+        private String readLine() throws IOException {
+            ByteArrayOutputStream buf = new ByteArrayOutputStream(64);
+            int c;
+            while ((c = in.read()) != '\n') {
+                if (c < 0) {
+                    throw new EOFException("git cat-file exited");
+                }
+                buf.write(c);
+            }
+            return buf.toString("UTF-8");
+        }
+
+        private byte[] readFully(int n) throws IOException {
+            byte[] data = new byte[n];
+            int off = 0;
+            while (off < n) {
+                int r = in.read(data, off, n - off);
+                if (r < 0) {
+                    throw new EOFException("git cat-file exited");
+                }
+                off += r;
+            }
+            return data;
+        }
+
+        void close() {
+            try {
+                out.close();
+            } catch (IOException e) {}
+            process.destroy();
+        }
+    }
+}
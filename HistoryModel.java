@@ -0,0 +1,431 @@
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Table model over a repository's whole history, read lazily.
+ *
+ * One `git rev-list` stream of commit ids is read only as far as the table
+ * has been scrolled, plus a page of prefetch; git blocks on the pipe in
+ * between. Each page is then decoded by id with `git log --no-walk --stdin`
+ * and kept in an LRU cache bounded in bytes, so for the whole history only
+ * the ids (20 bytes a row) stay in memory. An evicted page is simply read
+ * again.
+ *
+ * Rows not loaded yet read as null from commitAt() and fill in with an
+ * update event. The row count grows as the stream advances and jumps to
+ * the full length once a background `rev-list --count` returns.
+ */
+class HistoryModel extends AbstractTableModel implements Closeable {
+
+    static final int PAGE_ROWS = 256;
+    static final long DEFAULT_BUDGET_BYTES = 8L * 1024 * 1024;
+
+    private static final String[] COLUMNS = { "Commit", "Subject", "Author", "Date" };
+    private static final String FORMAT = "--format=%H%x1f%an%x1f%ad%x1f%s";
+    // Formatted by git: java.time's first use (tzdb) alone costs more than the first page
+    private static final String DATE = "--date=format-local:%Y-%m-%d %H:%M";
+    private static final int ID_BYTES = 20;
+
+    static final class Commit {
+        final String id;
+        final String subject;
+        final String author;
+        final String date;
+
+        Commit(String id, String subject, String author, String date) {
+            this.id = id;
+            this.subject = subject;
+            this.author = author;
+            this.date = date;
+        }
+
+        // Four Strings with their arrays, roughly
+        long heapBytes() {
+            return 4 * 56 + id.length() + subject.length() + author.length() + date.length();
+        }
+    }
+
+    private final GitProcessPool pool;
+    private final File repo;
+    private final long budgetBytes;
+    // One thread for the id stream, which waits while paused; one for pages
+    private final ExecutorService loader;
+
+    // Guarded by this
+    private byte[] ids = new byte[ID_BYTES * PAGE_ROWS];
+    private int streamed;          // rows read from the stream so far
+    private int wanted;            // rows the stream should read before pausing
+    private boolean streamRunning;
+    private boolean streamDone;    // reached the first commit
+    private int total = -1;        // from rev-list --count, once known
+    private boolean closed;
+    private boolean counting;
+    private boolean firstPageDirect;   // start() is reading page 0 itself
+    private final LinkedHashMap<Integer, Commit[]> pages = new LinkedHashMap<>(16, 0.75f, true);
+    private final Set<Integer> loading = new HashSet<>();
+    private long cachedBytes;
+
+    // EDT only
+    private int rowCount;
+
+    HistoryModel(GitProcessPool pool, File repo, long budgetBytes) {
+        this.pool = pool;
+        this.repo = repo;
+        this.budgetBytes = budgetBytes;
+        this.loader = Executors.newFixedThreadPool(2, r -> {
+            Thread t = new Thread(r, "history-loader");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /** Just these commits, in this order, such as search results; pages load the same way. */
+    HistoryModel(GitProcessPool pool, File repo, long budgetBytes, List<String> commits) {
+        this(pool, repo, budgetBytes);
+        ids = new byte[Math.max(1, commits.size()) * ID_BYTES];
+        for (int i = 0; i < commits.size(); i++) {
+            hexToBytes(commits.get(i).getBytes(StandardCharsets.US_ASCII), ids, i * ID_BYTES);
+        }
+        streamed = commits.size();
+        streamDone = true;
+        total = streamed;
+        counting = true;
+    }
+
+    /** Reads the first page and starts the id stream; the rest is counted once page 0 is in. */
+    void start() {
+        synchronized (this) {
+            if (streamDone) {
+                postRowCount();
+                return;
+            }
+            firstPageDirect = true;
+            loading.add(0);
+            wanted = PAGE_ROWS;
+            streamRunning = true;
+        }
+        execute(this::readFirstPage);
+        execute(this::stream);
+    }
+
+    @Override
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMNS.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMNS[column];
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        Commit c = commitAt(row);
+        if (c == null) return column == 1 ? "Loading…" : "";
+        switch (column) {
+            case 0: return c.id.substring(0, 7);
+            case 1: return c.subject;
+            case 2: return c.author;
+            default: return c.date;
+        }
+    }
+
+    /** The commit at {@code row}, or null while its page is loading. */
+    Commit commitAt(int row) {
+        int page = row / PAGE_ROWS;
+        synchronized (this) {
+            Commit[] rows = pages.get(page);
+            if (rows == null) request(page);
+            // Keep one page ahead of whatever is being looked at
+            if (!pages.containsKey(page + 1)) request(page + 1);
+            if (rows == null) return null;
+            int i = row % PAGE_ROWS;
+            return i < rows.length ? rows[i] : null;
+        }
+    }
+
+    /** Approximate heap held by decoded pages; stays near the budget. */
+    synchronized long cachedBytes() {
+        return cachedBytes;
+    }
+
+    /** Heap held by the row ids of everything streamed so far. */
+    synchronized long idBytes() {
+        return ids.length;
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        // Interrupts a paused stream, which then kills its git
+        loader.shutdownNow();
+    }
+
+    // ==================== LOADING ====================
+
+    private synchronized void request(int page) {
+        int first = page * PAGE_ROWS;
+        if (closed || pages.containsKey(page) || loading.contains(page)) return;
+        if (streamDone && first >= streamed) return;
+        if (total >= 0 && first >= total) return;
+        loading.add(page);
+
+        if (first + PAGE_ROWS <= streamed || streamDone) {
+            execute(() -> readPage(page));
+            return;
+        }
+        wanted = Math.max(wanted, first + PAGE_ROWS);
+        notifyAll();
+        if (!streamRunning) {
+            streamRunning = true;
+            execute(this::stream);
+        }
+    }
+
+    // Walks history for ids only. rev-list walks in the same order as log,
+    // and with a commit-graph it needn't open the commits at all.
+    private void stream() {
+        int skip;
+        synchronized (this) {
+            skip = streamed;
+        }
+        List<String> args = new ArrayList<>();
+        args.add("rev-list");
+        // Only after a timeout or failure: pick up where the last stream stopped
+        if (skip > 0) args.add("--skip=" + skip);
+        args.add("HEAD");
+        try {
+            pool.runStreamed(repo, in -> readIds(new BufferedInputStream(in, 64 * 1024)),
+                args.toArray(new String[0]));
+        } catch (IOException e) {
+            // Closed, timed out while paused, or no commits yet
+        } finally {
+            synchronized (this) {
+                streamRunning = false;
+                // Let pages the stream never reached be asked for again on the next paint
+                loading.removeIf(p -> (p + 1) * PAGE_ROWS > streamed && !streamDone);
+            }
+        }
+    }
+
+    private void readIds(InputStream in) throws IOException {
+        byte[] line = new byte[ID_BYTES * 2 + 1];
+        while (true) {
+            int row;
+            synchronized (this) {
+                try {
+                    while (!closed && streamed >= wanted) wait();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException("history closed");
+                }
+                if (closed) throw new InterruptedIOException("history closed");
+                row = streamed;
+            }
+
+            int n = in.readNBytes(line, 0, line.length);
+            if (n == 0) {
+                synchronized (this) {
+                    streamDone = true;
+                }
+                if (row % PAGE_ROWS != 0) pageComplete(row / PAGE_ROWS);
+                postRowCount();
+                return;
+            }
+            if (n < line.length || line[line.length - 1] != '\n') {
+                throw new IOException("unexpected rev-list output");
+            }
+            synchronized (this) {
+                if (ids.length < (row + 1) * ID_BYTES) ids = Arrays.copyOf(ids, ids.length * 2);
+                hexToBytes(line, ids, row * ID_BYTES);
+                streamed = row + 1;
+            }
+            if ((row + 1) % PAGE_ROWS == 0) {
+                pageComplete(row / PAGE_ROWS);
+                postRowCount();
+            }
+        }
+    }
+
+    // All of a page's ids are known: load it if it's being waited for
+    private void pageComplete(int page) {
+        synchronized (this) {
+            if (!loading.contains(page) || page == 0 && firstPageDirect) return;
+        }
+        execute(() -> readPage(page));
+    }
+
+    private void readPage(int page) {
+        int first = page * PAGE_ROWS;
+        StringBuilder revs = new StringBuilder();
+        int size;
+        synchronized (this) {
+            size = Math.min(PAGE_ROWS, streamed - first);
+            for (int i = 0; i < size; i++) {
+                appendHex(revs, ids, (first + i) * ID_BYTES).append('\n');
+            }
+        }
+        load(page, size, revs.toString().getBytes(StandardCharsets.US_ASCII),
+            "log", "--no-walk=unsorted", "--stdin", "-z", FORMAT, DATE);
+    }
+
+    // Page 0 without waiting for its ids: one git instead of two before the first row
+    private void readFirstPage() {
+        try {
+            load(0, -1, null, "log", "-z", "-n", String.valueOf(PAGE_ROWS), FORMAT, DATE, "HEAD");
+        } finally {
+            synchronized (this) {
+                firstPageDirect = false;
+            }
+        }
+    }
+
+    // Reads `size` records, or as many as git prints when size is -1
+    private void load(int page, int size, byte[] input, String... args) {
+        List<Commit> rows = new ArrayList<>(PAGE_ROWS);
+        try {
+            pool.runStreamed(repo, input, in -> {
+                // A page is a few tens of KB: read it whole, then split on NUL
+                byte[] out = in.readAllBytes();
+                int from = 0;
+                while (from < out.length && rows.size() != size) {
+                    int end = from;
+                    while (end < out.length && out[end] != 0) end++;
+                    rows.add(decode(out, from, end));
+                    from = end + 1;
+                }
+                if (size >= 0 && rows.size() < size) {
+                    throw new EOFException("history page " + page + " cut short");
+                }
+            }, args);
+            loaded(page, rows.toArray(new Commit[0]));
+        } catch (IOException e) {
+            synchronized (this) {
+                loading.remove(page);
+            }
+        }
+    }
+
+    private void loaded(int page, Commit[] rows) {
+        boolean countNow;
+        synchronized (this) {
+            // Counting walks the whole history, so it waits until the first rows are up
+            countNow = !counting;
+            counting = true;
+            loading.remove(page);
+            if (closed) return;
+            pages.put(page, rows);
+            cachedBytes += heapBytes(rows);
+            // Least recently painted first; the page just read always stays
+            Iterator<Map.Entry<Integer, Commit[]>> it = pages.entrySet().iterator();
+            while (cachedBytes > budgetBytes && pages.size() > 1) {
+                Map.Entry<Integer, Commit[]> eldest = it.next();
+                if (eldest.getKey() == page) continue;
+                cachedBytes -= heapBytes(eldest.getValue());
+                it.remove();
+            }
+        }
+        if (countNow) execute(this::count);
+        int first = page * PAGE_ROWS;
+        SwingUtilities.invokeLater(() -> {
+            if (first < rowCount) {
+                fireTableRowsUpdated(first, Math.min(rowCount, first + rows.length) - 1);
+            }
+        });
+    }
+
+    private void count() {
+        String out = pool.runForked(repo, "rev-list", "--count", "HEAD");
+        try {
+            int n = Integer.parseInt(out.trim());
+            synchronized (this) {
+                total = n;
+            }
+            postRowCount();
+        } catch (NumberFormatException e) {
+            // No commits yet, or git failed; the row count follows the stream
+        }
+    }
+
+    // Rows known to exist, plus a page of "Loading…" to scroll into while streaming
+    private void postRowCount() {
+        int count;
+        synchronized (this) {
+            if (streamDone) count = streamed;
+            else if (total >= 0) count = total;
+            else count = streamed + PAGE_ROWS;
+        }
+        SwingUtilities.invokeLater(() -> {
+            int old = rowCount;
+            if (count == old) return;
+            rowCount = count;
+            if (count > old) {
+                fireTableRowsInserted(old, count - 1);
+            } else {
+                fireTableRowsDeleted(count, old - 1);
+            }
+        });
+    }
+
+    private void execute(Runnable task) {
+        try {
+            loader.execute(task);
+        } catch (RejectedExecutionException e) {
+            // Closed
+        }
+    }
+
+    // ==================== DECODING ====================
+
+    // id \x1f author \x1f date \x1f subject, in record[from, end)
+    private static Commit decode(byte[] record, int from, int end) {
+        int a = indexOf(record, from, end);
+        int b = indexOf(record, a + 1, end);
+        int c = indexOf(record, b + 1, end);
+        String id = new String(record, from, a - from, StandardCharsets.US_ASCII);
+        String author = new String(record, a + 1, b - a - 1, StandardCharsets.UTF_8);
+        String date = new String(record, b + 1, c - b - 1, StandardCharsets.US_ASCII);
+        String subject = c < end ? new String(record, c + 1, end - c - 1, StandardCharsets.UTF_8) : "";
+        return new Commit(id, subject, author, date);
+    }
+
+    private static int indexOf(byte[] record, int from, int end) {
+        for (int i = from; i < end; i++) {
+            if (record[i] == 0x1f) return i;
+        }
+        return end;
+    }
+
+    private static long heapBytes(Commit[] rows) {
+        long bytes = 16 + 4L * rows.length;
+        for (Commit c : rows) {
+            if (c != null) bytes += c.heapBytes();
+        }
+        return bytes;
+    }
+
+    private static void hexToBytes(byte[] hex, byte[] out, int at) {
+        for (int i = 0; i < ID_BYTES; i++) {
+            out[at + i] = (byte) (Character.digit(hex[2 * i], 16) << 4 | Character.digit(hex[2 * i + 1], 16));
+        }
+    }
+
+    private static StringBuilder appendHex(StringBuilder sb, byte[] bytes, int at) {
+        for (int i = 0; i < ID_BYTES; i++) {
+            sb.append(Character.forDigit((bytes[at + i] >> 4) & 0xf, 16))
+              .append(Character.forDigit(bytes[at + i] & 0xf, 16));
+        }
+        return sb;
+    }
+}
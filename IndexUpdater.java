@@ -0,0 +1,87 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Stages and unstages many paths with a few git processes instead of one
+ * per file. Paths go to git on stdin, NUL-separated
+ * (--pathspec-from-file=- --pathspec-file-nul), so names with spaces,
+ * quotes or newlines need no escaping and there is no command-line limit.
+ *
+ * Big selections are split into chunks. Each chunk is one index write,
+ * so progress can be reported between them and a cancel lands on a chunk
+ * boundary. A chunk that is killed halfway leaves the index untouched.
+ */
+class IndexUpdater {
+
+    interface Progress {
+        void update(int done, int total);
+    }
+
+    // Each chunk rewrites the whole index, so keep chunks large
+    static final int CHUNK_PATHS = 5000;
+
+    private final GitProcessPool pool;
+    private final File repo;
+
+    IndexUpdater(GitProcessPool pool, File repo) {
+        this.pool = pool;
+        this.repo = repo;
+    }
+
+    /** git add for every path (a deleted file has its removal staged). */
+    void stage(List<String> paths, Progress progress) throws IOException {
+        run(paths, progress, "add");
+    }
+
+    /**
+     * Puts every path back to its HEAD state in the index; the work tree is
+     * untouched. A staged rename needs both its old and its new path.
+     */
+    void unstage(List<String> paths, Progress progress) throws IOException {
+        if (hasHead()) {
+            run(paths, progress, "restore", "--staged");
+        } else {
+            // Nothing committed yet, so there is no HEAD to restore from
+            run(paths, progress, "rm", "--cached", "-r", "-q", "--ignore-unmatch");
+        }
+    }
+
+    private boolean hasHead() {
+        return !pool.runForked(repo, "rev-parse", "-q", "--verify", "HEAD").isEmpty();
+    }
+
+    private void run(List<String> paths, Progress progress, String subcommand, String... options)
+            throws IOException {
+        List<String> args = new ArrayList<>();
+        // Paths from the file lists are names, not patterns: "*.txt" is a file
+        args.add("--literal-pathspecs");
+        args.add(subcommand);
+        args.add("--pathspec-from-file=-");
+        args.add("--pathspec-file-nul");
+        args.addAll(Arrays.asList(options));
+        String[] command = args.toArray(new String[0]);
+
+        int total = paths.size();
+        for (int from = 0; from < total; from += CHUNK_PATHS) {
+            TaskScheduler.Task task = TaskScheduler.current();
+            if (task != null && task.isCancelled()) {
+                throw new CancellationException(subcommand);
+            }
+            int to = Math.min(total, from + CHUNK_PATHS);
+            pool.runStreamed(repo, nulSeparated(paths.subList(from, to)), in -> {}, command);
+            if (progress != null) progress.update(to, total);
+        }
+    }
+
+    private static byte[] nulSeparated(List<String> paths) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(paths.size() * 32);
+        for (String path : paths) {
+            byte[] utf8 = path.getBytes(StandardCharsets.UTF_8);
+            out.write(utf8, 0, utf8.length);
+            out.write(0);
+        }
+        return out.toByteArray();
+    }
+}
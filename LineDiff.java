@@ -0,0 +1,171 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Added and removed line counts between two versions of a file, the
+ * numbers `git diff --numstat` prints, without producing the diff itself.
+ *
+ * Lines are hashed (64 bits, newline included, so a missing final newline
+ * counts as a change the way it does in git) and interned to small ints.
+ * The common prefix and suffix are cut, lines that occur on only one side
+ * are counted straight away, and Myers' greedy algorithm finds the edit
+ * distance D of what is left in O((N + M) D) time and O(N + M) space.
+ * Added minus removed is fixed by the line counts, so D alone gives both.
+ *
+ * Like git, it gives up on minimality for pathological inputs: past
+ * MAX_D edits the rest is estimated from how many lines the sides share.
+ */
+final class LineDiff {
+
+    private static final int MAX_D = 8192;
+
+    private LineDiff() {}
+
+    /** added << 32 | removed. */
+    static long pack(int added, int removed) {
+        return (long) added << 32 | (removed & 0xffffffffL);
+    }
+
+    static int added(long packed) {
+        return (int) (packed >> 32);
+    }
+
+    static int removed(long packed) {
+        return (int) packed;
+    }
+
+    /** Either side may be null for a file that doesn't exist there. */
+    static long numstat(ByteBuffer before, ByteBuffer after) {
+        Interner interner = new Interner();
+        int[] a = before == null ? new int[0] : interner.lines(before);
+        int[] b = after == null ? new int[0] : interner.lines(after);
+
+        int n = a.length;
+        int m = b.length;
+        int start = 0;
+        while (start < n && start < m && a[start] == b[start]) start++;
+        while (n > start && m > start && a[n - 1] == b[m - 1]) {
+            n--;
+            m--;
+        }
+
+        // A line the other side doesn't have can't be matched: count it and drop it
+        int[] inA = new int[interner.size];
+        int[] inB = new int[interner.size];
+        for (int i = start; i < n; i++) inA[a[i]]++;
+        for (int i = start; i < m; i++) inB[b[i]]++;
+        int removed = 0;
+        int added = 0;
+        int[] x = new int[n - start];
+        int[] y = new int[m - start];
+        int xn = 0;
+        int yn = 0;
+        for (int i = start; i < n; i++) {
+            if (inB[a[i]] == 0) removed++;
+            else x[xn++] = a[i];
+        }
+        for (int i = start; i < m; i++) {
+            if (inA[b[i]] == 0) added++;
+            else y[yn++] = b[i];
+        }
+
+        int d = distance(x, xn, y, yn);
+        if (d < 0) {
+            // Too far apart: every shared line matched, an underestimate git would not make much smaller
+            int shared = 0;
+            for (int c = 0; c < inA.length; c++) shared += Math.min(inA[c], inB[c]);
+            d = xn + yn - 2 * Math.min(shared, Math.min(xn, yn));
+        }
+        return pack(added + (d + yn - xn) / 2, removed + (d - yn + xn) / 2);
+    }
+
+    // Myers' forward greedy search; -1 past MAX_D
+    private static int distance(int[] a, int n, int[] b, int m) {
+        if (n == 0 || m == 0) return n + m;
+        int max = Math.min(n + m, MAX_D);
+        int offset = max + 1;
+        int[] v = new int[2 * max + 3];
+        for (int d = 0; d <= max; d++) {
+            for (int k = -d; k <= d; k += 2) {
+                int x = k == -d || (k != d && v[offset + k - 1] < v[offset + k + 1])
+                    ? v[offset + k + 1]
+                    : v[offset + k - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m && a[x] == b[y]) {
+                    x++;
+                    y++;
+                }
+                v[offset + k] = x;
+                if (x >= n && y >= m) return d;
+            }
+        }
+        return -1;
+    }
+
+    /** Hashes lines and numbers distinct ones from 0, shared by both sides. */
+    private static final class Interner {
+        private long[] keys = new long[1024];
+        private int[] values = new int[1024];
+        private boolean[] used = new boolean[1024];
+        int size;
+
+        int[] lines(ByteBuffer buf) {
+            int[] out = new int[64];
+            int count = 0;
+            long h = 0xcbf29ce484222325L;
+            int limit = buf.limit();
+            boolean open = false;
+            byte[] array = buf.hasArray() ? buf.array() : null;
+            int base = array != null ? buf.arrayOffset() : 0;
+            for (int i = buf.position(); i < limit; i++) {
+                byte c = array != null ? array[base + i] : buf.get(i);
+                h = (h ^ c) * 0x100000001b3L;
+                open = true;
+                if (c == '\n') {
+                    if (count == out.length) out = Arrays.copyOf(out, count * 2);
+                    out[count++] = intern(h);
+                    h = 0xcbf29ce484222325L;
+                    open = false;
+                }
+            }
+            if (open) {
+                if (count == out.length) out = Arrays.copyOf(out, count + 1);
+                out[count++] = intern(h);
+            }
+            return Arrays.copyOf(out, count);
+        }
+
+        // Open addressing on the hash itself
+        private int intern(long h) {
+            if (size * 2 >= keys.length) grow();
+            int mask = keys.length - 1;
+            int i = (int) (h ^ h >>> 32) & mask;
+            while (used[i]) {
+                if (keys[i] == h) return values[i];
+                i = (i + 1) & mask;
+            }
+            used[i] = true;
+            keys[i] = h;
+            values[i] = size;
+            return size++;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            int[] oldValues = values;
+            boolean[] oldUsed = used;
+            keys = new long[oldKeys.length * 2];
+            values = new int[oldKeys.length * 2];
+            used = new boolean[oldKeys.length * 2];
+            int mask = keys.length - 1;
+            for (int j = 0; j < oldKeys.length; j++) {
+                if (!oldUsed[j]) continue;
+                int i = (int) (oldKeys[j] ^ oldKeys[j] >>> 32) & mask;
+                while (used[i]) i = (i + 1) & mask;
+                used[i] = true;
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+}
@@ -0,0 +1,335 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * The +/- line counts shown next to each row of the Staged and Changed
+ * lists: `git diff --numstat` worked out in-process, one file per task on
+ * a fork-join pool, with results handed over in batches as they come.
+ *
+ * Blobs come from GitObjectDatabase; work-tree files are memory-mapped
+ * once they are big enough to be worth it. The first 8000 bytes of each
+ * side are checked for a NUL, as git does, so binaries cost a page read
+ * and no diff. Counts are cached by the pair of blob ids they were made
+ * from, a work-tree file's id being its SHA-1 as a blob (remembered by
+ * size and mtime), so an unchanged file is never diffed twice.
+ *
+ * Clean/smudge filters and eol conversion are not applied, so files
+ * under them may count differently than git would.
+ */
+class LineStats implements Closeable {
+
+    static final int UNKNOWN = -1;
+    static final int BINARY = -2;
+
+    private static final long BINARY_PAIR = LineDiff.pack(BINARY, BINARY);
+    private static final long UNKNOWN_PAIR = LineDiff.pack(UNKNOWN, UNKNOWN);
+    private static final int BINARY_PROBE = 8000;
+    private static final long MMAP_THRESHOLD = 64 * 1024;
+    private static final int SPLIT_THRESHOLD = 8;
+    private static final long FLUSH_NANOS = 50_000_000;
+    private static final int FLUSH_ROWS = 256;
+    private static final int MAX_CACHED = 200_000;
+    private static final long RACY_WINDOW_MILLIS = 2000;
+
+    /** Receives (row, added, removed) triples, off the EDT. Added is BINARY for binary files. */
+    interface Sink {
+        void accept(int[] results, int count);
+    }
+
+    private static final class WorkTreeId {
+        final long size;
+        final long mtimeMillis;
+        final String id;
+
+        WorkTreeId(long size, long mtimeMillis, String id) {
+            this.size = size;
+            this.mtimeMillis = mtimeMillis;
+            this.id = id;
+        }
+    }
+
+    private final ForkJoinPool pool;
+    private final ConcurrentHashMap<String, Long> byBlobs = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, WorkTreeId> workTreeIds = new ConcurrentHashMap<>();
+
+    LineStats(int parallelism) {
+        this.pool = new ForkJoinPool(Math.max(1, parallelism));
+    }
+
+    /** One list's worth of rows being counted; superseded by the next refresh. */
+    final class Job {
+        private final GitObjectDatabase db;
+        private final Path root;
+        private final FileListModel.Rows rows;
+        private final boolean staged;
+        private final Sink sink;
+        private volatile boolean cancelled;
+        private volatile boolean done;
+        private GitIndex index;
+        private String headTree;
+        private final ConcurrentHashMap<String, List<GitObjectDatabase.TreeEntry>> trees = new ConcurrentHashMap<>();
+        // Guarded by this
+        private int[] pending = new int[FLUSH_ROWS * 3];
+        private int pendingCount;
+        private long lastFlush = System.nanoTime();
+
+        private Job(GitObjectDatabase db, File workTree, FileListModel.Rows rows, boolean staged, Sink sink) {
+            this.db = db;
+            this.root = workTree.toPath().toAbsolutePath();
+            this.rows = rows;
+            this.staged = staged;
+            this.sink = sink;
+        }
+
+        void cancel() {
+            cancelled = true;
+        }
+
+        /** True once every row has been tried and the last batch handed over. */
+        boolean isDone() {
+            return done;
+        }
+
+        private void run() {
+            try {
+                index = GitIndex.read(db.getGitDir());
+                if (staged) {
+                    String head = db.resolve("HEAD");
+                    headTree = head == null ? null : db.readCommit(head).tree;
+                }
+                new Range(this, 0, rows.size()).invoke();
+                flush(true);
+            } catch (IOException | RuntimeException e) {
+                // No index or HEAD to count against: the rows keep no counts
+            } finally {
+                done = true;
+            }
+        }
+
+        private void add(int row, long stats) {
+            synchronized (this) {
+                if (pendingCount == pending.length) pending = Arrays.copyOf(pending, pending.length * 2);
+                pending[pendingCount++] = row;
+                pending[pendingCount++] = LineDiff.added(stats);
+                pending[pendingCount++] = LineDiff.removed(stats);
+            }
+            flush(false);
+        }
+
+        private void flush(boolean last) {
+            int[] batch;
+            int count;
+            synchronized (this) {
+                long now = System.nanoTime();
+                if (pendingCount == 0 || cancelled
+                        || !last && pendingCount < FLUSH_ROWS * 3 && now - lastFlush < FLUSH_NANOS) {
+                    return;
+                }
+                batch = pending;
+                count = pendingCount;
+                pending = new int[FLUSH_ROWS * 3];
+                pendingCount = 0;
+                lastFlush = now;
+            }
+            sink.accept(batch, count);
+        }
+
+        private String indexBlob(String path) {
+            if (index == null) return null;
+            int i = index.find(path);
+            return i >= 0 && (index.mode(i) & 0170000) != 0160000 ? index.objectId(i) : null;
+        }
+
+        // The blob at path in HEAD; trees along the way are read once per job
+        private String headBlob(String path) throws IOException {
+            if (headTree == null) return null;
+            String tree = headTree;
+            String[] parts = path.split("/");
+            for (int i = 0; i < parts.length; i++) {
+                GitObjectDatabase.TreeEntry found = null;
+                List<GitObjectDatabase.TreeEntry> entries = trees.get(tree);
+                if (entries == null) {
+                    entries = db.readTree(GitObjectDatabase.fromHex(tree));
+                    trees.put(tree, entries);
+                }
+                for (GitObjectDatabase.TreeEntry e : entries) {
+                    if (e.name.equals(parts[i])) {
+                        found = e;
+                        break;
+                    }
+                }
+                if (found == null) return null;
+                boolean last = i == parts.length - 1;
+                if (last == found.isTree()) return null;
+                if (last) return (found.mode & 0170000) == 0160000 ? null : GitObjectDatabase.toHex(found.id);
+                tree = GitObjectDatabase.toHex(found.id);
+            }
+            return null;
+        }
+    }
+
+    private final class Range extends RecursiveAction {
+        private final Job job;
+        private final int from;
+        private final int to;
+
+        Range(Job job, int from, int to) {
+            this.job = job;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > SPLIT_THRESHOLD) {
+                int mid = (from + to) >>> 1;
+                // Top rows are on screen: do them here, leave the rest for whoever steals it
+                Range rest = new Range(job, mid, to);
+                rest.fork();
+                new Range(job, from, mid).compute();
+                rest.join();
+                return;
+            }
+            for (int row = from; row < to && !job.cancelled; row++) {
+                try {
+                    long stats = statsFor(job, row);
+                    if (stats != UNKNOWN_PAIR) job.add(row, stats);
+                } catch (IOException | RuntimeException e) {
+                    // No counts for this row; the file is probably changing under us
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts counting every row of {@code rows}, a Staged list's rows
+     * (index against HEAD) when {@code staged}, else a Changed list's
+     * (work tree against the index).
+     */
+    Job compute(GitObjectDatabase db, File workTree, FileListModel.Rows rows, boolean staged, Sink sink) {
+        Job job = new Job(db, workTree, rows, staged, sink);
+        pool.execute(job::run);
+        return job;
+    }
+
+    @Override
+    public void close() {
+        pool.shutdownNow();
+    }
+
+    // ==================== ONE FILE ====================
+
+    private long statsFor(Job job, int row) throws IOException {
+        char status = job.rows.statusAt(row);
+        String path = job.rows.pathAt(row);
+        if (path.endsWith("/")) return UNKNOWN_PAIR;    // an untracked directory, collapsed
+        if (job.staged) {
+            String origPath = job.rows.origPathAt(row);
+            String oldId = status == 'A' ? null : job.headBlob(origPath != null ? origPath : path);
+            String newId = status == 'D' ? null : job.indexBlob(path);
+            if (oldId == null && newId == null) return UNKNOWN_PAIR;
+            return blobs(job.db, oldId, newId);
+        }
+        String oldId = status == '?' ? null : job.indexBlob(path);
+        if (oldId == null && status != '?') return UNKNOWN_PAIR;    // submodule, or gone from the index
+        if (status == 'D') return blobs(job.db, oldId, null);
+        return workTree(job, oldId, job.root.resolve(path));
+    }
+
+    private long blobs(GitObjectDatabase db, String oldId, String newId) throws IOException {
+        String key = oldId + " " + newId;
+        Long cached = byBlobs.get(key);
+        if (cached != null) return cached;
+        ByteBuffer before = blob(db, oldId);
+        ByteBuffer after = blob(db, newId);
+        long stats = isBinary(before) || isBinary(after) ? BINARY_PAIR : LineDiff.numstat(before, after);
+        remember(key, stats);
+        return stats;
+    }
+
+    private long workTree(Job job, String oldId, Path file) throws IOException {
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (NoSuchFileException e) {
+            return blobs(job.db, oldId, null);
+        }
+        if (!attrs.isRegularFile() || attrs.size() > Integer.MAX_VALUE) return UNKNOWN_PAIR;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer after = read(channel, attrs.size());
+            // Binary: no hash, no blob read, no diff
+            if (isBinary(after)) return BINARY_PAIR;
+            String key = oldId + " " + workTreeId(file, attrs, after);
+            Long cached = byBlobs.get(key);
+            if (cached != null) return cached;
+            ByteBuffer before = blob(job.db, oldId);
+            long stats = isBinary(before) ? BINARY_PAIR : LineDiff.numstat(before, after);
+            remember(key, stats);
+            return stats;
+        }
+    }
+
+    private static ByteBuffer read(FileChannel channel, long size) throws IOException {
+        if (size >= MMAP_THRESHOLD) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        ByteBuffer buf = ByteBuffer.allocate((int) size);
+        while (buf.hasRemaining() && channel.read(buf) >= 0) { }
+        buf.flip();
+        return buf;
+    }
+
+    private static ByteBuffer blob(GitObjectDatabase db, String id) throws IOException {
+        if (id == null) return null;
+        GitObjectDatabase.GitObject obj = db.read(id);
+        if (obj == null || obj.type != GitObjectDatabase.OBJ_BLOB) throw new IOException("Missing blob " + id);
+        return ByteBuffer.wrap(obj.data);
+    }
+
+    // Git's own test: a NUL in the first 8000 bytes
+    static boolean isBinary(ByteBuffer buf) {
+        if (buf == null) return false;
+        int end = Math.min(buf.limit(), buf.position() + BINARY_PROBE);
+        for (int i = buf.position(); i < end; i++) {
+            if (buf.get(i) == 0) return true;
+        }
+        return false;
+    }
+
+    // The file's blob id, hashed again only when its size or mtime moved
+    private String workTreeId(Path file, BasicFileAttributes attrs, ByteBuffer content) {
+        String key = file.toString();
+        long size = attrs.size();
+        long mtime = attrs.lastModifiedTime().toMillis();
+        WorkTreeId known = workTreeIds.get(key);
+        if (known != null && known.size == size && known.mtimeMillis == mtime) return known.id;
+
+        MessageDigest sha1;
+        try {
+            sha1 = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        sha1.update(("blob " + size + "\0").getBytes(StandardCharsets.US_ASCII));
+        sha1.update(content.duplicate());
+        String id = GitObjectDatabase.toHex(sha1.digest());
+        // A file written within the last tick could change again without its mtime moving
+        if (System.currentTimeMillis() - mtime > RACY_WINDOW_MILLIS) {
+            workTreeIds.put(key, new WorkTreeId(size, mtime, id));
+        }
+        return id;
+    }
+
+    private void remember(String key, long stats) {
+        if (byBlobs.size() >= MAX_CACHED) byBlobs.clear();
+        byBlobs.put(key, stats);
+    }
+}
@@ -0,0 +1,276 @@
+import javax.management.*;
+import javax.swing.SwingUtilities;
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Wall time, exit code and output volume of every git invocation, per
+ * subcommand, plus how late the EDT gets around to what is posted to it,
+ * so "SimpleGit is slow" can be pinned on `status`, `branch -a` or the UI.
+ *
+ * Times go into log-linear histograms in the style of HdrHistogram: 64
+ * linear steps per power of two from 1 µs to about 19 hours, so every
+ * percentile is within 1.6% at a fixed 16 KB per subcommand, however many
+ * calls are recorded. Shown in the Diagnostics tab, over JMX and as JSON.
+ */
+class Metrics implements MetricsMXBean {
+
+    private static final Metrics GLOBAL = new Metrics();
+    private static final long EDT_PROBE_MILLIS = 200;
+
+    /** The one GitProcessPool and Cloner record into. */
+    static Metrics global() {
+        return GLOBAL;
+    }
+
+    // ==================== HISTOGRAM ====================
+
+    /** Microsecond values in buckets whose width is 1/64 of their magnitude. */
+    static final class Histogram {
+        private static final int SUB = 64;
+        private static final int MAX_SHIFT = 30;    // values up to 2^37 µs
+        private static final long MAX_VALUE = ((long) SUB * 2 << MAX_SHIFT) - 1;
+
+        private final long[] counts = new long[SUB * (MAX_SHIFT + 2)];
+        private long total;
+        private long max;
+        private long sum;
+
+        synchronized void record(long micros) {
+            long v = Math.max(0, Math.min(micros, MAX_VALUE));
+            counts[index(v)]++;
+            total++;
+            sum += v;
+            max = Math.max(max, v);
+        }
+
+        synchronized long count() {
+            return total;
+        }
+
+        synchronized long sum() {
+            return sum;
+        }
+
+        synchronized long max() {
+            return max;
+        }
+
+        /** Smallest recorded value at or above the p-th percentile, within the bucket width. */
+        synchronized long percentile(double p) {
+            if (total == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(p / 100 * total));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) return Math.min(highestEquivalent(i), max);
+            }
+            return max;
+        }
+
+        // Non-empty buckets as [upper bound µs, count] pairs
+        synchronized List<long[]> buckets() {
+            List<long[]> buckets = new ArrayList<>();
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] != 0) buckets.add(new long[] { highestEquivalent(i), counts[i] });
+            }
+            return buckets;
+        }
+
+        synchronized void reset() {
+            Arrays.fill(counts, 0);
+            total = 0;
+            max = 0;
+            sum = 0;
+        }
+
+        // Below 128 one bucket per value; above, the top seven bits pick it
+        static int index(long v) {
+            int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(v) - 6);
+            return SUB * shift + (int) (v >>> shift);
+        }
+
+        static long highestEquivalent(int index) {
+            int shift = Math.max(0, index / SUB - 1);
+            long step = index - (long) SUB * shift;
+            return ((step + 1) << shift) - 1;
+        }
+    }
+
+    // ==================== RECORDING ====================
+
+    private static final class Command {
+        final Histogram latency = new Histogram();
+        long failures;
+        long timeouts;
+        long outputBytes;
+    }
+
+    private final ConcurrentHashMap<String, Command> commands = new ConcurrentHashMap<>();
+    private final Histogram edtLag = new Histogram();
+    private final long startedMillis = System.currentTimeMillis();
+    private ScheduledExecutorService probe;
+
+    /**
+     * One finished git process. {@code exitCode} is -1 when git never
+     * started or was killed before it could report one.
+     */
+    void record(String subcommand, long nanos, int exitCode, boolean timedOut, long outputBytes) {
+        Command c = commands.computeIfAbsent(subcommand.isEmpty() ? "(none)" : subcommand, k -> new Command());
+        c.latency.record(nanos / 1000);
+        synchronized (c) {
+            if (exitCode != 0 || timedOut) c.failures++;
+            if (timedOut) c.timeouts++;
+            c.outputBytes += outputBytes;
+        }
+    }
+
+    /**
+     * Registers the MBean and starts posting a no-op to the EDT every 200 ms,
+     * recording how long each waited. Both on a background thread, since
+     * the management classes take a while to load.
+     */
+    synchronized void start() {
+        if (probe != null) return;
+        probe = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "metrics");
+            t.setDaemon(true);
+            return t;
+        });
+        probe.execute(this::register);
+        probe.scheduleWithFixedDelay(() -> {
+            long posted = System.nanoTime();
+            SwingUtilities.invokeLater(() -> edtLag.record((System.nanoTime() - posted) / 1000));
+        }, EDT_PROBE_MILLIS, EDT_PROBE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private void register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("simplegit:type=Metrics"));
+        } catch (JMException | SecurityException e) {
+            // Already registered, or no platform MBean server: the tab and the dump still work
+        }
+    }
+
+    // ==================== READING ====================
+
+    @Override
+    public List<CommandStats> getCommands() {
+        List<CommandStats> stats = new ArrayList<>();
+        for (Map.Entry<String, Command> e : commands.entrySet()) {
+            Command c = e.getValue();
+            Histogram h = c.latency;
+            synchronized (c) {
+                stats.add(new CommandStats(e.getKey(), h.count(), c.failures, c.timeouts, c.outputBytes,
+                    millis(h.sum()), millis(h.percentile(50)), millis(h.percentile(90)),
+                    millis(h.percentile(99)), millis(h.max())));
+            }
+        }
+        stats.sort((a, b) -> Double.compare(b.getTotalMillis(), a.getTotalMillis()));
+        return stats;
+    }
+
+    @Override
+    public long getInvocations() {
+        long n = 0;
+        for (Command c : commands.values()) {
+            n += c.latency.count();
+        }
+        return n;
+    }
+
+    @Override
+    public long getFailures() {
+        long n = 0;
+        for (Command c : commands.values()) {
+            synchronized (c) {
+                n += c.failures;
+            }
+        }
+        return n;
+    }
+
+    @Override
+    public double getEdtLagP99Millis() {
+        return millis(edtLag.percentile(99));
+    }
+
+    @Override
+    public double getEdtLagMaxMillis() {
+        return millis(edtLag.max());
+    }
+
+    @Override
+    public void reset() {
+        commands.clear();
+        edtLag.reset();
+    }
+
+    private static double millis(long micros) {
+        return micros / 1000.0;
+    }
+
+    // ==================== JSON ====================
+
+    @Override
+    public String getJson() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n  \"started\": ").append(startedMillis)
+            .append(",\n  \"written\": ").append(System.currentTimeMillis())
+            .append(",\n  \"edtLag\": ");
+        appendHistogram(json, edtLag);
+        json.append(",\n  \"commands\": {");
+        String separator = "\n";
+        for (CommandStats s : getCommands()) {
+            Command c = commands.get(s.getCommand());
+            if (c == null) continue;    // reset meanwhile
+            json.append(separator).append("    \"").append(escape(s.getCommand())).append("\": {")
+                .append("\"failures\": ").append(s.getFailures())
+                .append(", \"timeouts\": ").append(s.getTimeouts())
+                .append(", \"outputBytes\": ").append(s.getOutputBytes())
+                .append(", \"latency\": ");
+            appendHistogram(json, c.latency);
+            json.append('}');
+            separator = ",\n";
+        }
+        return json.append("\n  }\n}\n").toString();
+    }
+
+    // Counts, percentiles and the raw buckets, so other percentiles can be worked out later
+    private static void appendHistogram(StringBuilder json, Histogram h) {
+        json.append("{\"count\": ").append(h.count())
+            .append(", \"totalMicros\": ").append(h.sum())
+            .append(", \"p50Micros\": ").append(h.percentile(50))
+            .append(", \"p90Micros\": ").append(h.percentile(90))
+            .append(", \"p99Micros\": ").append(h.percentile(99))
+            .append(", \"p999Micros\": ").append(h.percentile(99.9))
+            .append(", \"maxMicros\": ").append(h.max())
+            .append(", \"buckets\": [");
+        String separator = "";
+        for (long[] b : h.buckets()) {
+            json.append(separator).append('[').append(b[0]).append(", ").append(b[1]).append(']');
+            separator = ", ";
+        }
+        json.append("]}");
+    }
+
+    private static String escape(String s) {
+        StringBuilder out = new StringBuilder();
+        for (char c : s.toCharArray()) {
+            if (c == '"' || c == '\\') out.append('\\').append(c);
+            else if (c < 0x20) out.append(String.format("\\u%04x", (int) c));
+            else out.append(c);
+        }
+        return out.toString();
+    }
+
+    void dump(File file) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null) parent.mkdirs();
+        Files.write(file.toPath(), getJson().getBytes(StandardCharsets.UTF_8));
+    }
+}
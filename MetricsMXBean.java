@@ -0,0 +1,100 @@
+import java.util.List;
+
+/**
+ * JMX view of {@link Metrics}, registered as {@code simplegit:type=Metrics}
+ * (JConsole, VisualVM, jcmd). Public because JMX only introspects public
+ * interfaces.
+ */
+public interface MetricsMXBean {
+
+    /** Per subcommand, the most total time first. */
+    List<CommandStats> getCommands();
+
+    long getInvocations();
+
+    long getFailures();
+
+    /** How late the EDT ran a no-op posted to it, 99th percentile. */
+    double getEdtLagP99Millis();
+
+    double getEdtLagMaxMillis();
+
+    /** Everything, as the JSON written on exit. */
+    String getJson();
+
+    void reset();
+
+    /** One subcommand's totals; times in milliseconds. */
+    final class CommandStats {
+        private final String command;
+        private final long count;
+        private final long failures;
+        private final long timeouts;
+        private final long outputBytes;
+        private final double totalMillis;
+        private final double p50Millis;
+        private final double p90Millis;
+        private final double p99Millis;
+        private final double maxMillis;
+
+        CommandStats(String command, long count, long failures, long timeouts, long outputBytes,
+                double totalMillis, double p50Millis, double p90Millis, double p99Millis, double maxMillis) {
+            this.command = command;
+            this.count = count;
+            this.failures = failures;
+            this.timeouts = timeouts;
+            this.outputBytes = outputBytes;
+            this.totalMillis = totalMillis;
+            this.p50Millis = p50Millis;
+            this.p90Millis = p90Millis;
+            this.p99Millis = p99Millis;
+            this.maxMillis = maxMillis;
+        }
+
+        public String getCommand() {
+            return command;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        /** Non-zero exits, timeouts and git failing to start. */
+        public long getFailures() {
+            return failures;
+        }
+
+        public long getTimeouts() {
+            return timeouts;
+        }
+
+        public long getOutputBytes() {
+            return outputBytes;
+        }
+
+        public double getTotalMillis() {
+            return totalMillis;
+        }
+
+        public double getP50Millis() {
+            return p50Millis;
+        }
+
+        public double getP90Millis() {
+            return p90Millis;
+        }
+
+        public double getP99Millis() {
+            return p99Millis;
+        }
+
+        public double getMaxMillis() {
+            return maxMillis;
+        }
+
+        /** Output read per second of wall time spent in this command. */
+        public double getMegabytesPerSecond() {
+            return totalMillis == 0 ? 0 : outputBytes / 1e6 / (totalMillis / 1000);
+        }
+    }
+}
@@ -0,0 +1,455 @@
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+
+/**
+ * N-gram index over the paths of one FileListModel.Rows, for the file
+ * lists' filter box. A query is split on spaces and a row matches when its
+ * path contains every part, in any order. Every one-, two- and three-byte
+ * window of every path is a key, so a part of up to three bytes is answered
+ * by its postings alone. Longer parts intersect the postings of their
+ * trigrams, rarest first, and only those candidates are checked against
+ * the query, so results are always exact. ASCII case is ignored unless the
+ * query has a capital letter.
+ *
+ * The index keeps its own copy of the paths, front-coded in row order (the
+ * length each shares with the one before, then the rest; a whole path
+ * every RESTART rows), so checking candidates reads memory in order rather
+ * than hopping around the PathStore. Postings are varint deltas of row
+ * numbers, or a bitset where that is smaller. Built once per Rows, off the
+ * EDT; read-only after that.
+ */
+class PathFilter {
+
+    private static final int RESTART = 64;
+
+    private final FileListModel.Rows rows;
+    private final int size;
+    // Front-coded paths: varint shared length, varint rest length, the rest
+    private byte[] text;
+    private int[] restarts;
+    private int longest;
+    // Open addressing on key + 1, 0 = empty; a slot's postings are data[begin[slot], end[slot])
+    private int[] keys = new int[1 << 12];
+    private int[] begin = new int[1 << 12];
+    private int[] end = new int[1 << 12];
+    private boolean[] dense;
+    private int used;
+    private byte[] data;
+
+    private PathFilter(FileListModel.Rows rows) {
+        this.rows = rows;
+        this.size = rows.size();
+    }
+
+    /** Indexes {@code rows}; they must not change afterwards (as after FileListModel.update). */
+    static PathFilter build(FileListModel.Rows rows) {
+        PathFilter f = new PathFilter(rows);
+        f.encodePaths();
+        f.countPostings();
+        f.fillPostings();
+        return f;
+    }
+
+    FileListModel.Rows rows() {
+        return rows;
+    }
+
+    /** Approximate heap held by the index. */
+    long heapBytes() {
+        return text.length + 4L * restarts.length + data.length + 13L * keys.length;
+    }
+
+    /**
+     * Rows matching {@code query} in ascending order, or null if
+     * {@code cancelled} turned true on the way. An empty query matches all.
+     */
+    int[] matches(String query, BooleanSupplier cancelled) {
+        Query q = new Query(query);
+        if (q.needles.length == 0) return IntStream.range(0, size).toArray();
+        // A part of up to three bytes is one key whose postings are exactly its rows;
+        // longer ones are every trigram they contain, which only narrows them down
+        List<Integer> slots = new ArrayList<>();
+        boolean exact = q.foldCase;
+        for (byte[] needle : q.needles) {
+            int length = Math.min(needle.length, 3);
+            for (int i = 0; i + length <= needle.length; i++) {
+                int slot = slot(gram(needle, i, length));
+                if (slot < 0) return new int[0];
+                slots.add(slot);
+            }
+            exact &= needle.length <= 3;
+        }
+        int[] candidates = candidates(slots);
+        return exact ? candidates : check(q, candidates, cancelled);
+    }
+
+    /** Tests single rows of {@code rows} against {@code query}, without an index. */
+    static IntPredicate matcher(FileListModel.Rows rows, String query) {
+        Query q = new Query(query);
+        return row -> {
+            int id = rows.idAt(row);
+            for (byte[] needle : q.needles) {
+                if (rows.paths.indexOf(id, needle, 0, q.foldCase) < 0) return false;
+            }
+            return true;
+        };
+    }
+
+    /** Rows matching {@code query} without an index: every path is checked. */
+    static int[] scan(FileListModel.Rows rows, String query) {
+        return IntStream.range(0, rows.size()).filter(matcher(rows, query)).toArray();
+    }
+
+    // ==================== CHECKING ====================
+
+    // The candidates whose paths contain every part. A part found last time
+    // inside what this path shares with the one before is there again, and
+    // one that wasn't can only start where the shared part is about to end.
+    private int[] check(Query q, int[] candidates, BooleanSupplier cancelled) {
+        int[] out = new int[Math.min(candidates.length, 1024)];
+        int found = 0;
+        byte[] fold = q.foldCase ? PathStore.FOLD : PathStore.SAME;
+        int[] at = new int[q.needles.length];
+        Walker w = new Walker();
+        for (int i = 0; i < candidates.length; i++) {
+            if ((i & 0xfff) == 0xfff && cancelled.getAsBoolean()) return null;
+            int row = candidates[i];
+            int shared;
+            if (i == 0 || row / RESTART != w.row / RESTART) {
+                w.seek(row);
+                shared = 0;
+            } else {
+                shared = Integer.MAX_VALUE;
+                while (w.row < row) shared = Math.min(shared, w.next());
+            }
+            boolean all = true;
+            for (int k = 0; k < q.needles.length; k++) {
+                int length = q.needles[k].length;
+                if (shared == 0 || at[k] < 0 || at[k] + length > shared) {
+                    at[k] = indexOf(w.path, w.length, q.needles[k], Math.max(0, shared - length + 1), fold);
+                }
+                all &= at[k] >= 0;
+            }
+            if (!all) continue;
+            if (found == out.length) out = Arrays.copyOf(out, Math.min(candidates.length, out.length * 2));
+            out[found++] = row;
+        }
+        return Arrays.copyOf(out, found);
+    }
+
+    // A letter to ignore the case of is found first by setting its lower-case bit
+    private static int indexOf(byte[] path, int length, byte[] needle, int from, byte[] fold) {
+        byte first = needle[0];
+        int mask = fold == PathStore.FOLD && first >= 'a' && first <= 'z' ? 0x20 : 0;
+        for (int i = from, last = length - needle.length; i <= last; i++) {
+            if ((path[i] | mask) != first) continue;
+            int k = 1;
+            while (k < needle.length && fold[path[i + k] & 0xff] == needle[k]) k++;
+            if (k == needle.length) return i;
+        }
+        return -1;
+    }
+
+    // Rebuilds the paths one row after another from the front-coded text
+    private final class Walker {
+        final byte[] path = new byte[longest];
+        int length;
+        int row = -1;
+        int at;
+
+        void seek(int target) {
+            row = target - target % RESTART - 1;
+            at = restarts[(row + 1) / RESTART];
+            while (row < target) next();
+        }
+
+        // Moves to the next row; returns how much of it the row before shares
+        int next() {
+            int shared = text[at] >= 0 ? text[at++] : readVarint();
+            int rest = text[at] >= 0 ? text[at++] : readVarint();
+            System.arraycopy(text, at, path, shared, rest);
+            at += rest;
+            length = shared + rest;
+            row++;
+            return shared;
+        }
+
+        private int readVarint() {
+            int v = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = text[at++];
+                v |= (b & 0x7f) << shift;
+                shift += 7;
+            } while (b < 0);
+            return v;
+        }
+    }
+
+    // ==================== BUILDING ====================
+
+    private void encodePaths() {
+        byte[] out = new byte[Math.max(64, size * 16)];
+        int at = 0;
+        restarts = new int[(size + RESTART - 1) / RESTART];
+        byte[] previous = new byte[64];
+        byte[] path = new byte[64];
+        int previousLength = 0;
+        for (int r = 0; r < size; r++) {
+            int id = rows.idAt(r);
+            int length = rows.paths.length(id);
+            if (length > path.length) path = new byte[Math.max(length, path.length * 2)];
+            rows.paths.copy(id, path, 0);
+            int shared = 0;
+            if (r % RESTART == 0) {
+                restarts[r / RESTART] = at;
+            } else {
+                shared = Arrays.mismatch(previous, 0, previousLength, path, 0, length);
+                if (shared < 0) shared = length;
+            }
+            if (at + 10 + length > out.length) out = Arrays.copyOf(out, Math.max(out.length * 2, at + 10 + length));
+            at = writeVarint(out, at, shared);
+            at = writeVarint(out, at, length - shared);
+            System.arraycopy(path, shared, out, at, length - shared);
+            at += length - shared;
+            longest = Math.max(longest, length);
+            byte[] swap = previous;
+            previous = path;
+            path = swap;
+            previousLength = length;
+        }
+        text = Arrays.copyOf(out, at);
+    }
+
+    // Pass 1: each key's encoded size in end[], the last row it was seen in begin[].
+    // Windows inside the shared part reuse the slots found for them the row before.
+    private void countPostings() {
+        Walker w = new Walker();
+        int[] slotAt = new int[3 * longest];
+        for (int r = 0; r < size; r++) {
+            int shared = w.next();
+            int capacity = keys.length;
+            for (int p = 0; p < w.length; p++) {
+                for (int n = 1; n <= 3 && n <= p + 1; n++) {
+                    int slot = p < shared ? slotAt[3 * p + n - 1] : add(gram(w.path, p - n + 1, n));
+                    if (keys.length != capacity) {
+                        // The table grew and the slots moved: this row again, from the start
+                        capacity = keys.length;
+                        shared = 0;
+                        p = -1;
+                        break;
+                    }
+                    slotAt[3 * p + n - 1] = slot;
+                    if (begin[slot] == r) continue;
+                    end[slot] += varintSize(r - begin[slot]);
+                    begin[slot] = r;
+                }
+            }
+        }
+    }
+
+    // Pass 2: lays the postings out one after another and fills them in
+    private void fillPostings() {
+        int bitset = (size + 7) / 8;
+        dense = new boolean[keys.length];
+        int total = 0;
+        for (int s = 0; s < keys.length; s++) {
+            int bytes = end[s];
+            dense[s] = keys[s] != 0 && bytes > bitset;
+            if (dense[s]) bytes = bitset;
+            begin[s] = total;
+            end[s] = dense[s] ? total + bitset : total;
+            total += bytes;
+        }
+        data = new byte[total];
+        int[] last = new int[keys.length];
+        Arrays.fill(last, -1);
+        Walker w = new Walker();
+        int[] slotAt = new int[3 * longest];
+        for (int r = 0; r < size; r++) {
+            int shared = w.next();
+            for (int p = 0; p < w.length; p++) {
+                for (int n = 1; n <= 3 && n <= p + 1; n++) {
+                    int slot = p < shared ? slotAt[3 * p + n - 1] : slot(gram(w.path, p - n + 1, n));
+                    slotAt[3 * p + n - 1] = slot;
+                    if (last[slot] == r) continue;
+                    if (dense[slot]) {
+                        data[begin[slot] + (r >>> 3)] |= (byte) (1 << (r & 7));
+                    } else {
+                        end[slot] = writeVarint(data, end[slot], r - last[slot]);
+                    }
+                    last[slot] = r;
+                }
+            }
+        }
+    }
+
+    // Key of the n-byte window at from, ASCII lower-cased
+    private static int gram(byte[] s, int from, int n) {
+        int key = n;
+        for (int i = from; i < from + n; i++) key = key << 8 | (PathStore.FOLD[s[i] & 0xff] & 0xff);
+        return key;
+    }
+
+    // ==================== POSTINGS ====================
+
+    // Rows in all the slots' postings: the rarest list decoded, the others merged into
+    // it; or, when all are bitsets, their AND decoded
+    private int[] candidates(List<Integer> slots) {
+        slots.sort(Comparator.comparingInt(s -> dense[s] ? Integer.MAX_VALUE : end[s] - begin[s]));
+        if (!dense[slots.get(0)]) {
+            int[] candidates = decode(slots.get(0));
+            for (int k = 1; k < slots.size() && candidates.length > 0; k++) {
+                candidates = intersect(candidates, slots.get(k));
+            }
+            return candidates;
+        }
+        int bitset = (size + 7) / 8;
+        byte[] bits = Arrays.copyOfRange(data, begin[slots.get(0)], begin[slots.get(0)] + bitset);
+        for (int k = 1; k < slots.size(); k++) {
+            int base = begin[slots.get(k)];
+            for (int i = 0; i < bitset; i++) bits[i] &= data[base + i];
+        }
+        int[] out = new int[size];
+        int n = 0;
+        for (int i = 0; i < bitset; i++) {
+            int b = bits[i] & 0xff;
+            while (b != 0) {
+                out[n++] = i << 3 | Integer.numberOfTrailingZeros(b);
+                b &= b - 1;
+            }
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    // The candidates also in the slot's postings; both are ascending
+    private int[] intersect(int[] candidates, int slot) {
+        int[] out = new int[candidates.length];
+        int n = 0;
+        if (dense[slot]) {
+            int base = begin[slot];
+            for (int row : candidates) {
+                if ((data[base + (row >>> 3)] & 1 << (row & 7)) != 0) out[n++] = row;
+            }
+            return Arrays.copyOf(out, n);
+        }
+        int c = 0;
+        int p = begin[slot];
+        int stop = end[slot];
+        int row = -1;
+        while (p < stop && c < candidates.length) {
+            int v = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[p++];
+                v |= (b & 0x7f) << shift;
+                shift += 7;
+            } while (b < 0);
+            row += v;
+            while (c < candidates.length && candidates[c] < row) c++;
+            if (c < candidates.length && candidates[c] == row) out[n++] = candidates[c++];
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    private int[] decode(int slot) {
+        int[] out = new int[end[slot] - begin[slot]];
+        int n = 0;
+        int row = -1;
+        for (int p = begin[slot]; p < end[slot]; ) {
+            int v = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[p++];
+                v |= (b & 0x7f) << shift;
+                shift += 7;
+            } while (b < 0);
+            row += v;
+            out[n++] = row;
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    // Slot of key, or -1
+    private int slot(int key) {
+        int mask = keys.length - 1;
+        for (int s = hash(key) & mask; ; s = (s + 1) & mask) {
+            if (keys[s] == key + 1) return s;
+            if (keys[s] == 0) return -1;
+        }
+    }
+
+    // Slot of key during pass 1, new ones starting with no row and no bytes
+    private int add(int key) {
+        int mask = keys.length - 1;
+        int s = hash(key) & mask;
+        while (keys[s] != 0) {
+            if (keys[s] == key + 1) return s;
+            s = (s + 1) & mask;
+        }
+        if ((used + 1) * 2 > keys.length) {
+            grow();
+            return add(key);
+        }
+        used++;
+        keys[s] = key + 1;
+        begin[s] = -1;
+        return s;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        int[] oldBegin = begin;
+        int[] oldEnd = end;
+        keys = new int[oldKeys.length * 2];
+        begin = new int[keys.length];
+        end = new int[keys.length];
+        int mask = keys.length - 1;
+        for (int s = 0; s < oldKeys.length; s++) {
+            if (oldKeys[s] == 0) continue;
+            int t = hash(oldKeys[s] - 1) & mask;
+            while (keys[t] != 0) t = (t + 1) & mask;
+            keys[t] = oldKeys[s];
+            begin[t] = oldBegin[s];
+            end[t] = oldEnd[s];
+        }
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ h >>> 16;
+    }
+
+    private static int varintSize(int v) {
+        return v < 1 << 7 ? 1 : v < 1 << 14 ? 2 : v < 1 << 21 ? 3 : v < 1 << 28 ? 4 : 5;
+    }
+
+    private static int writeVarint(byte[] out, int at, int v) {
+        while ((v & ~0x7f) != 0) {
+            out[at++] = (byte) ((v & 0x7f) | 0x80);
+            v >>>= 7;
+        }
+        out[at++] = (byte) v;
+        return at;
+    }
+
+    // The parts of a query as UTF-8, and whether case is ignored
+    private static final class Query {
+        final byte[][] needles;
+        final boolean foldCase;
+
+        Query(String query) {
+            String trimmed = query.trim();
+            needles = trimmed.isEmpty() ? new byte[0][] : Arrays.stream(trimmed.split("\\s+"))
+                .map(part -> part.getBytes(StandardCharsets.UTF_8))
+                .toArray(byte[][]::new);
+            foldCase = trimmed.chars().noneMatch(c -> c >= 'A' && c <= 'Z');
+        }
+    }
+}
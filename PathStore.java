@@ -0,0 +1,160 @@
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Append-only store of repository paths as UTF-8 bytes in one shared array,
+ * with each distinct path kept once. A path is referred to by its int id,
+ * so a list of half a million paths costs a few arrays instead of half a
+ * million Strings.
+ *
+ * Filled by one thread, then handed over and only read; it is not safe to
+ * add while another thread reads. trim() drops the lookup table and slack
+ * once filling is done.
+ */
+class PathStore {
+
+    private byte[] bytes = new byte[4096];
+    private int used;
+    // offsets[id] .. offsets[id + 1] is the path's bytes
+    private int[] offsets = new int[257];
+    private int count;
+    // Open-addressing table of id + 1, 0 = empty; null after trim()
+    private int[] table = new int[512];
+
+    int size() {
+        return count;
+    }
+
+    /** Returns the id for {@code path}, adding it if it is new. */
+    int add(String path) {
+        byte[] utf8 = path.getBytes(StandardCharsets.UTF_8);
+        return add(utf8, 0, utf8.length);
+    }
+
+    int add(byte[] b, int off, int len) {
+        if (table == null) {
+            rehash(Integer.highestOneBit(Math.max(count, 256)) * 4);
+        }
+        int hash = hash(b, off, len);
+        int mask = table.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int id = table[slot] - 1;
+            if (id < 0) break;
+            if (equals(id, b, off, len)) return id;
+        }
+
+        if (used + len > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, used + len));
+        }
+        System.arraycopy(b, off, bytes, used, len);
+        used += len;
+        if (count + 2 > offsets.length) {
+            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        }
+        int id = count++;
+        offsets[id + 1] = used;
+
+        if (count * 4 > table.length * 3) {
+            rehash(table.length * 2);
+        } else {
+            insert(table, id, hash);
+        }
+        return id;
+    }
+
+    int length(int id) {
+        return offsets[id + 1] - offsets[id];
+    }
+
+    String get(int id) {
+        return new String(bytes, offsets[id], length(id), StandardCharsets.UTF_8);
+    }
+
+    /** Byte-wise (git) order of two paths, possibly from different stores. */
+    static int compare(PathStore a, int idA, PathStore b, int idB) {
+        return Arrays.compareUnsigned(a.bytes, a.offsets[idA], a.offsets[idA + 1],
+            b.bytes, b.offsets[idB], b.offsets[idB + 1]);
+    }
+
+    int compare(int id, byte[] b, int off, int len) {
+        return Arrays.compareUnsigned(bytes, offsets[id], offsets[id + 1], b, off, off + len);
+    }
+
+    /**
+     * Offset of the first {@code needle} in the path at or after {@code from},
+     * or -1. With {@code foldCase} the path's ASCII letters are lower-cased
+     * first, so needle should be too.
+     */
+    int indexOf(int id, byte[] needle, int from, boolean foldCase) {
+        byte[] b = bytes;
+        int start = offsets[id];
+        int last = offsets[id + 1] - needle.length;
+        byte[] fold = foldCase ? FOLD : SAME;
+        byte first = needle.length == 0 ? 0 : needle[0];
+        for (int i = start + from; i <= last; i++) {
+            if (needle.length > 0 && fold[b[i] & 0xff] != first) continue;
+            int k = 1;
+            while (k < needle.length && fold[b[i + k] & 0xff] == needle[k]) k++;
+            if (k >= needle.length) return i - start;
+        }
+        return -1;
+    }
+
+    /** Copies the path's bytes into {@code dest} at {@code at}; returns how many. */
+    int copy(int id, byte[] dest, int at) {
+        int length = length(id);
+        System.arraycopy(bytes, offsets[id], dest, at, length);
+        return length;
+    }
+
+    /** Byte maps for matching: ASCII letters lower-cased, or every byte as it is. */
+    static final byte[] FOLD = new byte[256];
+    static final byte[] SAME = new byte[256];
+    static {
+        for (int i = 0; i < 256; i++) {
+            SAME[i] = (byte) i;
+            FOLD[i] = (byte) (i >= 'A' && i <= 'Z' ? i + ('a' - 'A') : i);
+        }
+    }
+
+    /** Approximate heap held by the store. */
+    long heapBytes() {
+        return bytes.length + 4L * offsets.length + (table == null ? 0 : 4L * table.length);
+    }
+
+    private boolean equals(int id, byte[] b, int off, int len) {
+        return Arrays.equals(bytes, offsets[id], offsets[id + 1], b, off, off + len);
+    }
+
+    /** Releases the lookup table and unused capacity; add() still works after. */
+    void trim() {
+        table = null;
+        bytes = Arrays.copyOf(bytes, used);
+        offsets = Arrays.copyOf(offsets, count + 1);
+    }
+
+    private void rehash(int capacity) {
+        int[] bigger = new int[capacity];
+        for (int id = 0; id < count; id++) {
+            insert(bigger, id, hash(bytes, offsets[id], length(id)));
+        }
+        table = bigger;
+    }
+
+    private static void insert(int[] table, int id, int hash) {
+        int mask = table.length - 1;
+        int slot = hash & mask;
+        while (table[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = id + 1;
+    }
+
+    private static int hash(byte[] b, int off, int len) {
+        int h = 0;
+        for (int i = off; i < off + len; i++) {
+            h = 31 * h + b[i];
+        }
+        return h ^ (h >>> 16);
+    }
+}
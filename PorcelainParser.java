@@ -0,0 +1,158 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Byte-level parser for `git status --porcelain=v2 -z`.
+ *
+ * Output is fed in as it arrives from git, so a large status never has to be
+ * held as one String. Paths are NUL-terminated and never quoted, so names with
+ * spaces, newlines or non-ASCII bytes come through unchanged. Entries are
+ * reported with the same X/Y letters porcelain v1 uses.
+ */
+class PorcelainParser {
+
+    private final Consumer<StatusEntry> sink;
+    private final Consumer<String> headers;
+
+    // A record split across two reads is collected here
+    private byte[] partial = new byte[256];
+    private int partialLength;
+
+    // A rename/copy record is followed by its source path as a separate field
+    private char pendingX;
+    private char pendingY;
+    private String pendingPath;
+
+    PorcelainParser(Consumer<StatusEntry> sink) {
+        this(sink, null);
+    }
+
+    /** {@code headers} gets the "# branch.*" lines of --branch, without the "# ". */
+    PorcelainParser(Consumer<StatusEntry> sink, Consumer<String> headers) {
+        this.sink = sink;
+        this.headers = headers;
+    }
+
+    static void parse(InputStream in, Consumer<StatusEntry> sink) throws IOException {
+        parse(in, sink, null);
+    }
+
+    static void parse(InputStream in, Consumer<StatusEntry> sink, Consumer<String> headers) throws IOException {
+        PorcelainParser parser = new PorcelainParser(sink, headers);
+        byte[] buf = new byte[64 * 1024];
+        int n;
+        while ((n = in.read(buf)) > 0) {
+            parser.feed(buf, 0, n);
+        }
+        parser.finish();
+    }
+
+    static List<StatusEntry> parse(byte[] out) throws IOException {
+        List<StatusEntry> entries = new ArrayList<>();
+        PorcelainParser parser = new PorcelainParser(entries::add);
+        parser.feed(out, 0, out.length);
+        parser.finish();
+        return entries;
+    }
+
+    void feed(byte[] b, int off, int len) throws IOException {
+        int end = off + len;
+        int start = off;
+        for (int p = off; p < end; p++) {
+            if (b[p] != 0) continue;
+            if (partialLength == 0) {
+                record(b, start, p);
+            } else {
+                append(b, start, p);
+                record(partial, 0, partialLength);
+                partialLength = 0;
+            }
+            start = p + 1;
+        }
+        if (start < end) {
+            append(b, start, end);
+        }
+    }
+
+    /** Fails if git's output stopped in the middle of a record. */
+    void finish() throws IOException {
+        if (partialLength > 0 || pendingPath != null) {
+            throw new EOFException("Truncated git status output");
+        }
+    }
+
+    private void append(byte[] b, int from, int to) {
+        int n = to - from;
+        if (partialLength + n > partial.length) {
+            partial = Arrays.copyOf(partial, Math.max(partial.length * 2, partialLength + n));
+        }
+        System.arraycopy(b, from, partial, partialLength, n);
+        partialLength += n;
+    }
+
+    private void record(byte[] b, int from, int to) throws IOException {
+        if (pendingPath != null) {
+            sink.accept(new StatusEntry(pendingX, pendingY, pendingPath, decode(b, from, to)));
+            pendingPath = null;
+            return;
+        }
+        if (to - from < 2) {
+            throw new IOException("Malformed git status record");
+        }
+        switch (b[from]) {
+            case '1':
+                sink.accept(new StatusEntry(letter(b, from + 2, to), letter(b, from + 3, to),
+                    decode(b, skipFields(b, from, to, 8), to), null));
+                break;
+            case '2':
+                pendingX = letter(b, from + 2, to);
+                pendingY = letter(b, from + 3, to);
+                pendingPath = decode(b, skipFields(b, from, to, 9), to);
+                break;
+            case 'u':
+                sink.accept(new StatusEntry(letter(b, from + 2, to), letter(b, from + 3, to),
+                    decode(b, skipFields(b, from, to, 10), to), null));
+                break;
+            case '?':
+            case '!': {
+                char c = (char) b[from];
+                sink.accept(new StatusEntry(c, c, decode(b, from + 2, to), null));
+                break;
+            }
+            case '#':
+                // Branch and stash headers, for whoever asked for them
+                if (headers != null && to - from > 2) headers.accept(decode(b, from + 2, to));
+                break;
+            default:
+                throw new IOException("Unknown git status record type '" + (char) b[from] + "'");
+        }
+    }
+
+    // v2 writes '.' for "unmodified" where v1 uses a space
+    private static char letter(byte[] b, int p, int to) throws IOException {
+        if (p >= to) {
+            throw new IOException("Malformed git status record");
+        }
+        char c = (char) b[p];
+        return c == '.' ? ' ' : c;
+    }
+
+    // Returns the offset just past the first `fields` space-separated fields
+    private static int skipFields(byte[] b, int from, int to, int fields) throws IOException {
+        int p = from;
+        for (int i = 0; i < fields; i++) {
+            while (p < to && b[p] != ' ') p++;
+            if (p >= to) {
+                throw new IOException("Malformed git status record");
+            }
+            p++;
+        }
+        return p;
+    }
+
+    private static String decode(byte[] b, int from, int to) {
+        return new String(b, from, to - from, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,571 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read-only, in-process view of a repository's refs: HEAD, loose refs under
+ * refs/ and packed-refs, plus the branch upstreams from .git/config. In a
+ * linked worktree HEAD and the per-worktree refs (refs/bisect/,
+ * refs/worktree/, refs/rewritten/) come from its own git directory and
+ * everything else from the common one.
+ *
+ * read() returns an immutable snapshot and hands back the same snapshot for
+ * as long as nothing on disk has changed. Checking costs one stat for HEAD,
+ * packed-refs and config and one per directory under refs/: git replaces
+ * a loose ref by renaming a lock file over it, which always touches the
+ * directory. Only changed directories are listed again, and only changed
+ * files in them re-read.
+ *
+ * packed-refs is kept as bytes with an offset per ref, sorted by name, so
+ * a lookup is a binary search and listing refs/heads/ never decodes tags.
+ */
+class RefDatabase {
+
+    private static final int MAX_SYMREF_DEPTH = 5;
+    // A directory changed this recently may change again within the same mtime tick
+    private static final long RACY_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final String[] PER_WORKTREE = { "refs/bisect/", "refs/worktree/", "refs/rewritten/" };
+
+    /** One ref; {@code target} is set for symbolic refs, {@code peeled} for annotated tags. */
+    static final class Ref {
+        final String name;
+        final String id;
+        final String target;
+        final String peeled;
+
+        Ref(String name, String id, String target, String peeled) {
+            this.name = name;
+            this.id = id;
+            this.target = target;
+            this.peeled = peeled;
+        }
+
+        boolean isSymbolic() {
+            return target != null;
+        }
+    }
+
+    private final File gitDir;
+    private final File commonDir;
+    private final File refsDir;
+    private final File worktreeRefsDir;     // null unless a linked worktree
+    private Snapshot current;
+    private Stamp headStamp;
+    private String headContent;
+    private Stamp packedStamp;
+    private PackedRefs packed = PackedRefs.EMPTY;
+    private Stamp configStamp;
+    private Upstreams upstreams = Upstreams.NONE;
+    private final Map<File, LooseDir> dirs = new HashMap<>();
+
+    RefDatabase(File gitDir) {
+        this(gitDir, gitDir);
+    }
+
+    RefDatabase(File gitDir, File commonDir) {
+        this.gitDir = gitDir;
+        this.commonDir = commonDir;
+        this.refsDir = new File(commonDir, "refs");
+        this.worktreeRefsDir = gitDir.equals(commonDir) ? null : new File(gitDir, "refs");
+    }
+
+    /** The refs as they are on disk now; the previous snapshot if nothing changed. */
+    synchronized Snapshot read() throws IOException {
+        boolean changed = current == null;
+
+        File headFile = new File(gitDir, "HEAD");
+        Stamp head = Stamp.of(headFile);
+        if (!Objects.equals(head, headStamp)) {
+            headStamp = head;
+            headContent = head == null ? null : readRef(headFile);
+            changed = true;
+        }
+
+        File packedFile = new File(commonDir, "packed-refs");
+        Stamp ps = Stamp.of(packedFile);
+        if (!Objects.equals(ps, packedStamp)) {
+            packedStamp = ps;
+            packed = ps == null ? PackedRefs.EMPTY : PackedRefs.parse(Files.readAllBytes(packedFile.toPath()));
+            changed = true;
+        }
+
+        File configFile = new File(commonDir, "config");
+        Stamp cs = Stamp.of(configFile);
+        if (!Objects.equals(cs, configStamp)) {
+            configStamp = cs;
+            upstreams = cs == null ? Upstreams.NONE : Upstreams.parse(configFile);
+            changed = true;
+        }
+
+        changed |= refresh(refsDir);
+        if (worktreeRefsDir != null) {
+            changed |= refresh(worktreeRefsDir);
+        }
+        if (changed) {
+            TreeMap<String, String> loose = new TreeMap<>();
+            collect(refsDir, "refs/", loose);
+            if (worktreeRefsDir != null) {
+                // The main worktree's bisect and rewritten refs aren't ours
+                loose.keySet().removeIf(RefDatabase::isPerWorktree);
+                TreeMap<String, String> own = new TreeMap<>();
+                collect(worktreeRefsDir, "refs/", own);
+                own.keySet().removeIf(name -> !isPerWorktree(name));
+                loose.putAll(own);
+            }
+            current = new Snapshot(headContent, loose, packed, upstreams);
+        }
+        return current;
+    }
+
+    private static boolean isPerWorktree(String name) {
+        for (String prefix : PER_WORKTREE) {
+            if (name.startsWith(prefix)) return true;
+        }
+        return false;
+    }
+
+    // ==================== SNAPSHOT ====================
+
+    static final class Snapshot {
+        private final String head;                  // raw HEAD: "ref: ..." or an id
+        private final TreeMap<String, String> loose; // name -> raw content
+        private final PackedRefs packed;
+        private final Upstreams upstreams;
+
+        private Snapshot(String head, TreeMap<String, String> loose, PackedRefs packed, Upstreams upstreams) {
+            this.head = head;
+            this.loose = loose;
+            this.packed = packed;
+            this.upstreams = upstreams;
+        }
+
+        /** The branch HEAD points at ("refs/heads/main"), or null when detached. */
+        String headRef() {
+            return head != null && head.startsWith("ref: ") ? head.substring(5) : null;
+        }
+
+        /**
+         * Resolves HEAD, a full ref name or a branch/tag/remote name the way
+         * git's DWIM rules do. Returns null when it doesn't resolve (for
+         * example an unborn HEAD).
+         */
+        String resolve(String rev) throws IOException {
+            String[] candidates = rev.equals("HEAD") || rev.startsWith("refs/")
+                ? new String[] { rev }
+                : new String[] { "refs/" + rev, "refs/tags/" + rev, "refs/heads/" + rev,
+                                 "refs/remotes/" + rev, "refs/remotes/" + rev + "/HEAD" };
+            for (String name : candidates) {
+                String id = resolveRef(name, 0);
+                if (id != null) return id;
+            }
+            return null;
+        }
+
+        private String resolveRef(String name, int depth) throws IOException {
+            if (depth > MAX_SYMREF_DEPTH) {
+                throw new IOException("Symbolic ref loop at " + name);
+            }
+            String raw = name.equals("HEAD") ? head : loose.get(name);
+            if (raw != null) {
+                return raw.startsWith("ref: ") ? resolveRef(raw.substring(5), depth + 1) : raw;
+            }
+            int i = packed.find(name);
+            return i < 0 ? null : packed.id(i);
+        }
+
+        /**
+         * Every ref whose name starts with one of {@code prefixes}, sorted by
+         * name like `git for-each-ref`. Symbolic refs carry their resolved id.
+         */
+        List<Ref> list(String... prefixes) throws IOException {
+            TreeMap<String, Ref> refs = new TreeMap<>();
+            for (String prefix : prefixes) {
+                for (int i = packed.lowerBound(prefix); i < packed.size(); i++) {
+                    String name = packed.name(i);
+                    if (!name.startsWith(prefix)) break;
+                    refs.put(name, new Ref(name, packed.id(i), null, packed.peeled(i)));
+                }
+                for (Map.Entry<String, String> e : loose.tailMap(prefix, true).entrySet()) {
+                    String name = e.getKey();
+                    if (!name.startsWith(prefix)) break;
+                    String raw = e.getValue();
+                    refs.put(name, raw.startsWith("ref: ")
+                        ? new Ref(name, resolveRef(name, 0), raw.substring(5), null)
+                        : new Ref(name, raw, null, null));
+                }
+            }
+            return new ArrayList<>(refs.values());
+        }
+
+        /** The ref branch.&lt;name&gt;.merge tracks, mapped through the remote's fetch refspecs, or null. */
+        String upstream(String branchRef) {
+            return branchRef.startsWith("refs/heads/") ? upstreams.of(branchRef.substring(11)) : null;
+        }
+    }
+
+    // ==================== LOOSE REFS ====================
+
+    private static final class LooseDir {
+        final Stamp stamp;
+        final boolean racy;
+        final Map<String, LooseFile> files;   // ref files by name
+        final List<String> subdirs;
+
+        LooseDir(Stamp stamp, boolean racy, Map<String, LooseFile> files, List<String> subdirs) {
+            this.stamp = stamp;
+            this.racy = racy;
+            this.files = files;
+            this.subdirs = subdirs;
+        }
+    }
+
+    private static final class LooseFile {
+        final Stamp stamp;
+        final String content;
+
+        LooseFile(Stamp stamp, String content) {
+            this.stamp = stamp;
+            this.content = content;
+        }
+    }
+
+    // Brings the cached listing of dir and everything below it up to date
+    private boolean refresh(File dir) throws IOException {
+        Stamp stamp = Stamp.of(dir);
+        LooseDir old = dirs.get(dir);
+        if (stamp == null) {
+            if (old == null) return false;
+            forget(dir);
+            return true;
+        }
+        boolean changed = false;
+        LooseDir d = old;
+        if (old == null || old.racy || !old.stamp.equals(stamp)) {
+            d = list(dir, stamp, old);
+            changed = old == null || !old.files.keySet().equals(d.files.keySet())
+                || !sameContent(old, d) || !old.subdirs.equals(d.subdirs);
+            if (old != null) {
+                for (String sub : old.subdirs) {
+                    if (!d.subdirs.contains(sub)) forget(new File(dir, sub));
+                }
+            }
+            dirs.put(dir, d);
+        }
+        for (String sub : d.subdirs) {
+            changed |= refresh(new File(dir, sub));
+        }
+        return changed;
+    }
+
+    private LooseDir list(File dir, Stamp stamp, LooseDir old) throws IOException {
+        long listedAt = System.currentTimeMillis();
+        Map<String, LooseFile> files = new HashMap<>();
+        List<String> subdirs = new ArrayList<>();
+        String[] names = dir.list();
+        if (names != null) {
+            Arrays.sort(names);
+            for (String name : names) {
+                if (name.endsWith(".lock")) continue;
+                File f = new File(dir, name);
+                if (f.isDirectory()) {
+                    subdirs.add(name);
+                    continue;
+                }
+                Stamp fs = Stamp.of(f);
+                if (fs == null) continue;
+                LooseFile cached = old == null ? null : old.files.get(name);
+                if (cached != null && cached.stamp.equals(fs)) {
+                    files.put(name, cached);
+                    continue;
+                }
+                String content = readRef(f);
+                if (content != null) files.put(name, new LooseFile(fs, content));
+            }
+        }
+        boolean racy = TimeUnit.MILLISECONDS.toNanos(listedAt) - stamp.mtimeNanos < RACY_NANOS;
+        return new LooseDir(stamp, racy, files, subdirs);
+    }
+
+    private static boolean sameContent(LooseDir a, LooseDir b) {
+        for (Map.Entry<String, LooseFile> e : b.files.entrySet()) {
+            LooseFile before = a.files.get(e.getKey());
+            if (before == null || !before.content.equals(e.getValue().content)) return false;
+        }
+        return true;
+    }
+
+    private void forget(File dir) {
+        LooseDir d = dirs.remove(dir);
+        if (d == null) return;
+        for (String sub : d.subdirs) {
+            forget(new File(dir, sub));
+        }
+    }
+
+    private void collect(File dir, String prefix, Map<String, String> out) {
+        LooseDir d = dirs.get(dir);
+        if (d == null) return;
+        for (Map.Entry<String, LooseFile> e : d.files.entrySet()) {
+            out.put(prefix + e.getKey(), e.getValue().content);
+        }
+        for (String sub : d.subdirs) {
+            collect(new File(dir, sub), prefix + sub + "/", out);
+        }
+    }
+
+    // "ref: <name>" or a hex id; null for anything else (half-written, not a ref)
+    private static String readRef(File file) {
+        String content;
+        try {
+            content = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).trim();
+        } catch (IOException e) {
+            return null;
+        }
+        if (content.startsWith("ref: ")) return "ref: " + content.substring(5).trim();
+        int end = 0;
+        while (end < content.length() && Character.digit(content.charAt(end), 16) >= 0) end++;
+        return end == 40 || end == 64 ? content.substring(0, end).toLowerCase(Locale.ROOT) : null;
+    }
+
+    // ==================== PACKED-REFS ====================
+
+    private static final class PackedRefs {
+        static final PackedRefs EMPTY = new PackedRefs(new byte[0], new int[0]);
+
+        private final byte[] data;
+        private final int[] records;    // start of each "<id> <name>" line, by name
+
+        private PackedRefs(byte[] data, int[] records) {
+            this.data = data;
+            this.records = records;
+        }
+
+        static PackedRefs parse(byte[] data) {
+            boolean sorted = false;
+            int[] records = new int[Math.max(16, data.length / 64)];
+            int n = 0;
+            for (int at = 0; at < data.length; at = lineEnd(data, at) + 1) {
+                byte first = data[at];
+                if (first == '#') {
+                    String header = new String(data, at, lineEnd(data, at) - at, StandardCharsets.UTF_8);
+                    sorted = header.startsWith("# pack-refs with:") && (header + " ").contains(" sorted ");
+                } else if (first != '^' && first != '\n') {
+                    if (n == records.length) records = Arrays.copyOf(records, n * 2);
+                    records[n++] = at;
+                }
+            }
+            records = Arrays.copyOf(records, n);
+            PackedRefs refs = new PackedRefs(data, records);
+            if (!sorted) {
+                // Old writers: sort once here so lookups can still bisect
+                Integer[] boxed = new Integer[n];
+                for (int i = 0; i < n; i++) boxed[i] = records[i];
+                Arrays.sort(boxed, (a, b) -> refs.compareName(a, refs.nameBytes(b)));
+                for (int i = 0; i < n; i++) records[i] = boxed[i];
+            }
+            return refs;
+        }
+
+        int size() {
+            return records.length;
+        }
+
+        int find(String name) {
+            int i = lowerBound(name);
+            return i < records.length && compareName(records[i], name.getBytes(StandardCharsets.UTF_8)) == 0 ? i : -1;
+        }
+
+        // First record whose name is >= key
+        int lowerBound(String key) {
+            byte[] k = key.getBytes(StandardCharsets.UTF_8);
+            int lo = 0;
+            int hi = records.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (compareName(records[mid], k) < 0) lo = mid + 1;
+                else hi = mid;
+            }
+            return lo;
+        }
+
+        String id(int i) {
+            int at = records[i];
+            return new String(data, at, nameStart(at) - 1 - at, StandardCharsets.US_ASCII);
+        }
+
+        String name(int i) {
+            int start = nameStart(records[i]);
+            return new String(data, start, nameEnd(start) - start, StandardCharsets.UTF_8);
+        }
+
+        // The "^<id>" line after an annotated tag, if the writer recorded it
+        String peeled(int i) {
+            int next = lineEnd(data, records[i]) + 1;
+            if (next >= data.length || data[next] != '^') return null;
+            return new String(data, next + 1, nameEnd(next + 1) - next - 1, StandardCharsets.US_ASCII);
+        }
+
+        private byte[] nameBytes(int record) {
+            int start = nameStart(record);
+            return Arrays.copyOfRange(data, start, nameEnd(start));
+        }
+
+        private int compareName(int record, byte[] key) {
+            int start = nameStart(record);
+            int end = nameEnd(start);
+            return Arrays.compareUnsigned(data, start, end, key, 0, key.length);
+        }
+
+        private int nameStart(int record) {
+            int at = record;
+            while (at < data.length && data[at] != ' ') at++;
+            return at + 1;
+        }
+
+        private int nameEnd(int start) {
+            int end = lineEnd(data, start);
+            return end > start && data[end - 1] == '\r' ? end - 1 : end;
+        }
+
+        private static int lineEnd(byte[] data, int from) {
+            int at = from;
+            while (at < data.length && data[at] != '\n') at++;
+            return at;
+        }
+    }
+
+    // ==================== UPSTREAMS ====================
+
+    // branch.<name>.remote/merge and remote.<name>.fetch from .git/config
+    private static final class Upstreams {
+        static final Upstreams NONE = new Upstreams(Collections.emptyMap(), Collections.emptyMap(), Collections.emptyMap());
+
+        private final Map<String, String> remoteOf;
+        private final Map<String, String> mergeOf;
+        private final Map<String, List<String>> fetchOf;
+
+        private Upstreams(Map<String, String> remoteOf, Map<String, String> mergeOf, Map<String, List<String>> fetchOf) {
+            this.remoteOf = remoteOf;
+            this.mergeOf = mergeOf;
+            this.fetchOf = fetchOf;
+        }
+
+        static Upstreams parse(File config) throws IOException {
+            Map<String, String> remoteOf = new HashMap<>();
+            Map<String, String> mergeOf = new HashMap<>();
+            Map<String, List<String>> fetchOf = new HashMap<>();
+            String section = "";
+            String sub = null;
+            for (String raw : Files.readAllLines(config.toPath(), StandardCharsets.UTF_8)) {
+                String line = raw.trim();
+                if (line.startsWith("[")) {
+                    int close = line.indexOf(']');
+                    if (close < 0) continue;
+                    String header = line.substring(1, close).trim();
+                    int quote = header.indexOf('"');
+                    if (quote >= 0) {
+                        section = header.substring(0, quote).trim().toLowerCase(Locale.ROOT);
+                        sub = header.substring(quote + 1, Math.max(quote + 1, header.lastIndexOf('"')));
+                    } else {
+                        int dot = header.indexOf('.');
+                        section = (dot < 0 ? header : header.substring(0, dot)).toLowerCase(Locale.ROOT);
+                        sub = dot < 0 ? null : header.substring(dot + 1);
+                    }
+                    continue;
+                }
+                int eq = line.indexOf('=');
+                if (sub == null || eq < 0) continue;
+                String key = line.substring(0, eq).trim().toLowerCase(Locale.ROOT);
+                String value = value(line.substring(eq + 1));
+                if (section.equals("branch") && key.equals("remote")) remoteOf.put(sub, value);
+                else if (section.equals("branch") && key.equals("merge")) mergeOf.put(sub, value);
+                else if (section.equals("remote") && key.equals("fetch")) {
+                    fetchOf.computeIfAbsent(sub, k -> new ArrayList<>()).add(value);
+                }
+            }
+            return new Upstreams(remoteOf, mergeOf, fetchOf);
+        }
+
+        String of(String branch) {
+            String remote = remoteOf.get(branch);
+            String merge = mergeOf.get(branch);
+            if (remote == null || merge == null) return null;
+            if (remote.equals(".")) return merge;
+            for (String spec : fetchOf.getOrDefault(remote, Collections.emptyList())) {
+                String mapped = map(spec.startsWith("+") ? spec.substring(1) : spec, merge);
+                if (mapped != null) return mapped;
+            }
+            return null;
+        }
+
+        // Applies "src:dst" (with at most one '*' per side) to name
+        private static String map(String spec, String name) {
+            int colon = spec.indexOf(':');
+            if (colon < 0) return null;
+            String src = spec.substring(0, colon);
+            String dst = spec.substring(colon + 1);
+            int star = src.indexOf('*');
+            if (star < 0) return src.equals(name) ? dst : null;
+            String head = src.substring(0, star);
+            String tail = src.substring(star + 1);
+            if (!name.startsWith(head) || !name.endsWith(tail) || name.length() < head.length() + tail.length()) {
+                return null;
+            }
+            String match = name.substring(head.length(), name.length() - tail.length());
+            return dst.replace("*", match);
+        }
+
+        // Strips an inline comment and surrounding quotes
+        private static String value(String raw) {
+            StringBuilder out = new StringBuilder();
+            boolean quoted = false;
+            for (int i = 0; i < raw.length(); i++) {
+                char c = raw.charAt(i);
+                if (c == '"') quoted = !quoted;
+                else if (!quoted && (c == '#' || c == ';')) break;
+                else if (c == '\\' && i + 1 < raw.length()) out.append(raw.charAt(++i));
+                else out.append(c);
+            }
+            return out.toString().trim();
+        }
+    }
+
+    // ==================== STAMPS ====================
+
+    private static final class Stamp {
+        final long mtimeNanos;
+        final long size;
+        final Object fileKey;
+
+        private Stamp(long mtimeNanos, long size, Object fileKey) {
+            this.mtimeNanos = mtimeNanos;
+            this.size = size;
+            this.fileKey = fileKey;
+        }
+
+        // Null when the file is missing
+        static Stamp of(File file) {
+            try {
+                BasicFileAttributes attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+                return new Stamp(attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS), attrs.size(), attrs.fileKey());
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Stamp)) return false;
+            Stamp s = (Stamp) o;
+            return mtimeNanos == s.mtimeNanos && size == s.size && Objects.equals(fileKey, s.fileKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(mtimeNanos) * 31 + Long.hashCode(size);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 import javax.swing.*;
 import javax.swing.border.*;
+import javax.swing.table.*;
 import javax.swing.tree.*;
 import java.awt.*;
 import java.awt.event.*;
@@ -7,22 +8,63 @@ import java.io.*;
 import java.nio.file.*;
 import java.util.*;
 import java.util.List;
-import java.text.SimpleDateFormat;
+import java.util.concurrent.CancellationException;
 
 public class SimpleGit extends JFrame {
     
     private JTextField repoPathField;
     private JTextArea outputArea;
+    private ConsoleLog console;
+    private JTabbedPane bottomTabs;
+    private JTable historyTable;
+    private HistoryModel historyModel;
+    private JTextField historySearch;
+    private JLabel historySummary;
+    private CommitSearchIndex searchIndex;    // guarded by searchIndexLock; opened by the first search
+    private File searchIndexRepo;
+    private final Object searchIndexLock = new Object();
+    private TaskScheduler.Task searching;
+    private volatile Workspace workspace;
+    private JTable workspaceTable;
+    private JLabel workspaceSummary;
+    private DiagnosticsModel diagnosticsModel;
+    private JLabel diagnosticsSummary;
+    private JLabel metricsLabel;
+    private DiffView diffView;
+    private JLabel diffSummary;
+    private BlameView blameView;
+    private JLabel blameSummary;
+    private JTextField blameRevision;
+    private String blamePath;    // EDT
+    private boolean updatingFileLists;    // EDT; selection changes from a refresh aren't clicks
+    private volatile LineStats lineStats;    // created on the EDT, closed by the shutdown hook
+    private LineStats.Job stagedStatsJob;
+    private LineStats.Job changedStatsJob;
     private JTextArea commitMessageArea;
     private JList<String> changedFilesList;
-    private DefaultListModel<String> changedFilesModel;
+    private FileListModel changedFilesModel;
     private JList<String> stagedFilesList;
-    private DefaultListModel<String> stagedFilesModel;
+    private FileListModel stagedFilesModel;
+    private JTree stagedFilesTree;    // built the first time tree view is switched on
+    private JTree changedFilesTree;
     private JLabel branchLabel;
     private JLabel statusLabel;
     private JComboBox<String> branchCombo;
     private JProgressBar progressBar;
+    private JButton cancelButton;
+    private JButton pullButton;
+    private volatile BackgroundFetcher fetcher;    // only with -Dsimplegit.fetch.interval
     private File currentRepo;
+    private final GitProcessPool gitPool = new GitProcessPool(60_000);
+    private volatile GitObjectDatabase objectDb;
+    private volatile AheadBehind aheadBehind;
+    private volatile RefDatabase refDb;
+    // Combo name -> ahead/behind text, replaced wholesale on refresh (EDT)
+    private Map<String, String> branchCounts = Collections.emptyMap();
+    private volatile GitIndex index;
+    private volatile StatusWatcher statusWatcher;
+    private final TaskScheduler tasks = new TaskScheduler(this::showQueue);
+    private long firstFrameMillis;    // EDT
     
     private static final Color BG_DARK = new Color(30, 30, 30);
     private static final Color BG_MEDIUM = new Color(45, 45, 45);
@@ -34,6 +76,23 @@ public class SimpleGit extends JFrame {
     private static final Color ACCENT_RED = new Color(220, 80, 80);
     private static final Color ACCENT_ORANGE = new Color(227, 160, 55);
     
+    // Shared by every label, list and button instead of one instance each
+    private static final Font FONT_UI = new Font("Segoe UI", Font.PLAIN, 12);
+    private static final Font FONT_UI_SMALL = new Font("Segoe UI", Font.PLAIN, 11);
+    private static final Font FONT_UI_BOLD = new Font("Segoe UI", Font.BOLD, 13);
+    private static final Font FONT_TITLE = new Font("Segoe UI", Font.BOLD, 14);
+    private static final Font FONT_MONO = new Font("Consolas", Font.PLAIN, 12);
+    private static final Font FONT_MONO_LARGE = new Font("Consolas", Font.PLAIN, 13);
+    private static final Cursor HAND_CURSOR = Cursor.getPredefinedCursor(Cursor.HAND_CURSOR);
+    
+    private static final File WORKSPACE_FILE = new File(System.getProperty("user.home"), ".simplegit/workspace.txt");
+    // Rows a history search shows; the count of matches is always complete
+    private static final int SEARCH_LIMIT = 10_000;
+    
+    // -Dsimplegit.startup=report prints the time to the first painted frame;
+    // =exit also quits right after startup (benchmarks, class-data archive training)
+    private static final String STARTUP_MODE = System.getProperty("simplegit.startup", "");
+    
     public static void main(String[] args) {
         try {
             UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
@@ -55,14 +114,47 @@ public class SimpleGit extends JFrame {
         
         initComponents();
         
-        // Set app icon
-        try {
-            setIconImage(createGitIcon());
-        } catch (Exception e) {}
+        // Pooled git workers hold pipes open; close them on the way out
+        Runtime.getRuntime().addShutdownHook(new Thread(gitPool::shutdown));
+        Runtime.getRuntime().addShutdownHook(new Thread(console::close));
+        Runtime.getRuntime().addShutdownHook(new Thread(tasks::close));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            Workspace ws = workspace;
+            if (ws != null) ws.close();
+        }));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            LineStats stats = lineStats;
+            if (stats != null) stats.close();
+        }));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            BackgroundFetcher f = fetcher;
+            if (f != null) f.close();
+        }));
+        
+        // -Dsimplegit.metrics.dump=<file> keeps every command's timings after exit
+        String dump = System.getProperty("simplegit.metrics.dump");
+        if (dump != null) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    Metrics.global().dump(new File(dump));
+                } catch (IOException e) {
+                    System.err.println("Could not write " + dump + ": " + e.getMessage());
+                }
+            }));
+        }
     }
     
     private void initComponents() {
-        JPanel mainPanel = new JPanel(new BorderLayout(0, 0));
+        JPanel mainPanel = new JPanel(new BorderLayout(0, 0)) {
+            @Override
+            protected void paintComponent(Graphics g) {
+                super.paintComponent(g);
+                if (firstFrameMillis == 0) {
+                    firstFrameMillis = System.currentTimeMillis();
+                    SwingUtilities.invokeLater(SimpleGit.this::finishStartup);
+                }
+            }
+        };
         mainPanel.setBackground(BG_DARK);
         
         // Top toolbar
@@ -99,10 +191,10 @@ public class SimpleGit extends JFrame {
         
         JLabel repoLabel = new JLabel("📁 Repository: ");
         repoLabel.setForeground(TEXT_PRIMARY);
-        repoLabel.setFont(new Font("Segoe UI", Font.BOLD, 14));
+        repoLabel.setFont(FONT_TITLE);
         
         repoPathField = new JTextField();
-        repoPathField.setFont(new Font("Consolas", Font.PLAIN, 13));
+        repoPathField.setFont(FONT_MONO_LARGE);
         repoPathField.setBackground(BG_LIGHT);
         repoPathField.setForeground(TEXT_PRIMARY);
         repoPathField.setCaretColor(TEXT_PRIMARY);
@@ -132,12 +224,13 @@ public class SimpleGit extends JFrame {
         
         branchLabel = new JLabel("⎇ Branch: --");
         branchLabel.setForeground(ACCENT_GREEN);
-        branchLabel.setFont(new Font("Segoe UI", Font.BOLD, 13));
+        branchLabel.setFont(FONT_UI_BOLD);
         
         branchCombo = new JComboBox<>();
         branchCombo.setBackground(BG_LIGHT);
         branchCombo.setForeground(TEXT_PRIMARY);
-        branchCombo.setPreferredSize(new Dimension(150, 30));
+        branchCombo.setPreferredSize(new Dimension(220, 30));
+        branchCombo.setRenderer(new BranchRenderer());
         branchCombo.addActionListener(e -> {
             if (branchCombo.getSelectedItem() != null && currentRepo != null) {
                 // Don't auto-switch, just update label
@@ -145,7 +238,7 @@ public class SimpleGit extends JFrame {
         });
         
         JButton refreshBtn = createStyledButton("🔄 Refresh", BG_LIGHT);
-        refreshBtn.addActionListener(e -> refreshStatus());
+        refreshBtn.addActionListener(e -> refreshStatus(true));
         
         actionsPanel.add(branchLabel);
         actionsPanel.add(branchCombo);
@@ -172,15 +265,19 @@ public class SimpleGit extends JFrame {
         
         JLabel stagedLabel = new JLabel("✓ Staged Changes");
         stagedLabel.setForeground(ACCENT_GREEN);
-        stagedLabel.setFont(new Font("Segoe UI", Font.BOLD, 14));
+        stagedLabel.setFont(FONT_TITLE);
         
-        stagedFilesModel = new DefaultListModel<>();
+        stagedFilesModel = new FileListModel();
         stagedFilesList = new JList<>(stagedFilesModel);
         stagedFilesList.setBackground(BG_DARK);
         stagedFilesList.setForeground(TEXT_PRIMARY);
         stagedFilesList.setSelectionBackground(ACCENT_BLUE);
-        stagedFilesList.setFont(new Font("Consolas", Font.PLAIN, 12));
+        stagedFilesList.setFont(FONT_MONO);
         stagedFilesList.setCellRenderer(new FileListRenderer());
+        FileListRenderer.fixCellHeight(stagedFilesList);
+        stagedFilesList.addListSelectionListener(e -> {
+            if (!e.getValueIsAdjusting()) showDiff(stagedFilesList, stagedFilesModel, true);
+        });
         
         JScrollPane stagedScroll = new JScrollPane(stagedFilesList);
         stagedScroll.setBorder(null);
@@ -193,7 +290,18 @@ public class SimpleGit extends JFrame {
         stagedBtnPanel.setOpaque(false);
         stagedBtnPanel.add(unstageBtn);
         
-        stagedPanel.add(stagedLabel, BorderLayout.NORTH);
+        JTextField stagedFilter = createFilterField(stagedFilesList, stagedFilesModel);
+        JPanel stagedTitle = new JPanel(new BorderLayout());
+        stagedTitle.setOpaque(false);
+        stagedTitle.add(stagedLabel, BorderLayout.WEST);
+        stagedTitle.add(createTreeToggle(stagedScroll, stagedFilesList, stagedFilesModel, stagedFilter), BorderLayout.EAST);
+        
+        JPanel stagedHeader = new JPanel(new BorderLayout(0, 6));
+        stagedHeader.setOpaque(false);
+        stagedHeader.add(stagedTitle, BorderLayout.NORTH);
+        stagedHeader.add(stagedFilter, BorderLayout.SOUTH);
+        
+        stagedPanel.add(stagedHeader, BorderLayout.NORTH);
         stagedPanel.add(stagedScroll, BorderLayout.CENTER);
         stagedPanel.add(stagedBtnPanel, BorderLayout.SOUTH);
         
@@ -207,15 +315,19 @@ public class SimpleGit extends JFrame {
         
         JLabel changedLabel = new JLabel("○ Changed Files");
         changedLabel.setForeground(ACCENT_ORANGE);
-        changedLabel.setFont(new Font("Segoe UI", Font.BOLD, 14));
+        changedLabel.setFont(FONT_TITLE);
         
-        changedFilesModel = new DefaultListModel<>();
+        changedFilesModel = new FileListModel();
         changedFilesList = new JList<>(changedFilesModel);
         changedFilesList.setBackground(BG_DARK);
         changedFilesList.setForeground(TEXT_PRIMARY);
         changedFilesList.setSelectionBackground(ACCENT_BLUE);
-        changedFilesList.setFont(new Font("Consolas", Font.PLAIN, 12));
+        changedFilesList.setFont(FONT_MONO);
         changedFilesList.setCellRenderer(new FileListRenderer());
+        FileListRenderer.fixCellHeight(changedFilesList);
+        changedFilesList.addListSelectionListener(e -> {
+            if (!e.getValueIsAdjusting()) showDiff(changedFilesList, changedFilesModel, false);
+        });
         
         JScrollPane changedScroll = new JScrollPane(changedFilesList);
         changedScroll.setBorder(null);
@@ -232,7 +344,18 @@ public class SimpleGit extends JFrame {
         changeBtnPanel.add(stageBtn);
         changeBtnPanel.add(stageAllBtn);
         
-        changedPanel.add(changedLabel, BorderLayout.NORTH);
+        JTextField changedFilter = createFilterField(changedFilesList, changedFilesModel);
+        JPanel changedTitle = new JPanel(new BorderLayout());
+        changedTitle.setOpaque(false);
+        changedTitle.add(changedLabel, BorderLayout.WEST);
+        changedTitle.add(createTreeToggle(changedScroll, changedFilesList, changedFilesModel, changedFilter), BorderLayout.EAST);
+        
+        JPanel changedHeader = new JPanel(new BorderLayout(0, 6));
+        changedHeader.setOpaque(false);
+        changedHeader.add(changedTitle, BorderLayout.NORTH);
+        changedHeader.add(changedFilter, BorderLayout.SOUTH);
+        
+        changedPanel.add(changedHeader, BorderLayout.NORTH);
         changedPanel.add(changedScroll, BorderLayout.CENTER);
         changedPanel.add(changeBtnPanel, BorderLayout.SOUTH);
         
@@ -269,6 +392,7 @@ public class SimpleGit extends JFrame {
         
         JButton pullBtn = createActionButton("⬇️ Pull", "Pull from remote");
         pullBtn.addActionListener(e -> pull());
+        pullButton = pullBtn;
         
         JButton pushBtn = createActionButton("⬆️ Push", "Push to remote");
         pushBtn.addActionListener(e -> push());
@@ -305,13 +429,13 @@ public class SimpleGit extends JFrame {
         
         JLabel commitLabel = new JLabel("📝 Commit Message");
         commitLabel.setForeground(TEXT_PRIMARY);
-        commitLabel.setFont(new Font("Segoe UI", Font.BOLD, 14));
+        commitLabel.setFont(FONT_TITLE);
         
         commitMessageArea = new JTextArea(3, 40);
         commitMessageArea.setBackground(BG_DARK);
         commitMessageArea.setForeground(TEXT_PRIMARY);
         commitMessageArea.setCaretColor(TEXT_PRIMARY);
-        commitMessageArea.setFont(new Font("Consolas", Font.PLAIN, 13));
+        commitMessageArea.setFont(FONT_MONO_LARGE);
         commitMessageArea.setBorder(new EmptyBorder(10, 10, 10, 10));
         commitMessageArea.setLineWrap(true);
         commitMessageArea.setWrapStyleWord(true);
@@ -323,11 +447,11 @@ public class SimpleGit extends JFrame {
         commitBtnPanel.setOpaque(false);
         
         JButton commitBtn = createStyledButton("✓ Commit", ACCENT_GREEN);
-        commitBtn.setFont(new Font("Segoe UI", Font.BOLD, 14));
+        commitBtn.setFont(FONT_TITLE);
         commitBtn.addActionListener(e -> commit());
         
         JButton commitPushBtn = createStyledButton("✓ Commit & Push", ACCENT_BLUE);
-        commitPushBtn.setFont(new Font("Segoe UI", Font.BOLD, 14));
+        commitPushBtn.setFont(FONT_TITLE);
         commitPushBtn.addActionListener(e -> commitAndPush());
         
         commitBtnPanel.add(commitBtn);
@@ -337,7 +461,61 @@ public class SimpleGit extends JFrame {
         commitPanel.add(commitScroll, BorderLayout.CENTER);
         commitPanel.add(commitBtnPanel, BorderLayout.SOUTH);
         
-        // Bottom - Output console
+        // Bottom - Output console; lines logged before it exists wait in the log
+        console = new ConsoleLog(null, ConsoleLog.configuredMaxLines(),
+            new File(System.getProperty("user.home"), ".simplegit/logs"));
+        
+        // Layout
+        JPanel topSection = new JPanel(new BorderLayout(0, 10));
+        topSection.setOpaque(false);
+        topSection.add(actionsPanel, BorderLayout.NORTH);
+        topSection.add(commitPanel, BorderLayout.CENTER);
+        
+        bottomTabs = new JTabbedPane();
+        bottomTabs.setBackground(BG_MEDIUM);
+        bottomTabs.setForeground(TEXT_PRIMARY);
+        // Filled in after the first frame (console) or when first shown (the rest)
+        bottomTabs.addTab("💻 Console", emptyTab());
+        bottomTabs.addTab("📜 History", emptyTab());
+        bottomTabs.addTab("🗂 Workspace", emptyTab());
+        bottomTabs.addTab("📊 Diagnostics", emptyTab());
+        bottomTabs.addTab("🔍 Diff", emptyTab());
+        bottomTabs.addTab("👤 Blame", emptyTab());
+        bottomTabs.addChangeListener(e -> {
+            int tab = bottomTabs.getSelectedIndex();
+            if (tab == 1) ensureHistoryPanel();
+            if (tab == 2) {
+                ensureWorkspacePanel();
+                // Already-waiting repositories aren't queued twice, so this is cheap to repeat
+                workspace.refreshAll();
+            }
+            if (tab == 3) {
+                if (diagnosticsModel == null) bottomTabs.setComponentAt(3, createDiagnosticsPanel());
+                refreshDiagnostics();
+            }
+            if (tab == 4) {
+                ensureDiffPanel();
+                diffView.reload();
+            }
+            if (tab == 5) {
+                ensureBlamePanel();
+                showBlame();
+            }
+        });
+        
+        JSplitPane splitPane = new JSplitPane(JSplitPane.VERTICAL_SPLIT);
+        splitPane.setTopComponent(topSection);
+        splitPane.setBottomComponent(bottomTabs);
+        splitPane.setDividerLocation(280);
+        splitPane.setBackground(BG_DARK);
+        splitPane.setBorder(null);
+        
+        panel.add(splitPane, BorderLayout.CENTER);
+        
+        return panel;
+    }
+    
+    private JPanel createConsolePanel() {
         JPanel consolePanel = new JPanel(new BorderLayout());
         consolePanel.setBackground(BG_MEDIUM);
         consolePanel.setBorder(BorderFactory.createCompoundBorder(
@@ -350,10 +528,10 @@ public class SimpleGit extends JFrame {
         
         JLabel consoleLabel = new JLabel("💻 Console Output");
         consoleLabel.setForeground(TEXT_PRIMARY);
-        consoleLabel.setFont(new Font("Segoe UI", Font.BOLD, 14));
+        consoleLabel.setFont(FONT_TITLE);
         
         JButton clearBtn = createStyledButton("Clear", BG_LIGHT);
-        clearBtn.addActionListener(e -> outputArea.setText(""));
+        clearBtn.addActionListener(e -> console.clear());
         
         consoleHeader.add(consoleLabel, BorderLayout.WEST);
         consoleHeader.add(clearBtn, BorderLayout.EAST);
@@ -362,8 +540,9 @@ public class SimpleGit extends JFrame {
         outputArea.setEditable(false);
         outputArea.setBackground(new Color(20, 20, 20));
         outputArea.setForeground(ACCENT_GREEN);
-        outputArea.setFont(new Font("Consolas", Font.PLAIN, 12));
+        outputArea.setFont(FONT_MONO);
         outputArea.setBorder(new EmptyBorder(10, 10, 10, 10));
+        console.attach(outputArea);
         
         JScrollPane outputScroll = new JScrollPane(outputArea);
         outputScroll.setBorder(BorderFactory.createLineBorder(BG_LIGHT));
@@ -371,22 +550,493 @@ public class SimpleGit extends JFrame {
         consolePanel.add(consoleHeader, BorderLayout.NORTH);
         consolePanel.add(outputScroll, BorderLayout.CENTER);
         
-        // Layout
-        JPanel topSection = new JPanel(new BorderLayout(0, 10));
-        topSection.setOpaque(false);
-        topSection.add(actionsPanel, BorderLayout.NORTH);
-        topSection.add(commitPanel, BorderLayout.CENTER);
+        return consolePanel;
+    }
+    
+    // Narrows a file list to the paths containing what is typed; Escape clears it
+    private JTextField createFilterField(JList<String> list, FileListModel model) {
+        FileListFilter filter = new FileListFilter(model, list.getSelectionModel());
+        JTextField field = new JTextField();
+        field.setFont(FONT_MONO);
+        field.setBackground(BG_LIGHT);
+        field.setForeground(TEXT_PRIMARY);
+        field.setCaretColor(TEXT_PRIMARY);
+        field.setToolTipText("<html>Filter by path: parts separated by spaces, in any order.<br>"
+            + "Case is ignored unless you type a capital letter. Esc clears.</html>");
+        field.getDocument().addDocumentListener(new javax.swing.event.DocumentListener() {
+            @Override
+            public void insertUpdate(javax.swing.event.DocumentEvent e) {
+                filter.setQuery(field.getText());
+            }
+            
+            @Override
+            public void removeUpdate(javax.swing.event.DocumentEvent e) {
+                filter.setQuery(field.getText());
+            }
+            
+            @Override
+            public void changedUpdate(javax.swing.event.DocumentEvent e) {
+            }
+        });
+        field.addFocusListener(new FocusAdapter() {
+            @Override
+            public void focusGained(FocusEvent e) {
+                filter.prepare();
+            }
+        });
+        field.getInputMap().put(KeyStroke.getKeyStroke(KeyEvent.VK_ESCAPE, 0), "clearFilter");
+        field.getActionMap().put("clearFilter", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                field.setText("");
+            }
+        });
+        return field;
+    }
+    
+    // Swaps a file list for a directory tree of the same rows and back. The
+    // filter only narrows the list, so it is cleared and disabled meanwhile.
+    private JCheckBox createTreeToggle(JScrollPane scroll, JList<String> list, FileListModel model,
+            JTextField filterField) {
+        JCheckBox toggle = new JCheckBox("Tree");
+        toggle.setOpaque(false);
+        toggle.setForeground(TEXT_SECONDARY);
+        toggle.setFont(FONT_UI);
+        toggle.setFocusPainted(false);
+        toggle.setToolTipText("Show the files as a directory tree; a selected directory is staged or unstaged as a whole");
+        toggle.addActionListener(e -> {
+            if (!toggle.isSelected()) {
+                scroll.setViewportView(list);
+                filterField.setEnabled(true);
+                return;
+            }
+            filterField.setText("");
+            filterField.setEnabled(false);
+            JTree tree = model == stagedFilesModel ? stagedFilesTree : changedFilesTree;
+            if (tree == null) {
+                tree = createFileTree(model);
+                if (model == stagedFilesModel) stagedFilesTree = tree;
+                else changedFilesTree = tree;
+            }
+            ((FileTreeModel) tree.getModel()).update(model.rows());
+            scroll.setViewportView(tree);
+        });
+        return toggle;
+    }
+    
+    private JTree createFileTree(FileListModel model) {
+        boolean staged = model == stagedFilesModel;
+        FileTreeModel treeModel = new FileTreeModel();
+        treeModel.update(model.rows());
+        JTree tree = new JTree(treeModel);
+        tree.setRootVisible(false);
+        tree.setShowsRootHandles(true);
+        tree.setBackground(BG_DARK);
+        tree.setFont(FONT_MONO);
+        tree.setCellRenderer(new FileTreeRenderer());
+        // Fixed row height and a large model: JTree never measures or caches rows it doesn't show
+        tree.setRowHeight(tree.getFontMetrics(FONT_MONO).getHeight() + FileListRenderer.PADDING_Y * 2);
+        tree.setLargeModel(true);
+        tree.addTreeSelectionListener(e -> {
+            TreePath lead = tree.getLeadSelectionPath();
+            if (lead == null || !tree.isPathSelected(lead)) return;
+            FileTreeModel.Node node = (FileTreeModel.Node) lead.getLastPathComponent();
+            if (!node.directory) showDiff(node.path, node.origPath, node.status, staged);
+        });
+        return tree;
+    }
+    
+    private static boolean treeShown(JTree tree) {
+        return tree != null && tree.getParent() != null;
+    }
+    
+    private JPanel emptyTab() {
+        JPanel tab = new JPanel();
+        tab.setBackground(BG_MEDIUM);
+        return tab;
+    }
+    
+    private void ensureHistoryPanel() {
+        if (historyTable == null) bottomTabs.setComponentAt(1, createHistoryPanel());
+    }
+    
+    private void ensureWorkspacePanel() {
+        if (workspaceTable != null) return;
+        bottomTabs.setComponentAt(2, createWorkspacePanel());
+        if (currentRepo != null) workspace.focus(currentRepo.getAbsoluteFile());
+    }
+    
+    private void ensureDiffPanel() {
+        if (diffView == null) bottomTabs.setComponentAt(4, createDiffPanel());
+    }
+    
+    private void ensureBlamePanel() {
+        if (blameView == null) bottomTabs.setComponentAt(5, createBlamePanel());
+    }
+    
+    private JPanel createHistoryPanel() {
+        JPanel historyPanel = new JPanel(new BorderLayout(0, 8));
+        historyPanel.setBackground(BG_MEDIUM);
+        historyPanel.setBorder(new EmptyBorder(10, 10, 10, 10));
+        
+        historyTable = new JTable();
+        
+        historySummary = new JLabel(" ");
+        historySummary.setForeground(TEXT_SECONDARY);
+        historySummary.setFont(FONT_UI);
+        
+        historySearch = new JTextField(28);
+        historySearch.setFont(FONT_MONO);
+        historySearch.setBackground(BG_LIGHT);
+        historySearch.setForeground(TEXT_PRIMARY);
+        historySearch.setCaretColor(TEXT_PRIMARY);
+        historySearch.setToolTipText("<html>Words from commit messages, author:name, path:dir/file; "
+            + "a trailing * matches prefixes.<br>Enter to search, empty for the whole history</html>");
+        historySearch.addActionListener(e -> searchHistory());
+        
+        JPanel header = new JPanel(new BorderLayout(8, 0));
+        header.setOpaque(false);
+        header.add(historySummary, BorderLayout.CENTER);
+        header.add(historySearch, BorderLayout.EAST);
+        historyPanel.add(header, BorderLayout.NORTH);
+        historyPanel.add(darkTableScroll(historyTable), BorderLayout.CENTER);
+        return historyPanel;
+    }
+    
+    private JScrollPane darkTableScroll(JTable table) {
+        table.setBackground(BG_DARK);
+        table.setForeground(TEXT_PRIMARY);
+        table.setSelectionBackground(ACCENT_BLUE);
+        table.setSelectionForeground(Color.WHITE);
+        table.setGridColor(BG_LIGHT);
+        table.setShowGrid(false);
+        table.setFillsViewportHeight(true);
+        table.setFont(FONT_MONO);
+        table.setRowHeight(table.getFontMetrics(table.getFont()).getHeight() + 6);
+        table.getTableHeader().setBackground(BG_LIGHT);
+        table.getTableHeader().setForeground(TEXT_PRIMARY);
+        table.getTableHeader().setReorderingAllowed(false);
+        
+        JScrollPane scroll = new JScrollPane(table);
+        scroll.setBorder(BorderFactory.createLineBorder(BG_LIGHT));
+        scroll.getViewport().setBackground(BG_DARK);
+        return scroll;
+    }
+    
+    private JPanel createWorkspacePanel() {
+        JPanel workspacePanel = new JPanel(new BorderLayout(0, 8));
+        workspacePanel.setBackground(BG_MEDIUM);
+        workspacePanel.setBorder(new EmptyBorder(10, 10, 10, 10));
+        
+        workspaceSummary = new JLabel(" ");
+        workspaceSummary.setForeground(TEXT_SECONDARY);
+        workspaceSummary.setFont(FONT_UI);
+        workspace = new Workspace(gitPool, Workspace.DEFAULT_PARALLEL, (done, total, wallNanos) -> {
+            workspaceSummary.setText(workspace.summary() + (done < total
+                ? " · refreshing " + done + "/" + total
+                : " · refreshed in " + wallNanos / 1_000_000 + " ms"));
+        });
+        for (File repo : Workspace.load(WORKSPACE_FILE)) {
+            workspace.add(repo);
+        }
         
-        JSplitPane splitPane = new JSplitPane(JSplitPane.VERTICAL_SPLIT);
-        splitPane.setTopComponent(topSection);
-        splitPane.setBottomComponent(consolePanel);
-        splitPane.setDividerLocation(280);
-        splitPane.setBackground(BG_DARK);
-        splitPane.setBorder(null);
+        JButton addBtn = createStyledButton("➕ Add", BG_LIGHT);
+        addBtn.addActionListener(e -> addToWorkspace());
+        JButton removeBtn = createStyledButton("➖ Remove", BG_LIGHT);
+        removeBtn.addActionListener(e -> {
+            int[] rows = workspaceTable.getSelectedRows();
+            for (int i = rows.length - 1; i >= 0; i--) {
+                workspace.remove(workspaceTable.convertRowIndexToModel(rows[i]));
+            }
+            saveWorkspace();
+        });
+        JButton refreshAllBtn = createStyledButton("🔄 Refresh all", BG_LIGHT);
+        refreshAllBtn.addActionListener(e -> workspace.refreshAll());
+        JSpinner parallelSpinner = new JSpinner(new SpinnerNumberModel(Workspace.DEFAULT_PARALLEL, 1, 64, 1));
+        parallelSpinner.addChangeListener(e -> workspace.setParallel((Integer) parallelSpinner.getValue()));
+        JLabel parallelLabel = new JLabel("Parallel:");
+        parallelLabel.setForeground(TEXT_SECONDARY);
+        
+        JPanel buttons = new JPanel(new FlowLayout(FlowLayout.RIGHT, 5, 0));
+        buttons.setOpaque(false);
+        buttons.add(parallelLabel);
+        buttons.add(parallelSpinner);
+        buttons.add(addBtn);
+        buttons.add(removeBtn);
+        buttons.add(refreshAllBtn);
+        JPanel header = new JPanel(new BorderLayout());
+        header.setOpaque(false);
+        header.add(workspaceSummary, BorderLayout.WEST);
+        header.add(buttons, BorderLayout.EAST);
+        
+        workspaceTable = new JTable(workspace);
+        workspaceTable.setAutoCreateRowSorter(true);
+        workspaceTable.getColumnModel().getColumn(0).setPreferredWidth(200);
+        workspaceTable.getColumnModel().getColumn(1).setPreferredWidth(200);
+        workspaceTable.getSelectionModel().addListSelectionListener(e -> {
+            int row = workspaceTable.getSelectedRow();
+            if (!e.getValueIsAdjusting() && row >= 0) {
+                // The one being looked at goes ahead of the rest of the queue
+                workspace.focus(workspace.repositoryAt(workspaceTable.convertRowIndexToModel(row)));
+            }
+        });
+        workspaceTable.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                int row = workspaceTable.rowAtPoint(e.getPoint());
+                if (e.getClickCount() == 2 && row >= 0) {
+                    File repo = workspace.repositoryAt(workspaceTable.convertRowIndexToModel(row));
+                    repoPathField.setText(repo.getPath());
+                    openRepository();
+                }
+            }
+        });
         
-        panel.add(splitPane, BorderLayout.CENTER);
+        workspacePanel.add(header, BorderLayout.NORTH);
+        workspacePanel.add(darkTableScroll(workspaceTable), BorderLayout.CENTER);
+        return workspacePanel;
+    }
+    
+    private JPanel createDiagnosticsPanel() {
+        JPanel diagnosticsPanel = new JPanel(new BorderLayout(0, 8));
+        diagnosticsPanel.setBackground(BG_MEDIUM);
+        diagnosticsPanel.setBorder(new EmptyBorder(10, 10, 10, 10));
+        
+        diagnosticsSummary = new JLabel(" ");
+        diagnosticsSummary.setForeground(TEXT_SECONDARY);
+        diagnosticsSummary.setFont(FONT_UI);
+        
+        JButton resetBtn = createStyledButton("Reset", BG_LIGHT);
+        resetBtn.addActionListener(e -> {
+            Metrics.global().reset();
+            refreshDiagnostics();
+        });
+        JButton saveBtn = createStyledButton("💾 Save JSON", BG_LIGHT);
+        saveBtn.addActionListener(e -> saveMetrics());
+        
+        JPanel buttons = new JPanel(new FlowLayout(FlowLayout.RIGHT, 5, 0));
+        buttons.setOpaque(false);
+        buttons.add(resetBtn);
+        buttons.add(saveBtn);
+        JPanel header = new JPanel(new BorderLayout());
+        header.setOpaque(false);
+        header.add(diagnosticsSummary, BorderLayout.WEST);
+        header.add(buttons, BorderLayout.EAST);
+        
+        diagnosticsModel = new DiagnosticsModel();
+        JTable table = new JTable(diagnosticsModel);
+        table.setAutoCreateRowSorter(true);
+        table.getColumnModel().getColumn(0).setPreferredWidth(220);
+        
+        diagnosticsPanel.add(header, BorderLayout.NORTH);
+        diagnosticsPanel.add(darkTableScroll(table), BorderLayout.CENTER);
+        return diagnosticsPanel;
+    }
+    
+    private JPanel createDiffPanel() {
+        JPanel diffPanel = new JPanel(new BorderLayout(0, 8));
+        diffPanel.setBackground(BG_MEDIUM);
+        diffPanel.setBorder(new EmptyBorder(10, 10, 10, 10));
+        
+        diffView = new DiffView(gitPool, tasks);
+        diffView.setBackground(BG_DARK);
+        diffView.setForeground(TEXT_PRIMARY);
+        diffView.setFont(FONT_MONO);
+        
+        diffSummary = new JLabel(" ");
+        diffSummary.setForeground(TEXT_SECONDARY);
+        diffSummary.setFont(FONT_UI);
+        diffView.addChangeListener(e -> diffSummary.setText(diffView.summary()));
+        
+        JButton prevBtn = createStyledButton("▲ Hunk", BG_LIGHT);
+        prevBtn.setToolTipText("Previous hunk (Alt+Up)");
+        prevBtn.addActionListener(e -> diffView.previousHunk());
+        JButton nextBtn = createStyledButton("▼ Hunk", BG_LIGHT);
+        nextBtn.setToolTipText("Next hunk (Alt+Down)");
+        nextBtn.addActionListener(e -> diffView.nextHunk());
+        
+        InputMap keys = diffPanel.getInputMap(JComponent.WHEN_ANCESTOR_OF_FOCUSED_COMPONENT);
+        keys.put(KeyStroke.getKeyStroke(KeyEvent.VK_UP, InputEvent.ALT_DOWN_MASK), "previousHunk");
+        keys.put(KeyStroke.getKeyStroke(KeyEvent.VK_DOWN, InputEvent.ALT_DOWN_MASK), "nextHunk");
+        diffPanel.getActionMap().put("previousHunk", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                diffView.previousHunk();
+            }
+        });
+        diffPanel.getActionMap().put("nextHunk", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                diffView.nextHunk();
+            }
+        });
         
-        return panel;
+        JPanel buttons = new JPanel(new FlowLayout(FlowLayout.RIGHT, 5, 0));
+        buttons.setOpaque(false);
+        buttons.add(prevBtn);
+        buttons.add(nextBtn);
+        JPanel header = new JPanel(new BorderLayout());
+        header.setOpaque(false);
+        header.add(diffSummary, BorderLayout.CENTER);
+        header.add(buttons, BorderLayout.EAST);
+        
+        JScrollPane scroll = new JScrollPane(diffView);
+        scroll.setBorder(BorderFactory.createLineBorder(BG_LIGHT));
+        scroll.getViewport().setBackground(BG_DARK);
+        // The hunk counter follows scrolling
+        scroll.getViewport().addChangeListener(e -> diffSummary.setText(diffView.summary()));
+        
+        diffPanel.add(header, BorderLayout.NORTH);
+        diffPanel.add(scroll, BorderLayout.CENTER);
+        return diffPanel;
+    }
+    
+    private JPanel createBlamePanel() {
+        JPanel blamePanel = new JPanel(new BorderLayout(0, 8));
+        blamePanel.setBackground(BG_MEDIUM);
+        blamePanel.setBorder(new EmptyBorder(10, 10, 10, 10));
+        
+        blameView = new BlameView(gitPool, tasks);
+        blameView.setBackground(BG_DARK);
+        blameView.setForeground(TEXT_PRIMARY);
+        blameView.setFont(FONT_MONO);
+        
+        blameSummary = new JLabel(" ");
+        blameSummary.setForeground(TEXT_SECONDARY);
+        blameSummary.setFont(FONT_UI);
+        blameView.addChangeListener(e -> blameSummary.setText(blameView.summary()));
+        
+        blameRevision = new JTextField("HEAD", 12);
+        blameRevision.setFont(FONT_MONO);
+        blameRevision.setBackground(BG_LIGHT);
+        blameRevision.setForeground(TEXT_PRIMARY);
+        blameRevision.setCaretColor(TEXT_PRIMARY);
+        blameRevision.setToolTipText("Revision to blame at; Enter to blame");
+        blameRevision.addActionListener(e -> showBlame());
+        
+        JButton olderBtn = createStyledButton("◀ Before", BG_LIGHT);
+        olderBtn.setToolTipText("Blame the revision before the selected line's commit");
+        olderBtn.addActionListener(e -> {
+            String parent = blameView.parentOfSelected();
+            if (parent == null) return;
+            blameRevision.setText(parent);
+            showBlame();
+        });
+        JButton headBtn = createStyledButton("HEAD", BG_LIGHT);
+        headBtn.addActionListener(e -> {
+            blameRevision.setText("HEAD");
+            showBlame();
+        });
+        
+        JPanel buttons = new JPanel(new FlowLayout(FlowLayout.RIGHT, 5, 0));
+        buttons.setOpaque(false);
+        buttons.add(blameRevision);
+        buttons.add(olderBtn);
+        buttons.add(headBtn);
+        JPanel header = new JPanel(new BorderLayout());
+        header.setOpaque(false);
+        header.add(blameSummary, BorderLayout.CENTER);
+        header.add(buttons, BorderLayout.EAST);
+        
+        JScrollPane scroll = new JScrollPane(blameView);
+        scroll.setBorder(BorderFactory.createLineBorder(BG_LIGHT));
+        scroll.getViewport().setBackground(BG_DARK);
+        
+        blamePanel.add(header, BorderLayout.NORTH);
+        blamePanel.add(scroll, BorderLayout.CENTER);
+        return blamePanel;
+    }
+    
+    private void showBlame() {
+        if (blameView == null || blamePath == null || currentRepo == null || objectDb == null) return;
+        String revision = blameRevision.getText().trim();
+        blameView.show(currentRepo, objectDb, blamePath, revision.isEmpty() ? "HEAD" : revision);
+    }
+    
+    // The clicked (lead) row of a file list, in the Diff tab, or in the Blame tab while that is showing
+    private void showDiff(JList<String> list, FileListModel model, boolean staged) {
+        if (updatingFileLists || currentRepo == null) return;
+        int row = list.getLeadSelectionIndex();
+        if (row < 0 || row >= model.getSize() || !list.isSelectedIndex(row)) return;
+        showDiff(model.pathAt(row), model.origPathAt(row), model.statusAt(row), staged);
+    }
+    
+    // origPath: a staged rename's old path, otherwise null
+    private void showDiff(String path, String origPath, char status, boolean staged) {
+        if (updatingFileLists || currentRepo == null) return;
+        blamePath = path;
+        if (bottomTabs.getSelectedIndex() == 5) {
+            showBlame();
+            return;
+        }
+        ensureDiffPanel();
+        diffView.show(currentRepo, objectDb, path, origPath, staged, status);
+        bottomTabs.setSelectedIndex(4);
+    }
+    
+    // Once a second: the status bar summary always, the table while it is showing
+    private void refreshDiagnostics() {
+        Metrics metrics = Metrics.global();
+        List<MetricsMXBean.CommandStats> commands = metrics.getCommands();
+        long calls = 0;
+        MetricsMXBean.CommandStats slowest = null;
+        for (MetricsMXBean.CommandStats c : commands) {
+            calls += c.getCount();
+            if (slowest == null || c.getP99Millis() > slowest.getP99Millis()) slowest = c;
+        }
+        metricsLabel.setText(slowest == null ? "" : String.format("⏱ %d git calls · slowest: %s p99 %.0f ms",
+            calls, slowest.getCommand(), slowest.getP99Millis()));
+        
+        if (diagnosticsModel != null && bottomTabs.getSelectedIndex() == 3) {
+            diagnosticsModel.setRows(commands);
+            diagnosticsSummary.setText(String.format("%d git calls, %d failed · UI thread lag p99 %.1f ms, max %.1f ms",
+                calls, metrics.getFailures(), metrics.getEdtLagP99Millis(), metrics.getEdtLagMaxMillis()));
+        }
+    }
+    
+    private void saveMetrics() {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setDialogTitle("Save metrics");
+        chooser.setSelectedFile(new File("simplegit-metrics.json"));
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        try {
+            Metrics.global().dump(chooser.getSelectedFile());
+            log("📊 Metrics saved to " + chooser.getSelectedFile());
+        } catch (IOException e) {
+            showError("Could not save metrics: " + e.getMessage());
+        }
+    }
+    
+    // A folder that isn't a repository adds the repositories directly inside it
+    private void addToWorkspace() {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+        chooser.setMultiSelectionEnabled(true);
+        chooser.setDialogTitle("Add repositories to the workspace");
+        if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        
+        List<File> added = new ArrayList<>();
+        for (File dir : chooser.getSelectedFiles()) {
+            File[] candidates = new File(dir, ".git").exists()
+                ? new File[] { dir }
+                : dir.listFiles(f -> new File(f, ".git").exists());
+            if (candidates == null) continue;
+            Arrays.sort(candidates);
+            for (File repo : candidates) {
+                if (workspace.add(repo.getAbsoluteFile())) added.add(repo.getAbsoluteFile());
+            }
+        }
+        workspace.refresh(added);
+        log("🗂 Added " + added.size() + " repositories to the workspace");
+        saveWorkspace();
+    }
+    
+    private void saveWorkspace() {
+        try {
+            Workspace.save(WORKSPACE_FILE, workspace.repositories());
+        } catch (IOException e) {
+            log("⚠ Could not save the workspace: " + e.getMessage());
+        }
     }
     
     private JPanel createStatusBar() {
@@ -396,19 +1046,47 @@ public class SimpleGit extends JFrame {
         
         statusLabel = new JLabel("Ready - Open a repository to begin");
         statusLabel.setForeground(TEXT_SECONDARY);
-        statusLabel.setFont(new Font("Segoe UI", Font.PLAIN, 12));
+        statusLabel.setFont(FONT_UI);
         
         progressBar = new JProgressBar();
         progressBar.setPreferredSize(new Dimension(150, 15));
+        progressBar.setStringPainted(true);
         progressBar.setVisible(false);
         
+        cancelButton = createStyledButton("Cancel", BG_LIGHT);
+        cancelButton.setVisible(false);
+        cancelButton.addActionListener(e -> tasks.cancelAll());
+        
+        JPanel progressPanel = new JPanel(new FlowLayout(FlowLayout.CENTER, 8, 0));
+        progressPanel.setOpaque(false);
+        progressPanel.add(progressBar);
+        progressPanel.add(cancelButton);
+        
+        // Git call count and the slowest command; a click opens Diagnostics
+        metricsLabel = new JLabel();
+        metricsLabel.setForeground(TEXT_SECONDARY);
+        metricsLabel.setFont(FONT_UI_SMALL);
+        metricsLabel.setCursor(HAND_CURSOR);
+        metricsLabel.setToolTipText("Open the Diagnostics tab");
+        metricsLabel.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                bottomTabs.setSelectedIndex(3);
+            }
+        });
+        
         JLabel versionLabel = new JLabel("SimpleGit v1.0");
         versionLabel.setForeground(TEXT_SECONDARY);
-        versionLabel.setFont(new Font("Segoe UI", Font.PLAIN, 11));
+        versionLabel.setFont(FONT_UI_SMALL);
+        
+        JPanel eastPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT, 12, 0));
+        eastPanel.setOpaque(false);
+        eastPanel.add(metricsLabel);
+        eastPanel.add(versionLabel);
         
         statusBar.add(statusLabel, BorderLayout.WEST);
-        statusBar.add(progressBar, BorderLayout.CENTER);
-        statusBar.add(versionLabel, BorderLayout.EAST);
+        statusBar.add(progressPanel, BorderLayout.CENTER);
+        statusBar.add(eastPanel, BorderLayout.EAST);
         
         return statusBar;
     }
@@ -419,8 +1097,8 @@ public class SimpleGit extends JFrame {
         btn.setForeground(TEXT_PRIMARY);
         btn.setFocusPainted(false);
         btn.setBorderPainted(false);
-        btn.setFont(new Font("Segoe UI", Font.PLAIN, 12));
-        btn.setCursor(new Cursor(Cursor.HAND_CURSOR));
+        btn.setFont(FONT_UI);
+        btn.setCursor(HAND_CURSOR);
         btn.setBorder(new EmptyBorder(8, 15, 8, 15));
         
         btn.addMouseListener(new MouseAdapter() {
@@ -441,8 +1119,8 @@ public class SimpleGit extends JFrame {
         btn.setForeground(TEXT_PRIMARY);
         btn.setFocusPainted(false);
         btn.setBorderPainted(false);
-        btn.setFont(new Font("Segoe UI", Font.BOLD, 13));
-        btn.setCursor(new Cursor(Cursor.HAND_CURSOR));
+        btn.setFont(FONT_UI_BOLD);
+        btn.setCursor(HAND_CURSOR);
         btn.setToolTipText(tooltip);
         btn.setBorder(new EmptyBorder(15, 10, 15, 10));
         
@@ -458,6 +1136,31 @@ public class SimpleGit extends JFrame {
         return btn;
     }
     
+    // ==================== STARTUP ====================
+    
+    // Whatever the first frame can do without, right after it is painted
+    private void finishStartup() {
+        if (!STARTUP_MODE.isEmpty()) {
+            // The launcher passes its own clock; otherwise count from the process start
+            long launched = Long.getLong("simplegit.startup.t0", ProcessHandle.current().info().startInstant()
+                .map(java.time.Instant::toEpochMilli).orElse(firstFrameMillis));
+            System.out.println("first frame " + (firstFrameMillis - launched) + " ms");
+        }
+        bottomTabs.setComponentAt(0, createConsolePanel());
+        try {
+            setIconImage(createGitIcon());
+        } catch (Exception e) {}
+        Metrics.global().start();
+        new javax.swing.Timer(1000, e -> refreshDiagnostics()).start();
+        
+        if (STARTUP_MODE.equals("exit")) {
+            // Build the lazy tabs too, so a training run archives their classes
+            ensureHistoryPanel();
+            ensureWorkspacePanel();
+            SwingUtilities.invokeLater(() -> System.exit(0));
+        }
+    }
+    
     // ==================== GIT OPERATIONS ====================
     
     private void browseRepository() {
@@ -486,108 +1189,375 @@ public class SimpleGit extends JFrame {
         }
         
         currentRepo = repo;
+        if (workspace != null) workspace.focus(repo.getAbsoluteFile());
+        if (diffView != null) diffView.clear();
+        if (blameView != null) blameView.clear();
+        blamePath = null;
+        closeHistory();
+        closeSearchIndex();
+        if (historySummary != null) historySummary.setText(" ");
+        openObjectDatabase(repo);
+        startStatusWatcher(repo);
+        startBackgroundFetch(repo);
         setStatus("Opened repository: " + repo.getName());
         log("📂 Opened repository: " + path);
         refreshStatus();
     }
     
+    // Opt-in: keeps remote-tracking branches fresh so Pull can stay local
+    private void startBackgroundFetch(File repo) {
+        if (BackgroundFetcher.INTERVAL_SECONDS <= 0) return;
+        if (fetcher == null) {
+            fetcher = new BackgroundFetcher(gitPool, tasks, BackgroundFetcher.INTERVAL_SECONDS * 1000,
+                BackgroundFetcher.MAX_INTERVAL_MILLIS, BackgroundFetcher.IDLE_MILLIS,
+                (fetched, status, changed) -> SwingUtilities.invokeLater(() -> {
+                    if (!fetched.equals(currentRepo.getAbsoluteFile())) return;
+                    showFetchStatus(status);
+                    // New remote commits: ahead/behind counts are stale
+                    if (changed) refreshStatus();
+                }));
+            BackgroundFetcher f = fetcher;
+            Toolkit.getDefaultToolkit().addAWTEventListener(e -> f.touch(),
+                AWTEvent.KEY_EVENT_MASK | AWTEvent.MOUSE_EVENT_MASK);
+        }
+        fetcher.setRepository(repo);
+        showFetchStatus(fetcher.status(repo));
+    }
+    
+    private void showFetchStatus(BackgroundFetcher.Status status) {
+        String tip = "Pull from remote";
+        if (status.lastFetch > 0) {
+            tip += String.format(" (fetched %tT)", status.lastFetch);
+        }
+        if (status.error != null) {
+            tip += String.format(" - background fetch failed %d time(s): %s, retrying at %tT",
+                status.failures, status.error, status.nextFetch);
+        }
+        pullButton.setToolTipText(tip);
+    }
+    
     private void refreshStatus() {
+        refreshStatus(false);
+    }
+    
+    // full: the user asked, so rescan everything rather than trust the watcher's events
+    private void refreshStatus(boolean full) {
         if (currentRepo == null) {
             showError("No repository open");
             return;
         }
         
-        runAsync(() -> {
-            // Get current branch
-            String branch = runGitCommand("rev-parse", "--abbrev-ref", "HEAD");
-            SwingUtilities.invokeLater(() -> {
-                branchLabel.setText("⎇ Branch: " + branch.trim());
-            });
+        // Ten clicks still mean one refresh running and at most one waiting;
+        // a full rescan has its own key so a waiting plain refresh can't swallow it
+        watch(tasks.submitCoalesced(full ? "rescan" : "refresh", "Refresh", currentRepo, () -> {
+            // Current branch and every branch straight from the ref files
+            try {
+                readBranches();
+            } catch (IOException e) {
+                log("✗ Reading refs failed: " + e.getMessage());
+            }
             
-            // Get all branches
-            String branches = runGitCommand("branch", "-a");
-            SwingUtilities.invokeLater(() -> {
-                branchCombo.removeAllItems();
-                for (String b : branches.split("\n")) {
-                    b = b.trim().replace("* ", "");
-                    if (!b.isEmpty() && !b.contains("->")) {
-                        branchCombo.addItem(b);
-                    }
-                }
-            });
+            // The watcher publishes through applyStatus once it has caught up
+            StatusWatcher watcher = statusWatcher;
+            if (watcher != null) {
+                if (full) watcher.requestFullScan();
+                else watcher.refresh();
+                return;
+            }
             
-            // Get status
-            String status = runGitCommand("status", "--porcelain");
+            // Staged side straight from .git/index, so it shows before status finishes
+            List<GitIndex.StagedChange> staged = readStagedChanges();
+            FileListModel.Rows stagedRows = new FileListModel.Rows(new PathStore());
+            if (staged != null) {
+                for (GitIndex.StagedChange c : staged) {
+                    stagedRows.add(c.status, c.path, c.origPath);
+                }
+                SwingUtilities.invokeLater(() -> updateFileList(stagedFilesList, stagedFilesModel, stagedRows));
+            }
             
-            SwingUtilities.invokeLater(() -> {
-                stagedFilesModel.clear();
-                changedFilesModel.clear();
-                
-                for (String line : status.split("\n")) {
-                    if (line.length() < 3) continue;
-                    
-                    char staged = line.charAt(0);
-                    char unstaged = line.charAt(1);
-                    String file = line.substring(3);
-                    
-                    if (staged != ' ' && staged != '?') {
-                        stagedFilesModel.addElement(staged + " " + file);
+            // Get status (rename detection only matters for the staged side).
+            // The staged rows may already be on the EDT, so only share their store when they aren't.
+            FileListModel.Rows changedRows = new FileListModel.Rows(
+                staged != null ? new PathStore() : stagedRows.paths);
+            String[] statusArgs = staged != null
+                ? new String[] { "status", "--porcelain=v2", "-z", "--no-renames" }
+                : new String[] { "status", "--porcelain=v2", "-z" };
+            try {
+                gitPool.runStreamed(currentRepo, in -> PorcelainParser.parse(in, e -> {
+                    if (staged == null && !e.isUntracked() && e.x != ' ' && e.x != '!') {
+                        stagedRows.add(e.x, e.path, e.origPath);
                     }
-                    if (unstaged != ' ' || staged == '?') {
-                        String prefix = staged == '?' ? "?" : String.valueOf(unstaged);
-                        changedFilesModel.addElement(prefix + " " + file);
+                    if (e.hasWorkTreeChange() && e.x != '!') {
+                        changedRows.add(e.workTreeStatus(), e.path);
                     }
+                }), statusArgs);
+            } catch (IOException e) {
+                log("✗ Status failed: " + e.getMessage());
+                return;
+            }
+            
+            SwingUtilities.invokeLater(() -> {
+                if (staged == null) {
+                    updateFileList(stagedFilesList, stagedFilesModel, stagedRows);
                 }
+                updateFileList(changedFilesList, changedFilesModel, changedRows);
                 
                 setStatus("Repository refreshed - " + 
-                    stagedFilesModel.size() + " staged, " + 
-                    changedFilesModel.size() + " changed");
+                    stagedFilesModel.totalSize() + " staged, " + 
+                    changedFilesModel.totalSize() + " changed");
             });
+        }));
+    }
+    
+    private void readBranches() throws IOException {
+        RefDatabase db = refDb;
+        if (db == null) return;
+        RefDatabase.Snapshot refs = db.read();
+        String headRef = refs.headRef();
+        String branch = headRef == null ? "HEAD"
+            : headRef.startsWith("refs/heads/") ? headRef.substring(11) : headRef;
+        SwingUtilities.invokeLater(() -> {
+            branchLabel.setText("⎇ Branch: " + branch);
+        });
+        
+        // Names as `git branch -a` shows them; symbolic refs such as origin/HEAD are skipped
+        List<RefDatabase.Ref> branches = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        for (RefDatabase.Ref r : refs.list("refs/heads/", "refs/remotes/")) {
+            if (r.isSymbolic() || r.id == null) continue;
+            branches.add(r);
+            names.add(r.name.startsWith("refs/heads/") ? r.name.substring(11) : r.name.substring(5));
+        }
+        Map<String, String> counts = readBranchCounts(refs, branches, names);
+        SwingUtilities.invokeLater(() -> {
+            branchCounts = counts;
+            // Repopulating closes the popup and resets the selection, so only on a new ref set
+            if (!names.equals(comboItems())) {
+                branchCombo.removeAllItems();
+                for (String b : names) {
+                    branchCombo.addItem(b);
+                }
+            } else {
+                branchCombo.repaint();
+            }
         });
     }
     
+    private List<String> comboItems() {
+        List<String> items = new ArrayList<>(branchCombo.getItemCount());
+        for (int i = 0; i < branchCombo.getItemCount(); i++) {
+            items.add(branchCombo.getItemAt(i));
+        }
+        return items;
+    }
+    
+    // "↑ahead ↓behind" against each branch's upstream, and the distance from
+    // HEAD. One walk covers every branch.
+    private Map<String, String> readBranchCounts(RefDatabase.Snapshot refs,
+            List<RefDatabase.Ref> branches, List<String> names) {
+        Map<String, String> labels = new HashMap<>();
+        AheadBehind walker = aheadBehind;
+        if (walker == null) return labels;
+        try {
+            String head = refs.resolve("HEAD");
+            String[][] pairs = new String[branches.size() * 2][];
+            for (int i = 0; i < branches.size(); i++) {
+                RefDatabase.Ref r = branches.get(i);
+                String upstream = refs.upstream(r.name);
+                pairs[2 * i] = new String[] { r.id, upstream == null ? null : refs.resolve(upstream) };
+                pairs[2 * i + 1] = new String[] { r.id, head };
+            }
+            int[][] counts = walker.counts(pairs);
+            for (int i = 0; i < branches.size(); i++) {
+                StringBuilder label = new StringBuilder();
+                int[] upstream = counts[2 * i];
+                int[] vsHead = counts[2 * i + 1];
+                if (upstream != null) {
+                    label.append("↑").append(upstream[0]).append(" ↓").append(upstream[1]);
+                }
+                if (vsHead != null && (vsHead[0] != 0 || vsHead[1] != 0)) {
+                    if (label.length() > 0) label.append("  ");
+                    label.append("HEAD +").append(vsHead[0]).append(" −").append(vsHead[1]);
+                }
+                if (label.length() > 0) labels.put(names.get(i), label.toString());
+            }
+        } catch (IOException e) {
+            // Shallow or damaged history: names only
+        }
+        return labels;
+    }
+    
+    private void startStatusWatcher(File repo) {
+        if (statusWatcher != null) {
+            statusWatcher.close();
+            statusWatcher = null;
+        }
+        GitObjectDatabase db = objectDb;
+        if (db == null) return;
+        
+        StatusWatcher[] self = new StatusWatcher[1];
+        self[0] = new StatusWatcher(repo, db, gitPool, (staged, changed) -> {
+            // Late results from a repository we already left are dropped
+            if (statusWatcher == self[0]) {
+                applyStatus(staged, changed);
+            }
+        });
+        statusWatcher = self[0];
+        self[0].start();
+    }
+    
+    private void applyStatus(List<GitIndex.StagedChange> staged, List<StatusEntry> changed) {
+        // Rows are built here, off the EDT; the EDT only applies the diff.
+        // A path that is both staged and modified again is stored once.
+        PathStore paths = new PathStore();
+        FileListModel.Rows stagedRows = new FileListModel.Rows(paths);
+        for (GitIndex.StagedChange c : staged) {
+            stagedRows.add(c.status, c.path, c.origPath);
+        }
+        FileListModel.Rows changedRows = new FileListModel.Rows(paths);
+        for (StatusEntry e : changed) {
+            changedRows.add(e.workTreeStatus(), e.path);
+        }
+        
+        SwingUtilities.invokeLater(() -> {
+            updateFileList(stagedFilesList, stagedFilesModel, stagedRows);
+            updateFileList(changedFilesList, changedFilesModel, changedRows);
+            
+            setStatus("Repository refreshed - " + 
+                stagedFilesModel.totalSize() + " staged, " + 
+                changedFilesModel.totalSize() + " changed");
+        });
+    }
+    
+    private void updateFileList(JList<String> list, FileListModel model, FileListModel.Rows rows) {
+        updatingFileLists = true;
+        try {
+            model.update(rows, list.getSelectionModel());
+            JTree tree = model == stagedFilesModel ? stagedFilesTree : changedFilesTree;
+            if (treeShown(tree)) ((FileTreeModel) tree.getModel()).update(model.rows());
+        } finally {
+            updatingFileLists = false;
+        }
+        // The file shown may have changed on disk; unchanged ones come straight from the cache
+        if (diffView != null && bottomTabs.getSelectedIndex() == 4) diffView.reload();
+        // With both cell sizes fixed JList never measures rows one by one
+        FontMetrics fm = list.getFontMetrics(list.getFont());
+        list.setFixedCellWidth((model.maxRowLength() + FileListRenderer.STATS_CHARS) * fm.charWidth('W')
+            + FileListRenderer.PADDING_X * 2);
+        countLines(model);
+    }
+    
+    // +/- counts for every row, filled in as they come; the previous count for this list is dropped
+    private void countLines(FileListModel model) {
+        boolean staged = model == stagedFilesModel;
+        LineStats.Job previous = staged ? stagedStatsJob : changedStatsJob;
+        if (previous != null) previous.cancel();
+        GitObjectDatabase db = objectDb;
+        if (db == null || currentRepo == null || model.isEmpty()) return;
+        
+        if (lineStats == null) lineStats = new LineStats(Runtime.getRuntime().availableProcessors());
+        FileListModel.Rows rows = model.rows();
+        LineStats.Job job = lineStats.compute(db, currentRepo, rows, staged,
+            (results, count) -> SwingUtilities.invokeLater(() -> model.setStats(rows, results, count)));
+        if (staged) stagedStatsJob = job;
+        else changedStatsJob = job;
+    }
+    
+    // Index vs HEAD computed in-process; null means "ask git status instead"
+    private List<GitIndex.StagedChange> readStagedChanges() {
+        GitObjectDatabase db = objectDb;
+        if (db == null) return null;
+        
+        try {
+            GitIndex idx = index;
+            if (idx == null || idx.isStale()) {
+                idx = GitIndex.read(db.getGitDir());
+                index = idx;
+            }
+            if (idx == null) {
+                return new ArrayList<>();
+            }
+            String head = db.resolve("HEAD");
+            String tree = head == null ? null : db.readCommit(head).tree;
+            return idx.diffAgainstTree(db, tree);
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+    
     private void stageSelected() {
         if (currentRepo == null) return;
         
-        List<String> selected = changedFilesList.getSelectedValuesList();
+        // A directory in tree view goes to git as one pathspec
+        List<String> selected = treeShown(changedFilesTree)
+            ? ((FileTreeModel) changedFilesTree.getModel()).pathsOf(changedFilesTree.getSelectionPaths())
+            : selectedPaths(changedFilesList, changedFilesModel);
         if (selected.isEmpty()) {
             showError("Select files to stage");
             return;
         }
         
-        for (String item : selected) {
-            String file = item.substring(2); // Remove status prefix
-            runGitCommand("add", file);
-            log("➕ Staged: " + file);
-        }
-        
-        refreshStatus();
+        IndexUpdater updater = new IndexUpdater(gitPool, currentRepo);
+        runAsync("Stage", () -> {
+            updater.stage(selected, (done, total) -> setStatus("Staging " + done + " / " + total + "..."));
+            logPaths("➕ Staged", selected);
+            setStatus("Staged " + selected.size() + " file(s)");
+            SwingUtilities.invokeLater(this::refreshStatus);
+        });
     }
     
     private void stageAll() {
         if (currentRepo == null) return;
         
-        runGitCommand("add", "-A");
-        log("➕ Staged all changes");
-        refreshStatus();
+        runAsync("Stage all", () -> {
+            runGitCommand("add", "-A");
+            log("➕ Staged all changes");
+            SwingUtilities.invokeLater(this::refreshStatus);
+        });
     }
     
     private void unstageSelected() {
         if (currentRepo == null) return;
         
-        List<String> selected = stagedFilesList.getSelectedValuesList();
+        List<String> selected = treeShown(stagedFilesTree)
+            ? ((FileTreeModel) stagedFilesTree.getModel()).pathsOf(stagedFilesTree.getSelectionPaths())
+            : selectedPaths(stagedFilesList, stagedFilesModel);
         if (selected.isEmpty()) {
             showError("Select files to unstage");
             return;
         }
         
-        for (String item : selected) {
-            String file = item.substring(2);
-            runGitCommand("reset", "HEAD", file);
-            log("➖ Unstaged: " + file);
+        IndexUpdater updater = new IndexUpdater(gitPool, currentRepo);
+        runAsync("Unstage", () -> {
+            updater.unstage(selected, (done, total) -> setStatus("Unstaging " + done + " / " + total + "..."));
+            logPaths("➖ Unstaged", selected);
+            setStatus("Unstaged " + selected.size() + " file(s)");
+            SwingUtilities.invokeLater(this::refreshStatus);
+        });
+    }
+    
+    // Read straight from the model, so 20k selected rows don't become 20k row strings.
+    // A staged rename is both of its paths.
+    private static List<String> selectedPaths(JList<String> list, FileListModel model) {
+        int[] rows = list.getSelectedIndices();
+        List<String> paths = new ArrayList<>(rows.length);
+        for (int row : rows) {
+            String origPath = model.origPathAt(row);
+            if (origPath != null) paths.add(origPath);
+            paths.add(model.pathAt(row));
+        }
+        return paths;
+    }
+    
+    // One line per file for a handful, a count for bulk selections
+    private void logPaths(String verb, List<String> paths) {
+        if (paths.size() > 20) {
+            log(verb + " " + paths.size() + " files");
+            return;
+        }
+        for (String path : paths) {
+            log(verb + ": " + path);
         }
-        
-        refreshStatus();
     }
     
     private void commit() {
@@ -604,7 +1574,7 @@ public class SimpleGit extends JFrame {
             return;
         }
         
-        runAsync(() -> {
+        runAsync("Commit", () -> {
             String result = runGitCommand("commit", "-m", message);
             log("✓ Committed: " + message);
             log(result);
@@ -625,7 +1595,7 @@ public class SimpleGit extends JFrame {
             return;
         }
         
-        runAsync(() -> {
+        runAsync("Commit and push", () -> {
             // Commit
             String commitResult = runGitCommand("commit", "-m", message);
             log("✓ Committed: " + message);
@@ -647,10 +1617,22 @@ public class SimpleGit extends JFrame {
     private void pull() {
         if (currentRepo == null) return;
         
-        runAsync(() -> {
-            setStatus("Pulling from remote...");
-            String result = runGitCommand("pull");
-            log("⬇️ Pull result:");
+        BackgroundFetcher f = fetcher;
+        boolean fetched = f != null && f.isFresh(currentRepo);
+        runAsync("Pull", () -> {
+            // A background fetch just ran: merge or rebase what it brought in, no network
+            String[] integrate = fetched ? BackgroundFetcher.integrateCommand(gitPool, currentRepo) : null;
+            String result;
+            if (integrate != null) {
+                long at = f.status(currentRepo).lastFetch;
+                setStatus(String.format("Pulling (fetched %tT)...", at));
+                result = runGitCommand(integrate);
+                log(String.format("⬇️ Pull result (%s, fetched %tT):", String.join(" ", integrate), at));
+            } else {
+                setStatus("Pulling from remote...");
+                result = runGitCommand("pull");
+                log("⬇️ Pull result:");
+            }
             log(result);
             
             SwingUtilities.invokeLater(() -> {
@@ -663,7 +1645,7 @@ public class SimpleGit extends JFrame {
     private void push() {
         if (currentRepo == null) return;
         
-        runAsync(() -> {
+        runAsync("Push", () -> {
             setStatus("Pushing to remote...");
             String result = runGitCommand("push");
             log("⬆️ Push result:");
@@ -676,7 +1658,7 @@ public class SimpleGit extends JFrame {
     }
     
     private void cloneRepository() {
-        JPanel panel = new JPanel(new GridLayout(3, 1, 5, 5));
+        JPanel panel = new JPanel(new GridLayout(0, 1, 5, 5));
         
         JTextField urlField = new JTextField(40);
         JTextField destField = new JTextField(40);
@@ -694,10 +1676,24 @@ public class SimpleGit extends JFrame {
             }
         });
         
+        // Big repositories: history depth, blobs on demand, one branch, no work tree yet
+        JCheckBox shallowBox = new JCheckBox("Shallow, depth:");
+        JSpinner depthSpinner = new JSpinner(new SpinnerNumberModel(1, 1, 1_000_000, 1));
+        JCheckBox bloblessBox = new JCheckBox("Blobless (--filter=blob:none)");
+        JCheckBox singleBranchBox = new JCheckBox("Single branch");
+        JCheckBox noCheckoutBox = new JCheckBox("No checkout");
+        JPanel optionsPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 5, 0));
+        optionsPanel.add(shallowBox);
+        optionsPanel.add(depthSpinner);
+        optionsPanel.add(bloblessBox);
+        optionsPanel.add(singleBranchBox);
+        optionsPanel.add(noCheckoutBox);
+        
         panel.add(new JLabel("Repository URL:"));
         panel.add(urlField);
         panel.add(new JLabel("Destination folder:"));
         panel.add(destPanel);
+        panel.add(optionsPanel);
         
         int result = JOptionPane.showConfirmDialog(this, panel, 
             "Clone Repository", JOptionPane.OK_CANCEL_OPTION);
@@ -711,31 +1707,34 @@ public class SimpleGit extends JFrame {
                 return;
             }
             
-            runAsync(() -> {
+            Cloner.Options options = new Cloner.Options();
+            options.depth = shallowBox.isSelected() ? (Integer) depthSpinner.getValue() : 0;
+            options.blobless = bloblessBox.isSelected();
+            options.singleBranch = singleBranchBox.isSelected();
+            options.noCheckout = noCheckoutBox.isSelected();
+            Cloner cloner = new Cloner(url, new File(dest), options);
+            
+            // Queued on the destination, so a second clone into it waits
+            watch(tasks.submit("Clone", new File(dest), () -> {
                 setStatus("Cloning repository...");
+                log("📥 " + String.join(" ", cloner.command()));
                 try {
-                    ProcessBuilder pb = new ProcessBuilder("git", "clone", url, dest);
-                    pb.redirectErrorStream(true);
-                    Process p = pb.start();
-                    
-                    BufferedReader reader = new BufferedReader(
-                        new InputStreamReader(p.getInputStream()));
-                    String line;
-                    while ((line = reader.readLine()) != null) {
-                        log(line);
-                    }
-                    
-                    p.waitFor();
-                    
-                    SwingUtilities.invokeLater(() -> {
-                        repoPathField.setText(dest);
-                        openRepository();
-                        setStatus("Clone completed");
-                    });
-                } catch (Exception e) {
+                    cloner.run((phase, percent, line) -> {
+                        showProgress(phase.label, percent);
+                        setStatus(line);
+                    }, this::log);
+                } catch (IOException e) {
                     log("❌ Clone failed: " + e.getMessage());
+                    setStatus("Clone failed");
+                    return;
                 }
-            });
+                
+                SwingUtilities.invokeLater(() -> {
+                    repoPathField.setText(dest);
+                    openRepository();
+                    setStatus("Clone completed");
+                });
+            }));
         }
     }
     
@@ -779,10 +1778,12 @@ public class SimpleGit extends JFrame {
             "Enter new branch name:", "Create Branch", JOptionPane.PLAIN_MESSAGE);
         
         if (name != null && !name.trim().isEmpty()) {
-            String result = runGitCommand("checkout", "-b", name.trim());
-            log("🌿 Created and switched to branch: " + name);
-            log(result);
-            refreshStatus();
+            runAsync("Create branch", () -> {
+                String result = runGitCommand("checkout", "-b", name.trim());
+                log("🌿 Created and switched to branch: " + name);
+                log(result);
+                SwingUtilities.invokeLater(this::refreshStatus);
+            });
         }
     }
     
@@ -797,10 +1798,13 @@ public class SimpleGit extends JFrame {
             selected = selected.replace("remotes/origin/", "");
         }
         
-        String result = runGitCommand("checkout", selected);
-        log("⎇ Switched to branch: " + selected);
-        log(result);
-        refreshStatus();
+        String branch = selected;
+        runAsync("Switch branch", () -> {
+            String result = runGitCommand("checkout", branch);
+            log("⎇ Switched to branch: " + branch);
+            log(result);
+            SwingUtilities.invokeLater(this::refreshStatus);
+        });
     }
     
     private void mergeBranch() {
@@ -816,81 +1820,195 @@ public class SimpleGit extends JFrame {
             JOptionPane.PLAIN_MESSAGE, null, branches, branches[0]);
         
         if (selected != null) {
-            String result = runGitCommand("merge", selected);
-            log("🔀 Merged branch: " + selected);
-            log(result);
-            refreshStatus();
+            runAsync("Merge", () -> {
+                String result = runGitCommand("merge", selected);
+                log("🔀 Merged branch: " + selected);
+                log(result);
+                SwingUtilities.invokeLater(this::refreshStatus);
+            });
         }
     }
     
     private void viewHistory() {
         if (currentRepo == null) return;
         
-        runAsync(() -> {
-            String result = runGitCommand("log", "--oneline", "-20");
-            log("\n📜 Recent commits:");
-            log("─".repeat(50));
-            log(result);
-            log("─".repeat(50));
+        // A fresh model each time, so History also picks up new commits
+        closeHistory();
+        ensureHistoryPanel();
+        historySearch.setText("");
+        historySummary.setText(" ");
+        showHistoryModel(new HistoryModel(gitPool, currentRepo, HistoryModel.DEFAULT_BUDGET_BYTES));
+        bottomTabs.setSelectedIndex(1);
+    }
+    
+    private void showHistoryModel(HistoryModel model) {
+        historyModel = model;
+        historyTable.setModel(historyModel);
+        TableColumnModel columns = historyTable.getColumnModel();
+        columns.getColumn(0).setPreferredWidth(70);
+        columns.getColumn(0).setMaxWidth(90);
+        columns.getColumn(1).setPreferredWidth(500);
+        columns.getColumn(2).setPreferredWidth(140);
+        columns.getColumn(3).setPreferredWidth(120);
+        columns.getColumn(3).setMaxWidth(140);
+        historyModel.start();
+    }
+    
+    // Brings the index up to date with HEAD first; only the first search of a big history waits long
+    private void searchHistory() {
+        if (currentRepo == null || objectDb == null) return;
+        String query = historySearch.getText().trim();
+        if (query.isEmpty()) {
+            viewHistory();
+            return;
+        }
+        File repo = currentRepo;
+        File gitDir = objectDb.getGitDir();
+        if (searching != null) searching.cancel();
+        historySummary.setText("Searching…");
+        searching = tasks.submitRead("Search history", () -> {
+            try {
+                CommitSearchIndex index = openSearchIndex(repo, gitDir);
+                index.update(n -> SwingUtilities.invokeLater(() -> {
+                    if (repo == currentRepo) historySummary.setText(String.format("Indexing history… %,d commits", n));
+                }));
+                CommitSearchIndex.Result result = index.search(query, SEARCH_LIMIT);
+                SwingUtilities.invokeLater(() -> {
+                    if (repo != currentRepo || !query.equals(historySearch.getText().trim())) return;
+                    closeHistory();
+                    showHistoryModel(new HistoryModel(gitPool, repo, HistoryModel.DEFAULT_BUDGET_BYTES, result.commits));
+                    historySummary.setText(String.format("%,d commit%s match%s · %.1f ms · %,d indexed",
+                        result.matches, result.matches == 1 ? "" : "s", result.matches == 1 ? "es" : "",
+                        result.nanos / 1e6, index.size())
+                        + (result.matches > result.commits.size() ? String.format(" · newest %,d shown", result.commits.size()) : ""));
+                });
+            } catch (IOException e) {
+                SwingUtilities.invokeLater(() -> {
+                    if (repo == currentRepo) historySummary.setText("Search failed: " + e.getMessage());
+                });
+            }
         });
     }
     
+    // Off the EDT: opening reads meta, maps every segment and sweeps leftovers
+    private CommitSearchIndex openSearchIndex(File repo, File gitDir) throws IOException {
+        synchronized (searchIndexLock) {
+            if (searchIndex != null && searchIndexRepo != repo) closeSearchIndexLocked();
+            if (searchIndex == null) {
+                searchIndex = CommitSearchIndex.open(gitPool, repo, gitDir);
+                searchIndexRepo = repo;
+            }
+            return searchIndex;
+        }
+    }
+    
+    private void closeSearchIndex() {
+        if (searching != null) {
+            searching.cancel();
+            searching = null;
+        }
+        synchronized (searchIndexLock) {
+            closeSearchIndexLocked();
+        }
+    }
+    
+    private void closeSearchIndexLocked() {
+        if (searchIndex != null) {
+            try {
+                searchIndex.close();
+            } catch (IOException e) {
+                // Nothing to save
+            }
+            searchIndex = null;
+            searchIndexRepo = null;
+        }
+    }
+    
+    private void closeHistory() {
+        if (historyModel != null) {
+            historyModel.close();
+            historyModel = null;
+            historyTable.setModel(new DefaultTableModel());
+        }
+    }
+    
     // ==================== HELPER METHODS ====================
     
     private String runGitCommand(String... args) {
+        return gitPool.run(currentRepo, args);
+    }
+    
+    private void openObjectDatabase(File repo) {
+        if (objectDb != null) {
+            objectDb.close();
+            objectDb = null;
+        }
+        if (aheadBehind != null) {
+            aheadBehind.close();
+            aheadBehind = null;
+        }
+        index = null;
+        refDb = null;
         try {
-            List<String> command = new ArrayList<>();
-            command.add("git");
-            command.addAll(Arrays.asList(args));
-            
-            ProcessBuilder pb = new ProcessBuilder(command);
-            if (currentRepo != null) {
-                pb.directory(currentRepo);
-            }
-            pb.redirectErrorStream(true);
-            
-            Process p = pb.start();
-            BufferedReader reader = new BufferedReader(
-                new InputStreamReader(p.getInputStream()));
-            
-            StringBuilder output = new StringBuilder();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                output.append(line).append("\n");
-            }
-            
-            p.waitFor();
-            return output.toString().trim();
-            
-        } catch (Exception e) {
-            return "Error: " + e.getMessage();
+            objectDb = GitObjectDatabase.open(repo);
+            aheadBehind = new AheadBehind(objectDb);
+            refDb = objectDb.refs();
+        } catch (IOException e) {
+            log("⚠ In-process object reader unavailable, using git: " + e.getMessage());
+            try {
+                // Refs are plain files, so they can still be read without the objects
+                refDb = new RefDatabase(GitObjectDatabase.findWorkTreeGitDir(repo), GitObjectDatabase.findGitDir(repo));
+            } catch (IOException ignored) {}
         }
     }
     
-    private void runAsync(Runnable task) {
-        progressBar.setIndeterminate(true);
-        progressBar.setVisible(true);
-        
-        new Thread(() -> {
-            try {
-                task.run();
-            } finally {
-                SwingUtilities.invokeLater(() -> {
-                    progressBar.setVisible(false);
-                    progressBar.setIndeterminate(false);
-                });
+    // Queued behind earlier work on the same repository
+    private void runAsync(String name, TaskScheduler.Job task) {
+        watch(tasks.submit(name, currentRepo, task));
+    }
+    
+    private void watch(TaskScheduler.Task task) {
+        task.completion().whenComplete((ok, error) -> {
+            if (error instanceof CancellationException) {
+                log("✗ Cancelled: " + task.name);
+            } else if (error != null) {
+                log("❌ " + task.name + " failed: " + error.getMessage());
             }
-        }).start();
+        });
     }
     
-    private void log(String message) {
+    // Progress is work done out of work known about, across all queues
+    private void showQueue(int running, int queued, int completed) {
         SwingUtilities.invokeLater(() -> {
-            String timestamp = new SimpleDateFormat("HH:mm:ss").format(new Date());
-            outputArea.append("[" + timestamp + "] " + message + "\n");
-            outputArea.setCaretPosition(outputArea.getDocument().getLength());
+            boolean busy = running + queued > 0;
+            progressBar.setVisible(busy);
+            cancelButton.setVisible(busy);
+            if (!busy) return;
+            
+            int total = completed + running + queued;
+            progressBar.setIndeterminate(total == 1);
+            progressBar.setMaximum(total);
+            progressBar.setValue(completed);
+            progressBar.setString(queued > 0
+                ? running + " running, " + queued + " queued"
+                : running + " running");
+        });
+    }
+    
+    // Determinate progress for the phase a long task is in; the next queue change takes over again
+    private void showProgress(String phase, int percent) {
+        SwingUtilities.invokeLater(() -> {
+            progressBar.setIndeterminate(percent < 0);
+            progressBar.setMaximum(100);
+            progressBar.setValue(Math.max(percent, 0));
+            progressBar.setString(percent < 0 ? phase : phase + " " + percent + "%");
         });
     }
     
+    private void log(String message) {
+        console.append(message);
+    }
+    
     private void setStatus(String message) {
         SwingUtilities.invokeLater(() -> {
             statusLabel.setText(message);
@@ -916,25 +2034,105 @@ public class SimpleGit extends JFrame {
         return img;
     }
     
+    // Branch name, followed in the drop-down by its ahead/behind counts
+    private class BranchRenderer extends DefaultListCellRenderer {
+        @Override
+        public Component getListCellRendererComponent(JList<?> list, Object value,
+                int index, boolean isSelected, boolean cellHasFocus) {
+            super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
+            String counts = value == null ? null : branchCounts.get(value);
+            if (counts != null && index >= 0) {
+                setText(value + "   " + counts);
+            }
+            return this;
+        }
+    }
+    
+    // Metrics per git subcommand; numbers stay numbers so the columns sort as such
+    private static class DiagnosticsModel extends AbstractTableModel {
+        private static final String[] COLUMNS = {
+            "Command", "Calls", "Failed", "p50 ms", "p90 ms", "p99 ms", "Max ms", "Total ms", "Output KB", "MB/s" };
+        private List<MetricsMXBean.CommandStats> rows = Collections.emptyList();
+        
+        void setRows(List<MetricsMXBean.CommandStats> rows) {
+            this.rows = rows;
+            fireTableDataChanged();
+        }
+        
+        @Override
+        public int getRowCount() {
+            return rows.size();
+        }
+        
+        @Override
+        public int getColumnCount() {
+            return COLUMNS.length;
+        }
+        
+        @Override
+        public String getColumnName(int column) {
+            return COLUMNS[column];
+        }
+        
+        @Override
+        public Class<?> getColumnClass(int column) {
+            return column == 0 ? String.class : column <= 2 || column == 8 ? Long.class : Double.class;
+        }
+        
+        @Override
+        public Object getValueAt(int row, int column) {
+            MetricsMXBean.CommandStats c = rows.get(row);
+            switch (column) {
+                case 0: return c.getCommand();
+                case 1: return c.getCount();
+                case 2: return c.getFailures();
+                case 3: return round(c.getP50Millis());
+                case 4: return round(c.getP90Millis());
+                case 5: return round(c.getP99Millis());
+                case 6: return round(c.getMaxMillis());
+                case 7: return round(c.getTotalMillis());
+                case 8: return c.getOutputBytes() / 1024;
+                default: return round(c.getMegabytesPerSecond());
+            }
+        }
+        
+        private static double round(double value) {
+            return Math.round(value * 10) / 10.0;
+        }
+    }
+    
     // Custom cell renderer for file lists
-    class FileListRenderer extends DefaultListCellRenderer {
+    static class FileListRenderer extends DefaultListCellRenderer {
+        static final int PADDING_X = 10;
+        static final int PADDING_Y = 5;
+        // Room kept at the right for "+1234 −567"
+        static final int STATS_CHARS = 12;
+        // Shared; a new border per painted cell was pure garbage
+        private static final Border CELL_BORDER = new EmptyBorder(PADDING_Y, PADDING_X, PADDING_Y, PADDING_X);
+        
+        private int added = LineStats.UNKNOWN;
+        private int removed;
+        private boolean selected;
+        
+        static void fixCellHeight(JList<?> list) {
+            list.setFixedCellHeight(list.getFontMetrics(list.getFont()).getHeight() + PADDING_Y * 2);
+        }
+        
         @Override
         public Component getListCellRendererComponent(JList<?> list, Object value, 
                 int index, boolean isSelected, boolean cellHasFocus) {
             
-            super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
+            FileListModel model = list.getModel() instanceof FileListModel ? (FileListModel) list.getModel() : null;
+            String text = (String) value;
+            // A rename's old path is its own column; it only becomes "old -> new" here
+            String origPath = model == null || index < 0 ? null : model.origPathAt(index);
+            if (origPath != null) {
+                text = text.charAt(0) + " " + origPath + " -> " + FileListModel.pathOf(text);
+            }
+            super.getListCellRendererComponent(list, text, index, isSelected, cellHasFocus);
             
-            String text = value.toString();
             if (text.length() > 0) {
-                char status = text.charAt(0);
-                switch (status) {
-                    case 'M': setForeground(ACCENT_ORANGE); break;  // Modified
-                    case 'A': setForeground(ACCENT_GREEN); break;   // Added
-                    case 'D': setForeground(ACCENT_RED); break;     // Deleted
-                    case '?': setForeground(ACCENT_BLUE); break;    // Untracked
-                    case 'R': setForeground(Color.CYAN); break;     // Renamed
-                    default: setForeground(TEXT_PRIMARY);
-                }
+                setForeground(statusColor(text.charAt(0)));
             }
             
             if (isSelected) {
@@ -944,8 +2142,63 @@ public class SimpleGit extends JFrame {
                 setBackground(BG_DARK);
             }
             
-            setBorder(new EmptyBorder(5, 10, 5, 10));
+            added = model == null ? LineStats.UNKNOWN : model.addedAt(index);
+            removed = model == null ? 0 : model.removedAt(index);
+            selected = isSelected;
+            
+            setBorder(CELL_BORDER);
+            return this;
+        }
+        
+        static Color statusColor(char status) {
+            switch (status) {
+                case 'M': return ACCENT_ORANGE;  // Modified
+                case 'A': return ACCENT_GREEN;   // Added
+                case 'D': return ACCENT_RED;     // Deleted
+                case '?': return ACCENT_BLUE;    // Untracked
+                case 'R': return Color.CYAN;     // Renamed
+                default: return TEXT_PRIMARY;
+            }
+        }
+        
+        // Counts right-aligned over the label: green added, red removed
+        @Override
+        protected void paintComponent(Graphics g) {
+            super.paintComponent(g);
+            if (added == LineStats.UNKNOWN) return;
+            
+            String plus = added == LineStats.BINARY ? "bin" : "+" + added;
+            String minus = added == LineStats.BINARY ? "" : " −" + removed;
+            FontMetrics fm = g.getFontMetrics(getFont());
+            int x = getWidth() - PADDING_X - fm.stringWidth(plus + minus);
+            int y = (getHeight() - fm.getHeight()) / 2 + fm.getAscent();
+            g.setColor(selected ? Color.WHITE : added == LineStats.BINARY ? TEXT_SECONDARY : ACCENT_GREEN);
+            g.drawString(plus, x, y);
+            g.setColor(selected ? Color.WHITE : ACCENT_RED);
+            g.drawString(minus, x + fm.stringWidth(plus), y);
+        }
+    }
+    
+    // Files in their status color, directories with their per-status counts
+    static class FileTreeRenderer extends DefaultTreeCellRenderer {
+        FileTreeRenderer() {
+            setBackgroundNonSelectionColor(BG_DARK);
+            setBackgroundSelectionColor(ACCENT_BLUE);
+            setBorderSelectionColor(ACCENT_BLUE);
+        }
+        
+        @Override
+        public Component getTreeCellRendererComponent(JTree tree, Object value, boolean selected,
+                boolean expanded, boolean leaf, int row, boolean hasFocus) {
+            FileTreeModel.Node node = (FileTreeModel.Node) value;
+            String text = node.directory
+                ? node.name + "   " + FileTreeModel.summary(node.counts)
+                : node.origPath != null ? node.status + " " + node.name + "  ← " + node.origPath
+                : node.status + " " + node.name;
+            super.getTreeCellRendererComponent(tree, text, selected, expanded, leaf, row, hasFocus);
+            setForeground(selected ? Color.WHITE
+                : node.directory ? TEXT_PRIMARY : FileListRenderer.statusColor(node.status));
             return this;
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,55 @@
+/**
+ * One line of `git status`: index (X) and work tree (Y) state for a path, in
+ * the letters porcelain v1 uses. Untracked paths are "??"; directories that
+ * git collapses keep their trailing slash.
+ */
+class StatusEntry {
+    final char x;
+    final char y;
+    final String path;
+    final String origPath;   // rename/copy source, otherwise null
+
+    StatusEntry(char x, char y, String path, String origPath) {
+        this.x = x;
+        this.y = y;
+        this.path = path;
+        this.origPath = origPath;
+    }
+
+    boolean isUntracked() {
+        return x == '?';
+    }
+
+    /** True when the entry belongs in the changed (unstaged) panel. */
+    boolean hasWorkTreeChange() {
+        return y != ' ' || x == '?';
+    }
+
+    /** Status letter shown in the changed panel. */
+    char workTreeStatus() {
+        return x == '?' ? '?' : y;
+    }
+
+    /** "path", or "orig -> path" for a rename/copy. */
+    String displayPath() {
+        return origPath == null ? path : origPath + " -> " + path;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof StatusEntry)) return false;
+        StatusEntry e = (StatusEntry) o;
+        return x == e.x && y == e.y && path.equals(e.path)
+            && (origPath == null ? e.origPath == null : origPath.equals(e.origPath));
+    }
+
+    @Override
+    public int hashCode() {
+        return path.hashCode() * 31 + x * 7 + y;
+    }
+
+    @Override
+    public String toString() {
+        return "" + x + y + " " + displayPath();
+    }
+}
@@ -0,0 +1,569 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Keeps a repository's status up to date from file system events instead of
+ * re-running a full `git status` for every refresh.
+ *
+ * The staged side is recomputed in-process from .git/index whenever the
+ * index or HEAD moves. The work-tree side is rechecked with a pathspec-limited
+ * `git status` for just the paths that changed; an event overflow, a burst
+ * too large for pathspecs, a change to the ignore rules (.gitignore,
+ * info/exclude, core.excludesFile) or an explicit Refresh falls back to one
+ * full scan. When the index
+ * can't be read in-process, a full scan is a plain `git status` instead.
+ */
+class StatusWatcher implements Closeable {
+
+    interface Listener {
+        void statusChanged(List<GitIndex.StagedChange> staged, List<StatusEntry> changed);
+    }
+
+    // Wait for a burst of events to settle, but never longer than the max delay
+    private static final long DEBOUNCE_MILLIS = 150;
+    private static final long MAX_DELAY_MILLIS = 1000;
+    // Past this many dirty paths one full status is cheaper than many pathspecs
+    private static final int FULL_SCAN_THRESHOLD = 2000;
+    private static final int PATHSPECS_PER_CALL = 500;
+
+    private final File workTree;
+    private final Path root;
+    private final Path gitDir;      // this work tree's: index, HEAD
+    private final Path commonDir;   // refs/ and packed-refs; gitDir unless a linked worktree
+    private final GitObjectDatabase db;
+    private final GitProcessPool pool;
+    private final Listener listener;
+
+    // All status state is owned by this single thread
+    private final ScheduledExecutorService worker;
+    private final TreeMap<String, StatusEntry> changed = new TreeMap<>();
+    private List<GitIndex.StagedChange> staged = Collections.emptyList();
+    private GitIndex index;
+    private String headId;
+    private WorkTreeScanner scanner;
+
+    // Pending work reported by the watch thread, guarded by this
+    private final Set<String> dirtyPaths = new HashSet<>();
+    private boolean gitDirDirty;
+    private boolean fullScanPending;
+    private long firstPendingAt;
+    private ScheduledFuture<?> flushTask;
+
+    private volatile Path excludesFile;   // core.excludesFile, watched through its directory
+    private WatchService watchService;
+    private final Map<WatchKey, Path> keys = new ConcurrentHashMap<>();
+    private Thread watchThread;
+    private volatile boolean watching;
+    private volatile boolean closed;
+    private volatile long lastRefreshNanos;
+
+    StatusWatcher(File workTree, GitObjectDatabase db, GitProcessPool pool, Listener listener) {
+        this.workTree = workTree;
+        this.root = workTree.toPath().toAbsolutePath().normalize();
+        this.gitDir = db.getGitDir().toPath().toAbsolutePath().normalize();
+        this.commonDir = db.getCommonDir().toPath().toAbsolutePath().normalize();
+        this.db = db;
+        this.pool = pool;
+        this.listener = listener;
+        this.worker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "status-watcher");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Registers the watches and runs the initial full scan, both in the
+     * background. Watching starts first so nothing changing during the scan
+     * is missed.
+     */
+    void start() {
+        worker.execute(() -> {
+            try {
+                startWatching();
+            } catch (IOException e) {
+                // inotify limits, unsupported file systems: refresh() still works via full scans
+                watching = false;
+                closeWatchService();
+            }
+            fullScan();
+        });
+    }
+
+    boolean isWatching() {
+        return watching;
+    }
+
+    /**
+     * Brings the status up to date now. With a live watcher this only handles
+     * what changed since the last publish; without one it is a full scan.
+     * An explicit Refresh from the user calls requestFullScan() instead.
+     */
+    void refresh() {
+        if (!watching) {
+            requestFullScan();
+            return;
+        }
+        synchronized (this) {
+            // Our own git commands may have rewritten the index before inotify
+            // delivered the event, so always look at .git on an explicit refresh
+            gitDirDirty = true;
+        }
+        scheduleFlush(0);
+    }
+
+    void requestFullScan() {
+        synchronized (this) {
+            fullScanPending = true;
+        }
+        scheduleFlush(0);
+    }
+
+    /** Marks paths (relative, slash-separated) as needing a recheck. */
+    void invalidate(Collection<String> paths) {
+        synchronized (this) {
+            dirtyPaths.addAll(paths);
+        }
+        scheduleFlush(DEBOUNCE_MILLIS);
+    }
+
+    /** Wall time of the most recent incremental or full refresh. */
+    long lastRefreshNanos() {
+        return lastRefreshNanos;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        watching = false;
+        closeWatchService();
+        if (watchThread != null) {
+            watchThread.interrupt();
+        }
+        worker.shutdownNow();
+        if (scanner != null) {
+            scanner.close();
+        }
+    }
+
+    // ==================== WATCHING ====================
+
+    private void startWatching() throws IOException {
+        watchService = FileSystems.getDefault().newWatchService();
+        registerTree(root);
+        // .git itself is watched shallowly, plus refs/ for branch moves
+        register(gitDir);
+        if (!commonDir.equals(gitDir)) {
+            register(commonDir);
+        }
+        Path info = commonDir.resolve("info");
+        if (Files.isDirectory(info)) {
+            register(info);
+        }
+        Path excludes = excludesFile();
+        if (excludes != null && Files.isDirectory(excludes.getParent())) {
+            excludesFile = excludes;
+            register(excludes.getParent());
+        }
+        Path refs = commonDir.resolve("refs");
+        if (Files.isDirectory(refs)) {
+            Files.walkFileTree(refs, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    register(dir);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        watching = true;
+        watchThread = new Thread(this::watchLoop, "status-watch-events");
+        watchThread.setDaemon(true);
+        watchThread.start();
+    }
+
+    // core.excludesFile, or git's default of $XDG_CONFIG_HOME/git/ignore
+    private Path excludesFile() {
+        String configured = pool.runForked(workTree, "config", "--path", "core.excludesFile");
+        if (configured.startsWith("Error:")) return null;
+        if (!configured.isEmpty()) {
+            return root.resolve(configured).normalize();
+        }
+        String xdg = System.getenv("XDG_CONFIG_HOME");
+        Path config = xdg != null && !xdg.isEmpty()
+            ? Paths.get(xdg) : Paths.get(System.getProperty("user.home"), ".config");
+        return config.resolve("git/ignore").toAbsolutePath().normalize();
+    }
+
+    private void registerTree(Path start) throws IOException {
+        Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                if (dir.startsWith(gitDir) || dir.startsWith(commonDir) || (!dir.equals(root) && Files.exists(dir.resolve(".git")))) {
+                    // Our own .git is handled separately; nested repositories are opaque to status
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                register(dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void register(Path dir) throws IOException {
+        WatchKey key = dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+        keys.put(key, dir);
+    }
+
+    private void watchLoop() {
+        while (!closed) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            Path dir = keys.get(key);
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == OVERFLOW || dir == null) {
+                    requestFullScan();
+                    continue;
+                }
+                Path child = dir.resolve((Path) event.context());
+                if (child.equals(excludesFile)) {
+                    requestFullScan();
+                    continue;
+                }
+                if (child.startsWith(gitDir) || child.startsWith(commonDir)) {
+                    onGitDirEvent(event, child);
+                    continue;
+                }
+                if (excludesFile != null && dir.equals(excludesFile.getParent()) && !dir.startsWith(root)) {
+                    // Some other file next to the global excludes file
+                    continue;
+                }
+                if (child.getFileName().toString().equals(".gitignore")) {
+                    // Whatever it now ignores or stops ignoring may be anywhere below it
+                    requestFullScan();
+                    continue;
+                }
+                if (event.kind() == ENTRY_CREATE && Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                    try {
+                        registerTree(child);
+                    } catch (IOException e) {
+                        requestFullScan();
+                    }
+                }
+                markDirty(relativize(child));
+            }
+            if (!key.reset()) {
+                keys.remove(key);
+            }
+        }
+    }
+
+    private void onGitDirEvent(WatchEvent<?> event, Path child) {
+        boolean own = child.startsWith(gitDir);
+        String first = (own ? gitDir : commonDir).relativize(child).getName(0).toString();
+        boolean shared = !own || commonDir.equals(gitDir);
+        if (shared && (first.equals("refs") || first.equals("info"))
+                && event.kind() == ENTRY_CREATE && Files.isDirectory(child)) {
+            try {
+                register(child);
+            } catch (IOException e) {
+                requestFullScan();
+            }
+        }
+        if (shared && child.equals(commonDir.resolve("info/exclude"))) {
+            requestFullScan();
+            return;
+        }
+        // Another worktree's index and HEAD live under the common dir too; only ours matter
+        if (own && (first.equals("index") || first.equals("HEAD"))
+                || shared && (first.equals("packed-refs") || first.equals("refs"))) {
+            synchronized (this) {
+                gitDirDirty = true;
+            }
+            scheduleFlush(DEBOUNCE_MILLIS);
+        }
+    }
+
+    private void markDirty(String path) {
+        synchronized (this) {
+            dirtyPaths.add(path);
+        }
+        scheduleFlush(DEBOUNCE_MILLIS);
+    }
+
+    private synchronized void scheduleFlush(long delayMillis) {
+        if (closed) return;
+        long now = System.currentTimeMillis();
+        if (flushTask == null || flushTask.isDone()) {
+            firstPendingAt = now;
+        } else {
+            // Keep pushing the flush out while events keep coming, up to the max delay
+            long deadline = firstPendingAt + MAX_DELAY_MILLIS;
+            delayMillis = Math.min(delayMillis, Math.max(0, deadline - now));
+            flushTask.cancel(false);
+        }
+        flushTask = worker.schedule(this::flush, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // ==================== REFRESHING ====================
+
+    private void flush() {
+        Set<String> paths;
+        boolean checkGitDir;
+        boolean full;
+        synchronized (this) {
+            paths = new TreeSet<>(dirtyPaths);
+            dirtyPaths.clear();
+            checkGitDir = gitDirDirty;
+            gitDirDirty = false;
+            full = fullScanPending;
+            fullScanPending = false;
+        }
+        if (full) {
+            fullScan();
+            return;
+        }
+
+        long start = System.nanoTime();
+        boolean publish = false;
+        try {
+            if (checkGitDir) {
+                GitIndex before = index;
+                if (before == null || before.isStale()) {
+                    index = GitIndex.read(db.getGitDir());
+                    Set<String> indexChanges = GitIndex.changedPaths(before, index);
+                    paths.addAll(indexChanges);
+                    publish |= !indexChanges.isEmpty() && recomputeStaged();
+                }
+                String head = db.resolve("HEAD");
+                if (!Objects.equals(head, headId)) {
+                    headId = head;
+                    publish |= recomputeStaged();
+                }
+            }
+            if (paths.size() > FULL_SCAN_THRESHOLD) {
+                fullScan();
+                return;
+            }
+            if (!paths.isEmpty()) {
+                publish |= recheck(paths);
+            }
+        } catch (IOException | RuntimeException e) {
+            fullScan();
+            return;
+        }
+        lastRefreshNanos = System.nanoTime() - start;
+        if (publish) {
+            publish();
+        }
+    }
+
+    private void fullScan() {
+        long start = System.nanoTime();
+        try {
+            index = GitIndex.read(db.getGitDir());
+            headId = db.resolve("HEAD");
+            recomputeStaged();
+            // The staged side is cheap, so show it before the work tree scan finishes
+            publish();
+
+            List<StatusEntry> entries = scanWorkTree();
+            changed.clear();
+            for (StatusEntry e : entries) {
+                changed.put(e.path, e);
+            }
+        } catch (IOException | RuntimeException e) {
+            // An index or object store we can't parse (split index, SHA-256, a
+            // new extension): take both sides from git instead
+            try {
+                gitStatusScan();
+            } catch (IOException | RuntimeException e2) {
+                // Leave the previous state in place; the next event or refresh retries
+                return;
+            }
+        }
+        lastRefreshNanos = System.nanoTime() - start;
+        publish();
+    }
+
+    // Both sides from one full `git status`, with renames on the staged side
+    private void gitStatusScan() throws IOException {
+        index = null;
+        List<GitIndex.StagedChange> nextStaged = new ArrayList<>();
+        List<StatusEntry> nextChanged = new ArrayList<>();
+        pool.runStreamed(workTree, in -> PorcelainParser.parse(in, e -> {
+            if (!e.isUntracked() && e.x != ' ' && e.x != '!') {
+                nextStaged.add(new GitIndex.StagedChange(e.x, e.path, e.origPath, null));
+            }
+            if (e.hasWorkTreeChange() && e.x != '!') {
+                nextChanged.add(e.isUntracked() ? e : new StatusEntry(' ', e.y, e.path, null));
+            }
+        }), "status", "--porcelain=v2", "-z");
+        staged = nextStaged;
+        changed.clear();
+        for (StatusEntry e : nextChanged) {
+            changed.put(e.path, e);
+        }
+    }
+
+    // Tracked files are compared in parallel in-process; untracked files and
+    // anything the scanner can't judge (filters, submodules) come from git.
+    private List<StatusEntry> scanWorkTree() throws IOException {
+        if (index == null) {
+            return runStatus(null);
+        }
+        if (scanner == null) {
+            scanner = new WorkTreeScanner(workTree, db.getCommonDir(), pool,
+                WorkTreeScanner.defaultCacheFile(db.getGitDir()), Runtime.getRuntime().availableProcessors());
+        }
+        WorkTreeScanner.Result result = scanner.scan(index);
+        if (result.needsGit.size() > FULL_SCAN_THRESHOLD) {
+            return runStatus(null);
+        }
+        List<StatusEntry> entries = new ArrayList<>(result.changes);
+        for (int from = 0; from < result.needsGit.size(); from += PATHSPECS_PER_CALL) {
+            entries.addAll(runStatus(result.needsGit.subList(from,
+                Math.min(result.needsGit.size(), from + PATHSPECS_PER_CALL))));
+        }
+        byte[] others = pool.runRaw(workTree, "ls-files", "-z", "--others", "--exclude-standard",
+            "--directory", "--no-empty-directory");
+        int start = 0;
+        for (int p = 0; p < others.length; p++) {
+            if (others[p] == 0) {
+                entries.add(new StatusEntry('?', '?', new String(others, start, p - start, StandardCharsets.UTF_8), null));
+                start = p + 1;
+            }
+        }
+        return entries;
+    }
+
+    // Work-tree side of `git status`, whole tree when pathspecs is null
+    private List<StatusEntry> runStatus(List<String> pathspecs) throws IOException {
+        List<String> args = new ArrayList<>(Arrays.asList(
+            "--literal-pathspecs", "status", "--porcelain=v2", "-z", "--no-renames"));
+        if (pathspecs != null) {
+            args.add("--");
+            args.addAll(pathspecs);
+        }
+        List<StatusEntry> entries = new ArrayList<>();
+        pool.runStreamed(workTree, in -> PorcelainParser.parse(in, e -> {
+            if (e.hasWorkTreeChange()) {
+                // Only the work-tree letter matters here; the staged side comes from the index
+                entries.add(e.isUntracked() ? e : new StatusEntry(' ', e.y, e.path, null));
+            }
+        }), args.toArray(new String[0]));
+        return entries;
+    }
+
+    private boolean recomputeStaged() throws IOException {
+        List<GitIndex.StagedChange> next;
+        if (index == null) {
+            next = Collections.emptyList();
+        } else {
+            String tree = headId == null ? null : db.readCommit(headId).tree;
+            next = index.diffAgainstTree(db, tree);
+        }
+        boolean differs = !sameStaged(staged, next);
+        staged = next;
+        return differs;
+    }
+
+    // Rechecks the work-tree side of just these paths. Returns true if anything changed.
+    private boolean recheck(Set<String> paths) throws IOException {
+        List<String> units = recheckUnits(paths);
+        boolean differs = false;
+        for (int from = 0; from < units.size(); from += PATHSPECS_PER_CALL) {
+            List<String> chunk = units.subList(from, Math.min(units.size(), from + PATHSPECS_PER_CALL));
+            Map<String, StatusEntry> fresh = new HashMap<>();
+            for (StatusEntry e : runStatus(chunk)) {
+                fresh.put(e.path, e);
+            }
+            for (String unit : chunk) {
+                // Drop what we knew under this unit, then take git's fresh answer
+                SortedMap<String, StatusEntry> under = changed.subMap(unit, unit + Character.MAX_VALUE);
+                for (Iterator<Map.Entry<String, StatusEntry>> it = under.entrySet().iterator(); it.hasNext(); ) {
+                    Map.Entry<String, StatusEntry> e = it.next();
+                    if (isUnder(e.getKey(), unit) && !e.getValue().equals(fresh.get(e.getKey()))) {
+                        it.remove();
+                        differs = true;
+                    }
+                }
+            }
+            for (StatusEntry e : fresh.values()) {
+                if (!e.equals(changed.put(e.path, e))) {
+                    differs = true;
+                }
+            }
+        }
+        return differs;
+    }
+
+    // git collapses untracked directories to "dir/", so a path inside one has to
+    // be rechecked through its top-most untracked ancestor to get the same answer
+    // a full scan would give.
+    private List<String> recheckUnits(Set<String> paths) {
+        TreeSet<String> units = new TreeSet<>();
+        for (String path : paths) {
+            String unit = path;
+            int slash;
+            while ((slash = unit.lastIndexOf('/')) > 0) {
+                String parent = unit.substring(0, slash);
+                if (index != null && index.hasEntriesUnder(parent)) break;
+                unit = parent;
+            }
+            units.add(unit);
+        }
+        // Drop units nested inside another unit
+        List<String> result = new ArrayList<>();
+        for (String unit : units) {
+            if (!result.isEmpty() && isUnder(unit, result.get(result.size() - 1))) continue;
+            result.add(unit);
+        }
+        return result;
+    }
+
+    private static boolean isUnder(String path, String unit) {
+        return path.equals(unit) || (path.startsWith(unit)
+            && path.length() > unit.length() && path.charAt(unit.length()) == '/');
+    }
+
+    private void publish() {
+        listener.statusChanged(new ArrayList<>(staged), new ArrayList<>(changed.values()));
+    }
+
+    private String relativize(Path p) {
+        String rel = root.relativize(p).toString();
+        return File.separatorChar == '/' ? rel : rel.replace(File.separatorChar, '/');
+    }
+
+    private void closeWatchService() {
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {}
+        }
+    }
+
+    private static boolean sameStaged(List<GitIndex.StagedChange> a, List<GitIndex.StagedChange> b) {
+        if (a.size() != b.size()) return false;
+        for (int i = 0; i < a.size(); i++) {
+            GitIndex.StagedChange x = a.get(i);
+            GitIndex.StagedChange y = b.get(i);
+            if (x.status != y.status || !x.path.equals(y.path) || !Objects.equals(x.origPath, y.origPath)) return false;
+        }
+        return true;
+    }
+}
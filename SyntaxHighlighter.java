@@ -0,0 +1,175 @@
+import java.util.*;
+
+/**
+ * Keyword, string, comment and number spans for source lines, picked by
+ * file extension for a few language families. A lexer, not a parser: the
+ * only state carried from one line to the next is "inside a block
+ * comment", which colors diffs well enough and makes each line a single
+ * left-to-right pass.
+ */
+class SyntaxHighlighter {
+
+    static final int KEYWORD = 1;
+    static final int STRING = 2;
+    static final int COMMENT = 3;
+    static final int NUMBER = 4;
+
+    private static final Set<String> C_LIKE_KEYWORDS = words(
+        "abstract as async await auto bool boolean break byte case catch char class const constexpr continue "
+        + "def default defer delete do double dyn else enum export extends extern false final finally float fn "
+        + "for func function go goto if impl implements import in instanceof int interface internal let long "
+        + "loop match mod mut namespace new nil null object operator override package private protected pub "
+        + "public readonly return self short signed sizeof static string struct super switch synchronized "
+        + "template this throw throws trait true try type typedef typeof union unsigned use using val var "
+        + "virtual void volatile when where while yield");
+    private static final Set<String> SCRIPT_KEYWORDS = words(
+        "and as assert async await begin break case class continue def del do done elif else elsif end ensure "
+        + "esac except export false fi finally for from function global if import in is lambda local module "
+        + "next nil None nonlocal not or pass raise rescue return self then True true False unless until while "
+        + "with yield");
+    private static final Set<String> SQL_KEYWORDS = words(
+        "add alter and as asc by case create delete desc distinct drop else end exists from group having in "
+        + "index inner insert into is join key left like limit not null on or order outer primary references "
+        + "right select set table then union unique update values view when where with");
+
+    private static final SyntaxHighlighter C_LIKE = new SyntaxHighlighter(C_LIKE_KEYWORDS, "//", "/*", "*/", "\"'`", true);
+    private static final SyntaxHighlighter SCRIPT = new SyntaxHighlighter(SCRIPT_KEYWORDS, "#", null, null, "\"'", true);
+    private static final SyntaxHighlighter SQL = new SyntaxHighlighter(SQL_KEYWORDS, "--", "/*", "*/", "'\"", false);
+    private static final SyntaxHighlighter MARKUP = new SyntaxHighlighter(Collections.emptySet(), null, "<!--", "-->", "\"'", true);
+
+    private static final Map<String, SyntaxHighlighter> BY_EXTENSION = new HashMap<>();
+    static {
+        for (String ext : "java kt kts scala groovy gradle c h cc cpp cxx hpp hh m mm cs js jsx mjs cjs ts tsx go rs swift dart php css scss less proto".split(" ")) {
+            BY_EXTENSION.put(ext, C_LIKE);
+        }
+        for (String ext : "py rb sh bash zsh pl pm r yml yaml toml properties conf cfg ini mk cmake dockerfile".split(" ")) {
+            BY_EXTENSION.put(ext, SCRIPT);
+        }
+        BY_EXTENSION.put("sql", SQL);
+        for (String ext : "xml html htm xhtml svg vue fxml pom".split(" ")) {
+            BY_EXTENSION.put(ext, MARKUP);
+        }
+    }
+
+    private final Set<String> keywords;
+    private final String lineComment;
+    private final String blockOpen;
+    private final String blockClose;
+    private final String quotes;
+    private final boolean caseSensitive;
+
+    private SyntaxHighlighter(Set<String> keywords, String lineComment, String blockOpen, String blockClose,
+            String quotes, boolean caseSensitive) {
+        this.keywords = keywords;
+        this.lineComment = lineComment;
+        this.blockOpen = blockOpen;
+        this.blockClose = blockClose;
+        this.quotes = quotes;
+        this.caseSensitive = caseSensitive;
+    }
+
+    /** The highlighter for {@code path}'s extension (or Makefile, Dockerfile), or null. */
+    static SyntaxHighlighter forPath(String path) {
+        String name = path.substring(path.lastIndexOf('/') + 1).toLowerCase(Locale.ROOT);
+        if (name.equals("makefile") || name.equals("dockerfile")) return SCRIPT;
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? null : BY_EXTENSION.get(name.substring(dot + 1));
+    }
+
+    /** start, length and style in one int: 12, 12 and 4 bits. */
+    static int span(int start, int length, int style) {
+        return start | length << 12 | style << 24;
+    }
+
+    static int spanStart(int span) {
+        return span & 0xfff;
+    }
+
+    static int spanLength(int span) {
+        return span >>> 12 & 0xfff;
+    }
+
+    static int spanStyle(int span) {
+        return span >>> 24;
+    }
+
+    /**
+     * Adds the spans of {@code text} from index {@code from} to {@code out}
+     * and returns whether a block comment is still open at the end of it.
+     */
+    boolean highlight(String text, int from, boolean inComment, SpanBuffer out) {
+        int n = Math.min(text.length(), 0xfff);
+        int i = from;
+        if (inComment) {
+            int end = text.indexOf(blockClose, i);
+            if (end < 0 || end >= n) {
+                out.add(i, n - i, COMMENT);
+                return true;
+            }
+            out.add(i, end + blockClose.length() - i, COMMENT);
+            i = end + blockClose.length();
+        }
+        while (i < n) {
+            char c = text.charAt(i);
+            if (blockOpen != null && text.startsWith(blockOpen, i)) {
+                int end = text.indexOf(blockClose, i + blockOpen.length());
+                if (end < 0 || end >= n) {
+                    out.add(i, n - i, COMMENT);
+                    return true;
+                }
+                out.add(i, end + blockClose.length() - i, COMMENT);
+                i = end + blockClose.length();
+            } else if (lineComment != null && text.startsWith(lineComment, i)) {
+                out.add(i, n - i, COMMENT);
+                return false;
+            } else if (quotes.indexOf(c) >= 0) {
+                int end = i + 1;
+                while (end < n && text.charAt(end) != c) {
+                    end += text.charAt(end) == '\\' ? 2 : 1;
+                }
+                end = Math.min(end + 1, n);
+                out.add(i, end - i, STRING);
+                i = end;
+            } else if (Character.isDigit(c)) {
+                int end = i + 1;
+                while (end < n && (Character.isLetterOrDigit(text.charAt(end)) || text.charAt(end) == '.'
+                        || text.charAt(end) == '_')) {
+                    end++;
+                }
+                out.add(i, end - i, NUMBER);
+                i = end;
+            } else if (Character.isJavaIdentifierStart(c)) {
+                int end = i + 1;
+                while (end < n && Character.isJavaIdentifierPart(text.charAt(end))) end++;
+                String word = text.substring(i, end);
+                if (keywords.contains(caseSensitive ? word : word.toLowerCase(Locale.ROOT))) {
+                    out.add(i, end - i, KEYWORD);
+                }
+                i = end;
+            } else {
+                i++;
+            }
+        }
+        return false;
+    }
+
+    /** Reused across lines so highlighting a file allocates almost nothing per line. */
+    static final class SpanBuffer {
+        int[] spans = new int[64];
+        int count;
+
+        void add(int start, int length, int style) {
+            if (length <= 0) return;
+            if (count == spans.length) spans = Arrays.copyOf(spans, count * 2);
+            spans[count++] = span(start, Math.min(length, 0xfff), style);
+        }
+
+        void clear() {
+            count = 0;
+        }
+    }
+
+    private static Set<String> words(String list) {
+        return new HashSet<>(Arrays.asList(list.split(" ")));
+    }
+}
@@ -0,0 +1,308 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Runs SimpleGit's background work. Replaces one raw thread per operation.
+ *
+ * Tasks for a repository run one at a time, in submission order, so a
+ * commit never overlaps the stage before it and refreshes never race each
+ * other on the list models. A coalesced task (refresh) is dropped when an
+ * identical one is already waiting. Read-only work can skip the queue.
+ *
+ * Cancelling a task kills the git processes it started, child processes
+ * included. Work runs on virtual threads on Java 21+, otherwise on a small
+ * fixed pool.
+ */
+class TaskScheduler implements Closeable {
+
+    interface Job {
+        void run() throws Exception;
+    }
+
+    interface Listener {
+        /** Called off the EDT whenever tasks start, finish or are queued. */
+        void queueChanged(int running, int queued, int completed);
+    }
+
+    private static final int POOL_THREADS = 4;
+    private static final long KILL_GRACE_MILLIS = 2000;
+    private static final ThreadLocal<Task> CURRENT = new ThreadLocal<>();
+
+    final class Task {
+        final String name;
+        private final String lane;
+        private final String coalesceKey;
+        private final Job job;
+        private final List<Process> processes = new ArrayList<>();
+        private volatile boolean cancelled;
+        private Thread thread;   // guarded by this
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        private Task(String name, String lane, String coalesceKey, Job job) {
+            this.name = name;
+            this.lane = lane;
+            this.coalesceKey = coalesceKey;
+            this.job = job;
+        }
+
+        boolean isCancelled() {
+            return cancelled;
+        }
+
+        /** Completes normally, exceptionally, or with a CancellationException. */
+        CompletableFuture<Void> completion() {
+            return done;
+        }
+
+        /** Stops the task: a queued one never runs, a running one loses its processes. */
+        void cancel() {
+            cancelled = true;
+            boolean wasQueued;
+            synchronized (TaskScheduler.this) {
+                Deque<Task> q = lane == null ? null : lanes.get(lane);
+                wasQueued = q != null && q.peekFirst() != this && q.remove(this);
+                if (wasQueued) queued--;
+            }
+            if (wasQueued) {
+                done.completeExceptionally(new CancellationException(name));
+                notifyListener();
+                return;
+            }
+            killProcesses();
+            // Not Future.cancel(): a task that never starts would never leave its lane
+            synchronized (this) {
+                if (thread != null) thread.interrupt();
+            }
+        }
+
+        private void killProcesses() {
+            List<Process> snapshot;
+            synchronized (processes) {
+                snapshot = new ArrayList<>(processes);
+            }
+            for (Process p : snapshot) {
+                killTree(p);
+            }
+        }
+    }
+
+    private final ExecutorService executor;
+    private final Listener listener;
+    // Per-repository FIFO; the head is the task currently running
+    private final Map<String, Deque<Task>> lanes = new HashMap<>();
+    private final Set<Task> running = ConcurrentHashMap.newKeySet();
+    private int queued;
+    private int completed;
+
+    TaskScheduler(Listener listener) {
+        this.listener = listener;
+        ExecutorService virtual = virtualThreadExecutor();
+        this.executor = virtual != null ? virtual : Executors.newFixedThreadPool(POOL_THREADS, r -> {
+            Thread t = new Thread(r, "simplegit-task");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /** Runs {@code job} after every earlier task for {@code repo}. */
+    Task submit(String name, File repo, Job job) {
+        return enqueue(new Task(name, laneOf(repo), null, job));
+    }
+
+    /**
+     * Like submit(), but if a task with the same key is already waiting for
+     * this repository that one is returned instead. A task that has started
+     * doesn't count, so changes made meanwhile are still picked up.
+     */
+    Task submitCoalesced(String key, String name, File repo, Job job) {
+        String lane = laneOf(repo);
+        synchronized (this) {
+            Deque<Task> q = lanes.get(lane);
+            if (q != null) {
+                Iterator<Task> it = q.iterator();
+                if (it.hasNext()) it.next();   // the running head
+                while (it.hasNext()) {
+                    Task waiting = it.next();
+                    if (key.equals(waiting.coalesceKey) && !waiting.cancelled) return waiting;
+                }
+            }
+        }
+        return enqueue(new Task(name, lane, key, job));
+    }
+
+    /** Starts right away, next to whatever the repository's queue is doing. */
+    Task submitRead(String name, Job job) {
+        Task task = new Task(name, null, null, job);
+        start(task);
+        return task;
+    }
+
+    /** True while a task for {@code repo} is running or waiting. */
+    synchronized boolean isBusy(File repo) {
+        return lanes.containsKey(laneOf(repo));
+    }
+
+    /** Cancels everything queued or running. */
+    void cancelAll() {
+        List<Task> all = new ArrayList<>(running);
+        synchronized (this) {
+            for (Deque<Task> q : lanes.values()) all.addAll(q);
+        }
+        for (Task t : new LinkedHashSet<>(all)) {
+            t.cancel();
+        }
+    }
+
+    /** The task running on this thread, or null. */
+    static Task current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Ties {@code process} to the task running on this thread, so cancelling
+     * the task kills it. Close the result once the process has exited.
+     */
+    static Closeable track(Process process) {
+        Task task = CURRENT.get();
+        if (task == null) return () -> {};
+        synchronized (task.processes) {
+            task.processes.add(process);
+        }
+        if (task.cancelled) killTree(process);
+        return () -> {
+            synchronized (task.processes) {
+                task.processes.remove(process);
+            }
+        };
+    }
+
+    /**
+     * Kills a process and everything it started (ssh, credential helpers, ...).
+     * Asks politely first: git removes its index.lock on SIGTERM, while a
+     * SIGKILL leaves the lock behind and blocks every later index write.
+     */
+    static void killTree(Process process) {
+        List<ProcessHandle> tree = new ArrayList<>();
+        process.descendants().forEach(tree::add);
+        tree.add(process.toHandle());
+        for (ProcessHandle p : tree) {
+            p.destroy();
+        }
+        CompletableFuture.delayedExecutor(KILL_GRACE_MILLIS, TimeUnit.MILLISECONDS).execute(() -> {
+            for (ProcessHandle p : tree) {
+                if (p.isAlive()) p.destroyForcibly();
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+        cancelAll();
+        executor.shutdownNow();
+    }
+
+    // ==================== INTERNALS ====================
+
+    private static String laneOf(File repo) {
+        return repo == null ? "" : repo.getAbsolutePath();
+    }
+
+    private Task enqueue(Task task) {
+        boolean startNow;
+        synchronized (this) {
+            Deque<Task> q = lanes.computeIfAbsent(task.lane, k -> new ArrayDeque<>());
+            q.addLast(task);
+            startNow = q.size() == 1;
+            if (!startNow) queued++;
+        }
+        if (startNow) {
+            start(task);
+        } else {
+            notifyListener();
+        }
+        return task;
+    }
+
+    private void start(Task task) {
+        running.add(task);
+        notifyListener();
+        try {
+            executor.execute(() -> execute(task));
+        } catch (RejectedExecutionException e) {
+            running.remove(task);
+            task.done.completeExceptionally(new CancellationException(task.name));
+        }
+    }
+
+    private void execute(Task task) {
+        CURRENT.set(task);
+        synchronized (task) {
+            task.thread = Thread.currentThread();
+        }
+        try {
+            if (task.cancelled) throw new CancellationException(task.name);
+            task.job.run();
+            if (task.cancelled) throw new CancellationException(task.name);
+            task.done.complete(null);
+        } catch (Throwable e) {
+            task.done.completeExceptionally(task.cancelled ? new CancellationException(task.name) : e);
+        } finally {
+            synchronized (task) {
+                // Under the task's lock so a late cancel can't interrupt the next task
+                task.thread = null;
+                Thread.interrupted();
+            }
+            CURRENT.remove();
+            finished(task);
+        }
+    }
+
+    private void finished(Task task) {
+        Task next = null;
+        synchronized (this) {
+            running.remove(task);
+            completed++;
+            if (task.lane != null) {
+                Deque<Task> q = lanes.get(task.lane);
+                q.pollFirst();
+                if (q.isEmpty()) {
+                    lanes.remove(task.lane);
+                } else {
+                    next = q.peekFirst();
+                    queued--;
+                }
+            }
+            if (running.isEmpty() && lanes.isEmpty()) {
+                // Idle again: progress counts restart with the next burst
+                completed = 0;
+            }
+        }
+        if (next != null) {
+            start(next);
+        } else {
+            notifyListener();
+        }
+    }
+
+    private void notifyListener() {
+        int r;
+        int q;
+        int c;
+        synchronized (this) {
+            r = running.size();
+            q = queued;
+            c = completed;
+        }
+        listener.queueChanged(r, q, c);
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor() when the runtime has it
+    private static ExecutorService virtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,425 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compares tracked files against the index in parallel: the work-tree half
+ * of `git status`, without the single-threaded walk inside git.
+ *
+ * Each index entry is stat'ed on a fork-join pool. Entries whose stat data
+ * still matches the index are clean; the rest are SHA-1 hashed as blobs and
+ * compared by id. Hashes are kept in a cache under .git keyed by path, size,
+ * mtime and inode, so a file that was touched but not changed is hashed once
+ * rather than on every scan, across restarts too.
+ *
+ * When the repository uses attributes that make the stored blob differ from
+ * the file on disk (filters, eol conversion, autocrlf), content can't be
+ * compared here; such entries are reported in {@link Result#needsGit}.
+ */
+class WorkTreeScanner {
+
+    private static final int CACHE_MAGIC = 0x53474331; // "SGC1"
+    private static final int SPLIT_THRESHOLD = 256;
+    // Files modified this close to "now" may still change within the same timestamp
+    private static final long RACY_WINDOW_MILLIS = 2000;
+    // Small files are cheaper to read than to map
+    private static final long MMAP_THRESHOLD = 64 * 1024;
+
+    private static final int S_IFMT = 0170000;
+    private static final int S_IFREG = 0100000;
+    private static final int S_IFLNK = 0120000;
+    private static final int S_IFGITLINK = 0160000;
+
+    static class Result {
+        final List<StatusEntry> changes = new ArrayList<>();
+        final List<String> needsGit = new ArrayList<>();
+        int hashed;
+        int cacheHits;
+    }
+
+    private final Path root;
+    private final File cacheFile;
+    private final ForkJoinPool pool;
+    private final boolean contentComparable;
+    private final boolean trustFileMode;
+    private final boolean unixAttributes;
+
+    private final ConcurrentHashMap<String, CachedHash> cache = new ConcurrentHashMap<>();
+    private final AtomicInteger hashedCount = new AtomicInteger();
+    private final AtomicInteger cacheHitCount = new AtomicInteger();
+
+    private static class CachedHash {
+        final long size;
+        final long mtimeNanos;
+        final long inode;
+        final byte[] id;
+
+        CachedHash(long size, long mtimeNanos, long inode, byte[] id) {
+            this.size = size;
+            this.mtimeNanos = mtimeNanos;
+            this.inode = inode;
+            this.id = id;
+        }
+    }
+
+    /**
+     * @param cacheFile   persistent hash cache, or null to keep it in memory only
+     * @param parallelism worker threads, normally the number of cores
+     */
+    WorkTreeScanner(File workTree, File gitDir, GitProcessPool git, File cacheFile, int parallelism) {
+        this.root = workTree.toPath().toAbsolutePath().normalize();
+        this.cacheFile = cacheFile;
+        this.pool = new ForkJoinPool(Math.max(1, parallelism));
+        this.unixAttributes = FileSystems.getDefault().supportedFileAttributeViews().contains("unix");
+
+        Map<String, String> config = readCoreConfig(workTree, git);
+        this.trustFileMode = !"false".equals(config.get("core.filemode"));
+        boolean autocrlf = config.containsKey("core.autocrlf") && !"false".equals(config.get("core.autocrlf"));
+        this.contentComparable = !autocrlf && !config.containsKey("core.attributesfile")
+            && !hasConversionAttributes(new File(gitDir, "info/attributes"));
+        if (cacheFile != null) {
+            loadCache();
+        }
+    }
+
+    static File defaultCacheFile(File gitDir) {
+        return new File(gitDir, "simplegit/stat-cache");
+    }
+
+    /**
+     * Scans every tracked, checked-out entry of {@code index}. The result's
+     * changes carry the work-tree letter in {@code y} (M, D, T or A for
+     * intent-to-add); {@code x} is left blank for the caller to fill.
+     */
+    Result scan(GitIndex index) throws IOException {
+        boolean comparable = contentComparable && !hasAttributesFiles(index);
+        Set<String> live = ConcurrentHashMap.newKeySet();
+        List<Finding> findings = pool.invoke(new ScanTask(index, 0, index.size(), comparable, live));
+
+        Result result = new Result();
+        String previous = null;
+        for (Finding f : findings) {
+            // Conflict stages of one path can straddle two tasks
+            if (f.path.equals(previous)) continue;
+            previous = f.path;
+            if (f.status == null) {
+                result.needsGit.add(f.path);
+            } else {
+                result.changes.add(new StatusEntry(' ', f.status, f.path, null));
+            }
+        }
+        result.hashed = hashedCount.getAndSet(0);
+        result.cacheHits = cacheHitCount.getAndSet(0);
+
+        if (cacheFile != null) {
+            cache.keySet().retainAll(live);
+            saveCache();
+        }
+        return result;
+    }
+
+    void close() {
+        pool.shutdownNow();
+    }
+
+    private static class Finding {
+        final Character status;   // null when git has to decide
+        final String path;
+
+        Finding(Character status, String path) {
+            this.status = status;
+            this.path = path;
+        }
+    }
+
+    private class ScanTask extends RecursiveTask<List<Finding>> {
+        private final GitIndex index;
+        private final int from;
+        private final int to;
+        private final boolean comparable;
+        private final Set<String> live;
+
+        ScanTask(GitIndex index, int from, int to, boolean comparable, Set<String> live) {
+            this.index = index;
+            this.from = from;
+            this.to = to;
+            this.comparable = comparable;
+            this.live = live;
+        }
+
+        @Override
+        protected List<Finding> compute() {
+            if (to - from > SPLIT_THRESHOLD) {
+                int mid = (from + to) >>> 1;
+                ScanTask left = new ScanTask(index, from, mid, comparable, live);
+                left.fork();
+                List<Finding> right = new ScanTask(index, mid, to, comparable, live).compute();
+                List<Finding> all = left.join();
+                all.addAll(right);
+                return all;
+            }
+            List<Finding> out = new ArrayList<>();
+            for (int i = from; i < to; i++) {
+                if (index.stage(i) != 0) {
+                    // Conflicts: git status reports them from the index side
+                    String path = index.path(i);
+                    if (out.isEmpty() || !path.equals(out.get(out.size() - 1).path)) {
+                        out.add(new Finding('U', path));
+                    }
+                    continue;
+                }
+                if (index.isSkipWorktree(i) || index.isSparseDirectory(i)) {
+                    continue;
+                }
+                String path = index.path(i);
+                try {
+                    Character status = check(index, i, path, comparable, live);
+                    if (status == null || status != ' ') {
+                        out.add(new Finding(status, path));
+                    }
+                } catch (IOException e) {
+                    out.add(new Finding(null, path));
+                }
+            }
+            return out;
+        }
+    }
+
+    /** ' ' when clean, a status letter when changed, null when git has to decide. */
+    private Character check(GitIndex index, int i, String path, boolean comparable, Set<String> live)
+            throws IOException {
+        Path file = root.resolve(path);
+        Map<String, Object> attrs;
+        try {
+            attrs = Files.readAttributes(file, unixAttributes
+                ? "unix:size,lastModifiedTime,ctime,ino,mode,isRegularFile,isSymbolicLink"
+                : "size,lastModifiedTime,isRegularFile,isSymbolicLink",
+                LinkOption.NOFOLLOW_LINKS);
+        } catch (NoSuchFileException | NotDirectoryException e) {
+            return 'D';
+        }
+
+        int indexMode = index.mode(i);
+        if ((indexMode & S_IFMT) == S_IFGITLINK) {
+            // Submodule state needs the submodule's own HEAD
+            return null;
+        }
+        boolean isLink = (Boolean) attrs.get("isSymbolicLink");
+        boolean isFile = (Boolean) attrs.get("isRegularFile");
+        if (!isLink && !isFile) {
+            return 'D';   // a directory (or something odd) where a file should be
+        }
+        int actualType = isLink ? S_IFLNK : S_IFREG;
+        if ((indexMode & S_IFMT) != actualType) {
+            return 'T';
+        }
+        if (index.isIntentToAdd(i)) {
+            return 'A';
+        }
+
+        long size = (Long) attrs.get("size");
+        long mtime = toNanos((FileTime) attrs.get("lastModifiedTime"));
+        long inode = unixAttributes ? ((Number) attrs.get("ino")).longValue() : 0;
+
+        if (isFile && trustFileMode && unixAttributes) {
+            boolean exec = ((Integer) attrs.get("mode") & 0100) != 0;
+            if (exec != ((indexMode & 0111) != 0)) {
+                return 'M';
+            }
+        }
+        if ((int) size != index.fileSize(i)) {
+            return 'M';
+        }
+
+        if (statMatches(index, i, attrs, mtime, inode) && !isRacy(index, i)) {
+            return ' ';
+        }
+        if (!comparable) {
+            return null;
+        }
+
+        live.add(path);
+        CachedHash cached = cache.get(path);
+        byte[] id;
+        if (cached != null && cached.size == size && cached.mtimeNanos == mtime && cached.inode == inode) {
+            cacheHitCount.incrementAndGet();
+            id = cached.id;
+        } else {
+            id = isLink ? hashSymlink(file) : hashFile(file, size);
+            hashedCount.incrementAndGet();
+            // Don't remember hashes of files that could still change unnoticed
+            if (System.currentTimeMillis() - mtime / 1_000_000 > RACY_WINDOW_MILLIS) {
+                cache.put(path, new CachedHash(size, mtime, inode, id));
+            }
+        }
+        return index.objectIdEquals(i, id) ? ' ' : 'M';
+    }
+
+    private boolean statMatches(GitIndex index, int i, Map<String, Object> attrs, long mtime, long inode) {
+        if ((int) (mtime / 1_000_000_000L) != index.mtimeSeconds(i)) return false;
+        // Git built without nanosecond support stores 0 here
+        int indexNanos = index.mtimeNanos(i);
+        if (indexNanos != 0 && (int) (mtime % 1_000_000_000L) != indexNanos) return false;
+        if (unixAttributes) {
+            if ((int) inode != index.ino(i)) return false;
+            long ctime = toNanos((FileTime) attrs.get("ctime"));
+            if ((int) (ctime / 1_000_000_000L) != index.ctimeSeconds(i)) return false;
+        }
+        return true;
+    }
+
+    // An entry written in the same timestamp tick as the index itself may have
+    // been modified again after git recorded it: its stat data proves nothing.
+    private static boolean isRacy(GitIndex index, int i) {
+        long indexMillis = index.fileMtimeMillis();
+        long entrySeconds = index.mtimeSeconds(i) & 0xffffffffL;
+        if (index.mtimeNanos(i) == 0) {
+            return entrySeconds >= indexMillis / 1000;
+        }
+        return entrySeconds * 1000 + index.mtimeNanos(i) / 1_000_000 >= indexMillis;
+    }
+
+    private static long toNanos(FileTime t) {
+        return t.to(TimeUnit.NANOSECONDS);
+    }
+
+    // ==================== HASHING ====================
+
+    static byte[] hashFile(Path file, long size) throws IOException {
+        MessageDigest sha1 = newSha1();
+        sha1.update(("blob " + size + "\0").getBytes(StandardCharsets.US_ASCII));
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (size >= MMAP_THRESHOLD) {
+                long pos = 0;
+                while (pos < size) {
+                    long chunk = Math.min(size - pos, Integer.MAX_VALUE);
+                    sha1.update(channel.map(FileChannel.MapMode.READ_ONLY, pos, chunk));
+                    pos += chunk;
+                }
+            } else {
+                ByteBuffer buf = ByteBuffer.allocate((int) size);
+                while (buf.hasRemaining() && channel.read(buf) >= 0) { }
+                buf.flip();
+                sha1.update(buf);
+            }
+        }
+        return sha1.digest();
+    }
+
+    private static byte[] hashSymlink(Path file) throws IOException {
+        byte[] target = Files.readSymbolicLink(file).toString().getBytes(StandardCharsets.UTF_8);
+        MessageDigest sha1 = newSha1();
+        sha1.update(("blob " + target.length + "\0").getBytes(StandardCharsets.US_ASCII));
+        sha1.update(target);
+        return sha1.digest();
+    }
+
+    private static MessageDigest newSha1() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // ==================== CONVERSION CHECKS ====================
+
+    private static Map<String, String> readCoreConfig(File workTree, GitProcessPool git) {
+        Map<String, String> config = new HashMap<>();
+        try {
+            byte[] out = git.runRaw(workTree, "config", "-z", "--get-regexp",
+                "^core\\.(autocrlf|filemode|attributesfile)$");
+            for (String record : new String(out, StandardCharsets.UTF_8).split("\0")) {
+                int nl = record.indexOf('\n');
+                if (nl > 0) {
+                    config.put(record.substring(0, nl).toLowerCase(Locale.ROOT), record.substring(nl + 1));
+                }
+            }
+        } catch (IOException e) {
+            // Exit code 1 just means none of the keys are set
+        }
+        return config;
+    }
+
+    private boolean hasAttributesFiles(GitIndex index) {
+        for (int i = 0; i < index.size(); i++) {
+            String path = index.path(i);
+            if ((path.equals(".gitattributes") || path.endsWith("/.gitattributes"))
+                    && hasConversionAttributes(root.resolve(path).toFile())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Attributes that make the blob differ from the bytes on disk
+    private static boolean hasConversionAttributes(File attributes) {
+        if (!attributes.isFile()) return false;
+        try {
+            String text = new String(Files.readAllBytes(attributes.toPath()), StandardCharsets.UTF_8);
+            for (String word : new String[] { "filter", "text", "eol", "crlf", "ident", "working-tree-encoding" }) {
+                if (text.contains(word)) return true;
+            }
+            return false;
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    // ==================== PERSISTENT CACHE ====================
+
+    private void loadCache() {
+        if (!cacheFile.isFile()) return;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)))) {
+            if (in.readInt() != CACHE_MAGIC || !in.readUTF().equals(root.toString())) {
+                return;
+            }
+            int n = in.readInt();
+            for (int k = 0; k < n; k++) {
+                String path = in.readUTF();
+                long size = in.readLong();
+                long mtime = in.readLong();
+                long inode = in.readLong();
+                byte[] id = new byte[20];
+                in.readFully(id);
+                cache.put(path, new CachedHash(size, mtime, inode, id));
+            }
+        } catch (IOException e) {
+            // A damaged cache only costs rehashing
+            cache.clear();
+        }
+    }
+
+    private void saveCache() {
+        File dir = cacheFile.getParentFile();
+        File tmp = new File(dir, cacheFile.getName() + ".tmp");
+        try {
+            Files.createDirectories(dir.toPath());
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                out.writeInt(CACHE_MAGIC);
+                out.writeUTF(root.toString());
+                List<Map.Entry<String, CachedHash>> entries = new ArrayList<>(cache.entrySet());
+                out.writeInt(entries.size());
+                for (Map.Entry<String, CachedHash> e : entries) {
+                    out.writeUTF(e.getKey());
+                    out.writeLong(e.getValue().size);
+                    out.writeLong(e.getValue().mtimeNanos);
+                    out.writeLong(e.getValue().inode);
+                    out.write(e.getValue().id);
+                }
+            }
+            Files.move(tmp.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            tmp.delete();
+        }
+    }
+}
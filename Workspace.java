@@ -0,0 +1,326 @@
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Many repositories at once: a table of branch, ahead/behind and dirty
+ * counts, refreshed in parallel.
+ *
+ * A refresh is one `git status --porcelain=v2 --branch -z` per repository,
+ * which gives the branch, the upstream's ahead/behind and the changes in a
+ * single fork. At most {@code parallel} run at a time; the rest wait in a
+ * priority queue where the repository in focus jumps ahead of everything
+ * not yet started. A repository already waiting is not queued twice.
+ */
+class Workspace extends AbstractTableModel implements Closeable {
+
+    /** Concurrent refreshes; -Dsimplegit.workspace.parallel overrides it. */
+    static final int DEFAULT_PARALLEL = Integer.getInteger("simplegit.workspace.parallel",
+        Math.max(4, Runtime.getRuntime().availableProcessors() * 2));
+
+    private static final String[] COLUMNS = { "Repository", "Branch", "↑", "↓", "Staged", "Changed", "Untracked", "ms" };
+
+    interface Listener {
+        /** On the EDT after each repository; wallNanos covers the whole batch once done == total. */
+        void refreshed(int done, int total, long wallNanos);
+    }
+
+    /** What one refresh found; error is set instead when git failed. */
+    static final class RepoState {
+        final String branch;       // null when detached
+        final String upstream;     // null without one
+        final int ahead;
+        final int behind;
+        final int staged;
+        final int changed;
+        final int untracked;
+        final String error;
+        final long nanos;
+
+        RepoState(String branch, String upstream, int ahead, int behind,
+                int staged, int changed, int untracked, String error, long nanos) {
+            this.branch = branch;
+            this.upstream = upstream;
+            this.ahead = ahead;
+            this.behind = behind;
+            this.staged = staged;
+            this.changed = changed;
+            this.untracked = untracked;
+            this.error = error;
+            this.nanos = nanos;
+        }
+
+        boolean isDirty() {
+            return staged + changed + untracked > 0;
+        }
+    }
+
+    // A waiting refresh; ordered focus first, then first come first served
+    private final class Refresh implements Runnable, Comparable<Refresh> {
+        final File repo;
+        final long seq;
+        boolean focused;
+
+        Refresh(File repo, long seq, boolean focused) {
+            this.repo = repo;
+            this.seq = seq;
+            this.focused = focused;
+        }
+
+        @Override
+        public int compareTo(Refresh o) {
+            if (focused != o.focused) return focused ? -1 : 1;
+            return Long.compare(seq, o.seq);
+        }
+
+        @Override
+        public void run() {
+            synchronized (Workspace.this) {
+                pending.remove(repo);
+            }
+            RepoState state = read(pool, repo);
+            SwingUtilities.invokeLater(() -> finished(repo, state));
+        }
+    }
+
+    private final GitProcessPool pool;
+    private final Listener listener;
+    private final ThreadPoolExecutor executor;
+
+    // Guarded by this
+    private final Map<File, Refresh> pending = new HashMap<>();
+    private long seq;
+    private File focus;
+
+    // EDT only
+    private final List<File> repos = new ArrayList<>();
+    private final Map<File, RepoState> states = new HashMap<>();
+    private int batchTotal;
+    private int batchDone;
+    private long batchStart;
+
+    Workspace(GitProcessPool pool, int parallel, Listener listener) {
+        this.pool = pool;
+        this.listener = listener;
+        this.executor = new ThreadPoolExecutor(parallel, parallel, 30, TimeUnit.SECONDS,
+            new PriorityBlockingQueue<>(), r -> {
+                Thread t = new Thread(r, "workspace-refresh");
+                t.setDaemon(true);
+                return t;
+            });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    // ==================== REPOSITORIES (EDT) ====================
+
+    /** Adds a row without refreshing it; false if it was already there. */
+    boolean add(File repo) {
+        if (repos.contains(repo)) return false;
+        repos.add(repo);
+        fireTableRowsInserted(repos.size() - 1, repos.size() - 1);
+        return true;
+    }
+
+    void remove(int row) {
+        File repo = repos.remove(row);
+        states.remove(repo);
+        boolean dropped;
+        synchronized (this) {
+            Refresh r = pending.remove(repo);
+            dropped = r != null && executor.remove(r);
+        }
+        if (dropped) batchTotal--;
+        fireTableRowsDeleted(row, row);
+    }
+
+    List<File> repositories() {
+        return new ArrayList<>(repos);
+    }
+
+    File repositoryAt(int row) {
+        return repos.get(row);
+    }
+
+    RepoState stateAt(int row) {
+        return states.get(repos.get(row));
+    }
+
+    void setParallel(int parallel) {
+        // Grow the maximum first, or the core size can't pass it
+        if (parallel > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(parallel);
+            executor.setCorePoolSize(parallel);
+        } else {
+            executor.setCorePoolSize(parallel);
+            executor.setMaximumPoolSize(parallel);
+        }
+    }
+
+    /** Queues every repository; the wall time reaches the listener when the last one is back. */
+    void refreshAll() {
+        refresh(repos);
+    }
+
+    void refresh(List<File> which) {
+        if (batchDone >= batchTotal) {
+            batchTotal = 0;
+            batchDone = 0;
+            batchStart = System.nanoTime();
+        }
+        List<Refresh> queued = new ArrayList<>();
+        synchronized (this) {
+            for (File repo : which) {
+                if (pending.containsKey(repo)) continue;
+                Refresh r = new Refresh(repo, seq++, repo.equals(focus));
+                pending.put(repo, r);
+                queued.add(r);
+            }
+        }
+        batchTotal += queued.size();
+        for (Refresh r : queued) {
+            executor.execute(r);
+        }
+    }
+
+    /**
+     * Marks {@code repo} (or nothing, for null) as the one the user is
+     * looking at: its refreshes go ahead of everyone else's from now on,
+     * including one already waiting.
+     */
+    void focus(File repo) {
+        Refresh bumped = null;
+        synchronized (this) {
+            focus = repo;
+            Refresh r = repo == null ? null : pending.get(repo);
+            // Re-inserted, since the queue only orders on the way in
+            if (r != null && !r.focused && executor.remove(r)) {
+                r.focused = true;
+                bumped = r;
+            }
+        }
+        if (bumped != null) executor.execute(bumped);
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private void finished(File repo, RepoState state) {
+        batchDone++;
+        int row = repos.indexOf(repo);
+        if (row >= 0) {    // unless removed meanwhile
+            states.put(repo, state);
+            fireTableRowsUpdated(row, row);
+        }
+        if (listener != null) listener.refreshed(batchDone, batchTotal, System.nanoTime() - batchStart);
+    }
+
+    // ==================== READING ====================
+
+    /** Branch, ahead/behind and change counts of one repository, from one git status. */
+    static RepoState read(GitProcessPool pool, File repo) {
+        long start = System.nanoTime();
+        String[] branch = new String[2];
+        int[] counts = new int[5];
+        try {
+            pool.runStreamed(repo, in -> PorcelainParser.parse(in, e -> {
+                if (e.isUntracked()) counts[4]++;
+                else if (e.x != '!') {
+                    if (e.x != ' ') counts[2]++;
+                    if (e.y != ' ') counts[3]++;
+                }
+            }, header -> {
+                if (header.startsWith("branch.head ")) {
+                    String head = header.substring(12);
+                    branch[0] = head.equals("(detached)") ? null : head;
+                } else if (header.startsWith("branch.upstream ")) {
+                    branch[1] = header.substring(16);
+                } else if (header.startsWith("branch.ab ")) {
+                    String[] ab = header.substring(10).split(" ");
+                    counts[0] = Integer.parseInt(ab[0].substring(1));
+                    counts[1] = Integer.parseInt(ab[1].substring(1));
+                }
+            }), "status", "--porcelain=v2", "--branch", "-z", "--no-renames");
+        } catch (IOException | RuntimeException e) {
+            return new RepoState(null, null, 0, 0, 0, 0, 0, e.getMessage(), System.nanoTime() - start);
+        }
+        return new RepoState(branch[0], branch[1], counts[0], counts[1], counts[2], counts[3], counts[4],
+            null, System.nanoTime() - start);
+    }
+
+    /** One path per line; missing file means an empty workspace. */
+    static List<File> load(File file) {
+        List<File> repos = new ArrayList<>();
+        try {
+            for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+                if (!line.trim().isEmpty()) repos.add(new File(line.trim()));
+            }
+        } catch (IOException e) {
+            // First run
+        }
+        return repos;
+    }
+
+    static void save(File file, List<File> repos) throws IOException {
+        file.getParentFile().mkdirs();
+        List<String> lines = new ArrayList<>();
+        for (File repo : repos) {
+            lines.add(repo.getPath());
+        }
+        Files.write(file.toPath(), lines, StandardCharsets.UTF_8);
+    }
+
+    // ==================== TABLE MODEL ====================
+
+    @Override
+    public int getRowCount() {
+        return repos.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMNS.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMNS[column];
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        File repo = repos.get(row);
+        RepoState s = states.get(repo);
+        if (column == 0) return repo.getName();
+        if (s == null) return column == 1 ? "…" : "";
+        if (s.error != null) return column == 1 ? "⚠ " + s.error : "";
+        switch (column) {
+            case 1: return s.branch == null ? "(detached)" : s.branch;
+            case 2: return s.upstream == null ? "" : String.valueOf(s.ahead);
+            case 3: return s.upstream == null ? "" : String.valueOf(s.behind);
+            case 4: return s.staged == 0 ? "" : String.valueOf(s.staged);
+            case 5: return s.changed == 0 ? "" : String.valueOf(s.changed);
+            case 6: return s.untracked == 0 ? "" : String.valueOf(s.untracked);
+            default: return String.valueOf(s.nanos / 1_000_000);
+        }
+    }
+
+    /** "40 repositories · 7 dirty · 3 ahead · 2 behind" */
+    String summary() {
+        int dirty = 0;
+        int ahead = 0;
+        int behind = 0;
+        for (RepoState s : states.values()) {
+            if (s.error != null) continue;
+            if (s.isDirty()) dirty++;
+            if (s.ahead > 0) ahead++;
+            if (s.behind > 0) behind++;
+        }
+        return repos.size() + " repositories · " + dirty + " dirty · " + ahead + " ahead · " + behind + " behind";
+    }
+}
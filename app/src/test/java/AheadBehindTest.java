@@ -0,0 +1,100 @@
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.*;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * AheadBehind against `git rev-list --left-right --count` for diverged
+ * branches, some with merges, against their upstreams and HEAD: without a
+ * commit-graph, with one graph file, and with a split chain plus commits
+ * newer than the graph.
+ */
+class AheadBehindTest {
+
+    private static final int BRANCHES = 12;
+
+    @TempDir
+    Path dir;
+
+    private File repo;
+    private String tree;
+    private String[][] pairs;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        repo = TestRepos.history(dir, 1500);
+        tree = rev("HEAD^{tree}");
+        String head = rev("HEAD");
+        // Forked at various depths, a few commits each, every fourth with a
+        // merge from further down master; upstreams a few commits back
+        pairs = new String[BRANCHES * 2][];
+        for (int k = 0; k < BRANCHES; k++) {
+            String tip = rev("HEAD~" + (k * 37));
+            for (int c = 0; c <= k % 5; c++) {
+                tip = commitTree("branch " + k + " commit " + c, tip);
+            }
+            if (k % 4 == 0) {
+                tip = commitTree("merge into " + k, tip, rev("HEAD~" + (k * 11 + 500)));
+            }
+            String upstream = rev(tip + "~" + (k % 3 + 1));
+            TestRepos.git(dir, "update-ref", "refs/heads/b" + k, tip);
+            TestRepos.git(dir, "update-ref", "refs/remotes/origin/b" + k, upstream);
+            pairs[2 * k] = new String[] { tip, upstream };
+            pairs[2 * k + 1] = new String[] { tip, head };
+        }
+    }
+
+    @Test
+    void withoutCommitGraph() throws Exception {
+        check();
+    }
+
+    @Test
+    void withCommitGraphFile() throws Exception {
+        TestRepos.git(dir, "commit-graph", "write", "--reachable");
+        check();
+    }
+
+    @Test
+    void withSplitChainAndNewerCommits() throws Exception {
+        TestRepos.git(dir, "commit-graph", "write", "--reachable", "--split", "--size-multiple=1000");
+        TestRepos.git(dir, "update-ref", "refs/heads/b1", commitTree("after first layer", pairs[2][0]));
+        TestRepos.git(dir, "commit-graph", "write", "--reachable", "--split", "--size-multiple=1000");
+        assertEquals(2, Files.readAllLines(dir.resolve(".git/objects/info/commit-graphs/commit-graph-chain")).size());
+        for (int k = 2; k < 6; k++) {
+            pairs[2 * k][0] = pairs[2 * k + 1][0] = commitTree("outside the graph " + k, pairs[2 * k][0]);
+        }
+        check();
+    }
+
+    private void check() throws Exception {
+        try (GitObjectDatabase db = GitObjectDatabase.open(repo); AheadBehind walker = new AheadBehind(db)) {
+            int[][] got = walker.counts(pairs);
+            for (int i = 0; i < pairs.length; i++) {
+                String[] lr = TestRepos.output(dir, "rev-list", "--left-right", "--count",
+                    pairs[i][0] + "..." + pairs[i][1]).split("\\s+");
+                int[] expected = { Integer.parseInt(lr[0]), Integer.parseInt(lr[1]) };
+                assertArrayEquals(expected, got[i], "pair " + i);
+            }
+            assertArrayEquals(got, walker.counts(pairs), "again from the cache");
+        }
+    }
+
+    private String commitTree(String message, String... parents) throws Exception {
+        List<String> args = new ArrayList<>(Arrays.asList("-c", "user.name=test", "-c", "user.email=test@example.com",
+            "commit-tree", tree, "-m", message));
+        for (String p : parents) {
+            args.add("-p");
+            args.add(p);
+        }
+        return TestRepos.output(dir, args.toArray(new String[0]));
+    }
+
+    private String rev(String rev) throws Exception {
+        return TestRepos.output(dir, "rev-parse", rev);
+    }
+}
@@ -0,0 +1,194 @@
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * BackgroundFetcher against a local bare repository standing in for the
+ * remote, on intervals shortened to fractions of a second: a push to the
+ * remote shows up in the clone, Pull then merges (or rebases, with
+ * pull.rebase) locally, a busy repository holds the fetch back, failures
+ * and idleness stretch the interval and user input brings it back.
+ */
+class BackgroundFetcherTest {
+
+    private static final long BASE = 300;
+
+    @TempDir
+    Path root;
+
+    private Path bare;
+    private Path upstream;
+    private Path mine;
+    private File repo;
+    private GitProcessPool pool;
+    private TaskScheduler tasks;
+    private BackgroundFetcher fetcher;
+    // status, changed, epoch millis per fetch
+    private final BlockingQueue<Object[]> fetches = new LinkedBlockingQueue<>();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        bare = root.resolve("origin.git");
+        upstream = root.resolve("upstream");
+        mine = root.resolve("mine");
+        TestRepos.git(root, "init", "-q", "--bare", "-b", "main", bare.toString());
+        TestRepos.git(root, "clone", "-q", bare.toString(), upstream.toString());
+        TestRepos.git(upstream, "checkout", "-q", "-b", "main");
+        TestRepos.write(upstream.resolve("a.txt"), "one\n");
+        TestRepos.git(upstream, "add", "-A");
+        TestRepos.commit(upstream, "first");
+        TestRepos.git(upstream, "push", "-q", "origin", "main");
+        TestRepos.git(root, "clone", "-q", bare.toString(), mine.toString());
+        // A rebase commits, so the clone needs an identity
+        TestRepos.git(mine, "config", "user.name", "test");
+        TestRepos.git(mine, "config", "user.email", "test@example.com");
+        repo = mine.toFile();
+
+        pool = new GitProcessPool(60_000);
+        tasks = new TaskScheduler((r, q, c) -> {});
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (fetcher != null) fetcher.close();
+        tasks.close();
+        pool.shutdown();
+    }
+
+    @Test
+    void pushArrivesAndPullMergesLocally() throws Exception {
+        fetcher = fetcher(8 * BASE, 60_000);
+        commit(upstream, "b.txt", "second", true);
+        String pushed = rev(upstream, "HEAD");
+        long t0 = System.currentTimeMillis();
+        fetcher.setRepository(repo);
+
+        Object[] first = next();
+        BackgroundFetcher.Status status = (BackgroundFetcher.Status) first[0];
+        assertNull(status.error);
+        assertTrue((Boolean) first[1], "first fetch brought the push in");
+        assertEquals(pushed, rev(mine, "origin/main"));
+        assertTrue(status.lastFetch >= t0 && fetcher.isFresh(repo), "last fetch recorded");
+        assertFalse((Boolean) next()[1], "nothing new: not reported as changed");
+
+        String[] merge = BackgroundFetcher.integrateCommand(pool, repo);
+        assertArrayEquals(new String[] { "merge", "@{upstream}" }, merge);
+        pool.run(repo, merge);
+        assertEquals(pushed, rev(mine, "HEAD"), "local merge fast-forwarded to the push");
+    }
+
+    @Test
+    void linkedWorktreeSeesItsOwnFetchHead() throws Exception {
+        fetcher = fetcher(8 * BASE, 60_000);
+        Path linked = root.resolve("linked");
+        TestRepos.git(mine, "worktree", "add", "-q", "-b", "side", linked.toString());
+        commit(upstream, "b.txt", "second", true);
+        fetcher.setRepository(linked.toFile());
+        assertTrue((Boolean) next()[1], "the push was seen through the worktree's FETCH_HEAD");
+        assertEquals(rev(upstream, "HEAD"), rev(linked, "origin/main"));
+    }
+
+    @Test
+    void pullRebaseReplaysLocalCommits() throws Exception {
+        fetcher = fetcher(8 * BASE, 60_000);
+        TestRepos.git(mine, "config", "pull.rebase", "true");
+        commit(mine, "local.txt", "mine", false);
+        commit(upstream, "c.txt", "third", true);
+        fetcher.setRepository(repo);
+        await(() -> rev(mine, "origin/main").equals(rev(upstream, "HEAD")));
+
+        String[] rebase = BackgroundFetcher.integrateCommand(pool, repo);
+        assertArrayEquals(new String[] { "rebase" }, rebase);
+        pool.run(repo, rebase);
+        assertEquals(rev(upstream, "HEAD"), rev(mine, "HEAD~1"), "local commit rebased onto upstream");
+    }
+
+    @Test
+    void busyRepositoryHoldsTheFetchBack() throws Exception {
+        fetcher = fetcher(8 * BASE, 60_000);
+        CountDownLatch release = new CountDownLatch(1);
+        tasks.submit("Long operation", repo, () -> release.await());
+        fetcher.setRepository(repo);
+        Thread.sleep(4 * BASE);
+        assertTrue(fetches.isEmpty(), "no fetch while the repository is busy");
+        release.countDown();
+        assertNotNull(next(), "fetch resumed once it was free");
+    }
+
+    @Test
+    void failuresBackOffUpToTheMaximumAndRecover() throws Exception {
+        fetcher = fetcher(8 * BASE, 60_000);
+        TestRepos.git(mine, "remote", "set-url", "origin", root.resolve("missing.git").toString());
+        fetcher.setRepository(repo);
+        List<Long> gaps = gaps(4);
+        BackgroundFetcher.Status status = fetcher.status(repo);
+        assertTrue(status.failures >= 4, "failures counted: " + status.failures);
+        assertNotNull(status.error);
+        assertTrue(gaps.get(1) > gaps.get(0) * 3 / 2 && gaps.get(2) > gaps.get(1) * 3 / 2, "backoff gaps " + gaps + " ms");
+        assertTrue(gaps.get(3) < 8 * BASE * 3 / 2, "capped at the maximum: " + gaps + " ms");
+        assertFalse(fetcher.isFresh(repo), "a failing fetch is not fresh");
+
+        TestRepos.git(mine, "remote", "set-url", "origin", bare.toString());
+        await(() -> fetcher.status(repo).failures == 0);
+        assertNull(fetcher.status(repo).error, "recovered once the remote was back");
+    }
+
+    @Test
+    void idleStretchesTheIntervalAndInputBringsItBack() throws Exception {
+        fetcher = fetcher(16 * BASE, 2 * BASE);
+        fetcher.setRepository(repo);
+        List<Long> gaps = gaps(4);
+        assertTrue(gaps.get(3) > 2 * BASE * 3 / 2, "idle gaps grow: " + gaps + " ms");
+
+        long waiting = fetcher.status(repo).nextFetch - System.currentTimeMillis();
+        long touched = System.currentTimeMillis();
+        fetcher.touch();
+        long after = (Long) next()[2] - touched;
+        assertTrue(after < waiting, "input brought the next fetch forward: " + after + " ms instead of " + waiting);
+    }
+
+    private BackgroundFetcher fetcher(long maxMillis, long idleMillis) {
+        return new BackgroundFetcher(pool, tasks, BASE, maxMillis, idleMillis,
+            (r, status, changed) -> fetches.add(new Object[] { status, changed, System.currentTimeMillis() }));
+    }
+
+    // Time between consecutive fetches, after the first
+    private List<Long> gaps(int count) throws InterruptedException {
+        List<Long> gaps = new ArrayList<>();
+        long last = (Long) next()[2];
+        for (int i = 0; i < count; i++) {
+            long at = (Long) next()[2];
+            gaps.add(at - last);
+            last = at;
+        }
+        return gaps;
+    }
+
+    private static void commit(Path repo, String file, String message, boolean push) throws Exception {
+        TestRepos.write(repo.resolve(file), message + "\n");
+        TestRepos.git(repo, "add", "-A");
+        TestRepos.commit(repo, message);
+        if (push) TestRepos.git(repo, "push", "-q", "origin", "main");
+    }
+
+    private static String rev(Path repo, String rev) throws Exception {
+        return TestRepos.output(repo, "rev-parse", rev);
+    }
+
+    private Object[] next() throws InterruptedException {
+        Object[] f = fetches.poll(30, TimeUnit.SECONDS);
+        assertNotNull(f, "no fetch within 30 s");
+        return f;
+    }
+
+    private void await(Callable<Boolean> condition) throws Exception {
+        for (int i = 0; i < 20 && !condition.call(); i++) next();
+        assertTrue(condition.call(), "condition never held");
+    }
+}
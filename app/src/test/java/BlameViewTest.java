@@ -0,0 +1,156 @@
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.swing.*;
+import java.io.File;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * BlameView against `git blame --porcelain`, line by line: on a long
+ * history of scattered edits, at a later HEAD built on the cached blame,
+ * and across a merge, where the range also ends at the fork point, a
+ * blame built on a cached one still names the commit each line really
+ * came from.
+ */
+class BlameViewTest {
+
+    @TempDir
+    Path dir;
+
+    private File repo;
+    private GitProcessPool pool;
+    private TaskScheduler tasks;
+    private GitObjectDatabase db;
+    private BlameView view;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        repo = TestRepos.small(dir);
+        TestRepos.git(dir, "branch", "-M", "main");
+        pool = new GitProcessPool(60_000);
+        tasks = new TaskScheduler((r, q, c) -> {});
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        tasks.close();
+        if (db != null) db.close();
+        pool.shutdown();
+    }
+
+    @Test
+    void scatteredEditsBlameAsGitDoes() throws Exception {
+        Random random = new Random(11);
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            lines.add("    int value" + i + " = " + i + ";\t// original");
+        }
+        for (int c = 0; c < 40; c++) {
+            if (c > 0) edit(lines, random, c);
+            TestRepos.write(dir.resolve("f.txt"), String.join("\n", lines) + "\n");
+            TestRepos.git(dir, "add", "-A");
+            TestRepos.commit(dir, "edit " + c);
+        }
+        db = GitObjectDatabase.open(repo);
+        view = new BlameView(pool, tasks);
+        BlameDocument head = blame("HEAD", d -> d.isComplete());
+        assertNull(head.error());
+        assertEquals(lines.size(), head.blamedLines());
+        assertEquals(gitBlame("HEAD"), origins(head));
+
+        // Three more commits: the new HEAD is built on the cached blame
+        for (int c = 0; c < 3; c++) {
+            edit(lines, random, 100 + c);
+            TestRepos.write(dir.resolve("f.txt"), String.join("\n", lines) + "\n");
+            TestRepos.git(dir, "add", "-A");
+            TestRepos.commit(dir, "more " + c);
+        }
+        BlameDocument next = blame("HEAD", d -> d.isComplete() && !d.commit.equals(head.commit));
+        assertEquals(head.commit, next.reusedFrom());
+        assertTrue(next.reusedLines() > lines.size() / 2, next.reusedLines() + " lines reused");
+        assertEquals(gitBlame("HEAD"), origins(next));
+
+        assertSame(head, blame(head.commit, d -> d == head), "from the cache");
+        BlameDocument older = blame("HEAD~10", d -> d.isComplete() && d != head && d != next);
+        assertEquals(gitBlame("HEAD~10"), origins(older));
+
+        SwingUtilities.invokeAndWait(() -> view.show(repo, db, "Missing.java", "HEAD"));
+        for (int i = 0; i < 5000 && !view.summary().contains("is not in"); i++) Thread.sleep(1);
+        assertTrue(view.summary().contains("is not in HEAD"), view.summary());
+    }
+
+    @Test
+    void cachedBlameAcrossAMergeKeepsTheRealOrigins() throws Exception {
+        TestRepos.write(dir.resolve("f.txt"), "1\n2\n3\n4\n");
+        TestRepos.git(dir, "add", "-A");
+        TestRepos.commit(dir, "root of f.txt");
+        TestRepos.write(dir.resolve("other.txt"), "x\n");
+        TestRepos.git(dir, "add", "-A");
+        TestRepos.commit(dir, "fork point, f.txt untouched");
+        TestRepos.git(dir, "checkout", "-q", "-b", "side");
+        TestRepos.write(dir.resolve("f.txt"), "1\n2\n3\n4 side\n");
+        TestRepos.git(dir, "add", "-A");
+        TestRepos.commit(dir, "side");
+        TestRepos.git(dir, "checkout", "-q", "main");
+        TestRepos.write(dir.resolve("f.txt"), "1 main\n2\n3\n4\n");
+        TestRepos.git(dir, "add", "-A");
+        TestRepos.commit(dir, "main");
+        String cached = TestRepos.output(dir, "rev-parse", "HEAD");
+        // side is the merge's first parent, so lines 2-3 reach the fork point through it
+        TestRepos.git(dir, "checkout", "-q", "side");
+        TestRepos.git(dir, "-c", "user.name=test", "-c", "user.email=test@example.com",
+            "merge", "-q", "--no-edit", "main");
+
+        db = GitObjectDatabase.open(repo);
+        view = new BlameView(pool, tasks);
+        BlameDocument older = blame(cached, d -> d.isComplete());
+        assertEquals(gitBlame(cached), origins(older));
+
+        BlameDocument merged = blame("HEAD", d -> d.isComplete() && d != older);
+        assertNull(merged.error());
+        assertEquals(gitBlame("HEAD"), origins(merged));
+    }
+
+    // A few lines changed, one inserted, one removed; all over the file
+    private static void edit(List<String> lines, Random random, int c) {
+        for (int e = 0; e < 20; e++) {
+            int at = random.nextInt(lines.size());
+            lines.set(at, "    int value" + at + " = " + random.nextInt() + ";\t// edit " + c);
+        }
+        lines.add(random.nextInt(lines.size()), "    // inserted by " + c);
+        lines.remove(random.nextInt(lines.size()));
+    }
+
+    private BlameDocument blame(String rev, Predicate<BlameDocument> condition) throws Exception {
+        SwingUtilities.invokeAndWait(() -> view.show(repo, db, "f.txt", rev));
+        for (int i = 0; i < 30_000; i++) {
+            BlameDocument[] shown = new BlameDocument[1];
+            SwingUtilities.invokeAndWait(() -> shown[0] = view.document());
+            if (shown[0] != null && condition.test(shown[0])) return shown[0];
+            Thread.sleep(1);
+        }
+        throw new AssertionError("no blame of " + rev);
+    }
+
+    private List<String> gitBlame(String rev) throws Exception {
+        List<String> ids = new ArrayList<>();
+        for (String line : TestRepos.output(dir, "blame", "--porcelain", rev, "--", "f.txt").split("\n")) {
+            String[] f = line.split(" ");
+            if (f.length >= 3 && f[0].matches("[0-9a-f]{40}")) ids.add(f[0]);
+        }
+        return ids;
+    }
+
+    private static List<String> origins(BlameDocument doc) {
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < doc.lineCount(); i++) {
+            BlameDocument.Origin o = doc.originAt(i);
+            ids.add(o == null ? null : o.id);
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,148 @@
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Clones a local bare repository over file:// with each Cloner option and
+ * checks the result with git: full, shallow, blobless, single-branch and
+ * no-checkout. A clone that is cancelled mid-transfer or fails leaves
+ * nothing behind, and a non-empty destination is refused.
+ */
+class ClonerTest {
+
+    @TempDir
+    static Path root;
+
+    private static String url;
+    private static String head;
+
+    @TempDir
+    Path work;
+
+    @BeforeAll
+    static void createOrigin() throws Exception {
+        Path src = Files.createDirectory(root.resolve("src"));
+        TestRepos.history(src, 300);
+        // Incompressible blobs, so the transfer takes long enough to cancel
+        Random random = new Random(7);
+        for (int i = 0; i < 400; i++) {
+            byte[] data = new byte[64 * 1024];
+            random.nextBytes(data);
+            Files.createDirectories(src.resolve("blobs"));
+            Files.write(src.resolve("blobs/b" + i + ".bin"), data);
+        }
+        TestRepos.git(src, "add", "-A");
+        TestRepos.commit(src, "blobs");
+        TestRepos.git(src, "branch", "side", "HEAD~100");
+        Path bare = root.resolve("origin.git");
+        TestRepos.git(root, "clone", "-q", "--bare", src.toString(), bare.toString());
+        TestRepos.git(bare, "config", "uploadpack.allowFilter", "true");
+        url = bare.toUri().toString();
+        head = TestRepos.output(bare, "rev-parse", "HEAD");
+    }
+
+    @Test
+    void fullClone() throws Exception {
+        Path dest = clone(new Cloner.Options());
+        assertEquals(head, TestRepos.output(dest, "rev-parse", "HEAD"));
+        assertTrue(TestRepos.output(dest, "branch", "-r").contains("origin/side"), "every branch fetched");
+        assertTrue(Files.exists(dest.resolve("blobs/b0.bin")), "checked out");
+    }
+
+    @Test
+    void shallowClone() throws Exception {
+        Cloner.Options options = new Cloner.Options();
+        options.depth = 1;
+        Path dest = clone(options);
+        assertEquals("1", TestRepos.output(dest, "rev-list", "--count", "HEAD"));
+        assertTrue(Files.exists(dest.resolve(".git/shallow")));
+    }
+
+    @Test
+    void bloblessClone() throws Exception {
+        Cloner.Options options = new Cloner.Options();
+        options.blobless = true;
+        Path dest = clone(options);
+        assertEquals("blob:none", TestRepos.output(dest, "config", "remote.origin.partialclonefilter"));
+        assertTrue(TestRepos.output(dest, "rev-list", "--objects", "--all", "--missing=print").contains("\n?"),
+            "old blobs are missing");
+    }
+
+    @Test
+    void singleBranchClone() throws Exception {
+        Cloner.Options options = new Cloner.Options();
+        options.singleBranch = true;
+        Path dest = clone(options);
+        assertFalse(TestRepos.output(dest, "branch", "-r").contains("origin/side"));
+    }
+
+    @Test
+    void noCheckoutClone() throws Exception {
+        Cloner.Options options = new Cloner.Options();
+        options.noCheckout = true;
+        Path dest = clone(options);
+        assertFalse(Files.exists(dest.resolve("blobs")));
+    }
+
+    @Test
+    void cancelledCloneIsRemoved() throws Exception {
+        TaskScheduler tasks = new TaskScheduler((r, q, c) -> {});
+        Path cancelled = work.resolve("cancelled");
+        CompletableFuture<TaskScheduler.Task> self = new CompletableFuture<>();
+        boolean[] receiving = new boolean[1];
+        try {
+            TaskScheduler.Task task = tasks.submit("Clone", cancelled.toFile(), () -> {
+                new Cloner(url, cancelled.toFile(), new Cloner.Options()).run((phase, percent, line) -> {
+                    // Cancelled as soon as objects start arriving
+                    if (phase == Cloner.Phase.RECEIVING && !receiving[0]) {
+                        receiving[0] = true;
+                        self.join().cancel();
+                    }
+                }, line -> {});
+            });
+            self.complete(task);
+            assertThrows(CancellationException.class, () -> task.completion().get());
+        } finally {
+            tasks.close();
+        }
+        assertTrue(receiving[0], "cancelled while receiving");
+        assertFalse(Files.exists(cancelled), "destination removed");
+    }
+
+    @Test
+    void failedCloneIsRemovedAndSaysWhy() {
+        Path failed = work.resolve("failed");
+        IOException e = assertThrows(IOException.class, () ->
+            new Cloner(root.resolve("missing.git").toUri().toString(), failed.toFile(), new Cloner.Options())
+                .run((phase, percent, line) -> {}, line -> {}));
+        assertTrue(e.getMessage().startsWith("fatal:"), e.getMessage());
+        assertFalse(Files.exists(failed));
+    }
+
+    @Test
+    void nonEmptyDestinationIsLeftAlone() throws Exception {
+        Path dest = work.resolve("taken");
+        TestRepos.write(dest.resolve("keep.txt"), "mine\n");
+        assertThrows(IOException.class, () ->
+            new Cloner(url, dest.toFile(), new Cloner.Options()).run((phase, percent, line) -> {}, line -> {}));
+        assertTrue(Files.exists(dest.resolve("keep.txt")));
+    }
+
+    // Clones into a fresh folder, checking that progress only ever moves forward
+    private Path clone(Cloner.Options options) throws Exception {
+        Path dest = work.resolve("clone");
+        Map<Cloner.Phase, Integer> last = new EnumMap<>(Cloner.Phase.class);
+        new Cloner(url, dest.toFile(), options).run((phase, percent, line) -> {
+            Integer before = last.put(phase, percent);
+            assertFalse(before != null && percent < before, phase + " went from " + before + "% to " + percent + "%");
+        }, line -> {});
+        assertEquals(100, last.get(Cloner.Phase.RECEIVING), "receiving reached 100%");
+        return dest;
+    }
+}
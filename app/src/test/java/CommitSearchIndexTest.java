@@ -0,0 +1,85 @@
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * CommitSearchIndex only answers with commits in HEAD's current history:
+ * a branch switch hides the other branch's commits until it is checked
+ * out again, and a rewritten, gc'd history is indexed afresh.
+ */
+class CommitSearchIndexTest {
+
+    @TempDir
+    Path dir;
+
+    private File repo;
+    private GitProcessPool pool;
+    private CommitSearchIndex index;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        repo = TestRepos.small(dir);
+        TestRepos.git(dir, "branch", "-M", "main");
+        pool = new GitProcessPool(60_000);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        if (index != null) index.close();
+        pool.shutdown();
+    }
+
+    @Test
+    void branchSwitchHidesTheOtherBranch() throws Exception {
+        TestRepos.git(dir, "checkout", "-q", "-b", "side");
+        commit("frobnicate the side branch");
+        index = open();
+        index.update(null);
+        assertEquals(1, index.search("frobnicate", 10).matches);
+
+        TestRepos.git(dir, "checkout", "-q", "main");
+        commit("main moves on");
+        index.update(null);
+        CommitSearchIndex.Result hidden = index.search("frobnicate", 10);
+        assertEquals(0, hidden.matches);
+        assertTrue(hidden.commits.isEmpty());
+        assertEquals(1, index.search("moves", 10).matches);
+
+        TestRepos.git(dir, "checkout", "-q", "side");
+        index.update(null);
+        assertEquals(1, index.search("frobnicate", 10).matches);
+        assertEquals(0, index.search("moves", 10).matches);
+    }
+
+    @Test
+    void rewrittenHistoryIsIndexedAgain() throws Exception {
+        commit("first draft of the widget");
+        index = open();
+        index.update(null);
+        assertEquals(1, index.search("draft", 10).matches);
+
+        TestRepos.git(dir, "-c", "user.name=test", "-c", "user.email=test@example.com",
+            "commit", "-q", "--amend", "-m", "final widget");
+        TestRepos.git(dir, "reflog", "expire", "--expire=now", "--all");
+        TestRepos.git(dir, "gc", "-q", "--prune=now");
+        index.update(null);
+        assertEquals(0, index.search("draft", 10).matches);
+        CommitSearchIndex.Result widget = index.search("widget", 10);
+        assertEquals(1, widget.matches);
+        assertEquals(TestRepos.output(dir, "rev-parse", "HEAD"), widget.commits.get(0));
+    }
+
+    private CommitSearchIndex open() throws Exception {
+        return CommitSearchIndex.open(pool, repo, new File(repo, ".git"));
+    }
+
+    private void commit(String message) throws Exception {
+        TestRepos.write(dir.resolve("f.txt"), message + "\n");
+        TestRepos.git(dir, "add", "-A");
+        TestRepos.commit(dir, message);
+    }
+}
@@ -0,0 +1,142 @@
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.swing.*;
+import java.awt.*;
+import java.io.File;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * DiffView against `git diff`: line, hunk and +/- counts, line numbers
+ * from the hunk headers, tab expansion and syntax spans, a staged rename,
+ * an untracked file, the cache and a reload once the file changes.
+ */
+class DiffViewTest {
+
+    private static final int LINES = 4000;
+
+    @TempDir
+    Path dir;
+
+    private File repo;
+    private GitProcessPool pool;
+    private TaskScheduler tasks;
+    private GitObjectDatabase db;
+    private DiffView view;
+    private String[] lines;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        repo = TestRepos.small(dir);
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < LINES; i++) {
+            source.append(i % 40 == 0 ? "    /* block " + i + "\n     * comment */\n" : "")
+                .append("    public static int value").append(i).append(" = ").append(i)
+                .append("; // \"").append(Integer.toHexString(i * 31)).append("\"\n");
+        }
+        TestRepos.write(dir.resolve("Big.java"), source.toString());
+        TestRepos.write(dir.resolve("small.txt"), "one\ntwo\nthree\n");
+        TestRepos.git(dir, "add", "-A");
+        TestRepos.commit(dir, "big file");
+        // Every 25th line changed, and a tab-indented insertion
+        lines = source.toString().split("\n", -1);
+        for (int i = 0; i < lines.length; i += 25) {
+            lines[i] = lines[i].replace("public", "private\tfinal");
+        }
+        TestRepos.write(dir.resolve("Big.java"), String.join("\n", lines));
+        TestRepos.git(dir, "mv", "small.txt", "renamed.txt");
+        TestRepos.write(dir.resolve("notes.md"), "untracked\nfile");
+
+        pool = new GitProcessPool(60_000);
+        tasks = new TaskScheduler((r, q, c) -> {});
+        db = GitObjectDatabase.open(repo);
+        view = new DiffView(pool, tasks);
+        SwingUtilities.invokeAndWait(() -> view.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12)));
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        tasks.close();
+        db.close();
+        pool.shutdown();
+    }
+
+    @Test
+    void matchesGitDiff() throws Exception {
+        show("Big.java", null, false, 'M');
+        DiffDocument doc = waitFor(DiffDocument::isComplete);
+        String[] gitLines = TestRepos.raw(dir, "diff", "--", "Big.java").split("\n");
+        String[] numstat = TestRepos.output(dir, "diff", "--numstat", "--", "Big.java").split("\t");
+        assertEquals(gitLines.length, doc.lineCount());
+        assertEquals(Arrays.stream(gitLines).filter(l -> l.startsWith("@@")).count(), doc.hunkCount());
+        assertEquals(Integer.parseInt(numstat[0]), doc.added());
+        assertEquals(Integer.parseInt(numstat[1]), doc.removed());
+
+        // "@@ -a,b +c,d @@" and then a context line: old line a, new line c
+        int probe = doc.hunkLine(doc.hunkCount() / 2);
+        String[] ranges = doc.text(probe).split(" ");
+        assertEquals(Integer.parseInt(ranges[1].substring(1).split(",")[0]), doc.oldNumber(probe + 1));
+        assertEquals(Integer.parseInt(ranges[2].substring(1).split(",")[0]), doc.newNumber(probe + 1));
+
+        int changed = -1;
+        for (int i = 0; i < doc.lineCount() && changed < 0; i++) {
+            if (doc.kind(i) == DiffDocument.ADDED && doc.text(i).contains("private")) changed = i;
+        }
+        assertTrue(doc.text(changed).startsWith("+    private final"), "tab expanded");
+        assertEquals("1 1 1 1 4 3", styles(doc, changed), "keyword x4, number, comment");
+        int comment = -1;
+        for (int i = 0; i < doc.lineCount() && comment < 0; i++) {
+            if (doc.text(i).endsWith("comment */") && doc.kind(i - 1) != DiffDocument.HUNK) comment = i;
+        }
+        assertEquals("3", styles(doc, comment), "block comment carried to the next line");
+    }
+
+    @Test
+    void renameUntrackedCacheAndReload() throws Exception {
+        show("Big.java", null, false, 'M');
+        DiffDocument doc = waitFor(DiffDocument::isComplete);
+
+        show("renamed.txt", "small.txt", true, 'R');
+        DiffDocument renamed = waitFor(d -> d.isComplete() && d.path.equals("renamed.txt"));
+        assertTrue(renamed.text(0).startsWith("diff --git a/small.txt b/renamed.txt"), renamed.text(0));
+
+        show("Big.java", null, false, 'M');
+        assertSame(doc, waitFor(d -> d.path.equals("Big.java")), "from the cache");
+
+        show("notes.md", null, false, '?');
+        DiffDocument untracked = waitFor(d -> d.isComplete() && d.path.equals("notes.md"));
+        assertEquals(2, untracked.added());
+        assertEquals(DiffDocument.NOTE, untracked.kind(untracked.lineCount() - 1), "no newline at the end");
+
+        TestRepos.write(dir.resolve("Big.java"), String.join("\n", lines) + "// more\n");
+        show("Big.java", null, false, 'M');
+        DiffDocument reloaded = waitFor(d -> d != doc && d.isComplete() && d.path.equals("Big.java"));
+        assertEquals(doc.added() + 1, reloaded.added());
+    }
+
+    private void show(String path, String origPath, boolean staged, char status) throws Exception {
+        SwingUtilities.invokeAndWait(() -> view.show(repo, db, path, origPath, staged, status));
+    }
+
+    private DiffDocument waitFor(Predicate<DiffDocument> condition) throws Exception {
+        for (int i = 0; i < 30_000; i++) {
+            DiffDocument[] shown = new DiffDocument[1];
+            SwingUtilities.invokeAndWait(() -> shown[0] = view.document());
+            if (shown[0] != null && condition.test(shown[0])) return shown[0];
+            Thread.sleep(1);
+        }
+        throw new AssertionError("the diff never showed");
+    }
+
+    private static String styles(DiffDocument doc, int line) {
+        StringBuilder s = new StringBuilder();
+        for (int span : doc.spans(line)) {
+            s.append(s.length() == 0 ? "" : " ").append(SyntaxHighlighter.spanStyle(span));
+        }
+        return s.toString();
+    }
+}
@@ -0,0 +1,109 @@
+import org.junit.jupiter.api.*;
+
+import javax.swing.*;
+import javax.swing.event.*;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * FileListModel's diffing update: replaying its events on a copy of the
+ * old list, the way JList follows them, gives the new list; a handful of
+ * changes is a handful of events; the selected paths stay selected; and a
+ * rename whose source changed counts as changed.
+ */
+class FileListModelTest {
+
+    private final FileListModel model = new FileListModel();
+    private final List<String> mirror = new ArrayList<>();
+    private int events;
+
+    @BeforeEach
+    void setUp() {
+        model.addListDataListener(new ListDataListener() {
+            public void intervalAdded(ListDataEvent e) {
+                events++;
+                for (int k = e.getIndex0(); k <= e.getIndex1(); k++) mirror.add(k, model.getElementAt(k));
+            }
+
+            public void intervalRemoved(ListDataEvent e) {
+                events++;
+                mirror.subList(e.getIndex0(), e.getIndex1() + 1).clear();
+            }
+
+            public void contentsChanged(ListDataEvent e) {
+                events++;
+                for (int k = e.getIndex0(); k <= e.getIndex1(); k++) mirror.set(k, model.getElementAt(k));
+            }
+        });
+    }
+
+    @Test
+    void eventsReplayToTheNewList() {
+        List<String> before = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            before.add("M " + String.format("d%02d/f%04d.txt", i / 100, i));
+        }
+        List<String> after = new ArrayList<>(before);
+        after.set(500, "D d05/f0500.txt");
+        after.remove(7000);
+        after.add(4000, "? d40/f3999-new.txt");
+        after.add("? zz-new/");
+        after.subList(100, 110).clear();
+
+        update(before, null);
+        assertEquals(before, mirror);
+        JList<String> list = new JList<>(model);
+        list.setSelectedIndices(new int[] { 10, 6000, 9000 });
+        List<String> selected = paths(list.getSelectedValuesList());
+
+        events = 0;
+        update(after, list.getSelectionModel());
+        assertEquals(after, contents());
+        assertEquals(after, mirror);
+        assertTrue(events <= 5, events + " events");
+        assertEquals(selected, paths(list.getSelectedValuesList()));
+
+        update(before, list.getSelectionModel());
+        assertEquals(before, mirror);
+    }
+
+    @Test
+    void renameSourceIsPartOfTheRow() {
+        FileListModel.Rows rows = new FileListModel.Rows(new PathStore());
+        rows.add('R', "new.txt", "old.txt");
+        rows.add('M', "x -> y.txt");
+        model.update(rows);
+        assertEquals("new.txt", model.pathAt(0));
+        assertEquals("old.txt", model.origPathAt(0));
+        assertEquals("x -> y.txt", model.pathAt(1));
+        assertNull(model.origPathAt(1));
+
+        FileListModel.Rows moved = new FileListModel.Rows(new PathStore());
+        moved.add('R', "new.txt", "other.txt");
+        moved.add('M', "x -> y.txt");
+        events = 0;
+        model.update(moved);
+        assertEquals(1, events);
+        assertEquals("other.txt", model.origPathAt(0));
+    }
+
+    private void update(List<String> rows, ListSelectionModel selection) {
+        FileListModel.Rows next = new FileListModel.Rows(new PathStore());
+        for (String row : rows) next.add(row.charAt(0), FileListModel.pathOf(row));
+        if (selection == null) model.update(next);
+        else model.update(next, selection);
+    }
+
+    private List<String> contents() {
+        List<String> shown = new ArrayList<>();
+        for (int i = 0; i < model.getSize(); i++) shown.add(model.getElementAt(i));
+        return shown;
+    }
+
+    private static List<String> paths(List<String> rows) {
+        List<String> paths = new ArrayList<>();
+        for (String row : rows) paths.add(FileListModel.pathOf(row));
+        return paths;
+    }
+}
@@ -0,0 +1,289 @@
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.swing.*;
+import javax.swing.tree.TreePath;
+import java.io.File;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * FileTreeModel with staged renames: a rename is a leaf under its new path
+ * that remembers the old one, and staging or unstaging it, or a directory
+ * it was moved into, names both paths. On a large generated list, a
+ * refresh keeps the open nodes, expansion and selection, and leaves every
+ * loaded directory as a fresh tree would have it; a directory is staged
+ * and unstaged through one pathspec.
+ */
+class FileTreeModelTest {
+
+    private static final String[] TOP = { "src/main/java", "src/test/java", "docs", "web/static", "tools" };
+    private static final String[] PARTS = { "core", "api", "model", "service", "util", "store", "net", "ui",
+        "render", "parser", "index", "cache", "auth", "billing", "report", "search" };
+
+    @TempDir
+    Path dir;
+
+    private FileTreeModel model;
+    private FileTreeModel.Node root;
+
+    @BeforeEach
+    void setUp() {
+        FileListModel.Rows rows = new FileListModel.Rows(new PathStore());
+        rows.add('M', "a/keep.txt");
+        rows.add('R', "b/new.txt", "a/old.txt");
+        rows.add('R', "b/is.txt", "b/was.txt");
+        rows.add('A', "b/zzz.txt");
+        rows.add('R', "a/c.txt", "c.txt");
+        FileListModel list = new FileListModel();
+        list.update(rows);
+        model = new FileTreeModel();
+        model.update(list.rows());
+        root = (FileTreeModel.Node) model.getRoot();
+    }
+
+    @Test
+    void renamesSitUnderTheirNewPath() {
+        assertEquals(List.of("a/", "b/"), names(root));
+        FileTreeModel.Node a = child(root, "a");
+        FileTreeModel.Node b = child(root, "b");
+        assertEquals(List.of("c.txt", "keep.txt"), names(a));
+        assertEquals(List.of("is.txt", "new.txt", "zzz.txt"), names(b));
+        assertArrayEquals(new int[] { 0, 1, 0, 0, 2, 0 }, b.counts);
+
+        FileTreeModel.Node moved = child(b, "new.txt");
+        assertEquals("b/new.txt", moved.path);
+        assertEquals("a/old.txt", moved.origPath);
+    }
+
+    @Test
+    void renamedLeafBringsItsOldPath() {
+        FileTreeModel.Node b = child(root, "b");
+        assertEquals(List.of("a/old.txt", "b/new.txt"), model.pathsOf(select(b, child(b, "new.txt"))));
+    }
+
+    @Test
+    void directoryBringsOldPathsFromOutsideIt() {
+        FileTreeModel.Node a = child(root, "a");
+        FileTreeModel.Node b = child(root, "b");
+        assertEquals(List.of("a", "c.txt"), model.pathsOf(select(a)));
+        // b/was.txt is inside b already
+        assertEquals(List.of("a/old.txt", "b"), model.pathsOf(select(b)));
+    }
+
+    @Test
+    void updateKeepsRenamedLeaves() {
+        FileTreeModel.Node b = child(root, "b");
+        FileTreeModel.Node moved = child(b, "new.txt");
+        FileListModel.Rows rows = new FileListModel.Rows(new PathStore());
+        rows.add('R', "b/new.txt", "a/old.txt");
+        rows.add('A', "b/zzz.txt");
+        FileListModel list = new FileListModel();
+        list.update(rows);
+        model.update(list.rows());
+        assertSame(moved, child(b, "new.txt"));
+        assertEquals(List.of("new.txt", "zzz.txt"), names(b));
+    }
+
+    @Test
+    void arrowInAFileNameIsNotARename() {
+        FileListModel.Rows rows = new FileListModel.Rows(new PathStore());
+        rows.add('A', "b/x -> y.txt");
+        FileListModel list = new FileListModel();
+        list.update(rows);
+        model.update(list.rows());
+        FileTreeModel.Node arrow = child(child(root, "b"), "x -> y.txt");
+        assertEquals("b/x -> y.txt", arrow.path);
+        assertNull(arrow.origPath);
+        assertNull(list.origPathAt(0));
+        assertEquals(List.of("b/x -> y.txt"), model.pathsOf(select(child(root, "b"), arrow)));
+    }
+
+    @Test
+    void refreshKeepsOpenNodesAndMatchesAFreshTree() {
+        TreeSet<String> paths = paths(20_000, 1);
+        FileListModel list = new FileListModel();
+        list.update(rows(paths, Collections.emptyMap()));
+        model = new FileTreeModel();
+        model.update(list.rows());
+        root = (FileTreeModel.Node) model.getRoot();
+        JTree tree = new JTree(model);
+        tree.setRootVisible(false);
+        tree.setLargeModel(true);
+        assertEquals(20_000, root.counts[index('M')] + root.counts[index('A')]);
+
+        // "src" holds only main and test, each only java
+        FileTreeModel.Node src = child(root, "src");
+        child(src, "main/java");
+        child(src, "test/java");
+
+        TreePath path = new TreePath(root);
+        FileTreeModel.Node node = root;
+        while (node.directory) {
+            tree.expandPath(path);
+            node = node.children.get(node.children.size() / 2);
+            path = path.pathByAddingChild(node);
+        }
+        FileTreeModel.Node leaf = node;
+        FileTreeModel.Node deepDir = leaf.parent;
+        assertTrue(countsMatch(list.rows(), root));
+        for (int i = 0; i < Math.min(4, tree.getRowCount()); i++) tree.expandRow(i);
+        tree.setSelectionPath(path);
+        int loaded = model.loadedDirectories();
+
+        // Statuses change, files come and go, new directories appear
+        Random random = new Random(7);
+        List<String> all = new ArrayList<>(paths);
+        Map<String, Character> statuses = new HashMap<>();
+        for (int i = 0; i < 500; i++) statuses.put(all.get(random.nextInt(all.size())), '?');
+        TreeSet<String> next = new TreeSet<>(paths);
+        for (int i = 0; i < 200; i++) {
+            String gone = all.get(random.nextInt(all.size()));
+            if (!gone.equals(leaf.path)) next.remove(gone);
+        }
+        next.addAll(paths(200, 2));
+        for (int i = 0; i < 20; i++) next.add("src/main/java/fresh/dir" + i + "/New.java");
+        next.add(deepDir.path + "/Added.java");
+        statuses.put(leaf.path, 'D');
+        list.update(rows(next, statuses));
+        model.update(list.rows());
+
+        assertSame(src, child(root, "src"));
+        assertSame(deepDir, leaf.parent);
+        assertTrue(tree.isExpanded(pathTo(deepDir)));
+        assertSame(leaf, tree.getSelectionPath().getLastPathComponent());
+        assertEquals('D', leaf.status);
+        assertTrue(model.loadedDirectories() >= loaded);
+        FileTreeModel rebuilt = new FileTreeModel();
+        rebuilt.update(list.rows());
+        assertTrue(sameAsFresh(rebuilt, root, (FileTreeModel.Node) rebuilt.getRoot()));
+        assertTrue(countsMatch(list.rows(), root));
+        child(deepDir, "Added.java");
+        child(child(child(root, "src"), "main/java"), "fresh");
+    }
+
+    @Test
+    void directoryIsOnePathspec() throws Exception {
+        File repo = TestRepos.small(dir);
+        TreeSet<String> changed = new TreeSet<>();
+        for (int i = 0; i < 40; i++) {
+            changed.add("d" + (i / 20) + "/e" + (i / 5 % 4) + "/f" + i + ".txt");
+        }
+        for (String p : changed) TestRepos.write(dir.resolve(p), "first\n");
+        TestRepos.git(dir, "add", "-A");
+        TestRepos.commit(dir, "files");
+        for (String p : changed) TestRepos.write(dir.resolve(p), "changed\n");
+
+        FileListModel list = new FileListModel();
+        list.update(rows(changed, Collections.emptyMap()));
+        model = new FileTreeModel();
+        model.update(list.rows());
+        root = (FileTreeModel.Node) model.getRoot();
+        FileTreeModel.Node d1 = child(root, "d1");
+        List<String> pathspecs = model.pathsOf(new TreePath[] {
+            new TreePath(new Object[] { root, d1 }),
+            new TreePath(new Object[] { root, d1, model.getChild(d1, 0) }) });
+        assertEquals(List.of("d1"), pathspecs);
+
+        GitProcessPool pool = new GitProcessPool(60_000);
+        try {
+            IndexUpdater updater = new IndexUpdater(pool, repo);
+            updater.stage(pathspecs, null);
+            assertEquals(20, TestRepos.output(dir, "diff", "--cached", "--name-only", "--", "d1").lines().count());
+            assertEquals("", TestRepos.output(dir, "diff", "--cached", "--name-only", "--", "d0"));
+            updater.unstage(pathspecs, null);
+            assertEquals("", TestRepos.output(dir, "diff", "--cached", "--name-only"));
+            assertEquals(40, TestRepos.output(dir, "diff", "--name-only").lines().count());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static int index(char status) {
+        int s = FileTreeModel.STATUSES.indexOf(status);
+        return s < 0 ? FileTreeModel.STATUSES.length() : s;
+    }
+
+    // Each loaded directory's counts against the rows under its path
+    private static boolean countsMatch(FileListModel.Rows rows, FileTreeModel.Node dir) {
+        if (dir.children == null) return true;
+        if (dir.parent != null) {
+            int[] counts = new int[FileTreeModel.STATUSES.length() + 1];
+            String prefix = dir.path + "/";
+            for (int i = 0; i < rows.size(); i++) {
+                if (rows.pathAt(i).startsWith(prefix)) counts[index(rows.statusAt(i))]++;
+            }
+            if (!Arrays.equals(counts, dir.counts)) return false;
+        }
+        for (FileTreeModel.Node child : dir.children) {
+            if (!countsMatch(rows, child)) return false;
+        }
+        return true;
+    }
+
+    // Every directory loaded in this model against the same one in b, loading it there
+    private boolean sameAsFresh(FileTreeModel b, FileTreeModel.Node x, FileTreeModel.Node y) {
+        if (x.children == null) return true;
+        int n = model.getChildCount(x);
+        if (n != b.getChildCount(y)) return false;
+        for (int i = 0; i < n; i++) {
+            FileTreeModel.Node cx = (FileTreeModel.Node) model.getChild(x, i);
+            FileTreeModel.Node cy = (FileTreeModel.Node) b.getChild(y, i);
+            if (!cx.path.equals(cy.path) || cx.status != cy.status || !Arrays.equals(cx.counts, cy.counts)
+                || cx.from != cy.from || cx.to != cy.to) return false;
+            if (!sameAsFresh(b, cx, cy)) return false;
+        }
+        return true;
+    }
+
+    private static TreePath pathTo(FileTreeModel.Node node) {
+        return node.parent == null ? new TreePath(node) : pathTo(node.parent).pathByAddingChild(node);
+    }
+
+    // Deep, repetitive paths in a fixed pseudo-random mix
+    private static TreeSet<String> paths(int count, long seed) {
+        Random random = new Random(seed);
+        TreeSet<String> paths = new TreeSet<>();
+        while (paths.size() < count) {
+            StringBuilder path = new StringBuilder(TOP[random.nextInt(TOP.length)]);
+            int depth = 2 + random.nextInt(4);
+            for (int d = 0; d < depth; d++) path.append('/').append(PARTS[random.nextInt(PARTS.length)]);
+            path.append("/File").append(random.nextInt(1000)).append(".java");
+            paths.add(path.toString());
+        }
+        return paths;
+    }
+
+    // Statuses from the map or else M/A by a hash of the path
+    private static FileListModel.Rows rows(Collection<String> paths, Map<String, Character> statuses) {
+        FileListModel.Rows rows = new FileListModel.Rows(new PathStore());
+        for (String p : paths) rows.add(statuses.getOrDefault(p, (p.hashCode() & 1) == 0 ? 'M' : 'A'), p);
+        return rows;
+    }
+
+    private FileTreeModel.Node child(FileTreeModel.Node dir, String name) {
+        for (int i = 0; i < model.getChildCount(dir); i++) {
+            FileTreeModel.Node c = (FileTreeModel.Node) model.getChild(dir, i);
+            if (c.name.equals(name)) return c;
+        }
+        throw new AssertionError(name + " not under " + dir.path);
+    }
+
+    private List<String> names(FileTreeModel.Node dir) {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < model.getChildCount(dir); i++) {
+            FileTreeModel.Node c = (FileTreeModel.Node) model.getChild(dir, i);
+            names.add(c.directory ? c.name + "/" : c.name);
+        }
+        return names;
+    }
+
+    private TreePath[] select(FileTreeModel.Node... path) {
+        List<Object> nodes = new ArrayList<>();
+        nodes.add(root);
+        nodes.addAll(Arrays.asList(path));
+        return new TreePath[] { new TreePath(nodes.toArray()) };
+    }
+}
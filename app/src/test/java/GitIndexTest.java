@@ -0,0 +1,57 @@
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * GitIndex.diffAgainstTree against the X column of `git status --porcelain
+ * -z`, for index versions 2, 3 (with the extended flags intent-to-add
+ * makes git write) and 4 (prefix-compressed paths).
+ */
+class GitIndexTest {
+
+    @TempDir
+    Path dir;
+
+    @ParameterizedTest
+    @ValueSource(ints = { 2, 3, 4 })
+    void stagedChangesMatchStatus(int version) throws Exception {
+        File repo = TestRepos.stagedCorpus(dir);
+        TestRepos.git(dir, "update-index", "--index-version", String.valueOf(version));
+        if (version == 3) {
+            TestRepos.write(dir.resolve("ita.txt"), "later\n");
+            TestRepos.git(dir, "add", "-N", "ita.txt");
+        }
+
+        List<String> actual = new ArrayList<>();
+        try (GitObjectDatabase db = GitObjectDatabase.open(repo)) {
+            GitIndex index = GitIndex.read(db.getGitDir());
+            String tree = db.readCommit(db.resolve("HEAD")).tree;
+            for (GitIndex.StagedChange c : index.diffAgainstTree(db, tree)) {
+                actual.add(c.status + " " + c.path + (c.origPath == null ? "" : " from " + c.origPath));
+            }
+        }
+
+        List<String> expected = new ArrayList<>();
+        String[] fields = TestRepos.raw(dir, "status", "--porcelain", "-z").split("\0");
+        for (int i = 0; i < fields.length; i++) {
+            String f = fields[i];
+            if (f.length() < 3) continue;
+            char x = f.charAt(0);
+            String path = f.substring(3);
+            if (x == 'R' || x == 'C') {
+                path += " from " + fields[++i];
+            }
+            if (x != ' ' && x != '?') {
+                expected.add(x + " " + path);
+            }
+        }
+        assertTrue(expected.contains("R pkg8/moved.txt from pkg7/inner/file4.txt"), expected.toString());
+        assertEquals(expected, actual);
+    }
+}
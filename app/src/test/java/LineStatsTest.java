@@ -0,0 +1,147 @@
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * LineStats against `git diff --numstat` for both lists: random edits,
+ * appends and deletions, a binary, a missing final newline, an untracked
+ * file and a staged rename.
+ */
+class LineStatsTest {
+
+    private static final int FILES = 150;
+
+    @TempDir
+    Path dir;
+
+    private File repo;
+    private GitObjectDatabase db;
+    private LineStats stats;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        repo = TestRepos.small(dir);
+        Random random = new Random(7);
+        List<List<String>> contents = new ArrayList<>();
+        for (int f = 0; f < FILES; f++) {
+            List<String> lines = new ArrayList<>();
+            int count = 50 + random.nextInt(400);
+            for (int i = 0; i < count; i++) {
+                // Few distinct lines, so matches are ambiguous and the diff has to choose
+                lines.add(random.nextInt(4) == 0 ? "}" : "line " + random.nextInt(count));
+            }
+            contents.add(lines);
+            write(path(f), lines);
+        }
+        Files.write(dir.resolve("image.bin"), new byte[] { 1, 0, 2, 0, 3 });
+        TestRepos.git(dir, "add", "-A");
+        TestRepos.commit(dir, "base");
+
+        for (int f = 0; f < FILES; f += 3) {
+            List<String> lines = new ArrayList<>(contents.get(f));
+            int edits = 1 + random.nextInt(20);
+            for (int e = 0; e < edits && !lines.isEmpty(); e++) {
+                int at = random.nextInt(lines.size());
+                switch (random.nextInt(3)) {
+                    case 0: lines.set(at, "changed " + random.nextInt(1000)); break;
+                    case 1: lines.remove(at); break;
+                    default: lines.add(at, "inserted " + random.nextInt(1000));
+                }
+            }
+            write(path(f), lines);
+            // Every tenth of those staged, then changed again on top
+            if (f % 30 == 0) {
+                TestRepos.git(dir, "add", path(f));
+                write(path(f), lines.subList(0, lines.size() / 2));
+            }
+        }
+        Files.delete(dir.resolve(path(1)));
+        TestRepos.write(dir.resolve(path(4)), "no newline at the end");
+        Files.write(dir.resolve("image.bin"), new byte[] { 9, 0, 9 });
+        TestRepos.write(dir.resolve("untracked/new.txt"), "a\nb\nc\n");
+        TestRepos.git(dir, "mv", path(7), "moved.txt");
+        TestRepos.git(dir, "add", path(10));
+
+        db = GitObjectDatabase.open(repo);
+        stats = new LineStats(2);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        stats.close();
+        db.close();
+    }
+
+    @Test
+    void stagedMatchesNumstat() throws Exception {
+        FileListModel.Rows rows = new FileListModel.Rows(new PathStore());
+        String headTree = db.readCommit(db.resolve("HEAD")).tree;
+        for (GitIndex.StagedChange c : GitIndex.read(db.getGitDir()).diffAgainstTree(db, headTree)) {
+            rows.add(c.status, c.path, c.origPath);
+        }
+        Map<String, String> got = run(rows, true);
+        assertEquals(numstat("diff", "--cached", "-M", "--numstat", "-z"), got);
+        assertEquals("0 0", got.get("moved.txt"), "exact rename");
+    }
+
+    @Test
+    void changedMatchesNumstat() throws Exception {
+        FileListModel.Rows rows = new FileListModel.Rows(new PathStore());
+        byte[] status = TestRepos.raw(dir, "status", "--porcelain=v2", "-z", "-uall").getBytes(StandardCharsets.UTF_8);
+        for (StatusEntry e : PorcelainParser.parse(status)) {
+            if (e.hasWorkTreeChange()) rows.add(e.workTreeStatus(), e.path);
+        }
+        Map<String, String> expected = numstat("diff", "--numstat", "-z");
+        expected.put("untracked/new.txt", "3 0");
+        Map<String, String> got = run(rows, false);
+        assertEquals(expected, got);
+        assertEquals("bin", got.get("image.bin"));
+        assertNotEquals("0 0", got.get(path(4)), "a missing final newline is a change");
+    }
+
+    private static String path(int f) {
+        return "src/dir" + (f % 37) + "/file" + f + ".txt";
+    }
+
+    private void write(String path, List<String> lines) throws Exception {
+        TestRepos.write(dir.resolve(path), String.join("\n", lines) + "\n");
+    }
+
+    // "added removed" per path, "bin" for binaries; renames keyed by the new path
+    private Map<String, String> numstat(String... args) throws Exception {
+        Map<String, String> result = new HashMap<>();
+        String[] fields = TestRepos.raw(dir, args).split("\0");
+        for (int i = 0; i < fields.length; i++) {
+            String[] parts = fields[i].split("\t", 3);
+            if (parts.length < 3) continue;
+            String path = parts[2];
+            if (path.isEmpty()) {
+                path = fields[i + 2];
+                i += 2;
+            }
+            result.put(path, parts[0].equals("-") ? "bin" : parts[0] + " " + parts[1]);
+        }
+        return result;
+    }
+
+    private Map<String, String> run(FileListModel.Rows rows, boolean staged) throws Exception {
+        FileListModel model = new FileListModel();
+        model.update(rows);
+        FileListModel.Rows shown = model.rows();
+        LineStats.Job job = stats.compute(db, repo, shown, staged, (results, count) -> model.setStats(shown, results, count));
+        while (!job.isDone()) Thread.sleep(1);
+        Map<String, String> result = new HashMap<>();
+        for (int i = 0; i < model.getSize(); i++) {
+            int added = model.addedAt(i);
+            if (added == LineStats.BINARY) result.put(model.pathAt(i), "bin");
+            else if (added != LineStats.UNKNOWN) result.put(model.pathAt(i), added + " " + model.removedAt(i));
+        }
+        return result;
+    }
+}
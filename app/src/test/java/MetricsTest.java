@@ -0,0 +1,90 @@
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.management.*;
+import javax.management.openmbean.CompositeData;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Metrics: histogram percentiles against exact ones over a skewed latency
+ * sample, what GitProcessPool records for real git commands (a failing one
+ * and bytes read included), the MBean's attributes through the platform
+ * MBean server, and the JSON dump.
+ */
+class MetricsTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void histogramPercentilesAreWithinOneBucket() {
+        // Mostly fast with a long tail, like forks that sometimes hit a cold cache
+        Random random = new Random(3);
+        long[] sample = new long[200_000];
+        Metrics.Histogram h = new Metrics.Histogram();
+        for (int i = 0; i < sample.length; i++) {
+            sample[i] = (long) (2000 * Math.exp(random.nextGaussian() * 1.2));
+            h.record(sample[i]);
+        }
+        Arrays.sort(sample);
+        for (double p : new double[] { 50, 90, 99, 99.9, 100 }) {
+            long exact = sample[(int) Math.min(sample.length - 1, Math.ceil(p / 100 * sample.length) - 1)];
+            long got = h.percentile(p);
+            double error = Math.abs(got - exact) / (double) exact;
+            assertTrue(error <= 1 / 64.0, "p" + p + ": exact " + exact + " us, histogram " + got + " us");
+        }
+    }
+
+    @Test
+    void poolRecordsCommandsAndExportsThem() throws Exception {
+        Metrics metrics = Metrics.global();
+        metrics.reset();
+        File repo = TestRepos.small(dir);
+        GitProcessPool pool = new GitProcessPool(60_000);
+        String log;
+        byte[] raw;
+        try {
+            for (int i = 0; i < 20; i++) {
+                pool.run(repo, "status", "--porcelain");
+            }
+            log = pool.run(repo, "log", "--format=%H%n%an%n%s");
+            pool.run(repo, "rev-parse", "--verify", "no-such-ref^{commit}");
+            raw = pool.runRaw(repo, "ls-files", "-z");
+            pool.run(repo, "cat-file", "-t", "HEAD");
+        } finally {
+            pool.shutdown();
+        }
+
+        Map<String, MetricsMXBean.CommandStats> byName = new HashMap<>();
+        for (MetricsMXBean.CommandStats s : metrics.getCommands()) {
+            byName.put(s.getCommand(), s);
+        }
+        assertEquals(20, byName.get("status").getCount());
+        assertEquals(1, byName.get("rev-parse").getFailures());
+        assertEquals(log.getBytes(StandardCharsets.UTF_8).length + 1, byName.get("log").getOutputBytes());
+        assertEquals(raw.length, byName.get("ls-files").getOutputBytes());
+        assertTrue(byName.containsKey("cat-file --batch-check (pooled)"), "pooled request recorded");
+
+        metrics.start();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("simplegit:type=Metrics");
+        for (int i = 0; i < 50 && !server.isRegistered(name); i++) {
+            Thread.sleep(20);
+        }
+        assertEquals(metrics.getInvocations(), (long) (Long) server.getAttribute(name, "Invocations"));
+        CompositeData[] commands = (CompositeData[]) server.getAttribute(name, "Commands");
+        assertEquals(byName.size(), commands.length);
+
+        Path dump = dir.resolve("metrics.json");
+        metrics.dump(dump.toFile());
+        String json = new String(Files.readAllBytes(dump), StandardCharsets.UTF_8);
+        assertTrue(json.contains("\"status\": {\"failures\": 0"), json);
+        assertTrue(json.contains("\"edtLag\""), json);
+    }
+}
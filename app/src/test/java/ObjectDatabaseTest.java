@@ -0,0 +1,49 @@
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * GitObjectDatabase against `git cat-file --batch`, byte for byte, for
+ * every object of a repository with loose objects, a pack and its index,
+ * and deep delta chains inside the pack.
+ */
+class ObjectDatabaseTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void everyObjectReadsAsCatFileDoes() throws Exception {
+        File repo = TestRepos.deltaCorpus(dir, 60);
+        GitProcessPool pool = new GitProcessPool(60_000);
+        int deltas = 0;
+        int loose = 0;
+        int checked = 0;
+        try (GitObjectDatabase db = GitObjectDatabase.open(repo)) {
+            String listing = TestRepos.output(dir, "cat-file", "--batch-all-objects",
+                "--batch-check=%(objectname) %(deltabase)");
+            for (String line : listing.split("\n")) {
+                String[] f = line.split(" ");
+                String id = f[0];
+                if (!f[1].matches("0+")) deltas++;
+                if (new File(repo, ".git/objects/" + id.substring(0, 2) + "/" + id.substring(2)).isFile()) loose++;
+                byte[] expected = pool.readObject(repo, id);
+                String type = pool.checkObject(repo, id)[1];
+                GitObjectDatabase.GitObject actual = db.read(id);
+                assertNotNull(actual, id);
+                assertEquals(type, actual.typeName(), id);
+                assertArrayEquals(expected, actual.data, id);
+                checked++;
+            }
+        } finally {
+            pool.shutdown();
+        }
+        assertTrue(deltas > 0, "the pack holds deltas");
+        assertTrue(loose > 0 && loose < checked, "some objects are loose, the rest packed");
+    }
+}
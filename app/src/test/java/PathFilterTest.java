@@ -0,0 +1,110 @@
+import org.junit.jupiter.api.*;
+
+import javax.swing.*;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * PathFilter's trigram index against checking every path, keystroke by
+ * keystroke, and a filtered FileListModel: shown positions map back to
+ * rows, line counts and the selection follow them, and a refresh keeps
+ * the filter.
+ */
+class PathFilterTest {
+
+    private static final String[] TOP = { "src/main/java", "src/test/java", "docs", "web/static", "tools" };
+    private static final String[] PARTS = { "core", "api", "model", "service", "util", "store", "net", "ui",
+        "render", "parser", "index", "cache", "auth", "billing", "report", "search" };
+    private static final String[] NAMES = { "Controller", "Service", "Repository", "Factory", "Handler",
+        "Test", "Config", "Mapper", "Client", "Helper" };
+    private static final int COUNT = 20_000;
+
+    @Test
+    void indexAgreesWithScan() {
+        FileListModel.Rows rows = rows(COUNT, 1);
+        PathFilter index = PathFilter.build(rows);
+        for (String query : new String[] { "servicetest", "billing Handler", "index/cache", "zzz", "ui", "SRC/Main" }) {
+            for (int n = 1; n <= query.length(); n++) {
+                String typed = query.substring(0, n);
+                assertArrayEquals(PathFilter.scan(rows, typed), index.matches(typed, () -> false), typed);
+            }
+        }
+    }
+
+    @Test
+    void filteredModelMapsBackToRows() throws Exception {
+        FileListModel model = new FileListModel();
+        FileListModel.Rows rows = rows(COUNT, 1);
+        SwingUtilities.invokeAndWait(() -> model.update(rows));
+        JList<String> list = new JList<>(model);
+        FileListFilter filter = new FileListFilter(model, list.getSelectionModel());
+        String typed = "billing Handler";
+        int[] matching = PathFilter.scan(rows, typed);
+
+        // Typed without waiting: only the last query has to land
+        SwingUtilities.invokeAndWait(filter::prepare);
+        for (int n = 1; n <= typed.length(); n++) {
+            String prefix = typed.substring(0, n);
+            SwingUtilities.invokeAndWait(() -> filter.setQuery(prefix));
+        }
+        awaitFilter(model, typed);
+        assertEquals(matching.length, model.getSize());
+        assertEquals(COUNT, model.totalSize());
+        for (int i = 0; i < model.getSize(); i++) {
+            String p = model.pathAt(i).toLowerCase(Locale.ROOT);
+            assertTrue(p.contains("billing") && p.contains("handler"), p);
+            assertEquals(model.statusAt(i) + " " + model.pathAt(i), model.getElementAt(i));
+        }
+
+        int target = matching[matching.length / 2];
+        SwingUtilities.invokeAndWait(() -> model.setStats(rows, new int[] { target, 7, 3, 0, 1, 1 }, 6));
+        int at = model.indexOfPath(rows.pathAt(target));
+        assertEquals(matching.length / 2, at);
+        assertEquals(7, model.addedAt(at));
+        assertEquals(3, model.removedAt(at));
+        if (matching[0] != 0) assertEquals(-1, model.indexOfPath(rows.pathAt(0)), "hidden path has no position");
+
+        // Selection survives clearing the filter; a refresh keeps the filter
+        String selected = model.pathAt(at);
+        SwingUtilities.invokeAndWait(() -> list.setSelectedIndex(at));
+        SwingUtilities.invokeAndWait(() -> filter.setQuery(""));
+        assertEquals(model.totalSize(), model.getSize());
+        assertEquals(target, list.getSelectedIndex());
+        assertEquals(selected, model.pathAt(list.getSelectedIndex()));
+        SwingUtilities.invokeAndWait(() -> filter.setQuery(typed));
+        awaitFilter(model, typed);
+        FileListModel.Rows refreshed = rows(COUNT + 500, 2);
+        SwingUtilities.invokeAndWait(() -> model.update(refreshed, list.getSelectionModel()));
+        assertEquals(PathFilter.scan(refreshed, typed).length, model.getSize());
+        assertEquals(refreshed.size(), model.totalSize());
+    }
+
+    private static void awaitFilter(FileListModel model, String query) throws Exception {
+        for (int i = 0; i < 10_000; i++) {
+            boolean[] done = new boolean[1];
+            SwingUtilities.invokeAndWait(() -> done[0] = model.filter().equals(query));
+            if (done[0]) return;
+            Thread.sleep(1);
+        }
+        fail("filter never reached " + query);
+    }
+
+    // Deep, repetitive paths in a fixed pseudo-random mix, in path order
+    private static FileListModel.Rows rows(int count, long seed) {
+        Random random = new Random(seed);
+        Set<String> seen = new TreeSet<>();
+        while (seen.size() < count) {
+            StringBuilder path = new StringBuilder(TOP[random.nextInt(TOP.length)]);
+            int depth = 2 + random.nextInt(4);
+            for (int d = 0; d < depth; d++) path.append('/').append(PARTS[random.nextInt(PARTS.length)]);
+            String part = PARTS[random.nextInt(PARTS.length)];
+            path.append('/').append(Character.toUpperCase(part.charAt(0))).append(part.substring(1))
+                .append(NAMES[random.nextInt(NAMES.length)]).append(random.nextInt(100)).append(".java");
+            seen.add(path.toString());
+        }
+        FileListModel.Rows rows = new FileListModel.Rows(new PathStore());
+        for (String path : seen) rows.add("MAD?".charAt(random.nextInt(4)), path);
+        return rows;
+    }
+}
@@ -0,0 +1,67 @@
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * PorcelainParser on `git status --porcelain=v2 -z` against the v1 format
+ * for awkward paths (spaces, tabs, newlines, quotes, non-ASCII, a rename),
+ * whole and fed one byte at a time.
+ */
+class PorcelainParserTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void awkwardPathsMatchPorcelainV1() throws Exception {
+        TestRepos.small(dir);
+        TestRepos.write(dir.resolve("with space.txt"), "a\n");
+        TestRepos.write(dir.resolve("tab\there.txt"), "b\n");
+        TestRepos.write(dir.resolve("new\nline.txt"), "c\n");
+        TestRepos.write(dir.resolve("ünïcødé.txt"), "d\n");
+        TestRepos.write(dir.resolve("quote\"d.txt"), "e\n");
+        TestRepos.git(dir, "add", "-A");
+        TestRepos.commit(dir, "awkward names");
+        TestRepos.git(dir, "mv", "with space.txt", "renamed space.txt");
+        TestRepos.write(dir.resolve("ünïcødé.txt"), "changed\n");
+        TestRepos.write(dir.resolve("untracked \"x\".txt"), "?\n");
+        Files.delete(dir.resolve("tab\there.txt"));
+        TestRepos.git(dir, "add", "ünïcødé.txt");
+        TestRepos.write(dir.resolve("ünïcødé.txt"), "changed again\n");
+        TestRepos.write(dir.resolve("new\nline.txt"), "modified\n");
+
+        byte[] out = TestRepos.raw(dir, "status", "--porcelain=v2", "-z").getBytes(StandardCharsets.UTF_8);
+        List<StatusEntry> v2 = PorcelainParser.parse(out);
+        List<StatusEntry> v1 = parseV1(TestRepos.raw(dir, "status", "--porcelain", "-z"));
+        assertEquals(v1.size(), v2.size());
+        assertEquals(new HashSet<>(v1), new HashSet<>(v2));
+        assertTrue(v2.contains(new StatusEntry('R', ' ', "renamed space.txt", "with space.txt")), v2.toString());
+
+        // Records split across reads
+        List<StatusEntry> trickle = new ArrayList<>();
+        PorcelainParser parser = new PorcelainParser(trickle::add);
+        for (byte b : out) {
+            parser.feed(new byte[] { b }, 0, 1);
+        }
+        parser.finish();
+        assertEquals(v2, trickle);
+    }
+
+    private static List<StatusEntry> parseV1(String out) {
+        List<StatusEntry> entries = new ArrayList<>();
+        String[] fields = out.split("\0");
+        for (int i = 0; i < fields.length; i++) {
+            String f = fields[i];
+            if (f.length() < 4) continue;
+            char x = f.charAt(0);
+            String orig = (x == 'R' || x == 'C') ? fields[++i] : null;
+            entries.add(new StatusEntry(x, f.charAt(1), f.substring(3), orig));
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,160 @@
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * RefDatabase against `git for-each-ref` and `git symbolic-ref HEAD`:
+ * names, ids, peeled ids, upstreams and HEAD after each kind of change git
+ * makes to packed and loose refs, and a linked worktree's own HEAD and
+ * per-worktree refs on top of the shared ones.
+ */
+class RefDatabaseTest {
+
+    @TempDir
+    Path root;
+
+    @Test
+    void matchesForEachRefAfterEachChange() throws Exception {
+        Path dir = Files.createDirectory(root.resolve("repo"));
+        TestRepos.small(dir);
+        TestRepos.git(dir, "branch", "-M", "master");
+        String head = TestRepos.output(dir, "rev-parse", "HEAD");
+        StringBuilder updates = new StringBuilder();
+        for (int i = 0; i < 300; i++) {
+            updates.append("create refs/tags/v").append(i).append(' ').append(head).append('\n');
+        }
+        StringBuilder config = new StringBuilder("[remote \"origin\"]\n\turl = /dev/null\n"
+            + "\tfetch = +refs/heads/*:refs/remotes/origin/*\n");
+        for (int i = 0; i < 40; i++) {
+            updates.append("create refs/heads/topic/b").append(i).append(' ').append(head).append('\n');
+            updates.append("create refs/remotes/origin/topic/b").append(i).append(' ').append(head).append('\n');
+            if (i % 2 == 0) {
+                config.append("[branch \"topic/b").append(i).append("\"]\n\tremote = origin\n")
+                    .append("\tmerge = refs/heads/topic/b").append(i).append('\n');
+            }
+        }
+        updateRefs(dir, updates.toString());
+        Files.write(dir.resolve(".git/config"), config.toString().getBytes(StandardCharsets.UTF_8),
+            StandardOpenOption.APPEND);
+        for (int i = 0; i < 5; i++) {
+            TestRepos.git(dir, "-c", "user.name=test", "-c", "user.email=test@example.com",
+                "tag", "-a", "-m", "release", "release-" + i);
+        }
+        TestRepos.git(dir, "symbolic-ref", "refs/remotes/origin/HEAD", "refs/remotes/origin/topic/b0");
+        TestRepos.git(dir, "pack-refs", "--all");
+        // Loose refs over packed-refs: new ones, and one shadowing its packed entry
+        TestRepos.commit(dir, "second");
+        String second = TestRepos.output(dir, "rev-parse", "HEAD");
+        TestRepos.git(dir, "update-ref", "refs/heads/master", head);
+        TestRepos.git(dir, "update-ref", "refs/heads/loose-only", second);
+        TestRepos.git(dir, "update-ref", "refs/heads/topic/b2", second);
+
+        RefDatabase refs = new RefDatabase(new File(dir.toFile(), ".git"));
+        check(dir, refs);
+        assertEquals(head, refs.read().resolve("v123"));
+        // Past the racy window an unchanged ref set is the same snapshot
+        Thread.sleep(150);
+        refs.read();
+        assertSame(refs.read(), refs.read());
+
+        TestRepos.git(dir, "branch", "-q", "fresh", second);
+        check(dir, refs);
+        TestRepos.git(dir, "update-ref", "refs/heads/topic/b10", second);
+        check(dir, refs);
+        TestRepos.git(dir, "branch", "-q", "-D", "topic/b12");
+        check(dir, refs);
+        TestRepos.git(dir, "pack-refs", "--all");
+        check(dir, refs);
+        TestRepos.git(dir, "branch", "-q", "deep/er/nested", head);
+        check(dir, refs);
+        TestRepos.git(dir, "symbolic-ref", "HEAD", "refs/heads/fresh");
+        check(dir, refs);
+        TestRepos.git(dir, "update-ref", "--no-deref", "HEAD", head);
+        check(dir, refs);
+        TestRepos.git(dir, "config", "branch.fresh.remote", "origin");
+        TestRepos.git(dir, "config", "branch.fresh.merge", "refs/heads/topic/b4");
+        check(dir, refs);
+    }
+
+    @Test
+    void linkedWorktreeHasItsOwnHeadAndPerWorktreeRefs() throws Exception {
+        Path main = Files.createDirectory(root.resolve("main"));
+        TestRepos.small(main);
+        TestRepos.git(main, "branch", "-M", "main");
+        Path linked = root.resolve("linked");
+        TestRepos.git(main, "worktree", "add", "-q", "-b", "feature", linked.toString());
+        TestRepos.commit(linked, "on feature");
+        TestRepos.git(linked, "update-ref", "refs/worktree/mark", "HEAD");
+        TestRepos.git(main, "update-ref", "refs/bisect/bad", "HEAD");
+        TestRepos.git(main, "pack-refs", "--all");
+
+        RefDatabase refs = new RefDatabase(GitObjectDatabase.findWorkTreeGitDir(linked.toFile()),
+            GitObjectDatabase.findGitDir(linked.toFile()));
+        RefDatabase.Snapshot snap = refs.read();
+        assertEquals("refs/heads/feature", snap.headRef());
+        assertEquals(TestRepos.output(linked, "rev-parse", "HEAD"), snap.resolve("HEAD"));
+        assertEquals(forEachRef(linked), list(snap));
+        assertNotNull(snap.resolve("refs/worktree/mark"));
+        assertNull(snap.resolve("refs/bisect/bad"), "the main worktree's bisect refs aren't ours");
+
+        RefDatabase mainRefs = new RefDatabase(new File(main.toFile(), ".git"));
+        assertEquals("refs/heads/main", mainRefs.read().headRef());
+        assertEquals(forEachRef(main), list(mainRefs.read()));
+
+        TestRepos.git(linked, "checkout", "-q", "--detach");
+        assertNull(refs.read().headRef(), "detached");
+        assertEquals("refs/heads/main", mainRefs.read().headRef());
+    }
+
+    private static void check(Path dir, RefDatabase refs) throws Exception {
+        List<String> expected = new ArrayList<>();
+        String out = TestRepos.output(dir, "for-each-ref",
+            "--format=%(refname) %(objectname) %(*objectname) %(upstream) %(symref)");
+        for (String line : out.split("\n")) {
+            expected.add(line.trim());
+        }
+        RefDatabase.Snapshot snap = refs.read();
+        List<String> got = new ArrayList<>();
+        for (RefDatabase.Ref r : snap.list("refs/")) {
+            String upstream = snap.upstream(r.name);
+            got.add((r.name + " " + r.id + " " + (r.peeled == null ? "" : r.peeled) + " "
+                + (upstream == null ? "" : upstream) + " "
+                + (r.target == null ? "" : r.target)).trim());
+        }
+        assertEquals(expected, got);
+        String headRef = TestRepos.output(dir, "symbolic-ref", "-q", "HEAD");
+        assertEquals(headRef.isEmpty() ? null : headRef, snap.headRef());
+        assertEquals(TestRepos.output(dir, "rev-parse", "HEAD"), snap.resolve("HEAD"));
+    }
+
+    private static void updateRefs(Path dir, String commands) throws Exception {
+        Process p = new ProcessBuilder("git", "update-ref", "--stdin")
+            .directory(dir.toFile())
+            .redirectErrorStream(true)
+            .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+            .start();
+        try (OutputStream in = p.getOutputStream()) {
+            in.write(commands.getBytes(StandardCharsets.UTF_8));
+        }
+        assertEquals(0, p.waitFor(), "update-ref --stdin");
+    }
+
+    private static List<String> forEachRef(Path dir) throws Exception {
+        String out = TestRepos.output(dir, "for-each-ref", "--format=%(refname) %(objectname)");
+        return Arrays.asList(out.split("\n"));
+    }
+
+    private static List<String> list(RefDatabase.Snapshot snap) throws Exception {
+        List<String> got = new ArrayList<>();
+        for (RefDatabase.Ref r : snap.list("refs/")) {
+            got.add(r.name + " " + r.id);
+        }
+        return got;
+    }
+}
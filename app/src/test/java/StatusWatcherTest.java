@@ -0,0 +1,110 @@
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * StatusWatcher against git status: in a linked worktree both lists come
+ * from that worktree's own index and HEAD, not the main checkout's, and a
+ * change to .gitignore, info/exclude or core.excludesFile is picked up
+ * without a restart.
+ */
+class StatusWatcherTest {
+
+    @TempDir
+    Path root;
+
+    private GitProcessPool pool;
+    private GitObjectDatabase db;
+    private StatusWatcher watcher;
+    private final BlockingQueue<List<String>[]> published = new LinkedBlockingQueue<>();
+
+    @BeforeEach
+    void setUp() {
+        pool = new GitProcessPool(60_000);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        if (watcher != null) watcher.close();
+        if (db != null) db.close();
+        pool.shutdown();
+    }
+
+    @Test
+    void linkedWorktreeUsesItsOwnIndexAndHead() throws Exception {
+        Path main = Files.createDirectory(root.resolve("main"));
+        TestRepos.small(main);
+        Path linked = root.resolve("linked");
+        TestRepos.git(main, "worktree", "add", "-q", "-b", "feature", linked.toString());
+        TestRepos.write(linked.resolve("feature.txt"), "feature\n");
+        TestRepos.git(linked, "add", "-A");
+        TestRepos.commit(linked, "feature");
+        TestRepos.write(linked.resolve("staged.txt"), "staged\n");
+        TestRepos.write(linked.resolve("README.md"), "changed\n");
+        TestRepos.git(linked, "add", "staged.txt");
+        // The main checkout has different staged and changed files of its own
+        TestRepos.write(main.resolve("main-only.txt"), "main\n");
+        TestRepos.git(main, "add", "-A");
+        TestRepos.write(main.resolve("README.md"), "main edit\n");
+
+        start(linked);
+        assertEquals(TestRepos.output(linked, "rev-parse", "HEAD"), db.resolve("HEAD"));
+        List<String>[] last = await(p -> !p[1].isEmpty());
+        assertEquals(List.of("A staged.txt"), last[0]);
+        assertEquals(List.of("M README.md"), last[1]);
+    }
+
+    @Test
+    void ignoreRuleChangesRescan() throws Exception {
+        Path repo = Files.createDirectory(root.resolve("repo"));
+        TestRepos.small(repo);
+        Path global = root.resolve("global-ignore");
+        TestRepos.write(global, "");
+        TestRepos.git(repo, "config", "core.excludesFile", global.toString());
+        TestRepos.write(repo.resolve("src/a.log"), "a\n");
+        TestRepos.write(repo.resolve("b.tmp"), "b\n");
+        TestRepos.write(repo.resolve("c.bak"), "c\n");
+        start(repo);
+        await(p -> p[1].equals(List.of("? b.tmp", "? c.bak", "? src/")));
+
+        TestRepos.write(repo.resolve(".gitignore"), "*.log\n");
+        await(p -> p[1].equals(List.of("? .gitignore", "? b.tmp", "? c.bak")));
+        TestRepos.write(repo.resolve(".git/info/exclude"), "*.tmp\n");
+        await(p -> p[1].equals(List.of("? .gitignore", "? c.bak")));
+        TestRepos.write(global, "*.bak\n");
+        await(p -> p[1].equals(List.of("? .gitignore")));
+        TestRepos.write(repo.resolve(".gitignore"), "");
+        await(p -> p[1].equals(List.of("? .gitignore", "? src/")));
+    }
+
+    private void start(Path workTree) throws Exception {
+        db = GitObjectDatabase.open(workTree.toFile());
+        watcher = new StatusWatcher(workTree.toFile(), db, pool, (staged, changed) -> {
+            List<String> s = new ArrayList<>();
+            for (GitIndex.StagedChange c : staged) s.add(c.status + " " + c.path);
+            List<String> w = new ArrayList<>();
+            for (StatusEntry e : changed) w.add(e.workTreeStatus() + " " + e.path);
+            Collections.sort(w);
+            @SuppressWarnings("unchecked")
+            List<String>[] both = new List[] { s, w };
+            published.add(both);
+        });
+        watcher.start();
+    }
+
+    // The first publication that satisfies the condition
+    private List<String>[] await(java.util.function.Predicate<List<String>[]> condition) throws InterruptedException {
+        List<String>[] last = null;
+        for (List<String>[] p; (p = published.poll(10, TimeUnit.SECONDS)) != null; ) {
+            last = p;
+            if (condition.test(p)) return p;
+        }
+        fail("never published the expected status; last: " + (last == null ? "nothing" : last[1]));
+        return null;
+    }
+}
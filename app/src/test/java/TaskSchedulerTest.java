@@ -0,0 +1,117 @@
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * TaskScheduler driven the way the UI drives it: a burst of refreshes
+ * collapses into at most two runs, work on one repository runs in order,
+ * cancelling kills a hung git together with its children, and a git that
+ * overruns its timeout is killed.
+ */
+class TaskSchedulerTest {
+
+    // A git alias that shells out to sleep, so git has a child
+    private static final String[] HANG = { "-c", "alias.hang=!sleep 60", "hang" };
+
+    @TempDir
+    Path dir;
+
+    private File repo;
+    private GitProcessPool pool;
+    private TaskScheduler tasks;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        repo = TestRepos.small(dir);
+        pool = new GitProcessPool(30_000);
+        tasks = new TaskScheduler((running, queued, completed) -> {});
+    }
+
+    @AfterEach
+    void tearDown() {
+        tasks.close();
+        pool.shutdown();
+    }
+
+    @Test
+    void burstOfRefreshesRunsAtMostTwice() throws Exception {
+        AtomicInteger refreshes = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        TaskScheduler.Job refresh = () -> {
+            refreshes.incrementAndGet();
+            release.await();
+            pool.run(repo, "status", "--porcelain");
+        };
+        Set<TaskScheduler.Task> distinct = new HashSet<>();
+        for (int i = 0; i < 10; i++) {
+            distinct.add(tasks.submitCoalesced("refresh", "Refresh", repo, refresh));
+        }
+        release.countDown();
+        for (TaskScheduler.Task t : distinct) t.completion().get(30, TimeUnit.SECONDS);
+        assertTrue(refreshes.get() <= 2, "10 refreshes ran " + refreshes.get() + " times");
+    }
+
+    @Test
+    void oneRepositoryRunsInSubmissionOrder() throws Exception {
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        List<TaskScheduler.Task> lane = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            int n = i;
+            lane.add(tasks.submit("Op " + i, repo, () -> {
+                Thread.sleep(n % 3);
+                order.add(n);
+            }));
+        }
+        TaskScheduler.Task read = tasks.submitRead("History", () -> pool.run(repo, "log", "--oneline", "-5"));
+        for (TaskScheduler.Task t : lane) t.completion().get(30, TimeUnit.SECONDS);
+        read.completion().get(30, TimeUnit.SECONDS);
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < 20; i++) expected.add(i);
+        assertEquals(expected, order);
+    }
+
+    @Test
+    void cancelKillsHungGitAndItsChildren() throws Exception {
+        List<ProcessHandle> children = new CopyOnWriteArrayList<>();
+        TaskScheduler.Task hung = tasks.submit("Hang", repo, () -> pool.runForked(repo, HANG));
+        TaskScheduler.Task queuedBehind = tasks.submit("Behind", repo, () -> {});
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (children.isEmpty() && System.currentTimeMillis() < deadline) {
+            ProcessHandle.current().descendants()
+                .filter(p -> p.info().command().map(c -> c.endsWith("sleep")).orElse(false))
+                .forEach(children::add);
+            Thread.sleep(20);
+        }
+        assertFalse(children.isEmpty(), "the alias started sleep");
+
+        queuedBehind.cancel();
+        hung.cancel();
+        assertThrows(CancellationException.class, () -> hung.completion().get(10, TimeUnit.SECONDS));
+        for (ProcessHandle p : children) {
+            assertTrue(p.onExit().thenApply(x -> true).completeOnTimeout(false, 5, TimeUnit.SECONDS).get(),
+                "sleep child " + p.pid() + " was killed");
+        }
+        assertTrue(queuedBehind.completion().isCompletedExceptionally(), "the task queued behind it never ran");
+        tasks.submit("After", repo, () -> {}).completion().get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void gitOverrunningItsTimeoutIsKilled() {
+        // Needs a short -Dsimplegit.git.timeout, which the surefire configuration sets
+        long timeout = GitProcessPool.timeoutMillis(HANG);
+        assumeTrue(timeout < 60_000, "simplegit.git.timeout is " + timeout + " ms");
+        long t0 = System.nanoTime();
+        String result = pool.runForked(repo, HANG);
+        long ms = (System.nanoTime() - t0) / 1_000_000;
+        assertTrue(result.contains("timed out"), result);
+        assertTrue(ms < timeout + 5_000, "killed after " + ms + " ms");
+    }
+}
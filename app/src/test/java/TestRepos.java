@@ -0,0 +1,152 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Throwaway repositories for the tests, built with the git on the PATH.
+ */
+final class TestRepos {
+
+    private TestRepos() {
+    }
+
+    /** One commit with a README, in {@code dir}. */
+    static File small(Path dir) throws IOException, InterruptedException {
+        git(dir, "init", "-q");
+        write(dir.resolve("README.md"), "test\n");
+        git(dir, "add", "-A");
+        commit(dir, "initial");
+        return dir.toFile();
+    }
+
+    /** {@code commits} commits rewriting one file, written in one go by fast-import. */
+    static File history(Path dir, int commits) throws IOException, InterruptedException {
+        git(dir, "init", "-q");
+        Process p = new ProcessBuilder("git", "fast-import", "--quiet")
+            .directory(dir.toFile())
+            .redirectErrorStream(true)
+            .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+            .start();
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(p.getOutputStream(), StandardCharsets.UTF_8), 1 << 16)) {
+            long time = 1_500_000_000L;
+            for (int i = 1; i <= commits; i++) {
+                String message = "Change " + i + "\n";
+                String content = "revision " + i + "\n";
+                out.write("commit refs/heads/master\nmark :" + i + "\n");
+                out.write("committer Test <test@example.com> " + (time + i * 60L) + " +0000\n");
+                out.write("data " + message.length() + "\n" + message);
+                if (i > 1) out.write("from :" + (i - 1) + "\n");
+                out.write("M 644 inline file.txt\ndata " + content.length() + "\n" + content + "\n");
+            }
+        }
+        if (p.waitFor() != 0) {
+            throw new IOException("git fast-import failed");
+        }
+        git(dir, "symbolic-ref", "HEAD", "refs/heads/master");
+        git(dir, "reset", "-q", "--hard");
+        return dir.toFile();
+    }
+
+    /**
+     * A history rewriting the same files {@code commits} times, packed
+     * aggressively so most objects are deltas, with ten commits left loose
+     * on top.
+     */
+    static File deltaCorpus(Path dir, int commits) throws IOException, InterruptedException {
+        git(dir, "init", "-q");
+        Random random = new Random(42);
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 400; i++) {
+            lines.add("line " + i + " " + Long.toHexString(random.nextLong()));
+        }
+        for (int c = 0; c < commits; c++) {
+            for (int edit = 0; edit < 5; edit++) {
+                lines.set(random.nextInt(lines.size()), "edit " + c + " " + Long.toHexString(random.nextLong()));
+            }
+            write(dir.resolve("src/main.txt"), String.join("\n", lines) + "\n");
+            write(dir.resolve("src/module" + (c % 7) + "/part.txt"),
+                String.join("\n", lines.subList(c % 100, c % 100 + 200)) + "\n");
+            git(dir, "add", "-A");
+            commit(dir, "commit " + c);
+            if (c == commits - 10) {
+                git(dir, "gc", "-q", "--aggressive");
+            }
+        }
+        return dir.toFile();
+    }
+
+    /**
+     * A committed tree of nested directories with staged additions,
+     * modifications, deletions, an exact rename, a file that became a
+     * directory and a mode change on top, plus unstaged noise.
+     */
+    static File stagedCorpus(Path dir) throws IOException, InterruptedException {
+        git(dir, "init", "-q");
+        for (int d = 0; d < 20; d++) {
+            for (int f = 0; f < 10; f++) {
+                write(dir.resolve("pkg" + d + "/inner/file" + f + ".txt"), "content " + d + "/" + f + "\n");
+            }
+            write(dir.resolve("pkg" + d + ".txt"), "sibling " + d + "\n");
+        }
+        write(dir.resolve("tool.sh"), "echo hi\n");
+        git(dir, "add", "-A");
+        commit(dir, "base");
+
+        write(dir.resolve("pkg3/inner/file1.txt"), "changed\n");
+        write(dir.resolve("pkg3/new.txt"), "new\n");
+        write(dir.resolve("zz-top.txt"), "top\n");
+        Files.delete(dir.resolve("pkg5/inner/file2.txt"));
+        Files.move(dir.resolve("pkg7/inner/file4.txt"), dir.resolve("pkg8/moved.txt"));
+        Files.delete(dir.resolve("pkg9.txt"));
+        write(dir.resolve("pkg9.txt/now-a-dir.txt"), "dir\n");
+        git(dir, "add", "-A");
+        git(dir, "update-index", "--chmod=+x", "tool.sh");
+        write(dir.resolve("pkg1/inner/file1.txt"), "unstaged\n");
+        write(dir.resolve("untracked.txt"), "?\n");
+        return dir.toFile();
+    }
+
+    static void write(Path file, String content) throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static void commit(Path dir, String message) throws IOException, InterruptedException {
+        git(dir, "-c", "user.name=test", "-c", "user.email=test@example.com",
+            "commit", "-q", "--allow-empty", "-m", message);
+    }
+
+    /** Trimmed stdout. */
+    static String output(Path dir, String... args) throws IOException {
+        return raw(dir, args).trim();
+    }
+
+    /** Untrimmed stdout, for formats where leading spaces matter. */
+    static String raw(Path dir, String... args) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add("git");
+        command.addAll(Arrays.asList(args));
+        Process p = new ProcessBuilder(command)
+            .directory(dir.toFile())
+            .redirectError(ProcessBuilder.Redirect.DISCARD)
+            .start();
+        try (InputStream in = p.getInputStream()) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    static void git(Path dir, String... args) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add("git");
+        command.addAll(Arrays.asList(args));
+        Process p = new ProcessBuilder(command)
+            .directory(dir.toFile())
+            .redirectErrorStream(true)
+            .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+            .start();
+        if (p.waitFor() != 0) {
+            throw new IOException("git " + String.join(" ", args) + " failed in " + dir);
+        }
+    }
+}
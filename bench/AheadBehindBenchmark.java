@@ -0,0 +1,99 @@
+import java.io.File;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Times AheadBehind counting 40 diverged branches (some with merges)
+ * against their upstreams and HEAD in one walk, against one `git rev-list
+ * --left-right --count` fork per pair: without a commit-graph, with one
+ * graph file, and with a split chain plus commits newer than the graph.
+ * AheadBehindTest holds the counts to git's own.
+ *
+ *   java -cp out AheadBehindBenchmark [commits]
+ */
+public class AheadBehindBenchmark {
+
+    private static final int BRANCHES = 40;
+
+    public static void main(String[] args) throws Exception {
+        int commits = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        File repo = BenchRepos.longHistory(commits);
+        Path dir = repo.toPath();
+        String tree = rev(dir, "HEAD^{tree}");
+        String head = rev(dir, "HEAD");
+
+        // Branches forked at various depths, a few commits each, every fourth
+        // with a merge from further down master; upstreams a few commits back
+        List<String> tips = new ArrayList<>();
+        List<String> upstreams = new ArrayList<>();
+        for (int k = 0; k < BRANCHES; k++) {
+            String tip = rev(dir, "HEAD~" + (k * 37));
+            for (int c = 0; c <= k % 5; c++) {
+                tip = commitTree(dir, tree, "branch " + k + " commit " + c, tip);
+            }
+            if (k % 4 == 0) {
+                tip = commitTree(dir, tree, "merge into " + k, tip, rev(dir, "HEAD~" + (k * 11 + 500)));
+            }
+            String upstream = rev(dir, tip + "~" + (k % 3 + 1));
+            BenchRepos.git(dir, "update-ref", "refs/heads/b" + k, tip);
+            BenchRepos.git(dir, "update-ref", "refs/remotes/origin/b" + k, upstream);
+            tips.add(tip);
+            upstreams.add(upstream);
+        }
+        String[][] pairs = new String[BRANCHES * 2][];
+        for (int k = 0; k < BRANCHES; k++) {
+            pairs[2 * k] = new String[] { tips.get(k), upstreams.get(k) };
+            pairs[2 * k + 1] = new String[] { tips.get(k), head };
+        }
+
+        long t0 = System.nanoTime();
+        for (String[] pair : pairs) {
+            rev(dir, "rev-list", "--left-right", "--count", pair[0] + "..." + pair[1]);
+        }
+        System.out.printf("rev-list fork per pair (%d pairs)   %8.1f ms%n", pairs.length, (System.nanoTime() - t0) / 1e6);
+
+        time(repo, pairs, "no commit-graph");
+        BenchRepos.git(dir, "commit-graph", "write", "--reachable");
+        time(repo, pairs, "commit-graph file");
+
+        // A chain of two layers, then commits the graph doesn't know about
+        Files.delete(dir.resolve(".git/objects/info/commit-graph"));
+        BenchRepos.git(dir, "commit-graph", "write", "--reachable", "--split", "--size-multiple=1000");
+        String newer = commitTree(dir, tree, "after first layer", tips.get(1));
+        BenchRepos.git(dir, "update-ref", "refs/heads/b1", newer);
+        BenchRepos.git(dir, "commit-graph", "write", "--reachable", "--split", "--size-multiple=1000");
+        int layers = Files.readAllLines(dir.resolve(".git/objects/info/commit-graphs/commit-graph-chain")).size();
+        for (int k = 2; k < 6; k++) {
+            String tip = commitTree(dir, tree, "outside the graph " + k, tips.get(k));
+            pairs[2 * k][0] = pairs[2 * k + 1][0] = tip;
+        }
+        time(repo, pairs, "chain of " + layers + " + loose");
+    }
+
+    private static void time(File repo, String[][] pairs, String label) throws Exception {
+        try (GitObjectDatabase db = GitObjectDatabase.open(repo); AheadBehind walker = new AheadBehind(db)) {
+            long t0 = System.nanoTime();
+            walker.counts(pairs);
+            long walk = System.nanoTime() - t0;
+            t0 = System.nanoTime();
+            walker.counts(pairs);
+            long cached = System.nanoTime() - t0;
+            System.out.printf("%-30s one walk %8.1f ms, cached %6.2f ms%n", label, walk / 1e6, cached / 1e6);
+        }
+    }
+
+    private static String commitTree(Path dir, String tree, String message, String... parents) throws Exception {
+        List<String> args = new ArrayList<>(Arrays.asList("-c", "user.name=bench", "-c", "user.email=bench@example.com",
+            "commit-tree", tree, "-m", message));
+        for (String p : parents) {
+            args.add("-p");
+            args.add(p);
+        }
+        return rev(dir, args.toArray(new String[0]));
+    }
+
+    private static String rev(Path dir, String... args) throws Exception {
+        if (args.length == 1) args = new String[] { "rev-parse", args[0] };
+        return BenchRepos.gitOutput(dir, args).trim();
+    }
+}
@@ -0,0 +1,152 @@
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Compares a JMH result file (-rf json) with a committed baseline, one line
+ * per benchmark and parameter set. A result counts as a regression when it
+ * is worse by more than the threshold and by more than both runs' error
+ * margins together; the exit code is 1 if anything regressed.
+ *
+ *   java -cp bench/target/benchmarks.jar BaselineCompare baseline.json result.json [threshold %]
+ */
+public class BaselineCompare {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("usage: BaselineCompare baseline.json result.json [threshold %]");
+            System.exit(2);
+        }
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) / 100 : 0.10;
+        Map<String, Map<?, ?>> baseline = results(Paths.get(args[0]));
+        Map<String, Map<?, ?>> current = results(Paths.get(args[1]));
+
+        int regressions = 0;
+        for (Map.Entry<String, Map<?, ?>> e : current.entrySet()) {
+            Map<?, ?> now = e.getValue();
+            Map<?, ?> then = baseline.get(e.getKey());
+            if (then == null) {
+                System.out.printf("new         %s%n", e.getKey());
+                continue;
+            }
+            double before = (Double) then.get("score");
+            double after = (Double) now.get("score");
+            double noise = error(then) + error(now);
+            // Throughput is better higher, every other mode lower
+            boolean higherIsBetter = "thrpt".equals(now.get("mode"));
+            double worse = higherIsBetter ? before - after : after - before;
+            String verdict = worse > before * threshold && worse > noise ? "REGRESSED"
+                : -worse > before * threshold && -worse > noise ? "improved" : "same";
+            if (verdict.equals("REGRESSED")) regressions++;
+            System.out.printf("%-11s %s  %.3f -> %.3f %s (%+.1f%%)%n", verdict, e.getKey(),
+                before, after, now.get("scoreUnit"), (after - before) / before * 100);
+        }
+        for (String key : baseline.keySet()) {
+            if (!current.containsKey(key)) System.out.printf("missing     %s%n", key);
+        }
+        System.exit(regressions > 0 ? 1 : 0);
+    }
+
+    private static double error(Map<?, ?> metric) {
+        Object error = metric.get("scoreError");
+        return error instanceof Double && !((Double) error).isNaN() ? (Double) error : 0;
+    }
+
+    // "Class.method {files=1000}" -> primaryMetric plus the mode
+    private static Map<String, Map<?, ?>> results(Path file) throws Exception {
+        Map<String, Map<?, ?>> results = new TreeMap<>();
+        List<?> runs = (List<?>) new Json(new String(Files.readAllBytes(file), StandardCharsets.UTF_8)).value();
+        for (Object o : runs) {
+            Map<?, ?> run = (Map<?, ?>) o;
+            String name = (String) run.get("benchmark");
+            name = name.substring(name.lastIndexOf('.', name.lastIndexOf('.') - 1) + 1);
+            Object params = run.get("params");
+            String key = params == null ? name : name + " " + new TreeMap<>((Map<?, ?>) params);
+            Map<Object, Object> metric = new HashMap<>((Map<?, ?>) run.get("primaryMetric"));
+            metric.put("mode", run.get("mode"));
+            results.put(key, metric);
+        }
+        return results;
+    }
+
+    // Just enough JSON for JMH's result files; numbers come back as Double
+    private static final class Json {
+        private final String s;
+        private int i;
+
+        Json(String s) {
+            this.s = s;
+        }
+
+        Object value() {
+            skipSpace();
+            char c = s.charAt(i);
+            if (c == '{') {
+                Map<String, Object> map = new LinkedHashMap<>();
+                i++;
+                while (next() != '}') {
+                    String key = (String) value();
+                    next();    // ':'
+                    map.put(key, value());
+                    if (next() == ',') i++;
+                }
+                i++;
+                return map;
+            }
+            if (c == '[') {
+                List<Object> list = new ArrayList<>();
+                i++;
+                while (next() != ']') {
+                    list.add(value());
+                    if (next() == ',') i++;
+                }
+                i++;
+                return list;
+            }
+            if (c == '"') {
+                StringBuilder sb = new StringBuilder();
+                for (i++; s.charAt(i) != '"'; i++) {
+                    char ch = s.charAt(i);
+                    if (ch == '\\') {
+                        ch = s.charAt(++i);
+                        if (ch == 'u') {
+                            ch = (char) Integer.parseInt(s.substring(i + 1, i + 5), 16);
+                            i += 4;
+                        } else if (ch == 'n') {
+                            ch = '\n';
+                        } else if (ch == 't') {
+                            ch = '\t';
+                        }
+                    }
+                    sb.append(ch);
+                }
+                i++;
+                return sb.toString();
+            }
+            int start = i;
+            while (i < s.length() && ",}] \t\r\n".indexOf(s.charAt(i)) < 0) i++;
+            String word = s.substring(start, i);
+            switch (word) {
+                case "true": return Boolean.TRUE;
+                case "false": return Boolean.FALSE;
+                case "null": return null;
+                default: return Double.valueOf(word);    // JMH writes "NaN" unquoted too
+            }
+        }
+
+        // The next significant character, without consuming it (but ':' is consumed)
+        private char next() {
+            skipSpace();
+            char c = s.charAt(i);
+            if (c == ':') {
+                i++;
+                skipSpace();
+            }
+            return c;
+        }
+
+        private void skipSpace() {
+            while (Character.isWhitespace(s.charAt(i))) i++;
+        }
+    }
+}
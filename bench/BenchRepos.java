@@ -0,0 +1,177 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Throwaway repositories for the benchmark harnesses.
+ */
+class BenchRepos {
+
+    static File smallRepo() throws IOException, InterruptedException {
+        Path dir = Files.createTempDirectory("simplegit-bench");
+        git(dir, "init", "-q");
+        Files.write(dir.resolve("README.md"), "bench\n".getBytes(StandardCharsets.UTF_8));
+        git(dir, "add", "-A");
+        commit(dir, "initial");
+        return dir.toFile();
+    }
+
+    /**
+     * A repository whose history rewrites the same files many times, packed
+     * aggressively so most objects are stored as deltas, with a few more
+     * commits left loose on top.
+     */
+    static File deltaCorpus(int commits) throws IOException, InterruptedException {
+        Path dir = Files.createTempDirectory("simplegit-corpus");
+        git(dir, "init", "-q");
+        Random random = new Random(42);
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 400; i++) {
+            lines.add("line " + i + " " + Long.toHexString(random.nextLong()));
+        }
+        for (int c = 0; c < commits; c++) {
+            for (int edit = 0; edit < 5; edit++) {
+                lines.set(random.nextInt(lines.size()), "edit " + c + " " + Long.toHexString(random.nextLong()));
+            }
+            Path sub = dir.resolve("src/module" + (c % 7));
+            Files.createDirectories(sub);
+            Files.write(dir.resolve("src/main.txt"), lines, StandardCharsets.UTF_8);
+            Files.write(sub.resolve("part.txt"), lines.subList(c % 100, c % 100 + 200), StandardCharsets.UTF_8);
+            git(dir, "add", "-A");
+            commit(dir, "commit " + c);
+            if (c == commits - 10) {
+                git(dir, "gc", "-q", "--aggressive");
+            }
+        }
+        return dir.toFile();
+    }
+
+    /**
+     * A committed tree of nested directories with a mix of staged additions,
+     * modifications, deletions, an exact rename and a type change on top.
+     */
+    static File stagedCorpus() throws IOException, InterruptedException {
+        Path dir = Files.createTempDirectory("simplegit-staged");
+        git(dir, "init", "-q");
+        for (int d = 0; d < 20; d++) {
+            Path sub = dir.resolve("pkg" + d + "/inner");
+            Files.createDirectories(sub);
+            for (int f = 0; f < 10; f++) {
+                write(sub.resolve("file" + f + ".txt"), "content " + d + "/" + f + "\n");
+            }
+            write(dir.resolve("pkg" + d + ".txt"), "sibling " + d + "\n");
+        }
+        write(dir.resolve("tool.sh"), "echo hi\n");
+        git(dir, "add", "-A");
+        commit(dir, "base");
+
+        write(dir.resolve("pkg3/inner/file1.txt"), "changed\n");
+        write(dir.resolve("pkg3/new.txt"), "new\n");
+        write(dir.resolve("zz-top.txt"), "top\n");
+        Files.delete(dir.resolve("pkg5/inner/file2.txt"));
+        Files.move(dir.resolve("pkg7/inner/file4.txt"), dir.resolve("pkg8/moved.txt"));
+        Files.delete(dir.resolve("pkg9.txt"));
+        Files.createDirectories(dir.resolve("pkg9.txt"));
+        write(dir.resolve("pkg9.txt/now-a-dir.txt"), "dir\n");
+        git(dir, "add", "-A");
+        git(dir, "update-index", "--chmod=+x", "tool.sh");
+        // Unstaged noise that must not show up on the staged side
+        write(dir.resolve("pkg1/inner/file1.txt"), "unstaged\n");
+        write(dir.resolve("untracked.txt"), "?\n");
+        return dir.toFile();
+    }
+
+    /**
+     * A committed tree of {@code files} small files, 100 per directory, two
+     * directory levels deep.
+     */
+    static File wideTree(int files) throws IOException, InterruptedException {
+        Path dir = Files.createTempDirectory("simplegit-wide");
+        git(dir, "init", "-q");
+        for (int i = 0; i < files; i++) {
+            Path file = dir.resolve(wideTreePath(i));
+            if (i % 100 == 0) {
+                Files.createDirectories(file.getParent());
+            }
+            write(file, "file " + i + "\n");
+        }
+        git(dir, "add", "-A");
+        commit(dir, "wide tree");
+        return dir.toFile();
+    }
+
+    /**
+     * A linear history of {@code commits} commits over one small file,
+     * written with fast-import since committing a million times would take
+     * hours.
+     */
+    static File longHistory(int commits) throws IOException, InterruptedException {
+        Path dir = Files.createTempDirectory("simplegit-history");
+        git(dir, "init", "-q");
+        Process p = new ProcessBuilder("git", "fast-import", "--quiet")
+            .directory(dir.toFile())
+            .redirectErrorStream(true)
+            .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+            .start();
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(p.getOutputStream(), StandardCharsets.UTF_8), 1 << 16)) {
+            long time = 1_500_000_000L;
+            for (int i = 1; i <= commits; i++) {
+                String message = "Change " + i + ": tweak the frobnicator for case " + (i * 7919L % 1000) + "\n";
+                String content = "revision " + i + "\n";
+                out.write("commit refs/heads/master\nmark :" + i + "\n");
+                out.write("committer Bench Author " + (i % 50) + " <bench@example.com> " + (time + i * 60L) + " +0000\n");
+                out.write("data " + message.getBytes(StandardCharsets.UTF_8).length + "\n" + message);
+                if (i > 1) out.write("from :" + (i - 1) + "\n");
+                out.write("M 644 inline file.txt\ndata " + content.length() + "\n" + content + "\n");
+            }
+        }
+        if (p.waitFor() != 0) {
+            throw new IOException("git fast-import failed");
+        }
+        git(dir, "symbolic-ref", "HEAD", "refs/heads/master");
+        git(dir, "reset", "-q", "--hard");
+        return dir.toFile();
+    }
+
+    static String wideTreePath(int i) {
+        return String.format("d%03d/e%03d/f%02d.txt", i / 10000, (i / 100) % 100, i % 100);
+    }
+
+    static void write(Path file, String content) throws IOException {
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static void commit(Path dir, String message) throws IOException, InterruptedException {
+        git(dir, "-c", "user.name=bench", "-c", "user.email=bench@example.com",
+            "commit", "-q", "--allow-empty", "-m", message);
+    }
+
+    /** Untrimmed stdout, for formats where leading spaces matter. */
+    static String gitOutput(Path dir, String... args) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add("git");
+        command.addAll(Arrays.asList(args));
+        Process p = new ProcessBuilder(command)
+            .directory(dir.toFile())
+            .redirectError(ProcessBuilder.Redirect.DISCARD)
+            .start();
+        try (InputStream in = p.getInputStream()) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    static void git(Path dir, String... args) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add("git");
+        command.addAll(Arrays.asList(args));
+        Process p = new ProcessBuilder(command)
+            .directory(dir.toFile())
+            .redirectErrorStream(true)
+            .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+            .start();
+        if (p.waitFor() != 0) {
+            throw new IOException("git " + String.join(" ", args) + " failed in " + dir);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+import javax.swing.*;
+import java.awt.*;
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.List;
+
+/**
+ * Times BlameView on a file with a long history of scattered edits: the
+ * first blamed range against how long plain `git blame` takes to print
+ * anything, the whole incremental blame, the blame three commits later
+ * built on the cached one, and a cache hit. BlameViewTest compares the
+ * origins line by line with `git blame --porcelain`.
+ *
+ *   java -Djava.awt.headless=true -cp out BlameBenchmark [commits]
+ */
+public class BlameBenchmark {
+
+    private static final int LINES = 20_000;
+
+    public static void main(String[] args) throws Exception {
+        int commits = args.length > 0 ? Integer.parseInt(args[0]) : 400;
+        Path dir = BenchRepos.smallRepo().toPath();
+        Random random = new Random(11);
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < LINES; i++) {
+            lines.add("    int value" + i + " = " + i + ";\t// original");
+        }
+        Files.write(dir.resolve("Big.java"), lines);
+        BenchRepos.git(dir, "add", "-A");
+        BenchRepos.commit(dir, "base");
+        for (int c = 0; c < commits; c++) {
+            edit(lines, random, c);
+            Files.write(dir.resolve("Big.java"), lines);
+            BenchRepos.git(dir, "add", "-A");
+            BenchRepos.commit(dir, "edit " + c);
+        }
+
+        File repo = dir.toFile();
+        GitProcessPool pool = new GitProcessPool(60_000);
+        TaskScheduler tasks = new TaskScheduler((r, q, c) -> {});
+        GitObjectDatabase db = GitObjectDatabase.open(repo);
+        BlameView view = new BlameView(pool, tasks);
+        SwingUtilities.invokeAndWait(() -> view.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12)));
+
+        // Plain git blame prints nothing until it has walked the whole history
+        long g0 = System.nanoTime();
+        long[] firstByte = new long[1];
+        pool.runStreamed(repo, in -> {
+            in.read();
+            firstByte[0] = System.nanoTime() - g0;
+        }, "blame", "--porcelain", "HEAD", "--", "Big.java");
+        long gitBlame = System.nanoTime() - g0;
+
+        long t0 = System.nanoTime();
+        show(view, repo, db, "HEAD");
+        long firstRange = waitFor(view, d -> d.blamedLines() > 0) - t0;
+        long full = waitFor(view, BlameDocument::isComplete) - t0;
+        BlameDocument head = view.document();
+
+        // Three more commits, then the new HEAD: only those are walked
+        String oldHead = head.commit;
+        for (int c = 0; c < 3; c++) {
+            edit(lines, random, commits + c);
+            Files.write(dir.resolve("Big.java"), lines);
+            BenchRepos.git(dir, "add", "-A");
+            BenchRepos.commit(dir, "more " + c);
+        }
+        long n0 = System.nanoTime();
+        show(view, repo, db, "HEAD");
+        long nearby = waitFor(view, d -> d.isComplete() && !d.commit.equals(oldHead)) - n0;
+        BlameDocument next = view.document();
+        long f0 = System.nanoTime();
+        BenchRepos.gitOutput(dir, "blame", "--porcelain", "HEAD", "--", "Big.java");
+        long gitNext = System.nanoTime() - f0;
+
+        // Back to the old commit: straight from the cache
+        long c0 = System.nanoTime();
+        show(view, repo, db, oldHead);
+        long cached = waitFor(view, d -> d == head) - c0;
+
+        System.out.printf("%nBig.java: %,d lines, %d commits%n", LINES, commits + 4);
+        System.out.printf("git blame, first byte       %8.1f ms (all of it %.1f ms)%n", firstByte[0] / 1e6, gitBlame / 1e6);
+        System.out.printf("first range shown           %8.1f ms%n", firstRange / 1e6);
+        System.out.printf("whole blame                 %8.1f ms%n", full / 1e6);
+        System.out.printf("3 commits later, from cache %8.1f ms (git blame %.1f ms, %,d lines reused)%n",
+            nearby / 1e6, gitNext / 1e6, next.reusedLines());
+        System.out.printf("cache hit                   %8.2f ms%n", cached / 1e6);
+        tasks.close();
+        pool.shutdown();
+    }
+
+    // A few lines changed, one inserted, one removed; all over the file
+    private static void edit(List<String> lines, Random random, int c) {
+        for (int e = 0; e < 20; e++) {
+            int at = random.nextInt(lines.size());
+            lines.set(at, "    int value" + at + " = " + random.nextInt() + ";\t// edit " + c);
+        }
+        lines.add(random.nextInt(lines.size()), "    // inserted by " + c);
+        lines.remove(random.nextInt(lines.size()));
+    }
+
+    private static void show(BlameView view, File repo, GitObjectDatabase db, String rev) throws Exception {
+        SwingUtilities.invokeAndWait(() -> view.show(repo, db, "Big.java", rev));
+    }
+
+    private static long waitFor(BlameView view, java.util.function.Predicate<BlameDocument> condition) throws Exception {
+        for (int i = 0; i < 120_000; i++) {
+            BlameDocument[] shown = new BlameDocument[1];
+            SwingUtilities.invokeAndWait(() -> shown[0] = view.document());
+            if (shown[0] != null && condition.test(shown[0])) return System.nanoTime();
+            Thread.sleep(1);
+        }
+        throw new IllegalStateException("timed out");
+    }
+}
@@ -0,0 +1,86 @@
+import java.io.File;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Stages and then unstages every file of a modified wide tree: the old
+ * loop (one git add / git reset HEAD per file) against IndexUpdater,
+ * which sends the paths to a few git processes on stdin. Checks after
+ * each run that the index ended up where it should; the loop is only
+ * reported, since it reads names like ":colon.txt" as pathspec magic.
+ *
+ *   java -cp out BulkStageBenchmark [files]
+ */
+public class BulkStageBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int files = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        File repo = BenchRepos.wideTree(files);
+        Path dir = repo.toPath();
+        List<String> paths = new ArrayList<>();
+        for (int i = 0; i < files; i++) {
+            paths.add(BenchRepos.wideTreePath(i));
+            BenchRepos.write(dir.resolve(paths.get(i)), "changed " + i + "\n");
+        }
+        // Names that would trip up a shell or a pathspec pattern
+        for (String odd : new String[] { "with space.txt", "star*.txt", "quote\"d.txt", ":colon.txt" }) {
+            BenchRepos.write(dir.resolve(odd), odd + "\n");
+            paths.add(odd);
+        }
+        System.out.println("Repository: " + repo + " (" + paths.size() + " changed files)");
+
+        GitProcessPool pool = new GitProcessPool(60_000);
+        IndexUpdater updater = new IndexUpdater(pool, repo);
+        try {
+            long t0 = System.nanoTime();
+            for (String path : paths) {
+                pool.run(repo, "add", path);
+            }
+            long loopStage = System.nanoTime() - t0;
+            int loopStaged = staged(dir);
+            BenchRepos.git(dir, "reset", "-q");
+
+            BenchRepos.git(dir, "add", "-A");
+            t0 = System.nanoTime();
+            for (String path : paths) {
+                pool.run(repo, "reset", "HEAD", path);
+            }
+            long loopUnstage = System.nanoTime() - t0;
+            int loopLeft = staged(dir);
+            BenchRepos.git(dir, "reset", "-q");
+
+            int[] updates = new int[1];
+            t0 = System.nanoTime();
+            updater.stage(paths, (done, total) -> updates[0]++);
+            long bulkStage = System.nanoTime() - t0;
+            check(dir, paths.size());
+
+            t0 = System.nanoTime();
+            updater.unstage(paths, null);
+            long bulkUnstage = System.nanoTime() - t0;
+            check(dir, 0);
+
+            System.out.printf("loop staged %d of %d, left %d staged after unstaging%n",
+                loopStaged, paths.size(), loopLeft);
+            System.out.printf("stage    loop %9.1f ms   bulk %7.1f ms  (%d chunks)  %6.0fx%n",
+                loopStage / 1e6, bulkStage / 1e6, updates[0], (double) loopStage / bulkStage);
+            System.out.printf("unstage  loop %9.1f ms   bulk %7.1f ms               %6.0fx%n",
+                loopUnstage / 1e6, bulkUnstage / 1e6, (double) loopUnstage / bulkUnstage);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // Number of paths staged, i.e. differing between HEAD and the index
+    private static int staged(Path dir) throws Exception {
+        String staged = BenchRepos.gitOutput(dir, "diff", "--cached", "--name-only", "-z");
+        return staged.isEmpty() ? 0 : staged.split("\0").length;
+    }
+
+    private static void check(Path dir, int expected) throws Exception {
+        int count = staged(dir);
+        if (count != expected) {
+            throw new IllegalStateException("expected " + expected + " staged, found " + count);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Builds CommitSearchIndex over a generated history (a million commits by
+ * default) with varied messages, authors and touched paths, then times
+ * queries of each kind, checks their results against `git log --grep`,
+ * `--author` and `-- path`, and times an incremental update after more
+ * commits and the no-op update a search does when nothing is new.
+ *
+ *   java -cp out CommitSearchBenchmark [commits]
+ */
+public class CommitSearchBenchmark {
+
+    private static final int WORDS = 10_000;
+    private static final int AUTHORS = 200;
+    private static final String[] COMMON = { "fix", "add", "update", "remove", "refactor", "test", "docs" };
+    private static final int RUNS = 20;
+
+    public static void main(String[] args) throws Exception {
+        int commits = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        Path dir = Files.createTempDirectory("simplegit-search");
+        BenchRepos.git(dir, "init", "-q");
+        long g0 = System.nanoTime();
+        history(dir, 1, commits);
+        BenchRepos.git(dir, "symbolic-ref", "HEAD", "refs/heads/master");
+        long generated = System.nanoTime() - g0;
+        File repo = dir.toFile();
+        GitProcessPool pool = new GitProcessPool(60_000);
+        File gitDir = new File(repo, ".git");
+
+        long b0 = System.nanoTime();
+        CommitSearchIndex index = CommitSearchIndex.open(pool, repo, gitDir);
+        int built = index.update(null);
+        long build = System.nanoTime() - b0;
+        expect(built == commits && index.size() == commits, String.format("%,d commits indexed", built));
+
+        // Each kind of query against what git itself finds
+        check(index, dir, "w0042", "--grep=w0042");
+        check(index, dir, "fix w0007", "--all-match", "--grep=fix", "--grep=w0007");
+        check(index, dir, "author:dev17", "--author=<dev17@");
+        check(index, dir, "author:dev17 w0003", "--author=<dev17@", "--grep=w0003");
+        check(index, dir, "path:src/m03/p07/F012.java", "--", "src/m03/p07/F012.java");
+        check(index, dir, "path:src/m03", "--", "src/m03");
+        check(index, dir, "w012*", "-E", "--grep=w012[0-9]");
+        CommitSearchIndex.Result newest = index.search("w0042", 5);
+        expect(newest.commits.equals(gitLog(dir, "-n", "5", "--grep=w0042")), "results newest first");
+
+        String[] queries = { "w0042", "fix", "fix w0007", "author:dev17", "author:dev17 w0003",
+            "path:src/m03/p07/F012.java", "path:src/m03", "w012*", "fix update add" };
+        Map<String, double[]> latency = new LinkedHashMap<>();
+        for (String q : queries) {
+            CommitSearchIndex.Result r = index.search(q, 1000);
+            double[] ms = new double[RUNS];
+            for (int i = 0; i < RUNS; i++) ms[i] = index.search(q, 1000).nanos / 1e6;
+            Arrays.sort(ms);
+            latency.put(q, new double[] { r.matches, ms[RUNS / 2], ms[RUNS - 1] });
+        }
+
+        // More commits on top: only those are read
+        int more = 1000;
+        history(dir, commits + 1, more);
+        long u0 = System.nanoTime();
+        int added = index.update(null);
+        long incremental = System.nanoTime() - u0;
+        expect(added == more && index.size() == commits + more, String.format("%,d new commits indexed", added));
+        check(index, dir, "w0042", "--grep=w0042");
+        index.close();
+
+        // A fresh open with nothing new: what every later search pays
+        long o0 = System.nanoTime();
+        CommitSearchIndex reopened = CommitSearchIndex.open(pool, repo, gitDir);
+        int none = reopened.update(null);
+        long upToDate = System.nanoTime() - o0;
+        expect(none == 0 && reopened.size() == commits + more, "reopened, already up to date");
+        check(reopened, dir, "author:dev17 w0003", "--author=<dev17@", "--grep=w0003");
+
+        System.out.printf("%n%,d commits generated in %.1f s%n", commits, generated / 1e9);
+        System.out.printf("build            %8.1f s   %,.0f commits/s, %d segments, %.1f MB on disk%n",
+            build / 1e9, commits / (build / 1e9), reopened.segmentCount(), reopened.diskBytes() / 1e6);
+        System.out.printf("%,d more commits  %7.1f ms%n", more, incremental / 1e6);
+        System.out.printf("open, up to date %8.1f ms%n", upToDate / 1e6);
+        System.out.printf("%n%-28s %10s %10s %10s%n", "query", "matches", "median ms", "max ms");
+        for (Map.Entry<String, double[]> e : latency.entrySet()) {
+            double[] v = e.getValue();
+            System.out.printf("%-28s %,10.0f %10.2f %10.2f%n", e.getKey(), v[0], v[1], v[2]);
+        }
+        reopened.close();
+        pool.shutdown();
+    }
+
+    // Commits first..first+count-1 on master, three-ish files each, through fast-import
+    private static void history(Path dir, int first, int count) throws IOException, InterruptedException {
+        Process p = new ProcessBuilder("git", "fast-import", "--quiet")
+            .directory(dir.toFile())
+            .redirectErrorStream(true)
+            .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+            .start();
+        Random random = new Random(first);
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(p.getOutputStream(), StandardCharsets.UTF_8), 1 << 16)) {
+            long time = 1_500_000_000L;
+            for (int i = first; i < first + count; i++) {
+                StringBuilder message = new StringBuilder(COMMON[random.nextInt(COMMON.length)]);
+                int words = 3 + random.nextInt(10);
+                for (int w = 0; w < words; w++) {
+                    // Skewed, so some words are common and most are rare
+                    double r = random.nextDouble();
+                    message.append(' ').append(String.format("w%04d", (int) (r * r * WORDS)));
+                }
+                message.append("\n\nBody line for change ").append(i).append(".\n");
+                byte[] msg = message.toString().getBytes(StandardCharsets.UTF_8);
+                int a = (int) (Math.pow(random.nextDouble(), 2) * AUTHORS);
+                out.write("commit refs/heads/master\n");
+                out.write("author Dev" + a + " Name" + a + " <dev" + a + "@example.com> " + (time + i * 60L) + " +0000\n");
+                out.write("committer Dev" + a + " Name" + a + " <dev" + a + "@example.com> " + (time + i * 60L) + " +0000\n");
+                out.write("data " + msg.length + "\n");
+                out.write(message.toString());
+                if (i == first && first > 1) out.write("from refs/heads/master^0\n");
+                int files = 1 + random.nextInt(3);
+                for (int f = 0; f < files; f++) {
+                    String path = String.format("src/m%02d/p%02d/F%03d.java",
+                        random.nextInt(20), random.nextInt(20), random.nextInt(50));
+                    String content = "change " + i + "\n";
+                    out.write("M 644 inline " + path + "\ndata " + content.length() + "\n" + content + "\n");
+                }
+            }
+        }
+        if (p.waitFor() != 0) throw new IOException("git fast-import failed");
+    }
+
+    private static void check(CommitSearchIndex index, Path dir, String query, String... gitArgs) throws IOException {
+        List<String> expected = gitLog(dir, gitArgs);
+        CommitSearchIndex.Result r = index.search(query, Integer.MAX_VALUE);
+        expect(r.commits.equals(expected) && r.matches == expected.size(),
+            String.format("%-28s %,7d commits, as git log finds", query, expected.size()));
+    }
+
+    private static List<String> gitLog(Path dir, String... args) throws IOException {
+        List<String> command = new ArrayList<>(List.of("log", "--format=%H"));
+        // Paths go last, after the options
+        int dash = Arrays.asList(args).indexOf("--");
+        List<String> options = Arrays.asList(args).subList(0, dash < 0 ? args.length : dash);
+        command.addAll(options);
+        command.add("HEAD");
+        if (dash >= 0) command.addAll(Arrays.asList(args).subList(dash, args.length));
+        String out = BenchRepos.gitOutput(dir, command.toArray(new String[0]));
+        List<String> ids = new ArrayList<>();
+        for (String line : out.split("\n")) {
+            if (!line.isEmpty()) ids.add(line);
+        }
+        return ids;
+    }
+
+    private static void expect(boolean ok, String what) {
+        System.out.println((ok ? "ok    " : "FAIL  ") + what);
+        if (!ok) System.exit(1);
+    }
+}
@@ -0,0 +1,72 @@
+import javax.swing.*;
+import java.io.File;
+import java.nio.file.*;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Floods the console from a background thread, the way a large clone or
+ * pull does, and compares the old per-line invokeLater + SimpleDateFormat +
+ * append with ConsoleLog: time until the EDT has caught up, and how much
+ * the text area holds afterwards.
+ *
+ *   java -Djava.awt.headless=true -cp out ConsoleLogBenchmark [lines]
+ */
+public class ConsoleLogBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int lines = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+
+        JTextArea legacyArea = new JTextArea();
+        long t0 = System.nanoTime();
+        for (int i = 0; i < lines; i++) {
+            String message = line(i);
+            SwingUtilities.invokeLater(() -> {
+                String timestamp = new SimpleDateFormat("HH:mm:ss").format(new Date());
+                legacyArea.append("[" + timestamp + "] " + message + "\n");
+                legacyArea.setCaretPosition(legacyArea.getDocument().getLength());
+            });
+        }
+        SwingUtilities.invokeAndWait(() -> {});
+        long legacy = System.nanoTime() - t0;
+        report("per-line invokeLater", lines, legacy, legacyArea);
+
+        Path logDir = Files.createTempDirectory("simplegit-log");
+        JTextArea area = new JTextArea();
+        ConsoleLog console = new ConsoleLog(area, ConsoleLog.DEFAULT_MAX_LINES, logDir.toFile());
+        t0 = System.nanoTime();
+        for (int i = 0; i < lines; i++) {
+            console.append(line(i));
+        }
+        // Wait for the last frame's drain
+        String last = line(lines - 1) + "\n";
+        boolean[] shown = new boolean[1];
+        while (!shown[0]) {
+            SwingUtilities.invokeAndWait(() -> shown[0] = area.getText().endsWith(last));
+            Thread.sleep(1);
+        }
+        long batched = System.nanoTime() - t0;
+        console.close();
+        report("ConsoleLog", lines, batched, area);
+
+        long onDisk = 0;
+        int files = 0;
+        for (File f : logDir.toFile().listFiles()) {
+            onDisk += f.length();
+            files++;
+            f.delete();
+        }
+        logDir.toFile().delete();
+        System.out.printf("  log files: %d, %.1f MB on disk (rotated at 1 MB, 5 kept)%n", files, onDisk / 1e6);
+    }
+
+    private static String line(int i) {
+        return "Receiving objects: " + (i % 100) + "% (" + i + "/" + 1_000_000 + "), 12.34 MiB | 5.67 MiB/s";
+    }
+
+    private static void report(String label, int lines, long nanos, JTextArea area) {
+        int kept = area.getDocument().getDefaultRootElement().getElementCount() - 1;
+        System.out.printf("%-22s %d lines: %8.1f ms until shown, %7d lines / %6.1f MB chars kept%n",
+            label, lines, nanos / 1e6, kept, area.getDocument().getLength() * 2 / 1e6);
+    }
+}
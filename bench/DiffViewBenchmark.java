@@ -0,0 +1,131 @@
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.List;
+
+/**
+ * Times DiffView on a diff of a generated 400k-line source file: first
+ * screenful, whole load, one repaint, a cache hit, and heap against the
+ * whole diff in a JTextArea, which is what a plain text pane would do.
+ * DiffViewTest checks what it shows against `git diff`.
+ *
+ *   java -Djava.awt.headless=true -cp out DiffViewBenchmark
+ */
+public class DiffViewBenchmark {
+
+    private static final int LINES = 400_000;
+
+    public static void main(String[] args) throws Exception {
+        Path dir = BenchRepos.smallRepo().toPath();
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < LINES; i++) {
+            source.append(i % 40 == 0 ? "    /* block " + i + "\n     * comment */\n" : "")
+                .append("    public static int value").append(i).append(" = ").append(i)
+                .append("; // \"").append(Integer.toHexString(i * 31)).append("\"\n");
+        }
+        BenchRepos.write(dir.resolve("Big.java"), source.toString());
+        BenchRepos.write(dir.resolve("small.txt"), "one\ntwo\nthree\n");
+        BenchRepos.git(dir, "add", "-A");
+        BenchRepos.commit(dir, "big file");
+        // Every 25th line changed, and a tab-indented insertion
+        String[] lines = source.toString().split("\n", -1);
+        for (int i = 0; i < lines.length; i += 25) {
+            lines[i] = lines[i].replace("public", "private\tfinal");
+        }
+        BenchRepos.write(dir.resolve("Big.java"), String.join("\n", lines));
+        BenchRepos.git(dir, "mv", "small.txt", "renamed.txt");
+
+        File repo = dir.toFile();
+        GitProcessPool pool = new GitProcessPool(60_000);
+        TaskScheduler tasks = new TaskScheduler((r, q, c) -> {});
+        GitObjectDatabase db = GitObjectDatabase.open(repo);
+        DiffView view = new DiffView(pool, tasks);
+        JScrollPane scroll = new JScrollPane(view);
+        SwingUtilities.invokeAndWait(() -> {
+            view.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+            view.setBackground(Color.BLACK);
+            view.setForeground(Color.WHITE);
+            scroll.setSize(1000, 600);
+            scroll.doLayout();
+        });
+
+        long t0 = System.nanoTime();
+        show(view, repo, db, "Big.java", null, false, 'M');
+        long firstScreen = waitFor(view, d -> d.lineCount() >= 50) - t0;
+        long loaded = waitFor(view, DiffDocument::isComplete) - t0;
+        long g0 = System.nanoTime();
+        pool.runRaw(repo, "diff", "--", "Big.java");
+        long gitAlone = System.nanoTime() - g0;
+        DiffDocument doc = view.document();
+
+        // Painting a screenful out of the middle
+        BufferedImage image = new BufferedImage(1000, 600, BufferedImage.TYPE_INT_RGB);
+        Rectangle visible = new Rectangle(0, doc.lineCount() / 2 * view.getFontMetrics(view.getFont()).getHeight(), 1000, 600);
+        SwingUtilities.invokeAndWait(() -> view.setSize(view.getPreferredSize()));
+        int rounds = 200;
+        long paint = 0;
+        for (int i = 0; i < rounds + 20; i++) {
+            Graphics2D g = image.createGraphics();
+            g.translate(0, -visible.y);
+            g.setClip(visible);
+            long p0 = System.nanoTime();
+            SwingUtilities.invokeAndWait(() -> view.paint(g));
+            if (i >= 20) paint += System.nanoTime() - p0;
+            g.dispose();
+        }
+
+        // Another file, then back: the second time from the cache
+        show(view, repo, db, "renamed.txt", "small.txt", true, 'R');
+        waitFor(view, d -> d.isComplete() && d.path.equals("renamed.txt"));
+        long c0 = System.nanoTime();
+        show(view, repo, db, "Big.java", null, false, 'M');
+        long cached = waitFor(view, d -> d == doc) - c0;
+
+        // The old way to show it: the whole diff as one String in a text component
+        System.gc();
+        long before = usedHeap();
+        String text = pool.run(repo, "diff", "--", "Big.java");
+        JTextArea area = new JTextArea();
+        SwingUtilities.invokeAndWait(() -> {
+            area.setText(text);
+            area.getPreferredSize();
+        });
+        System.gc();
+        long areaHeap = usedHeap() - before;
+
+        System.out.printf("%nBig.java: %,d diff lines, %,d bytes, %d hunks%n", doc.lineCount(), doc.sizeBytes(), doc.hunkCount());
+        System.out.printf("first screenful     %8.1f ms%n", firstScreen / 1e6);
+        System.out.printf("loaded and colored  %8.1f ms (git diff alone %.1f ms)%n", loaded / 1e6, gitAlone / 1e6);
+        System.out.printf("paint one screen    %8.2f ms%n", paint / 1e6 / rounds);
+        System.out.printf("shown from cache    %8.2f ms%n", cached / 1e6);
+        System.out.printf("heap: DiffDocument %,d KB, JTextArea %,d KB%n", doc.heapBytes() / 1024, areaHeap / 1024);
+        area.setText("");
+        tasks.close();
+        pool.shutdown();
+    }
+
+    private static void show(DiffView view, File repo, GitObjectDatabase db, String path,
+            String origPath, boolean staged, char status) throws Exception {
+        SwingUtilities.invokeAndWait(() -> view.show(repo, db, path, origPath, staged, status));
+    }
+
+    // Polled the way the view's own timer does; returns when it first held
+    private static long waitFor(DiffView view, java.util.function.Predicate<DiffDocument> condition) throws Exception {
+        for (int i = 0; i < 60_000; i++) {
+            DiffDocument[] shown = new DiffDocument[1];
+            SwingUtilities.invokeAndWait(() -> shown[0] = view.document());
+            if (shown[0] != null && condition.test(shown[0])) return System.nanoTime();
+            Thread.sleep(1);
+        }
+        throw new IllegalStateException("timed out");
+    }
+
+    private static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+}
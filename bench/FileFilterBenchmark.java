@@ -0,0 +1,124 @@
+import javax.swing.*;
+import java.util.*;
+
+/**
+ * Times the file lists' filter box on 500k generated paths: building the
+ * trigram index, then every keystroke of a few typed queries through the
+ * index against checking every path. Then types a query into a
+ * FileListFilter one keystroke after another without waiting and times
+ * how long the list takes to show the last one, and a refresh under the
+ * filter. PathFilterTest checks the matches and the filtered model.
+ *
+ *   java -Djava.awt.headless=true -cp out FileFilterBenchmark [paths]
+ */
+public class FileFilterBenchmark {
+
+    private static final String[] TOP = { "src/main/java", "src/test/java", "docs", "web/static", "tools" };
+    private static final String[] PARTS = { "core", "api", "model", "service", "util", "store", "net", "ui",
+        "render", "parser", "index", "cache", "auth", "billing", "report", "search" };
+    private static final String[] NAMES = { "Controller", "Service", "Repository", "Factory", "Handler",
+        "Test", "Config", "Mapper", "Client", "Helper" };
+    private static final String[] QUERIES = { "servicetest", "billing Handler", "index/cache", "zzz", "ui" };
+    private static final int RUNS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 500_000;
+        FileListModel model = new FileListModel();
+        FileListModel.Rows rows = rows(count, 1);
+        SwingUtilities.invokeAndWait(() -> model.update(rows));
+        System.out.printf("%,d paths%n", model.totalSize());
+
+        PathFilter index = null;
+        long build = Long.MAX_VALUE;
+        for (int i = 0; i < RUNS; i++) {
+            long t0 = System.nanoTime();
+            index = PathFilter.build(rows);
+            build = Math.min(build, System.nanoTime() - t0);
+        }
+        System.out.printf("index built in %.1f ms, %.1f MB (paths %.1f MB)%n",
+            build / 1e6, index.heapBytes() / 1e6, model.heapBytes() / 1e6);
+
+        // Every keystroke of every query, best of a few runs each
+        System.out.printf("%n%-18s %9s %12s %12s%n", "typed", "matches", "index ms", "scan ms");
+        double worst = 0;
+        for (String query : QUERIES) {
+            for (int n = 1; n <= query.length(); n++) {
+                String typed = query.substring(0, n);
+                if (typed.endsWith(" ")) continue;
+                long fast = Long.MAX_VALUE;
+                long slow = Long.MAX_VALUE;
+                int[] viaIndex = null;
+                for (int i = 0; i < RUNS; i++) {
+                    long t0 = System.nanoTime();
+                    viaIndex = index.matches(typed, () -> false);
+                    long t1 = System.nanoTime();
+                    PathFilter.scan(rows, typed);
+                    long t2 = System.nanoTime();
+                    fast = Math.min(fast, t1 - t0);
+                    slow = Math.min(slow, t2 - t1);
+                }
+                worst = Math.max(worst, fast / 1e6);
+                System.out.printf("%-18s %,9d %12.2f %12.2f%n", typed, viaIndex.length, fast / 1e6, slow / 1e6);
+            }
+        }
+        System.out.printf("slowest keystroke %.2f ms%n", worst);
+
+        // Typed without waiting: only the last query has to land
+        JList<String> list = new JList<>(model);
+        FileListFilter filter = new FileListFilter(model, list.getSelectionModel());
+        String typed = "billing Handler";
+        // prepare() runs when the box takes focus, well before the first key
+        SwingUtilities.invokeAndWait(() -> {
+            filter.prepare();
+            filter.setQuery(typed.substring(0, 1));
+        });
+        awaitFilter(model, typed.substring(0, 1));
+        long t0 = System.nanoTime();
+        for (int n = 1; n <= typed.length(); n++) {
+            String prefix = typed.substring(0, n);
+            SwingUtilities.invokeAndWait(() -> filter.setQuery(prefix));
+        }
+        long typedAt = System.nanoTime();
+        awaitFilter(model, typed);
+        long shown = System.nanoTime();
+        System.out.printf("list shows %,d of %,d after typing %d keys in %.1f ms%n",
+            model.getSize(), model.totalSize(), typed.length(), (typedAt - t0) / 1e6);
+        System.out.printf("last keystroke to list shown %.2f ms%n", (shown - typedAt) / 1e6);
+
+        // A refresh keeps the filter
+        FileListModel.Rows refreshed = rows(count + 1000, 2);
+        long r0 = System.nanoTime();
+        SwingUtilities.invokeAndWait(() -> model.update(refreshed, list.getSelectionModel()));
+        System.out.printf("refresh under the filter: %,d of %,d shown in %.1f ms%n",
+            model.getSize(), model.totalSize(), (System.nanoTime() - r0) / 1e6);
+        System.exit(0);
+    }
+
+    private static void awaitFilter(FileListModel model, String query) throws Exception {
+        while (true) {
+            boolean[] done = new boolean[1];
+            SwingUtilities.invokeAndWait(() -> done[0] = model.filter().equals(query));
+            if (done[0]) return;
+            Thread.sleep(1);
+        }
+    }
+
+    // Deep, repetitive paths like a big project's, in a fixed pseudo-random mix,
+    // in path order as git status lists them
+    private static FileListModel.Rows rows(int count, long seed) {
+        Random random = new Random(seed);
+        Set<String> seen = new TreeSet<>();
+        while (seen.size() < count) {
+            StringBuilder path = new StringBuilder(TOP[random.nextInt(TOP.length)]);
+            int depth = 2 + random.nextInt(4);
+            for (int d = 0; d < depth; d++) path.append('/').append(PARTS[random.nextInt(PARTS.length)]);
+            String part = PARTS[random.nextInt(PARTS.length)];
+            path.append('/').append(Character.toUpperCase(part.charAt(0))).append(part.substring(1))
+                .append(NAMES[random.nextInt(NAMES.length)]).append(random.nextInt(100)).append(".java");
+            seen.add(path.toString());
+        }
+        FileListModel.Rows rows = new FileListModel.Rows(new PathStore());
+        for (String path : seen) rows.add("MAD?".charAt(random.nextInt(4)), path);
+        return rows;
+    }
+}
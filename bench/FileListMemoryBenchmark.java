@@ -0,0 +1,124 @@
+import javax.swing.*;
+import javax.swing.border.EmptyBorder;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.*;
+
+/**
+ * Heap use and frame time of the changed-files list at 500k rows: the old
+ * DefaultListModel of "S path" Strings with a renderer that allocates a
+ * border per cell and variable-height rows, against FileListModel with the
+ * shared renderer and fixed cell sizes.
+ *
+ * Frames are painted headless into an image while jumping down the list in
+ * even steps; the first frame includes creating and laying out the view.
+ *
+ *   java -Djava.awt.headless=true -cp out FileListMemoryBenchmark [rows]
+ */
+public class FileListMemoryBenchmark {
+
+    private static final int FRAMES = 200;
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 500_000;
+        String[] paths = new String[rows];
+        for (int i = 0; i < rows; i++) {
+            paths[i] = "generated/" + BenchRepos.wideTreePath(i).replace(".txt", ".java");
+        }
+
+        SwingUtilities.invokeAndWait(() -> {
+            long base = usedHeap();
+            DefaultListModel<String> legacy = new DefaultListModel<>();
+            for (String path : paths) {
+                legacy.addElement("M " + path);
+            }
+            long legacyHeap = usedHeap() - base;
+            JList<String> legacyList = new JList<>(legacy);
+            legacyList.setFont(new Font("Consolas", Font.PLAIN, 12));
+            legacyList.setCellRenderer(new LegacyRenderer());
+            report("before", legacyHeap, frames(legacyList));
+            legacyList.setModel(new DefaultListModel<>());
+            legacy = null;
+
+            base = usedHeap();
+            FileListModel model = new FileListModel();
+            FileListModel.Rows batch = new FileListModel.Rows(new PathStore());
+            for (String path : paths) {
+                batch.add('M', path);
+            }
+            model.update(batch);
+            batch = null;
+            long modelHeap = usedHeap() - base;
+            JList<String> list = new JList<>(model);
+            list.setFont(new Font("Consolas", Font.PLAIN, 12));
+            list.setCellRenderer(new SimpleGit.FileListRenderer());
+            SimpleGit.FileListRenderer.fixCellHeight(list);
+            FontMetrics fm = list.getFontMetrics(list.getFont());
+            list.setFixedCellWidth(model.maxRowLength() * fm.charWidth('W') + SimpleGit.FileListRenderer.PADDING_X * 2);
+            report("after", modelHeap, frames(list));
+            System.out.printf("  (model's own estimate: %.1f MB)%n", model.heapBytes() / 1e6);
+        });
+    }
+
+    // Nanos per frame while paging down through the list
+    private static long[] frames(JList<String> list) {
+        long start = System.nanoTime();
+        JScrollPane scroll = new JScrollPane(list);
+        scroll.setSize(500, 700);
+        scroll.doLayout();
+        JViewport viewport = scroll.getViewport();
+        BufferedImage image = new BufferedImage(500, 700, BufferedImage.TYPE_INT_RGB);
+        long[] samples = new long[FRAMES];
+        int rows = list.getModel().getSize();
+        for (int f = 0; f < FRAMES; f++) {
+            long t0 = System.nanoTime();
+            int row = (int) ((long) rows * f / FRAMES);
+            Rectangle cell = list.getCellBounds(row, row);
+            viewport.setViewPosition(new Point(0, cell.y));
+            scroll.validate();
+            Graphics2D g = image.createGraphics();
+            scroll.paint(g);
+            g.dispose();
+            samples[f] = System.nanoTime() - (f == 0 ? start : t0);
+        }
+        return samples;
+    }
+
+    private static void report(String label, long heap, long[] frames) {
+        long first = frames[0];
+        long[] rest = Arrays.copyOfRange(frames, 1, frames.length);
+        Arrays.sort(rest);
+        double mean = Arrays.stream(rest).average().orElse(0);
+        System.out.printf("%-7s heap %7.1f MB   first frame %7.1f ms   then mean %6.2f ms  p50 %6.2f ms  p99 %6.2f ms%n",
+            label, heap / 1e6, first / 1e6, mean / 1e6, rest[rest.length / 2] / 1e6,
+            rest[(int) (rest.length * 0.99)] / 1e6);
+    }
+
+    private static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    // FileListRenderer as it was: a new border on every cell, no fixed sizes
+    private static class LegacyRenderer extends DefaultListCellRenderer {
+        private static final Color ORANGE = new Color(227, 160, 55);
+        private static final Color BLUE = new Color(66, 135, 245);
+        private static final Color DARK = new Color(30, 30, 30);
+
+        @Override
+        public Component getListCellRendererComponent(JList<?> list, Object value,
+                int index, boolean isSelected, boolean cellHasFocus) {
+            super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
+            String text = value.toString();
+            if (text.length() > 0 && text.charAt(0) == 'M') {
+                setForeground(ORANGE);
+            }
+            setBackground(isSelected ? BLUE : DARK);
+            setBorder(new EmptyBorder(5, 10, 5, 10));
+            return this;
+        }
+    }
+}
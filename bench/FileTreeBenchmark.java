@@ -0,0 +1,194 @@
+import javax.swing.*;
+import javax.swing.event.*;
+import javax.swing.tree.*;
+import java.io.File;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Times the file panels' tree view on 500k generated paths: showing the
+ * tree (only the top level is loaded), expanding a deep directory, and a
+ * refresh that changes, adds and removes a few thousand rows with part of
+ * the tree open, against building a new tree. Then stages and unstages a
+ * directory of a real repository through one pathspec. What the tree
+ * holds after each step is FileTreeModelTest's to check.
+ *
+ *   java -Djava.awt.headless=true -cp out FileTreeBenchmark [paths]
+ */
+public class FileTreeBenchmark {
+
+    private static final String[] TOP = { "src/main/java", "src/test/java", "docs", "web/static", "tools" };
+    private static final String[] PARTS = { "core", "api", "model", "service", "util", "store", "net", "ui",
+        "render", "parser", "index", "cache", "auth", "billing", "report", "search" };
+    private static final String[] NAMES = { "Controller", "Service", "Repository", "Factory", "Handler",
+        "Test", "Config", "Mapper", "Client", "Helper" };
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 500_000;
+        TreeSet<String> paths = paths(count, 1);
+        FileListModel list = new FileListModel();
+        FileListModel.Rows rows = rows(paths, Collections.emptyMap());
+        list.update(rows);
+        System.out.printf("%,d paths%n", list.totalSize());
+
+        long t0 = System.nanoTime();
+        FileTreeModel model = new FileTreeModel();
+        model.update(list.rows());
+        JTree tree = new JTree(model);
+        tree.setRootVisible(false);
+        tree.setShowsRootHandles(true);
+        tree.setRowHeight(20);
+        tree.setLargeModel(true);
+        long shown = System.nanoTime() - t0;
+        FileTreeModel.Node root = (FileTreeModel.Node) model.getRoot();
+        System.out.printf("tree shown in %.1f ms, %d directories loaded, %d rows%n",
+            shown / 1e6, model.loadedDirectories(), tree.getRowCount());
+
+        // Down to a leaf, one level at a time
+        long e0 = System.nanoTime();
+        TreePath path = new TreePath(root);
+        FileTreeModel.Node node = root;
+        while (node.directory) {
+            tree.expandPath(path);
+            node = node.children.get(node.children.size() / 2);
+            path = path.pathByAddingChild(node);
+        }
+        long expand = System.nanoTime() - e0;
+        FileTreeModel.Node leaf = node;
+        FileTreeModel.Node deepDir = leaf.parent;
+        System.out.printf("expanded down to %s in %.1f ms, %d directories loaded%n",
+            leaf.path, expand / 1e6, model.loadedDirectories());
+
+        // Open a few more top-level directories, select the leaf
+        for (int i = 0; i < Math.min(4, tree.getRowCount()); i++) tree.expandRow(i);
+        tree.setSelectionPath(path);
+
+        // A refresh: statuses change, files come and go, a new directory appears
+        Random random = new Random(7);
+        List<String> all = new ArrayList<>(paths);
+        Map<String, Character> statuses = new HashMap<>();
+        for (int i = 0; i < 5000; i++) statuses.put(all.get(random.nextInt(all.size())), '?');
+        TreeSet<String> next = new TreeSet<>(paths);
+        for (int i = 0; i < 2000; i++) {
+            String gone = all.get(random.nextInt(all.size()));
+            if (!gone.equals(leaf.path)) next.remove(gone);
+        }
+        next.addAll(paths(2000, 2));
+        for (int i = 0; i < 100; i++) next.add("src/main/java/fresh/dir" + i + "/New.java");
+        next.add(deepDir.path + "/Added.java");
+        statuses.put(leaf.path, 'D');
+        FileListModel.Rows nextRows = rows(next, statuses);
+
+        Counter events = new Counter();
+        model.addTreeModelListener(events);
+        long u0 = System.nanoTime();
+        list.update(nextRows);
+        long listUpdate = System.nanoTime() - u0;
+        model.update(list.rows());
+        long treeUpdate = System.nanoTime() - u0 - listUpdate;
+
+        long r0 = System.nanoTime();
+        FileTreeModel rebuilt = new FileTreeModel();
+        rebuilt.update(list.rows());
+        JTree fresh = new JTree(rebuilt);
+        fresh.setRootVisible(false);
+        fresh.setLargeModel(true);
+        fresh.setRowHeight(20);
+        openLike(model, root, rebuilt, (FileTreeModel.Node) rebuilt.getRoot());
+        long rebuild = System.nanoTime() - r0;
+
+        System.out.printf("refresh in %.1f ms for the tree (list %.1f ms): %,d inserted, %,d removed, %,d changed; "
+            + "a new tree opened as far: %.1f ms%n",
+            treeUpdate / 1e6, listUpdate / 1e6, events.inserted, events.removed, events.changed, rebuild / 1e6);
+
+        stageDirectory();
+        System.exit(0);
+    }
+
+    // A directory node is one pathspec: git stages and unstages everything under it
+    private static void stageDirectory() throws Exception {
+        int files = 12_000;
+        File repo = BenchRepos.wideTree(files);
+        Path dir = repo.toPath();
+        TreeSet<String> changed = new TreeSet<>();
+        for (int i = 0; i < files; i++) {
+            String p = BenchRepos.wideTreePath(i);
+            BenchRepos.write(dir.resolve(p), "changed " + i + "\n");
+            changed.add(p);
+        }
+        FileListModel list = new FileListModel();
+        list.update(rows(changed, Collections.emptyMap()));
+        FileTreeModel model = new FileTreeModel();
+        model.update(list.rows());
+        FileTreeModel.Node root = (FileTreeModel.Node) model.getRoot();
+        FileTreeModel.Node d001 = child(model, root, "d001");
+        List<String> pathspecs = model.pathsOf(new TreePath[] { new TreePath(new Object[] { root, d001 }) });
+
+        GitProcessPool pool = new GitProcessPool(60_000);
+        IndexUpdater updater = new IndexUpdater(pool, repo);
+        long s0 = System.nanoTime();
+        updater.stage(pathspecs, null);
+        long stage = System.nanoTime() - s0;
+        long u0 = System.nanoTime();
+        updater.unstage(pathspecs, null);
+        long unstage = System.nanoTime() - u0;
+        System.out.printf("%,d files under d001 staged by one git add in %.1f ms, unstaged by one git restore in %.1f ms%n",
+            files - 10_000, stage / 1e6, unstage / 1e6);
+        pool.shutdown();
+    }
+
+    // Loads the directories of b that are loaded in a
+    private static void openLike(FileTreeModel a, FileTreeModel.Node x, FileTreeModel b, FileTreeModel.Node y) {
+        if (x.children == null) return;
+        for (int i = 0; i < b.getChildCount(y); i++) {
+            FileTreeModel.Node cy = (FileTreeModel.Node) b.getChild(y, i);
+            for (FileTreeModel.Node cx : x.children) {
+                if (cx.directory && cy.directory && cx.name.equals(cy.name)) openLike(a, cx, b, cy);
+            }
+        }
+    }
+
+    // Loads dir's children if nothing has yet
+    private static FileTreeModel.Node child(FileTreeModel model, FileTreeModel.Node dir, String name) {
+        if (dir == null) return null;
+        for (int i = 0; i < model.getChildCount(dir); i++) {
+            FileTreeModel.Node c = (FileTreeModel.Node) model.getChild(dir, i);
+            if (c.name.equals(name)) return c;
+        }
+        return null;
+    }
+
+    // Deep, repetitive paths like a big project's, in a fixed pseudo-random mix
+    private static TreeSet<String> paths(int count, long seed) {
+        Random random = new Random(seed);
+        TreeSet<String> paths = new TreeSet<>();
+        while (paths.size() < count) {
+            StringBuilder path = new StringBuilder(TOP[random.nextInt(TOP.length)]);
+            int depth = 2 + random.nextInt(4);
+            for (int d = 0; d < depth; d++) path.append('/').append(PARTS[random.nextInt(PARTS.length)]);
+            String part = PARTS[random.nextInt(PARTS.length)];
+            path.append('/').append(Character.toUpperCase(part.charAt(0))).append(part.substring(1))
+                .append(NAMES[random.nextInt(NAMES.length)]).append(random.nextInt(100)).append(".java");
+            paths.add(path.toString());
+        }
+        return paths;
+    }
+
+    // Rows in path order, statuses from the map or else M/A by a hash of the path
+    private static FileListModel.Rows rows(Collection<String> paths, Map<String, Character> statuses) {
+        FileListModel.Rows rows = new FileListModel.Rows(new PathStore());
+        for (String p : paths) rows.add(statuses.getOrDefault(p, (p.hashCode() & 1) == 0 ? 'M' : 'A'), p);
+        return rows;
+    }
+
+    private static final class Counter implements TreeModelListener {
+        int inserted;
+        int removed;
+        int changed;
+
+        public void treeNodesInserted(TreeModelEvent e) { inserted += e.getChildIndices().length; }
+        public void treeNodesRemoved(TreeModelEvent e) { removed += e.getChildIndices().length; }
+        public void treeNodesChanged(TreeModelEvent e) { changed += e.getChildIndices().length; }
+        public void treeStructureChanged(TreeModelEvent e) { changed = -1_000_000; }
+    }
+}
@@ -0,0 +1,72 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Compares cold-fork and pooled latency for object lookups.
+ *
+ *   javac -d out *.java bench/*.java
+ *   java -cp out GitPoolBenchmark [repo] [calls]
+ *
+ * Without a repo argument a small throwaway repository is created.
+ */
+public class GitPoolBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        File repo = args.length > 0 ? new File(args[0]) : BenchRepos.smallRepo();
+        int calls = args.length > 1 ? Integer.parseInt(args[1]) : 3000;
+
+        GitProcessPool pool = new GitProcessPool(60_000);
+        try {
+            String head = pool.runForked(repo, "rev-parse", "HEAD");
+            System.out.println("Repository: " + repo + " (HEAD " + head + ")");
+            System.out.println("Calls per mode: " + calls);
+
+            // Warm up both paths so JIT and page cache noise stays out of the numbers
+            measure(pool, repo, head, 50, false);
+            measure(pool, repo, head, 50, true);
+
+            long[] cold = measure(pool, repo, head, calls, false);
+            long[] pooled = measure(pool, repo, head, calls, true);
+
+            report("cold fork ", cold);
+            report("pooled    ", pooled);
+            System.out.printf("speedup (mean): %.1fx%n", mean(cold) / mean(pooled));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static long[] measure(GitProcessPool pool, File repo, String rev, int calls, boolean pooled) {
+        long[] samples = new long[calls];
+        for (int i = 0; i < calls; i++) {
+            long start = System.nanoTime();
+            String out = pooled
+                ? pool.run(repo, "cat-file", "-t", rev)
+                : pool.runForked(repo, "cat-file", "-t", rev);
+            samples[i] = System.nanoTime() - start;
+            if (!out.equals("commit")) {
+                throw new IllegalStateException("Unexpected output: " + out);
+            }
+        }
+        return samples;
+    }
+
+    private static void report(String label, long[] samples) {
+        long[] sorted = samples.clone();
+        Arrays.sort(sorted);
+        System.out.printf("%s mean %8.3f ms  p50 %8.3f ms  p99 %8.3f ms  total %8.1f ms%n",
+            label, mean(samples) / 1e6, sorted[sorted.length / 2] / 1e6,
+            sorted[(int) (sorted.length * 0.99)] / 1e6, sum(samples) / 1e6);
+    }
+
+    private static double mean(long[] samples) {
+        return (double) sum(samples) / samples.length;
+    }
+
+    private static long sum(long[] samples) {
+        long total = 0;
+        for (long s : samples) total += s;
+        return total;
+    }
+}
@@ -0,0 +1,114 @@
+import javax.swing.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Browsing a long history: the old viewHistory (`log --oneline -20` into
+ * the console), reading the whole log up front the way a plain table model
+ * would, and HistoryModel. Measures time to the first row, to a row half
+ * way down and near the end, and the heap the model holds after paging
+ * through a stretch of history. The jumps are repeated once a commit-graph
+ * has been written.
+ *
+ *   java -Djava.awt.headless=true -cp out HistoryBenchmark [commits]
+ */
+public class HistoryBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int commits = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        long t0 = System.nanoTime();
+        File repo = BenchRepos.longHistory(commits);
+        System.out.printf("Repository: %s (%d commits, built in %.1f s)%n", repo, commits, (System.nanoTime() - t0) / 1e9);
+
+        GitProcessPool pool = new GitProcessPool(60_000);
+        try {
+            t0 = System.nanoTime();
+            String top20 = pool.runForked(repo, "log", "--oneline", "-20");
+            System.out.printf("old: log --oneline -20        %8.1f ms  (%d rows, nothing past them)%n",
+                (System.nanoTime() - t0) / 1e6, top20.split("\n").length);
+
+            // Everything decoded before the table can show anything
+            t0 = System.nanoTime();
+            List<String[]> all = new ArrayList<>();
+            pool.runStreamed(repo, in -> {
+                BufferedReader r = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16);
+                String line;
+                while ((line = r.readLine()) != null) all.add(line.split("\u001f", 4));
+            }, "log", "--format=%H%x1f%an%x1f%at%x1f%s", "HEAD");
+            long eagerMs = (System.nanoTime() - t0) / 1_000_000;
+            long eagerHeap = usedHeap();
+            System.out.printf("eager: whole log into a list  %8d ms to first row, %.0f MB held%n", eagerMs, eagerHeap / 1e6);
+            all.clear();
+
+            long base = usedHeap();
+            HistoryModel model = browse(pool, repo, commits, "paged");
+
+            // Scroll a screen at a time through 2000 pages' worth of rows
+            long t0s = System.nanoTime();
+            int scrolled = Math.min(commits, 2000 * HistoryModel.PAGE_ROWS);
+            long worst = 0;
+            for (int row = 0; row < scrolled; row += 40) {
+                long s = System.nanoTime();
+                await(model, row);
+                worst = Math.max(worst, System.nanoTime() - s);
+            }
+            System.out.printf("paged: scroll %d rows     %8.1f ms  (slowest screen %.1f ms)%n",
+                scrolled, (System.nanoTime() - t0s) / 1e6, worst / 1e6);
+            long heap = usedHeap() - base;
+            System.out.printf("paged: cache %.1f MB (budget %.1f MB), ids %.1f MB, heap held %.1f MB%n",
+                model.cachedBytes() / 1e6, HistoryModel.DEFAULT_BUDGET_BYTES / 1e6, model.idBytes() / 1e6, heap / 1e6);
+            model.close();
+
+            // The walk is git's; a commit-graph lets rev-list skip opening commits
+            BenchRepos.git(repo.toPath(), "commit-graph", "write", "--reachable");
+            browse(pool, repo, commits, "graph").close();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // First row, full row count, then jumps down the scrollbar
+    private static HistoryModel browse(GitProcessPool pool, File repo, int commits, String label) throws Exception {
+        HistoryModel model = new HistoryModel(pool, repo, HistoryModel.DEFAULT_BUDGET_BYTES);
+        long t0 = System.nanoTime();
+        model.start();
+        HistoryModel.Commit first = await(model, 0);
+        System.out.printf("%s: first row              %8.1f ms  (%s %s)%n",
+            label, (System.nanoTime() - t0) / 1e6, first.id.substring(0, 7), first.subject);
+
+        // The count arrives in the background; the scrollbar then spans everything
+        t0 = System.nanoTime();
+        int[] rows = new int[1];
+        while (rows[0] < commits) {
+            Thread.sleep(5);
+            SwingUtilities.invokeAndWait(() -> rows[0] = model.getRowCount());
+        }
+        System.out.printf("%s: full row count         %8.1f ms  (%d rows)%n", label, (System.nanoTime() - t0) / 1e6, rows[0]);
+
+        for (int row : new int[] { commits / 2, commits - 10, commits / 4 }) {
+            t0 = System.nanoTime();
+            HistoryModel.Commit c = await(model, row);
+            System.out.printf("%s: jump to row %-9d  %8.1f ms  (%s)%n", label, row, (System.nanoTime() - t0) / 1e6, c.subject);
+        }
+        return model;
+    }
+
+    private static HistoryModel.Commit await(HistoryModel model, int row) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 120_000;
+        HistoryModel.Commit c;
+        while ((c = model.commitAt(row)) == null) {
+            if (System.currentTimeMillis() > deadline) throw new IllegalStateException("row " + row + " never loaded");
+            Thread.sleep(0, 200_000);
+        }
+        return c;
+    }
+
+    private static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+}
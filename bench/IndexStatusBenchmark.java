@@ -0,0 +1,60 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Times GitIndex.diffAgainstTree against `git diff --cached --name-status`
+ * for index versions 2, 3 and 4. GitIndexTest checks that both list the
+ * same changes.
+ *
+ *   java -cp out IndexStatusBenchmark [repo]
+ */
+public class IndexStatusBenchmark {
+
+    private static final int ROUNDS = 20;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0) {
+            time(new File(args[0]));
+            return;
+        }
+        for (int version = 2; version <= 4; version++) {
+            File repo = BenchRepos.stagedCorpus();
+            Path dir = repo.toPath();
+            BenchRepos.git(dir, "update-index", "--index-version", String.valueOf(version));
+            if (version == 3) {
+                // Intent-to-add is what makes git write extended flags
+                Files.write(dir.resolve("ita.txt"), "later\n".getBytes(StandardCharsets.UTF_8));
+                BenchRepos.git(dir, "add", "-N", "ita.txt");
+            }
+            System.out.print("index v" + version + ": ");
+            time(repo);
+        }
+    }
+
+    static void time(File repo) throws IOException {
+        try (GitObjectDatabase db = GitObjectDatabase.open(repo)) {
+            String head = db.resolve("HEAD");
+            String tree = head == null ? null : db.readCommit(head).tree;
+            int entries = 0;
+            int staged = 0;
+            long inProcess = 0;
+            for (int i = 0; i < ROUNDS; i++) {
+                long start = System.nanoTime();
+                GitIndex index = GitIndex.read(db.getGitDir());
+                staged = index.diffAgainstTree(db, tree).size();
+                inProcess += System.nanoTime() - start;
+                entries = index.size();
+            }
+            long forked = 0;
+            for (int i = 0; i < ROUNDS; i++) {
+                long start = System.nanoTime();
+                BenchRepos.gitOutput(repo.toPath(), "diff", "--cached", "--name-status", "-z");
+                forked += System.nanoTime() - start;
+            }
+            System.out.printf("%d entries, %d staged, %.2f ms in-process, %.2f ms git diff --cached%n",
+                entries, staged, inProcess / 1e6 / ROUNDS, forked / 1e6 / ROUNDS);
+        }
+    }
+}
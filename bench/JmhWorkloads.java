@@ -0,0 +1,179 @@
+import javax.swing.*;
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import jmh.Workload;
+
+/**
+ * The JMH benchmarks' side of the application (see jmh.Workload): each
+ * factory generates what its benchmark runs against and returns the
+ * operation, written the way the application does it.
+ */
+public class JmhWorkloads {
+
+    private static final String[] STATUS_ARGS = { "status", "--porcelain=v2", "-z" };
+    private static final GitProcessPool POOL = new GitProcessPool(60_000);
+
+    /** PorcelainParser over captured `git status` output, filling both lists as refreshStatus() does. */
+    public static Workload statusParse(int files) throws Exception {
+        File repo = dirtyTree(files);
+        byte[] out = POOL.runRaw(repo, STATUS_ARGS);
+        return new GeneratedWorkload(repo) {
+            @Override
+            public Object run() throws IOException {
+                return parseStatus(new ByteArrayInputStream(out));
+            }
+        };
+    }
+
+    /** The whole status half of refreshStatus(): git status streamed into the parser. */
+    public static Workload statusRefresh(int files) throws Exception {
+        File repo = dirtyTree(files);
+        return new GeneratedWorkload(repo) {
+            @Override
+            public Object run() throws IOException {
+                FileListModel.Rows[] rows = new FileListModel.Rows[1];
+                POOL.runStreamed(repo, in -> rows[0] = parseStatus(in), STATUS_ARGS);
+                return rows[0];
+            }
+        };
+    }
+
+    /** runGitCommand: `git log` of {@code lines} commits captured as one String. */
+    public static Workload gitLog(int lines) throws Exception {
+        File repo = BenchRepos.longHistory(Math.max(lines, 1000));
+        return new GeneratedWorkload(repo) {
+            @Override
+            public Object run() {
+                return POOL.run(repo, "log", "--format=%H %an %s", "-n", String.valueOf(lines));
+            }
+        };
+    }
+
+    /** log(): {@code batch} lines appended, then shown in the text area and spilled to the log file. */
+    public static Workload consoleLog(int batch) throws Exception {
+        File logDir = Files.createTempDirectory("simplegit-jmh-log").toFile();
+        ConsoleLog console = new ConsoleLog(new JTextArea(), ConsoleLog.DEFAULT_MAX_LINES, logDir);
+        String[] lines = new String[batch];
+        for (int i = 0; i < batch; i++) {
+            lines[i] = "remote: Counting objects: " + i + "% (" + i + "/" + batch + ")";
+        }
+        return new GeneratedWorkload(logDir) {
+            @Override
+            public Object run() throws Exception {
+                for (String line : lines) {
+                    console.append(line);
+                }
+                SwingUtilities.invokeAndWait(console::flush);
+                return console;
+            }
+
+            @Override
+            public void close() throws IOException {
+                console.close();
+                super.close();
+            }
+        };
+    }
+
+    /** A refreshed status list: rows built, then diffed into a JList's model that held the previous status. */
+    public static Workload fileListUpdate(int files) throws Exception {
+        File repo = dirtyTree(files);
+        List<StatusEntry> entries = PorcelainParser.parse(POOL.runRaw(repo, STATUS_ARGS));
+        // The status before: every seventh change not made yet
+        List<StatusEntry> before = new ArrayList<>();
+        for (int i = 0; i < entries.size(); i++) {
+            if (i % 7 != 0) before.add(entries.get(i));
+        }
+        FileListModel model = new FileListModel();
+        JList<String> list = new JList<>(model);
+        return new GeneratedWorkload(repo) {
+            boolean flip;
+
+            @Override
+            public Object run() {
+                flip = !flip;
+                model.update(rows(flip ? entries : before), list.getSelectionModel());
+                return model;
+            }
+        };
+    }
+
+    /** The first status after opening a repository: every row into an empty list. */
+    public static Workload fileListFill(int files) throws Exception {
+        File repo = dirtyTree(files);
+        List<StatusEntry> entries = PorcelainParser.parse(POOL.runRaw(repo, STATUS_ARGS));
+        JList<String> list = new JList<>();
+        return new GeneratedWorkload(repo) {
+            @Override
+            public Object run() {
+                FileListModel model = new FileListModel();
+                list.setModel(model);
+                model.update(rows(entries), list.getSelectionModel());
+                return model;
+            }
+        };
+    }
+
+    // ==================== HELPERS ====================
+
+    // Same sink as refreshStatus() when the index couldn't be read in-process
+    private static FileListModel.Rows parseStatus(InputStream in) throws IOException {
+        FileListModel.Rows stagedRows = new FileListModel.Rows(new PathStore());
+        FileListModel.Rows changedRows = new FileListModel.Rows(stagedRows.paths);
+        PorcelainParser.parse(in, e -> {
+            if (!e.isUntracked() && e.x != ' ' && e.x != '!') {
+                stagedRows.add(e.x, e.path, e.origPath);
+            }
+            if (e.hasWorkTreeChange() && e.x != '!') {
+                changedRows.add(e.workTreeStatus(), e.path);
+            }
+        });
+        return changedRows;
+    }
+
+    private static FileListModel.Rows rows(List<StatusEntry> entries) {
+        FileListModel.Rows rows = new FileListModel.Rows(new PathStore());
+        for (StatusEntry e : entries) {
+            if (e.hasWorkTreeChange()) rows.add(e.workTreeStatus(), e.path);
+        }
+        return rows;
+    }
+
+    /**
+     * BenchRepos.wideTree with every tenth file modified, every fiftieth
+     * of those staged, and one untracked file per twenty tracked ones.
+     */
+    static File dirtyTree(int files) throws IOException, InterruptedException {
+        File repo = BenchRepos.wideTree(files);
+        Path dir = repo.toPath();
+        List<String> staged = new ArrayList<>();
+        for (int i = 0; i < files; i += 10) {
+            BenchRepos.write(dir.resolve(BenchRepos.wideTreePath(i)), "modified " + i + "\n");
+            if (i % 500 == 0) staged.add(BenchRepos.wideTreePath(i));
+        }
+        for (int i = 0; i < files / 20; i++) {
+            BenchRepos.write(dir.resolve(BenchRepos.wideTreePath(i)).resolveSibling("new" + i + ".txt"), "new\n");
+        }
+        staged.add(0, "add");
+        BenchRepos.git(dir, staged.toArray(new String[0]));
+        return repo;
+    }
+
+    private abstract static class GeneratedWorkload implements Workload {
+        private final File dir;
+
+        GeneratedWorkload(File dir) {
+            this.dir = dir;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try (java.util.stream.Stream<Path> walk = Files.walk(dir.toPath())) {
+                for (Path p : (Iterable<Path>) walk.sorted(Comparator.reverseOrder())::iterator) {
+                    Files.delete(p);
+                }
+            }
+        }
+    }
+}
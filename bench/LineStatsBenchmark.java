@@ -0,0 +1,122 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Times LineStats counting the Changed list of a generated repository
+ * (random edits, appends, deletions, binaries, untracked files) cold and
+ * again from the cache, against forking `git diff --numstat` for the same
+ * files. LineStatsTest holds the counts to --numstat's.
+ *
+ *   java -cp out LineStatsBenchmark [files]
+ */
+public class LineStatsBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int files = args.length > 0 ? Integer.parseInt(args[0]) : 3000;
+        Path dir = BenchRepos.smallRepo().toPath();
+        Random random = new Random(7);
+        List<List<String>> contents = new ArrayList<>();
+        for (int f = 0; f < files; f++) {
+            List<String> lines = new ArrayList<>();
+            int count = 50 + random.nextInt(400);
+            for (int i = 0; i < count; i++) {
+                // Few distinct lines, so matches are ambiguous and the diff has to choose
+                lines.add(random.nextInt(4) == 0 ? "}" : "line " + random.nextInt(count));
+            }
+            contents.add(lines);
+            Path file = dir.resolve(path(f));
+            Files.createDirectories(file.getParent());
+            Files.write(file, lines, StandardCharsets.UTF_8);
+        }
+        Files.write(dir.resolve("image.bin"), new byte[] { 1, 0, 2, 0, 3 });
+        BenchRepos.git(dir, "add", "-A");
+        BenchRepos.commit(dir, "base");
+
+        for (int f = 0; f < files; f += 3) {
+            List<String> lines = new ArrayList<>(contents.get(f));
+            int edits = 1 + random.nextInt(20);
+            for (int e = 0; e < edits && !lines.isEmpty(); e++) {
+                int at = random.nextInt(lines.size());
+                switch (random.nextInt(3)) {
+                    case 0: lines.set(at, "changed " + random.nextInt(1000)); break;
+                    case 1: lines.remove(at); break;
+                    default: lines.add(at, "inserted " + random.nextInt(1000));
+                }
+            }
+            Files.write(dir.resolve(path(f)), lines, StandardCharsets.UTF_8);
+            // Every tenth of those staged, then changed again on top
+            if (f % 30 == 0) {
+                BenchRepos.git(dir, "add", path(f));
+                Files.write(dir.resolve(path(f)), lines.subList(0, lines.size() / 2), StandardCharsets.UTF_8);
+            }
+        }
+        Files.delete(dir.resolve(path(1)));
+        BenchRepos.write(dir.resolve(path(4)), "no newline at the end");
+        Files.write(dir.resolve("image.bin"), new byte[] { 9, 0, 9 });
+        Files.createDirectories(dir.resolve("untracked"));
+        BenchRepos.write(dir.resolve("untracked/new.txt"), "a\nb\nc\n");
+        BenchRepos.git(dir, "mv", path(7), "moved.txt");
+        BenchRepos.git(dir, "add", path(10));
+
+        File repo = dir.toFile();
+        GitObjectDatabase db = GitObjectDatabase.open(repo);
+        FileListModel.Rows changedRows = new FileListModel.Rows(new PathStore());
+        byte[] status = BenchRepos.gitOutput(dir, "status", "--porcelain=v2", "-z", "-uall")
+            .getBytes(StandardCharsets.UTF_8);
+        for (StatusEntry e : PorcelainParser.parse(status)) {
+            if (e.hasWorkTreeChange()) changedRows.add(e.workTreeStatus(), e.path);
+        }
+        FileListModel changed = new FileListModel();
+        changed.update(changedRows);
+        LineStats stats = new LineStats(Runtime.getRuntime().availableProcessors());
+
+        // The Changed list, with a fresh cache and again with a warm one
+        int rounds = 5;
+        long cold = 0;
+        long firstBatch = 0;
+        for (int r = 0; r < rounds; r++) {
+            try (LineStats fresh = new LineStats(Runtime.getRuntime().availableProcessors())) {
+                long[] first = { 0 };
+                long t0 = System.nanoTime();
+                LineStats.Job job = fresh.compute(db, repo, changed.rows(), false, (results, count) -> {
+                    synchronized (first) {
+                        if (first[0] == 0) first[0] = System.nanoTime();
+                    }
+                });
+                await(job);
+                cold += System.nanoTime() - t0;
+                firstBatch += first[0] - t0;
+            }
+        }
+        await(stats.compute(db, repo, changed.rows(), false, (results, count) -> {}));
+        long warm = 0;
+        for (int r = 0; r < rounds; r++) {
+            long t0 = System.nanoTime();
+            await(stats.compute(db, repo, changed.rows(), false, (results, count) -> {}));
+            warm += System.nanoTime() - t0;
+        }
+        long forked = 0;
+        for (int r = 0; r < rounds; r++) {
+            long t0 = System.nanoTime();
+            BenchRepos.gitOutput(dir, "diff", "--numstat");
+            forked += System.nanoTime() - t0;
+        }
+        stats.close();
+
+        System.out.printf("%n%d changed rows, %d cores%n", changed.getSize(), Runtime.getRuntime().availableProcessors());
+        System.out.printf("first batch          %8.1f ms%n", firstBatch / 1e6 / rounds);
+        System.out.printf("all rows, cold cache %8.1f ms%n", cold / 1e6 / rounds);
+        System.out.printf("all rows, warm cache %8.1f ms%n", warm / 1e6 / rounds);
+        System.out.printf("git diff --numstat   %8.1f ms%n", forked / 1e6 / rounds);
+    }
+
+    private static String path(int f) {
+        return "src/dir" + (f % 37) + "/file" + f + ".txt";
+    }
+
+    private static void await(LineStats.Job job) throws InterruptedException {
+        while (!job.isDone()) Thread.sleep(1);
+    }
+}
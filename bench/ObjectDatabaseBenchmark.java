@@ -0,0 +1,45 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ * Times GitObjectDatabase reading every object of a repository against
+ * `git cat-file --batch` through the pool, per object; ObjectDatabaseTest
+ * compares what the two return.
+ *
+ *   java -cp out ObjectDatabaseBenchmark [repo]
+ *
+ * Without a repo argument a corpus with loose objects, packed objects and
+ * deep delta chains is generated first.
+ */
+public class ObjectDatabaseBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        File repo = args.length > 0 ? new File(args[0]) : BenchRepos.deltaCorpus(200);
+        GitProcessPool pool = new GitProcessPool(60_000);
+        List<String> ids = new ArrayList<>();
+        long inProcessNanos = 0;
+        long catFileNanos = 0;
+
+        try (GitObjectDatabase db = GitObjectDatabase.open(repo)) {
+            String listing = pool.runForked(repo, "cat-file", "--batch-all-objects", "--batch-check=%(objectname)");
+            for (String id : listing.split("\n")) {
+                if (!id.isEmpty()) ids.add(id);
+            }
+            for (String id : ids) {
+                long start = System.nanoTime();
+                pool.readObject(repo, id);
+                catFileNanos += System.nanoTime() - start;
+
+                start = System.nanoTime();
+                db.read(id);
+                inProcessNanos += System.nanoTime() - start;
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        int n = Math.max(1, ids.size());
+        System.out.printf("Read %d objects in %s: %.1f us/object in-process, %.1f us/object via cat-file%n",
+            ids.size(), repo, inProcessNanos / 1e3 / n, catFileNanos / 1e3 / n);
+    }
+}
@@ -0,0 +1,103 @@
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Times RefDatabase on a repository with many packed tags (some annotated),
+ * branches with upstreams, remote-tracking refs and loose refs on top of
+ * packed-refs: the two forks a refresh used to make against a cold read,
+ * an unchanged re-read and a packed lookup. RefDatabaseTest checks the
+ * refs themselves against `git for-each-ref`.
+ *
+ *   java -cp out RefCacheBenchmark [tags] [branches]
+ */
+public class RefCacheBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int tags = args.length > 0 ? Integer.parseInt(args[0]) : 30_000;
+        int branches = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+        File repo = BenchRepos.smallRepo();
+        Path dir = repo.toPath();
+        String head = rev(dir, "rev-parse", "HEAD");
+        BenchRepos.git(dir, "update-ref", "refs/heads/master", head);
+        BenchRepos.git(dir, "symbolic-ref", "HEAD", "refs/heads/master");
+
+        StringBuilder updates = new StringBuilder();
+        for (int i = 0; i < tags; i++) {
+            updates.append("create refs/tags/v").append(i).append(' ').append(head).append('\n');
+        }
+        StringBuilder config = new StringBuilder("[remote \"origin\"]\n\turl = /dev/null\n"
+            + "\tfetch = +refs/heads/*:refs/remotes/origin/*\n");
+        for (int i = 0; i < branches; i++) {
+            updates.append("create refs/heads/topic/b").append(i).append(' ').append(head).append('\n');
+            updates.append("create refs/remotes/origin/topic/b").append(i).append(' ').append(head).append('\n');
+            if (i % 2 == 0) {
+                config.append("[branch \"topic/b").append(i).append("\"]\n\tremote = origin\n")
+                    .append("\tmerge = refs/heads/topic/b").append(i).append('\n');
+            }
+        }
+        updateRefs(dir, updates.toString());
+        Files.write(dir.resolve(".git/config"), config.toString().getBytes(StandardCharsets.UTF_8),
+            StandardOpenOption.APPEND);
+        for (int i = 0; i < 20; i++) {
+            BenchRepos.git(dir, "-c", "user.name=bench", "-c", "user.email=bench@example.com",
+                "tag", "-a", "-m", "release", "release-" + i);
+        }
+        BenchRepos.git(dir, "symbolic-ref", "refs/remotes/origin/HEAD", "refs/remotes/origin/topic/b0");
+        BenchRepos.git(dir, "pack-refs", "--all");
+        // Loose refs over packed-refs: new ones, and one shadowing its packed entry
+        String second = commit(dir, "second", head);
+        BenchRepos.git(dir, "update-ref", "refs/heads/loose-only", second);
+        BenchRepos.git(dir, "update-ref", "refs/heads/topic/b2", second);
+        System.out.printf("%d tags, %d branches, %d remote-tracking refs%n", tags + 20, branches + 2, branches);
+
+        long t0 = System.nanoTime();
+        for (int i = 0; i < 10; i++) {
+            rev(dir, "rev-parse", "--abbrev-ref", "HEAD");
+            rev(dir, "for-each-ref", "--format=%(refname)%00%(objectname)%00%(upstream)%00%(symref)",
+                "refs/heads", "refs/remotes");
+        }
+        System.out.printf("rev-parse + for-each-ref forks     %8.2f ms%n", (System.nanoTime() - t0) / 10 / 1e6);
+
+        RefDatabase refs = new RefDatabase(new File(dir.toFile(), ".git"));
+        t0 = System.nanoTime();
+        RefDatabase.Snapshot first = refs.read();
+        List<RefDatabase.Ref> listed = first.list("refs/heads/", "refs/remotes/");
+        System.out.printf("cold read + list %5d branches    %8.2f ms%n", listed.size(), (System.nanoTime() - t0) / 1e6);
+
+        // Past the racy window, an unchanged ref set is a handful of stats
+        Thread.sleep(150);
+        refs.read();
+        int rounds = 1000;
+        t0 = System.nanoTime();
+        RefDatabase.Snapshot again = null;
+        for (int i = 0; i < rounds; i++) {
+            again = refs.read();
+        }
+        System.out.printf("unchanged re-read                  %8.3f ms%n", (System.nanoTime() - t0) / rounds / 1e6);
+        t0 = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            again.resolve("v" + (i * 7 % tags));
+        }
+        System.out.printf("packed lookup                      %8.4f ms%n", (System.nanoTime() - t0) / rounds / 1e6);
+    }
+
+    private static void updateRefs(Path dir, String commands) throws Exception {
+        File input = File.createTempFile("refs", ".txt");
+        Files.write(input.toPath(), commands.getBytes(StandardCharsets.UTF_8));
+        Process p = new ProcessBuilder("git", "update-ref", "--stdin")
+            .directory(dir.toFile()).inheritIO().redirectInput(input).start();
+        if (p.waitFor() != 0) throw new IllegalStateException("update-ref failed");
+        input.delete();
+    }
+
+    private static String commit(Path dir, String message, String parent) throws Exception {
+        return rev(dir, "-c", "user.name=bench", "-c", "user.email=bench@example.com",
+            "commit-tree", rev(dir, "rev-parse", parent + "^{tree}"), "-p", parent, "-m", message);
+    }
+
+    private static String rev(Path dir, String... args) throws Exception {
+        return BenchRepos.gitOutput(dir, args).trim();
+    }
+}
@@ -0,0 +1,98 @@
+import java.awt.GraphicsEnvironment;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.spi.ToolProvider;
+
+/**
+ * Time from launching a JVM to SimpleGit's first painted frame, as the app
+ * reports it under -Dsimplegit.startup=exit. Packs the classes this runs
+ * from into a jar (class-data sharing only archives jars), then measures
+ * the first (cold) launch and the median of the following (warm) ones with
+ * sharing off, with the JDK's own archive, and with an AppCDS archive
+ * recorded by one training launch, the way simplegit.sh does it.
+ *
+ * Every launch opens a window for a moment, so this needs a display.
+ *
+ *   java -cp out StartupBenchmark [launches]
+ */
+public class StartupBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int launches = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        if (GraphicsEnvironment.isHeadless()) {
+            System.out.println("StartupBenchmark needs a display: no frame can be painted in a headless JVM");
+            return;
+        }
+
+        Path dir = Files.createTempDirectory("simplegit-startup");
+        Path jar = dir.resolve("simplegit.jar");
+        ToolProvider jarTool = ToolProvider.findFirst("jar")
+            .orElseThrow(() -> new IllegalStateException("needs a JDK, not a JRE"));
+        if (jarTool.run(System.out, System.err, "cfe", jar.toString(), "SimpleGit", "-C", classes(), ".") != 0) {
+            throw new IllegalStateException("jar failed");
+        }
+        // The app writes its log and workspace under the home directory
+        Files.createDirectories(dir.resolve("home"));
+        int feature = Runtime.version().feature();
+        System.out.printf("JDK %s, %d warm launches each%n", Runtime.version(), launches);
+        System.out.println("                      cold      warm (median)   min");
+
+        measure(dir, jar, "sharing off", launches, "-Xshare:off");
+        measure(dir, jar, "JDK archive", launches);
+        if (feature >= 13) {
+            Path archive = dir.resolve("simplegit.jsa");
+            launch(dir, jar, "-XX:ArchiveClassesAtExit=" + archive);
+            measure(dir, jar, "AppCDS", launches, "-XX:SharedArchiveFile=" + archive, "-Xshare:on");
+        } else {
+            System.out.println("AppCDS                needs JDK 13+ for -XX:ArchiveClassesAtExit");
+        }
+    }
+
+    private static void measure(Path dir, Path jar, String label, int launches, String... options) throws Exception {
+        long cold = launch(dir, jar, options);
+        long[] warm = new long[launches];
+        for (int i = 0; i < launches; i++) {
+            warm[i] = launch(dir, jar, options);
+        }
+        Arrays.sort(warm);
+        System.out.printf("%-18s %7d ms %10d ms %8d ms%n", label, cold, warm[launches / 2], warm[0]);
+    }
+
+    // One JVM start to first frame, in ms as the app measured it against our clock
+    private static long launch(Path dir, Path jar, String... options) throws Exception {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(Arrays.asList(options));
+        command.add("-Duser.home=" + dir.resolve("home"));
+        command.add("-Dsimplegit.startup=exit");
+        command.add("-Dsimplegit.startup.t0=" + System.currentTimeMillis());
+        command.add("-jar");
+        command.add(jar.toString());
+        Process p = new ProcessBuilder(command).redirectErrorStream(true).start();
+        StringBuilder output = new StringBuilder();
+        long ms = -1;
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(p.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                output.append(line).append('\n');
+                if (line.startsWith("first frame ")) {
+                    ms = Long.parseLong(line.substring(12, line.indexOf(" ms")));
+                }
+            }
+        }
+        if (p.waitFor() != 0 || ms < 0) {
+            throw new IllegalStateException("launch failed: " + command + "\n" + output);
+        }
+        return ms;
+    }
+
+    // The class path entry holding SimpleGit.class
+    private static String classes() {
+        for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            if (new File(entry, "SimpleGit.class").isFile()) return entry;
+        }
+        throw new IllegalStateException("SimpleGit.class is not on the class path");
+    }
+}
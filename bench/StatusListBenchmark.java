@@ -0,0 +1,111 @@
+import javax.swing.*;
+import javax.swing.event.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Times FileListModel updates for a 100k-row status against the old
+ * clear()/addElement() loop, counting the events each one fires. The
+ * parser and the diffed events themselves are covered by
+ * PorcelainParserTest and FileListModelTest.
+ *
+ *   java -cp out StatusListBenchmark
+ */
+public class StatusListBenchmark {
+
+    private static final int ROUNDS = 20;
+
+    public static void main(String[] args) throws Exception {
+        benchModel(100_000);
+    }
+
+    // Both sides start from a laid-out list and include the layout pass the
+    // next paint would do (getPreferredSize)
+    private static void benchModel(int rows) throws Exception {
+        List<String> before = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            before.add("M " + BenchRepos.wideTreePath(i));
+        }
+        // A typical follow-up refresh: a handful of files changed state
+        List<String> after = new ArrayList<>(before);
+        after.set(500, "D " + BenchRepos.wideTreePath(500));
+        after.remove(70_000);
+        after.add("? zz-new/");
+        after.add(40_000, "? d004/e000/f00-new.txt");
+        // Built up front: in SimpleGit rows are assembled off the EDT
+        FileListModel.Rows beforeRows = toRows(before);
+        FileListModel.Rows afterRows = toRows(after);
+
+        SwingUtilities.invokeAndWait(() -> {
+            FileListModel model = new FileListModel();
+            JList<String> list = new JList<>(model);
+            int[] events = new int[1];
+            model.addListDataListener(counter(events));
+
+            long t0 = System.nanoTime();
+            model.update(beforeRows);
+            long initial = System.nanoTime() - t0;
+            list.setSelectedIndices(new int[] { 10, 60_000, 99_000 });
+
+            // Alternate between the two states to get past warm-up; report the median
+            long[] diffed = new long[ROUNDS];
+            int diffEvents = 0;
+            for (int round = 0; round < ROUNDS; round++) {
+                model.update(beforeRows, list.getSelectionModel());
+                list.getPreferredSize();
+                events[0] = 0;
+                t0 = System.nanoTime();
+                model.update(afterRows, list.getSelectionModel());
+                list.getPreferredSize();
+                diffed[round] = System.nanoTime() - t0;
+                diffEvents = events[0];
+            }
+
+            DefaultListModel<String> legacy = new DefaultListModel<>();
+            JList<String> legacyList = new JList<>(legacy);
+            int[] legacyEvents = new int[1];
+            legacy.addListDataListener(counter(legacyEvents));
+            long[] legacyNanos = new long[ROUNDS];
+            for (int round = 0; round < ROUNDS; round++) {
+                legacy.clear();
+                for (String row : before) legacy.addElement(row);
+                legacyList.setSelectedIndices(new int[] { 10, 60_000, 99_000 });
+                legacyList.getPreferredSize();
+                legacyEvents[0] = 0;
+                t0 = System.nanoTime();
+                legacy.clear();
+                for (String row : after) legacy.addElement(row);
+                legacyList.getPreferredSize();
+                legacyNanos[round] = System.nanoTime() - t0;
+            }
+
+            System.out.printf("initial fill of %d rows: %.1f ms%n", rows, initial / 1e6);
+            System.out.printf("diff update: %.2f ms, %d events%n", median(diffed) / 1e6, diffEvents);
+            System.out.printf("clear()+addElement(): %.1f ms, %d events%n", median(legacyNanos) / 1e6, legacyEvents[0]);
+        });
+    }
+
+    private static FileListModel.Rows toRows(List<String> rows) {
+        FileListModel.Rows result = new FileListModel.Rows(new PathStore());
+        for (String row : rows) {
+            result.add(row.charAt(0), FileListModel.pathOf(row));
+        }
+        return result;
+    }
+
+    private static long median(long[] samples) {
+        long[] sorted = samples.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private static ListDataListener counter(int[] events) {
+        return new ListDataListener() {
+            public void intervalAdded(ListDataEvent e) { events[0]++; }
+            public void intervalRemoved(ListDataEvent e) { events[0]++; }
+            public void contentsChanged(ListDataEvent e) { events[0]++; }
+        };
+    }
+}
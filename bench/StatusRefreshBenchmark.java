@@ -0,0 +1,108 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Full vs incremental status refresh on a synthetic tree.
+ *
+ *   java -cp out StatusRefreshBenchmark [files] [rounds]
+ *
+ * Full refresh is what refreshStatus() used to do on every click: index
+ * diff plus one whole-tree `git status`. Incremental is StatusWatcher
+ * reacting to a few edited files, reported both end to end (including the
+ * debounce window) and as the watcher's own processing time.
+ */
+public class StatusRefreshBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int files = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        long setupStart = System.nanoTime();
+        File repo = BenchRepos.wideTree(files);
+        System.out.printf("Synthetic tree: %d files in %s (setup %.1f s)%n",
+            files, repo, (System.nanoTime() - setupStart) / 1e9);
+
+        GitProcessPool pool = new GitProcessPool(60_000);
+        try (GitObjectDatabase db = GitObjectDatabase.open(repo)) {
+            // Full refresh
+            long[] full = new long[5];
+            for (int i = 0; i < full.length; i++) {
+                long start = System.nanoTime();
+                GitIndex index = GitIndex.read(db.getGitDir());
+                index.diffAgainstTree(db, db.readCommit(db.resolve("HEAD")).tree);
+                PorcelainParser.parse(pool.runRaw(repo, "status", "--porcelain=v2", "-z", "--no-renames"));
+                full[i] = System.nanoTime() - start;
+            }
+
+            // Incremental refresh
+            BlockingQueue<List<StatusEntry>> published = new LinkedBlockingQueue<>();
+            StatusWatcher watcher = new StatusWatcher(repo, db, pool, (staged, changed) -> published.add(changed));
+            long startWatch = System.nanoTime();
+            watcher.start();
+            published.take();
+            published.take();
+            System.out.printf("Watcher ready in %.1f ms (watching: %s)%n",
+                (System.nanoTime() - startWatch) / 1e6, watcher.isWatching());
+
+            Random random = new Random(7);
+            long[] endToEnd = new long[rounds];
+            long[] processing = new long[rounds];
+            Set<String> edited = new TreeSet<>();
+            List<StatusEntry> latest = null;
+            for (int r = 0; r < rounds; r++) {
+                List<String> touched = new ArrayList<>();
+                long start = System.nanoTime();
+                for (int k = 0; k < 3; k++) {
+                    String path = BenchRepos.wideTreePath(random.nextInt(files));
+                    Files.write(repo.toPath().resolve(path),
+                        ("edit " + r + "\n").getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+                    touched.add(path);
+                }
+                edited.addAll(touched);
+                while (true) {
+                    List<StatusEntry> changed = published.poll(10, TimeUnit.SECONDS);
+                    if (changed == null) throw new IllegalStateException("Watcher stalled");
+                    latest = changed;
+                    Set<String> paths = new HashSet<>();
+                    for (StatusEntry e : changed) paths.add(e.path);
+                    if (paths.containsAll(touched)) break;
+                }
+                endToEnd[r] = System.nanoTime() - start;
+                processing[r] = watcher.lastRefreshNanos();
+            }
+
+            // The incrementally maintained view must equal a fresh full scan
+            List<String> expected = new ArrayList<>();
+            for (StatusEntry e : PorcelainParser.parse(
+                    pool.runRaw(repo, "status", "--porcelain=v2", "-z", "--no-renames"))) {
+                expected.add(e.toString());
+            }
+            // Let any straggling events settle before comparing
+            List<StatusEntry> more;
+            while ((more = published.poll(1, TimeUnit.SECONDS)) != null) latest = more;
+            List<String> actual = new ArrayList<>();
+            for (StatusEntry e : latest) actual.add(e.toString());
+            watcher.close();
+
+            report("full refresh            ", full);
+            report("incremental, end to end ", endToEnd);
+            report("incremental, processing ", processing);
+            System.out.println("Edited " + edited.size() + " files; incremental view "
+                + (expected.equals(actual) ? "matches" : "DIFFERS FROM") + " full scan");
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static void report(String label, long[] samples) {
+        long[] sorted = samples.clone();
+        Arrays.sort(sorted);
+        long sum = 0;
+        for (long s : samples) sum += s;
+        System.out.printf("%s mean %9.2f ms  p50 %9.2f ms  max %9.2f ms%n",
+            label, sum / 1e6 / samples.length, sorted[sorted.length / 2] / 1e6, sorted[sorted.length - 1] / 1e6);
+    }
+}
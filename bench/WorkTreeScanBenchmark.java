@@ -0,0 +1,111 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+
+/**
+ * WorkTreeScanner throughput and correctness on a synthetic tree.
+ *
+ *   java -cp out WorkTreeScanBenchmark [files]
+ *
+ * Every file is touched first so its index stat data is stale and the scan
+ * has to hash it, which is the expensive case. The scan is timed at each
+ * parallelism level up to the core count, then with the persistent cache
+ * warm from a previous "session". The combined result (index diff, scanner,
+ * untracked listing) is checked against `git status --porcelain`.
+ */
+public class WorkTreeScanBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int files = args.length > 0 ? Integer.parseInt(args[0]) : 50_000;
+        File repo = BenchRepos.wideTree(files);
+        Path dir = repo.toPath();
+
+        // Same content, new mtimes: every entry is stat-dirty
+        FileTime old = FileTime.fromMillis(System.currentTimeMillis() - 60_000);
+        for (int i = 0; i < files; i++) {
+            Files.setLastModifiedTime(dir.resolve(BenchRepos.wideTreePath(i)), old);
+        }
+        // A few real changes of every kind
+        BenchRepos.write(dir.resolve(BenchRepos.wideTreePath(1)), "modified\n");
+        Files.delete(dir.resolve(BenchRepos.wideTreePath(2)));
+        BenchRepos.write(dir.resolve("d000/untracked.txt"), "new\n");
+        Files.createDirectories(dir.resolve("fresh/nested"));
+        BenchRepos.write(dir.resolve("fresh/nested/file.txt"), "new\n");
+        dir.resolve(BenchRepos.wideTreePath(3)).toFile().setExecutable(true);
+        BenchRepos.write(dir.resolve(BenchRepos.wideTreePath(4)), "staged\n");
+        BenchRepos.git(dir, "add", BenchRepos.wideTreePath(4));
+        BenchRepos.write(dir.resolve(BenchRepos.wideTreePath(4)), "staged then edited\n");
+        // git add refreshed nothing else, but make sure nothing is inside the racy window
+        Thread.sleep(2100);
+
+        GitProcessPool pool = new GitProcessPool(60_000);
+        try (GitObjectDatabase db = GitObjectDatabase.open(repo)) {
+            GitIndex index = GitIndex.read(db.getGitDir());
+            System.out.printf("%d tracked files, all stat-dirty%n", index.size());
+
+            long start = System.nanoTime();
+            // --no-optional-locks keeps git from refreshing the index behind our back
+            byte[] porcelain = pool.runRaw(repo, "--no-optional-locks", "status", "--porcelain=v2", "-z", "--no-renames");
+            System.out.printf("git status                  %8.1f ms%n", (System.nanoTime() - start) / 1e6);
+
+            int cores = Runtime.getRuntime().availableProcessors();
+            WorkTreeScanner.Result last = null;
+            for (int threads = 1; threads <= cores; threads *= 2) {
+                WorkTreeScanner scanner = new WorkTreeScanner(repo, db.getGitDir(), pool, null, threads);
+                start = System.nanoTime();
+                last = scanner.scan(index);
+                long elapsed = System.nanoTime() - start;
+                scanner.close();
+                System.out.printf("scan, %2d thread(s), cold    %8.1f ms  %9.0f files/s  (%d hashed)%n",
+                    threads, elapsed / 1e6, index.size() / (elapsed / 1e9), last.hashed);
+            }
+
+            File cacheFile = new File(db.getGitDir(), "simplegit/bench-stat-cache");
+            cacheFile.delete();
+            WorkTreeScanner first = new WorkTreeScanner(repo, db.getGitDir(), pool, cacheFile, cores);
+            first.scan(index);
+            first.close();
+            WorkTreeScanner restarted = new WorkTreeScanner(repo, db.getGitDir(), pool, cacheFile, cores);
+            start = System.nanoTime();
+            WorkTreeScanner.Result warm = restarted.scan(index);
+            long elapsed = System.nanoTime() - start;
+            restarted.close();
+            System.out.printf("scan, %2d thread(s), warm    %8.1f ms  %9.0f files/s  (%d hashed, %d cache hits)%n",
+                cores, elapsed / 1e6, index.size() / (elapsed / 1e9), warm.hashed, warm.cacheHits);
+
+            // Assemble porcelain lines the way StatusWatcher does and compare
+            Map<String, char[]> combined = new TreeMap<>();
+            String head = db.resolve("HEAD");
+            for (GitIndex.StagedChange c : index.diffAgainstTree(db, db.readCommit(head).tree)) {
+                combined.computeIfAbsent(c.path, k -> new char[] { ' ', ' ' })[0] = c.status;
+            }
+            for (StatusEntry e : warm.changes) {
+                combined.computeIfAbsent(e.path, k -> new char[] { ' ', ' ' })[1] = e.y;
+            }
+            for (String p : new String(pool.runRaw(repo, "ls-files", "-z", "--others", "--exclude-standard",
+                    "--directory", "--no-empty-directory"), StandardCharsets.UTF_8).split("\0")) {
+                if (!p.isEmpty()) combined.put(p, new char[] { '?', '?' });
+            }
+            List<String> actual = new ArrayList<>();
+            for (Map.Entry<String, char[]> e : combined.entrySet()) {
+                actual.add(new String(e.getValue()) + " " + e.getKey());
+            }
+            List<String> expected = new ArrayList<>();
+            for (StatusEntry e : PorcelainParser.parse(porcelain)) {
+                expected.add(e.toString());
+            }
+            Collections.sort(expected, Comparator.comparing(l -> l.substring(3)));
+            boolean same = expected.equals(actual);
+            System.out.println("porcelain comparison: " + (same ? "match" : "MISMATCH"));
+            if (!same) {
+                System.out.println("  expected: " + expected);
+                System.out.println("  actual:   " + actual);
+                System.exit(1);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
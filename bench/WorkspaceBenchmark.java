@@ -0,0 +1,128 @@
+import javax.swing.SwingUtilities;
+import java.io.File;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Wall-clock time to refresh N repositories one after another (what
+ * opening them one by one amounts to) against Workspace at several
+ * concurrency limits, checking that every limit reports the same branch,
+ * ahead/behind and change counts. Also checks that a repository focused
+ * after a full refresh was queued comes back among the first few.
+ *
+ *   java -Djava.awt.headless=true -cp out WorkspaceBenchmark [repos] [files]
+ */
+public class WorkspaceBenchmark {
+
+    // Set by refreshAll(): how many repositories were done when the last one came back
+    private static int focusRank;
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 40;
+        int files = args.length > 1 ? Integer.parseInt(args[1]) : 3000;
+
+        // Clones of one origin: some ahead, some behind, every other one dirty
+        Path origin = BenchRepos.wideTree(files).toPath();
+        BenchRepos.write(origin.resolve("CHANGELOG"), "1\n");
+        BenchRepos.git(origin, "add", "-A");
+        BenchRepos.commit(origin, "second");
+        Path root = Files.createTempDirectory("simplegit-workspace");
+        List<File> repos = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Path repo = root.resolve(String.format("service-%02d", i));
+            BenchRepos.git(root, "clone", "-q", origin.toString(), repo.toString());
+            if (i % 3 == 0) {
+                BenchRepos.commit(repo, "local work");
+            } else if (i % 3 == 1) {
+                BenchRepos.git(repo, "reset", "-q", "--hard", "HEAD~1");
+            }
+            if (i % 2 == 0) {
+                BenchRepos.write(repo.resolve(BenchRepos.wideTreePath(i)), "edited\n");
+                BenchRepos.write(repo.resolve("scratch.txt"), "new\n");
+            }
+            repos.add(repo.toFile());
+        }
+        int cores = Runtime.getRuntime().availableProcessors();
+        System.out.printf("%d repositories x %d files, %d cores%n", count, files + 1, cores);
+
+        GitProcessPool pool = new GitProcessPool(60_000);
+        for (File repo : repos) {
+            Workspace.read(pool, repo);    // warm the page cache and git's index stat data
+        }
+
+        long t0 = System.nanoTime();
+        List<String> expected = new ArrayList<>();
+        for (File repo : repos) {
+            expected.add(describe(Workspace.read(pool, repo)));
+        }
+        long sequential = System.nanoTime() - t0;
+        System.out.printf("sequential            %8.1f ms%n", sequential / 1e6);
+
+        for (int parallel : new int[] { 2, 4, 8, 16 }) {
+            Workspace ws = workspace(pool, parallel, repos);
+            long wall = refreshAll(ws, null);
+            for (int i = 0; i < repos.size(); i++) {
+                String got = describe(ws.stateAt(i));
+                if (!got.equals(expected.get(i))) {
+                    System.out.println("FAIL  " + repos.get(i).getName() + ": " + got + ", sequential: " + expected.get(i));
+                    System.exit(1);
+                }
+            }
+            System.out.printf("parallel %-2d           %8.1f ms  (%.2fx)%n", parallel, wall / 1e6, (double) sequential / wall);
+            ws.close();
+        }
+
+        // The last repository, focused right after everything was queued
+        Workspace ws = workspace(pool, 2, repos);
+        File last = repos.get(repos.size() - 1);
+        refreshAll(ws, () -> ws.focus(last));
+        System.out.printf("focused repository    back as #%d of %d (parallel 2)%n", focusRank, count);
+        ws.close();
+        pool.shutdown();
+        if (focusRank > 3) System.exit(1);
+    }
+
+    private static Workspace workspace(GitProcessPool pool, int parallel, List<File> repos) throws Exception {
+        Workspace[] ws = new Workspace[1];
+        SwingUtilities.invokeAndWait(() -> {
+            ws[0] = new Workspace(pool, parallel, null);
+            for (File repo : repos) {
+                ws[0].add(repo);
+            }
+        });
+        return ws[0];
+    }
+
+    // Refreshes everything, running afterQueue on the EDT right behind the
+    // refreshAll(), and returns the wall time
+    private static long refreshAll(Workspace ws, Runnable afterQueue) throws Exception {
+        CountDownLatch done = new CountDownLatch(1);
+        File last = ws.repositoryAt(ws.getRowCount() - 1);
+        focusRank = 0;
+        ws.addTableModelListener(e -> {
+            int row = e.getFirstRow();
+            if (row >= 0 && row < ws.getRowCount() && ws.stateAt(row) != null) {
+                int finished = 0;
+                for (int i = 0; i < ws.getRowCount(); i++) {
+                    if (ws.stateAt(i) != null) finished++;
+                }
+                if (focusRank == 0 && ws.repositoryAt(row).equals(last)) focusRank = finished;
+                if (finished == ws.getRowCount()) done.countDown();
+            }
+        });
+        long t0 = System.nanoTime();
+        SwingUtilities.invokeAndWait(() -> {
+            ws.refreshAll();
+            if (afterQueue != null) afterQueue.run();
+        });
+        done.await();
+        return System.nanoTime() - t0;
+    }
+
+    private static String describe(Workspace.RepoState s) {
+        return s.error != null ? "error " + s.error
+            : s.branch + " " + s.upstream + " +" + s.ahead + " -" + s.behind
+                + " staged " + s.staged + " changed " + s.changed + " untracked " + s.untracked;
+    }
+}
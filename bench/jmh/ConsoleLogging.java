@@ -0,0 +1,38 @@
+package jmh;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * log() throughput: a batch of lines appended from a worker thread, then
+ * moved into the console's text area on the EDT and queued for the log
+ * file, as one frame's drain does it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class ConsoleLogging {
+
+    @Param({ "1", "1000" })
+    int batch;
+    private Workload workload;
+
+    @Setup
+    public void setUp() throws Exception {
+        workload = Workload.create("consoleLog", batch);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        workload.close();
+    }
+
+    @Benchmark
+    public Object appendAndShow() throws Exception {
+        return workload.run();
+    }
+}
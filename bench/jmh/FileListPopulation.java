@@ -0,0 +1,63 @@
+package jmh;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The changed-files list after a status: rows built from parsed entries
+ * and handed to FileListModel.update() behind a JList. {@code fill} starts
+ * from an empty list, as after opening a repository; {@code update} diffs
+ * against the previous status, a seventh of which differs.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class FileListPopulation {
+
+    @State(Scope.Benchmark)
+    public static class Empty {
+        @Param({ "1000", "20000" })
+        int files;
+        Workload workload;
+
+        @Setup
+        public void setUp() throws Exception {
+            workload = Workload.create("fileListFill", files);
+        }
+
+        @TearDown
+        public void tearDown() throws Exception {
+            workload.close();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Filled {
+        @Param({ "1000", "20000" })
+        int files;
+        Workload workload;
+
+        @Setup
+        public void setUp() throws Exception {
+            workload = Workload.create("fileListUpdate", files);
+        }
+
+        @TearDown
+        public void tearDown() throws Exception {
+            workload.close();
+        }
+    }
+
+    @Benchmark
+    public Object fill(Empty state) throws Exception {
+        return state.workload.run();
+    }
+
+    @Benchmark
+    public Object update(Filled state) throws Exception {
+        return state.workload.run();
+    }
+}
@@ -0,0 +1,64 @@
+package jmh;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Porcelain v2 status of a generated work tree (a tenth of the files
+ * modified, a few staged, one untracked per twenty) read the way
+ * refreshStatus() reads it. {@code parse} is the parser and the row
+ * building alone over captured output; {@code gitStatus} adds the git
+ * process streaming into it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StatusParsing {
+
+    @State(Scope.Benchmark)
+    public static class Captured {
+        @Param({ "1000", "20000" })
+        int files;
+        Workload workload;
+
+        @Setup
+        public void setUp() throws Exception {
+            workload = Workload.create("statusParse", files);
+        }
+
+        @TearDown
+        public void tearDown() throws Exception {
+            workload.close();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Live {
+        @Param({ "1000", "20000" })
+        int files;
+        Workload workload;
+
+        @Setup
+        public void setUp() throws Exception {
+            workload = Workload.create("statusRefresh", files);
+        }
+
+        @TearDown
+        public void tearDown() throws Exception {
+            workload.close();
+        }
+    }
+
+    @Benchmark
+    public Object parse(Captured state) throws Exception {
+        return state.workload.run();
+    }
+
+    @Benchmark
+    public Object gitStatus(Live state) throws Exception {
+        return state.workload.run();
+    }
+}
@@ -0,0 +1,32 @@
+package jmh;
+
+import java.io.IOException;
+
+/**
+ * One prepared benchmark operation against the application.
+ *
+ * JMH won't generate code for benchmarks in the default package, and a
+ * named package can't refer to the default package at all, so the
+ * benchmarks here reach the application's classes through this interface.
+ * The implementations are factory methods on the default-package
+ * JmhWorkloads. With one implementation loaded per fork, run() is
+ * monomorphic and inlines like a direct call.
+ */
+public interface Workload extends AutoCloseable {
+
+    /** One operation; the result is for a Blackhole. */
+    Object run() throws Exception;
+
+    /** Deletes whatever the factory generated. */
+    @Override
+    void close() throws IOException;
+
+    /** Calls {@code JmhWorkloads.<factory>(size)}. */
+    static Workload create(String factory, int size) throws Exception {
+        try {
+            return (Workload) Class.forName("JmhWorkloads").getMethod(factory, int.class).invoke(null, size);
+        } catch (java.lang.reflect.InvocationTargetException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+}
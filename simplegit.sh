@@ -0,0 +1,52 @@
+#!/bin/sh
+# Starts SimpleGit from a jar with an application class-data-sharing (AppCDS)
+# archive: the JVM maps the classes startup needs already parsed and verified
+# instead of loading them one by one from the jar.
+#
+# The jar is rebuilt when a source file is newer. On JDK 19+ the JVM keeps the
+# archive up to date itself; on JDK 13-18 one extra launch records it whenever
+# the jar is newer. Older JDKs just run the jar.
+#
+#   ./simplegit.sh [java options]
+#
+# JAVA_HOME picks the JDK; SIMPLEGIT_CDS=off runs without the archive.
+
+set -e
+here=$(cd "$(dirname "$0")" && pwd)
+jar="$here/build/simplegit.jar"
+jdk=${JAVA_HOME:-$(dirname "$(dirname "$(readlink -f "$(command -v java)")")")}
+java="$jdk/bin/java"
+
+if [ ! -f "$jar" ] || [ -n "$(find "$here" -maxdepth 1 -name '*.java' -newer "$jar")" ]; then
+    rm -rf "$here/build/classes"
+    "$jdk/bin/javac" -encoding UTF-8 -d "$here/build/classes" "$here"/*.java
+    "$jdk/bin/jar" cfe "$jar" SimpleGit -C "$here/build/classes" .
+fi
+
+# "17.0.9" from the JDK's release file, without starting a JVM to ask
+version=$(sed -n 's/^JAVA_VERSION="\(.*\)"/\1/p' "$jdk/release" 2>/dev/null)
+major=${version%%.*}
+case "$major" in ''|*[!0-9]*) major=0 ;; esac
+
+# One archive per JDK build; the JVM refuses an archive from another one
+cds="$HOME/.simplegit/cds/simplegit-$version.jsa"
+
+if [ "$SIMPLEGIT_CDS" = off ] || [ "$major" -lt 13 ]; then
+    exec "$java" "$@" -jar "$jar"
+fi
+if [ "$major" -ge 19 ]; then
+    mkdir -p "$(dirname "$cds")"
+    exec "$java" -XX:+AutoCreateSharedArchive -XX:SharedArchiveFile="$cds" "$@" -jar "$jar"
+fi
+
+# A training run: start up (the window shows briefly), quit, dump what was loaded
+if [ ! -f "$cds" ] || [ "$jar" -nt "$cds" ]; then
+    mkdir -p "$(dirname "$cds")"
+    if ! "$java" -XX:ArchiveClassesAtExit="$cds" -Dsimplegit.startup=exit -jar "$jar" | grep -q '^first frame'; then
+        rm -f "$cds"
+    fi
+fi
+if [ -f "$cds" ]; then
+    exec "$java" -XX:SharedArchiveFile="$cds" "$@" -jar "$jar"
+fi
+exec "$java" "$@" -jar "$jar"